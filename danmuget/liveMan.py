@@ -12,8 +12,10 @@ ENTER_ROOM_TIMEOUT = 0 # 进入直播间消息接收间隔
 NO_MESSAGE_TIMEOUT = 60  # 无任何消息的最大时长，超时重启 WebSocket
 
 import codecs
+import collections
 import gzip
 import hashlib
+import json
 import random
 import re
 import string
@@ -21,6 +23,7 @@ import subprocess
 import threading
 import time
 import urllib.parse
+import uuid
 from contextlib import contextmanager
 from unittest.mock import patch
 
@@ -45,6 +48,16 @@ MESSAGE_QUEUE = queue.Queue(maxsize=100)  # 最大 100 条消息，防止内存
 # 新增：线程锁
 lock = threading.Lock()
 
+# 大白话：推送到 Java 的消息先攒进这个队列，后台线程每隔 PUSH_FLUSH_INTERVAL 秒或攒够 PUSH_BATCH_SIZE 条一起推，
+# 队列最多放 PUSH_QUEUE_SIZE 条，Java 服务端卡住时丢最早的，不拖慢抓弹幕
+PUSH_BATCH_SIZE = 100
+PUSH_FLUSH_INTERVAL = 0.2  # 秒
+PUSH_QUEUE_SIZE = 2000
+# 大白话：优先走推送长连接 /ws/live-ingest（只在连上时校验一次 token），最多 PUSH_WINDOW 批没确认；
+# 连不上（比如老版本服务端）就用 HTTP 推送，INGEST_RETRY_INTERVAL 秒后再试长连接
+PUSH_WINDOW = 32
+INGEST_RETRY_INTERVAL = 30  # 秒
+
 @contextmanager
 def patched_popen_encoding(encoding='utf-8'):
     original_popen_init = subprocess.Popen.__init__
@@ -131,8 +144,19 @@ class DouyinLiveWebFetcher:
         self.last_enter_processed_time = 0  # 新增：记录上次处理进场消息的时间
         self.ws_connect_time = 0  # 新增：记录 WebSocket 连接时间
         self.log_callback = log_callback  # 新增：存储回调函数
+        self.push_queue = queue.Queue(maxsize=PUSH_QUEUE_SIZE)  # 大白话：待推送到 Java 的消息
+        self.push_session = requests.Session()  # 大白话：推送用的长连接，不用每批都重新建连接
+        self.batch_supported = True  # 大白话：老版本服务端没有 /push-batch 时改回一条一条推
+        self.ingest_ws = None  # 大白话：推送长连接
+        self.ingest_stream = uuid.uuid4().hex  # 大白话：推送流 ID，断线重连后服务端按它接着序号
+        self.ingest_seq = 0  # 大白话：最后发出去的批次序号
+        self.ingest_unacked = collections.OrderedDict()  # 大白话：发出去还没确认的批次，序号 -> 消息列表
+        self.ingest_cond = threading.Condition()
+        self.ingest_retry_at = 0  # 大白话：长连接连不上时，到这个时间前不再试
         # 大白话：登录获取 token
         self._login(username, password, captcha)
+        # 大白话：启动后台推送线程
+        threading.Thread(target=self._push_loop, daemon=True).start()
         # 新增：启动 Flask 服务器的线程
         self._start_api_server()
 
@@ -447,14 +471,217 @@ class DouyinLiveWebFetcher:
     
     def _push_to_java(self, msg_data):
         """
-        大白话：把消息推送到 Java 服务端，带上 token 和重试机制
+        大白话：把消息放进推送队列，由后台线程攒批推到 Java 服务端，这里不等网络
         :param msg_data: 要推送的消息数据
         """
+        while True:
+            try:
+                self.push_queue.put_nowait(msg_data)
+                return
+            except queue.Full:
+                # 队列满了说明 Java 服务端跟不上，丢掉最早的一条
+                try:
+                    self.push_queue.get_nowait()
+                except queue.Empty:
+                    pass
+
+    def _push_loop(self):
+        """
+        大白话：后台推送线程，拿到第一条后最多再等 PUSH_FLUSH_INTERVAL 秒，攒够一批一起推
+        """
+        while True:
+            batch = [self.push_queue.get()]
+            deadline = time.time() + PUSH_FLUSH_INTERVAL
+            while len(batch) < PUSH_BATCH_SIZE:
+                remaining = deadline - time.time()
+                if remaining <= 0:
+                    break
+                try:
+                    batch.append(self.push_queue.get(timeout=remaining))
+                except queue.Empty:
+                    break
+            try:
+                if self._push_over_ingest(batch):
+                    continue
+                if self.batch_supported:
+                    self._push_batch(batch)
+                else:
+                    for msg_data in batch:
+                        self._push_one(msg_data)
+            except Exception as e:
+                if self.log_callback:
+                    self.log_callback(f"【X】推送线程出错: {str(e)}")
+
+    def _push_over_ingest(self, batch):
+        """
+        大白话：通过推送长连接发一批消息，发出去就算数，确认由读线程收；断线后没确认的重连时补发
+        :param batch: 消息列表
+        :return: 长连接不可用时返回 False，由调用方改用 HTTP 推送
+        """
+        if self.ingest_ws is None:
+            if time.time() < self.ingest_retry_at or not self._connect_ingest():
+                return False
+        with self.ingest_cond:
+            # 没确认的批次太多，说明服务端卡住了，等一会儿
+            self.ingest_cond.wait_for(lambda: len(self.ingest_unacked) < PUSH_WINDOW or self.ingest_ws is None, timeout=5)
+            ws = self.ingest_ws
+            if ws is None or len(self.ingest_unacked) >= PUSH_WINDOW:
+                stalled = ws
+                ws = None
+            else:
+                self.ingest_seq += 1
+                seq = self.ingest_seq
+                self.ingest_unacked[seq] = batch
+        if ws is None:
+            if stalled is not None:
+                self._close_ingest(stalled, "等待确认超时")
+            return False
+        try:
+            ws.send(json.dumps({"seq": seq, "events": batch}, ensure_ascii=False))
+        except Exception as e:
+            # 这批已经在没确认列表里了，重连后补发；重连不上会改用 HTTP 推送
+            self._close_ingest(ws, str(e))
+            self._connect_ingest()
+        return True
+
+    def _connect_ingest(self):
+        """
+        大白话：连推送长连接，连上后服务端告诉我们已经确认到哪个序号，之后的补发一遍；
+        连不上就把没确认的改用 HTTP 推送，过一会儿再试
+        :return: 是否连上
+        """
+        token = self.token[7:] if self.token and self.token.startswith("Bearer ") else self.token
+        query = urllib.parse.urlencode({"token": token, "stream": self.ingest_stream})
+        ws_url = self.server_url.replace("http", "ws", 1) + "/ws/live-ingest?" + query
+        try:
+            ws = websocket.create_connection(ws_url, timeout=5, suppress_origin=True)
+            ready = json.loads(ws.recv())
+            ws.settimeout(None)
+        except Exception as e:
+            self.ingest_retry_at = time.time() + INGEST_RETRY_INTERVAL
+            if self.log_callback:
+                self.log_callback(f"【*】推送长连接连不上，改用 HTTP 推送: {str(e)}")
+            self._flush_unacked_over_http()
+            return False
+
+        last_seq = ready.get("last_seq", 0)
+        with self.ingest_cond:
+            for seq in [seq for seq in self.ingest_unacked if seq <= last_seq]:
+                del self.ingest_unacked[seq]
+            pending = list(self.ingest_unacked.items())
+            self.ingest_ws = ws
+        threading.Thread(target=self._ingest_reader, args=(ws,), daemon=True).start()
+        try:
+            for seq, batch in pending:
+                ws.send(json.dumps({"seq": seq, "events": batch}, ensure_ascii=False))
+        except Exception as e:
+            self._close_ingest(ws, str(e))
+            self.ingest_retry_at = time.time() + INGEST_RETRY_INTERVAL
+            self._flush_unacked_over_http()
+            return False
+        if self.log_callback:
+            self.log_callback(f"【√】推送长连接已连接，补发 {len(pending)} 批")
+        return True
+
+    def _ingest_reader(self, ws):
+        """
+        大白话：读推送长连接上服务端回的确认，收到确认就把那一批从没确认列表里删掉
+        """
+        try:
+            while True:
+                message = json.loads(ws.recv())
+                if message.get("type") == "ack":
+                    with self.ingest_cond:
+                        self.ingest_unacked.pop(message.get("seq"), None)
+                        self.ingest_cond.notify_all()
+                    if message.get("rejected") and self.log_callback:
+                        self.log_callback(f"【X】服务端拒收 {message.get('rejected')} 条消息")
+                elif message.get("type") == "error" and self.log_callback:
+                    self.log_callback(f"【X】推送长连接出错: {message.get('message')}")
+        except Exception as e:
+            self._close_ingest(ws, str(e))
+
+    def _close_ingest(self, ws, reason):
+        """
+        大白话：关掉推送长连接，下一批消息会重新连
+        """
+        with self.ingest_cond:
+            if self.ingest_ws is not ws:
+                return
+            self.ingest_ws = None
+            self.ingest_cond.notify_all()
+        try:
+            ws.close()
+        except Exception:
+            pass
+        if self.log_callback:
+            self.log_callback(f"【*】推送长连接断开: {reason}")
+
+    def _flush_unacked_over_http(self):
+        """
+        大白话：长连接用不了时，没确认的批次改用 HTTP 推送（可能重复推一次，宁重勿漏）
+        """
+        with self.ingest_cond:
+            pending = list(self.ingest_unacked.values())
+            self.ingest_unacked.clear()
+            self.ingest_cond.notify_all()
+        for batch in pending:
+            if self.batch_supported:
+                self._push_batch(batch)
+            else:
+                for msg_data in batch:
+                    self._push_one(msg_data)
+
+    def _push_batch(self, batch):
+        """
+        大白话：一个 POST 把一批消息推到 Java 服务端，带上 token 和重试机制
+        :param batch: 消息列表
+        """
         max_retries = 3
         retry_delay = 2  # 秒
         for attempt in range(max_retries):
             try:
-                response = requests.post(
+                response = self.push_session.post(
+                    f"{self.server_url}/live-messages/push-batch",
+                    json=batch,
+                    headers={
+                        "Content-Type": "application/json",
+                        "Authorization": self.token  # 使用存储的 token
+                    },
+                    timeout=5
+                )
+                if response.status_code == 200:
+                    if self.log_callback:
+                        self.log_callback(f"【√】推送成功 {response.json().get('accepted', len(batch))} 条")
+                    return
+                if response.status_code in (404, 405):
+                    # 老版本服务端没有批量接口，以后一条一条推
+                    self.batch_supported = False
+                    if self.log_callback:
+                        self.log_callback("【*】服务端不支持批量推送，改为逐条推送")
+                    for msg_data in batch:
+                        self._push_one(msg_data)
+                    return
+                if self.log_callback:
+                    self.log_callback(f"【X】推送失败，状态码: {response.status_code}")
+            except Exception as e:
+                if self.log_callback:
+                    self.log_callback(f"【X】推送失败: {str(e)}")
+            if attempt < max_retries - 1:
+                time.sleep(retry_delay)
+        if self.log_callback:
+            self.log_callback(f"【X】重试 {max_retries} 次仍失败，丢弃 {len(batch)} 条消息")
+
+    def _push_one(self, msg_data):
+        """
+        大白话：把单条消息推送到 Java 服务端（老版本服务端用），带上 token 和重试机制
+        :param msg_data: 要推送的消息数据
+        """
+        max_retries = 3
+        retry_delay = 2  # 秒
+        for attempt in range(max_retries):
+            try:
+                response = self.push_session.post(
                     f"{self.server_url}/live-messages/push",
                     json=msg_data,
                     headers={
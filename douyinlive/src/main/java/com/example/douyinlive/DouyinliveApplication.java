@@ -2,8 +2,6 @@ package com.example.douyinlive;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
-import org.springframework.context.annotation.Bean;
-import org.springframework.web.client.RestTemplate;
 
 @SpringBootApplication
 // 移除 @MapperScan 注解
@@ -13,10 +11,6 @@ public class DouyinliveApplication {
         SpringApplication.run(DouyinliveApplication.class, args);
     }
 
-    // 定义 RestTemplate Bean，用于 HTTP 请求
-    @Bean
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
-    }
+    // RestTemplate Bean 挪到 config/HttpClientConfig，和共用的 HttpClient 一起配置
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,70 @@
+package com.example.douyinlive.config;
+
+import com.example.douyinlive.util.VirtualThreads;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * 全局共用的 HTTP 客户端：通义千问、向量、直播脚本、数据规范化都走这一个
+ * 大白话：底层是 JDK HttpClient，自带连接池和 keep-alive，HTTPS 上游能用 HTTP/2 多路复用；
+ * 连接超时、读超时统一配置，每个上游主机的并发数由 {@link UpstreamLimiter} 控制
+ */
+@Configuration
+public class HttpClientConfig {
+
+    /**
+     * @param virtualThreads 开了虚拟线程（JDK 21+）时，HttpClient 的异步回调也跑在虚拟线程上
+     */
+    @Bean
+    public HttpClient httpClient(@Value("${http.client.connect-timeout-ms:5000}") long connectTimeoutMs,
+                                 @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .followRedirects(HttpClient.Redirect.NORMAL);
+        ExecutorService executor = virtualThreads ? VirtualThreads.newPerTaskExecutor("http-client-") : null;
+        if (executor != null) {
+            builder.executor(executor);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @param maxConcurrent 每个上游默认最多同时进行的请求数
+     * @param upstreamLimits 单独指定的上游并发上限，格式 host:数量，逗号分隔
+     * @param acquireTimeoutMs 并发满了最多等多久
+     */
+    @Bean
+    public UpstreamLimiter upstreamLimiter(@Value("${http.client.max-concurrent-per-upstream:32}") int maxConcurrent,
+                                           @Value("${http.client.upstream-limits:}") String upstreamLimits,
+                                           @Value("${http.client.acquire-timeout-ms:30000}") long acquireTimeoutMs) {
+        Map<String, Integer> limits = new HashMap<>();
+        for (String item : upstreamLimits.split(",")) {
+            int colon = item.lastIndexOf(':');
+            if (colon > 0) {
+                limits.put(item.substring(0, colon).trim(), Integer.parseInt(item.substring(colon + 1).trim()));
+            }
+        }
+        return new UpstreamLimiter(maxConcurrent, limits, acquireTimeoutMs);
+    }
+
+    // 定义 RestTemplate Bean，用于 HTTP 请求
+    @Bean
+    public RestTemplate restTemplate(HttpClient httpClient, UpstreamLimiter upstreamLimiter,
+                                     @Value("${http.client.read-timeout-ms:180000}") long readTimeoutMs) {
+        JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(httpClient);
+        requestFactory.setReadTimeout(Duration.ofMillis(readTimeoutMs));
+        RestTemplate restTemplate = new RestTemplate(requestFactory);
+        restTemplate.getInterceptors().add(upstreamLimiter);
+        return restTemplate;
+    }
+}
@@ -0,0 +1,211 @@
+package com.example.douyinlive.config;
+
+import com.example.douyinlive.service.LiveMessageDispatcher;
+import com.example.douyinlive.util.JwtUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 弹幕推送 WebSocket（/ws/live-ingest）：Python 抓弹幕程序连一次长连接，之后一直往里推消息
+ * 大白话：HTTP 推送每个请求都要过一遍 JwtInterceptor 解析 token，高峰期每秒几百次；这里只在连上时校验一次 token，
+ * 之后消息都算这个用户直播间的（消息里的 username 不再采信）
+ * 协议（都是 JSON 文本帧）：
+ * 连上后服务端先发 {type: "ready", stream, last_seq}，last_seq 是这个推送流已经确认过的最大序号；
+ * 客户端发 {seq, events: [消息, ...]}，seq 从 1 开始递增，消息格式和 /live-messages/push 一样；
+ * 服务端逐条分发后回 {type: "ack", seq, accepted, rejected, dropped}（dropped 是被弹幕分诊丢掉的，算在 accepted 里），重复的 seq（断线重连后补发的）不再分发，直接回 ack 带 duplicate: true
+ * 推送流由连接参数 stream 区分（抓弹幕程序每次启动生成一个），断线重连用同一个 stream 就能接着序号补发没确认的
+ */
+@Component
+public class LiveIngestWebSocketHandler extends TextWebSocketHandler {
+
+    // 推送流多久没有连接就清掉记录
+    private static final long STREAM_IDLE_MS = 60 * 60 * 1000L;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // 推送流状态，key 是 "用户名:stream"
+    private final Map<String, StreamState> streams = new ConcurrentHashMap<>();
+
+    @Autowired
+    private JwtUtil jwtUtil;
+
+    @Autowired
+    private LiveMessageDispatcher liveMessageDispatcher;
+
+    // 单帧最大字节数，一帧带一批弹幕，Tomcat 默认的 8KB 不够
+    @Value("${websocket.ingest.max-message-bytes:524288}")
+    private int maxMessageBytes;
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+        // 大白话：连上时校验一次 token，之后这个连接上的消息都不再校验
+        String token = (String) session.getAttributes().get("token");
+        String username;
+        try {
+            if (token != null && token.startsWith("Bearer ")) {
+                token = token.substring(7);
+            }
+            if (token == null || jwtUtil.isTokenExpired(token)) {
+                throw new IllegalArgumentException("token 缺失或已过期");
+            }
+            username = jwtUtil.getUsernameFromToken(token);
+        } catch (Exception e) {
+            System.err.println("推送 WebSocket 校验 token 失败，关闭连接，Session ID：" + session.getId() + "，错误：" + e.getMessage());
+            session.close(CloseStatus.POLICY_VIOLATION);
+            return;
+        }
+
+        String stream = (String) session.getAttributes().getOrDefault("stream", session.getId());
+        String key = username + ":" + stream;
+        long now = System.currentTimeMillis();
+        streams.values().removeIf(state -> state.session == null && now - state.lastSeen > STREAM_IDLE_MS);
+        StreamState state = streams.computeIfAbsent(key, k -> new StreamState());
+        WebSocketSession previous;
+        synchronized (state) {
+            previous = state.session;
+            state.session = session;
+            state.lastSeen = now;
+        }
+        // 同一个推送流只留最新的连接，旧连接多半是断线重连前没断干净的
+        if (previous != null && previous.isOpen()) {
+            System.out.println("推送流 " + key + " 有新连接，关闭旧连接，旧 Session ID：" + previous.getId());
+            try {
+                previous.close(CloseStatus.NORMAL);
+            } catch (IOException e) {
+                System.err.println("关闭旧推送连接失败，错误：" + e.getMessage());
+            }
+        }
+        session.getAttributes().put("username", username);
+        session.getAttributes().put("streamKey", key);
+        session.setTextMessageSizeLimit(maxMessageBytes);
+
+        Map<String, Object> ready = new HashMap<>();
+        ready.put("type", "ready");
+        ready.put("stream", stream);
+        ready.put("last_seq", state.lastSeq);
+        send(session, ready);
+        System.out.println("推送 WebSocket 连接建立，用户：" + username + "，推送流：" + stream + "，已确认序号：" + state.lastSeq);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
+        String username = (String) session.getAttributes().get("username");
+        StreamState state = username != null ? streams.get((String) session.getAttributes().get("streamKey")) : null;
+        if (state == null) {
+            return;
+        }
+
+        Map<String, Object> frame;
+        try {
+            frame = objectMapper.readValue(message.getPayload(), Map.class);
+        } catch (Exception e) {
+            sendError(session, "消息不是合法的 JSON：" + e.getMessage());
+            return;
+        }
+        if (!(frame.get("seq") instanceof Number) || !(frame.get("events") instanceof List)) {
+            sendError(session, "消息缺少 seq 或 events");
+            return;
+        }
+        long seq = ((Number) frame.get("seq")).longValue();
+        List<Object> events = (List<Object>) frame.get("events");
+
+        Map<String, Object> ack = new HashMap<>();
+        ack.put("type", "ack");
+        ack.put("seq", seq);
+        synchronized (state) {
+            state.lastSeen = System.currentTimeMillis();
+            if (seq <= state.lastSeq) {
+                // 断线重连后补发的，已经分发过了
+                ack.put("duplicate", true);
+                send(session, ack);
+                return;
+            }
+            if (seq > state.lastSeq + 1) {
+                System.err.println("推送流 " + session.getAttributes().get("streamKey") + " 序号不连续，已确认 " + state.lastSeq + "，收到 " + seq);
+            }
+            int accepted = 0;
+            int rejected = 0;
+            int dropped = 0;
+            for (Object event : events) {
+                if (!(event instanceof Map)) {
+                    rejected++;
+                    continue;
+                }
+                Map<String, Object> payload = (Map<String, Object>) event;
+                // 大白话：消息只能推到自己的直播间
+                payload.put("username", username);
+                try {
+                    if (liveMessageDispatcher.dispatch(username, payload) == LiveMessageDispatcher.Outcome.DROPPED) {
+                        dropped++;
+                    }
+                    accepted++;
+                } catch (Exception e) {
+                    rejected++;
+                    System.err.println("推送弹幕消息失败，消息：" + payload + "，错误：" + e.getMessage());
+                }
+            }
+            state.lastSeq = seq;
+            ack.put("accepted", accepted);
+            ack.put("rejected", rejected);
+            ack.put("dropped", dropped);
+        }
+        send(session, ack);
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
+        Object key = session.getAttributes().get("streamKey");
+        StreamState state = key != null ? streams.get((String) key) : null;
+        if (state != null) {
+            synchronized (state) {
+                if (state.session == session) {
+                    state.session = null;
+                    state.lastSeen = System.currentTimeMillis();
+                }
+            }
+        }
+        System.out.println("推送 WebSocket 连接关闭，推送流：" + key + "，状态码：" + status.getCode());
+    }
+
+    @Override
+    public void handleTransportError(WebSocketSession session, Throwable exception) throws Exception {
+        System.out.println("推送 WebSocket 传输错误，Session ID：" + session.getId() + "，错误：" + exception.getMessage());
+        session.close(CloseStatus.SERVER_ERROR);
+    }
+
+    private void sendError(WebSocketSession session, String error) throws IOException {
+        Map<String, Object> message = new HashMap<>();
+        message.put("type", "error");
+        message.put("message", error);
+        send(session, message);
+    }
+
+    // 回复只在这个连接的消息处理线程里发，不会并发写
+    private void send(WebSocketSession session, Map<String, Object> message) throws IOException {
+        if (session.isOpen()) {
+            session.sendMessage(new TextMessage(objectMapper.writeValueAsString(message)));
+        }
+    }
+
+    /**
+     * 一个推送流的状态：已确认的最大序号、当前连接
+     */
+    private static class StreamState {
+        private long lastSeq;
+        private long lastSeen;
+        private WebSocketSession session;
+    }
+}
@@ -3,30 +3,112 @@
 package com.example.douyinlive.config;
 
 import com.example.douyinlive.util.JwtUtil;
+import com.example.douyinlive.util.VirtualThreads;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
 import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * WebSocket 处理类，管理直播消息的推送
+ * 大白话：一个直播间（按主播用户名）可以有多个订阅者：主播后台、语音合成、场控、OBS 叠加层各连一个，
+ * 新连上的不再把旧的踢掉；推消息时同一个帧发给直播间里所有会话，不重复序列化
+ * 主播开了多个后台页面时，最早连上的 host 会话是主控，只有主控生成弹幕回复、播报语音，其余页面只展示；
+ * 主控变化时用 subscriber_role 消息告诉相关会话
  */
 @Component
 public class LiveMessageWebSocketHandler extends TextWebSocketHandler {
 
-    // 存储用户 WebSocket 会话，key 是 username，value 是 WebSocketSession
-    private final Map<String, WebSocketSession> sessions = new ConcurrentHashMap<>();
+    // 直播间订阅者，key 是 username，value 是这个直播间所有会话的发送队列
+    // 写时复制：推消息时直接遍历快照不加锁，连上、断开时只锁这一个直播间（ConcurrentHashMap.compute 只锁一个桶）
+    private final Map<String, Set<SessionOutbox>> rooms = new ConcurrentHashMap<>();
+
+    // 每个会话一个发送队列，key 是 Session ID；推消息的线程只往队列里放，发送线程池负责发
+    private final Map<String, SessionOutbox> outboxes = new ConcurrentHashMap<>();
+
+    // 每个直播间的主控会话，key 是 username；连上、断开时在 synchronized 里重新选
+    private final Map<String, SessionOutbox> primaryHosts = new ConcurrentHashMap<>();
+
+    // 用于 JSON 序列化
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // Tomcat 阻塞发送超时的会话属性名，默认 20 秒，发送线程卡在慢连接上最多卡这么久
+    private static final String BLOCKING_SEND_TIMEOUT = "org.apache.tomcat.websocket.BLOCKING_SEND_TIMEOUT";
 
     // 注入 JwtUtil 用于解析 token
     @Autowired
     private JwtUtil jwtUtil;
 
+    // 每个会话最多排队几条消息
+    @Value("${websocket.outbound.capacity:256}")
+    private int capacity;
+
+    // 每个会话排队消息最多占多少字节
+    @Value("${websocket.outbound.max-bytes:1048576}")
+    private int maxBytes;
+
+    // 队列满了怎么办：drop-oldest / coalesce / disconnect
+    @Value("${websocket.outbound.overflow-policy:drop-oldest}")
+    private String overflowPolicy;
+
+    // 一个直播间最多几个订阅者，超过时断开最早连上的
+    @Value("${websocket.max-subscribers-per-room:16}")
+    private int maxSubscribersPerRoom;
+
+    // 一条消息发了多久还没发完就断开会话
+    @Value("${websocket.outbound.send-time-limit-ms:10000}")
+    private long sendTimeLimitMs;
+
+    // 发送线程数（开了虚拟线程时不用）；消息是异步发送的，发送线程只做入队出队，不会被慢连接占住
+    @Value("${websocket.outbound.workers:4}")
+    private int workers;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    private SessionOutbox.OverflowPolicy policy;
+    private ExecutorService sendExecutor;
+
+    @PostConstruct
+    public void init() {
+        policy = SessionOutbox.OverflowPolicy.of(overflowPolicy);
+        ExecutorService virtualExecutor = virtualThreads ? VirtualThreads.newPerTaskExecutor("ws-send-") : null;
+        if (virtualExecutor != null) {
+            sendExecutor = virtualExecutor;
+            return;
+        }
+        AtomicInteger counter = new AtomicInteger();
+        sendExecutor = Executors.newFixedThreadPool(workers, r -> {
+            Thread thread = new Thread(r, "ws-send-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sendExecutor.shutdownNow();
+    }
+
     @Override
     public void afterConnectionEstablished(WebSocketSession session) throws Exception {
         // 大白话：新的 WebSocket 连接建立了，赶紧把用户和会话存起来
@@ -41,20 +123,29 @@ public class LiveMessageWebSocketHandler extends TextWebSocketHandler {
         try {
             // 解析 token 获取 username
             String username = jwtUtil.getUsernameFromToken(token);
-            System.out.println("解析 token 成功，用户：" + username + "，Session ID：" + session.getId());
-            // 检查用户是否已存在会话，若存在则关闭旧会话
-            WebSocketSession oldSession = sessions.get(username);
-            if (oldSession != null && oldSession.isOpen()) {
-                System.out.println("用户 " + username + " 已存在会话，关闭旧会话，旧 Session ID：" + oldSession.getId());
+            String role = (String) session.getAttributes().getOrDefault("role", "host");
+            session.getAttributes().put("username", username);
+            System.out.println("解析 token 成功，用户：" + username + "，角色：" + role + "，Session ID：" + session.getId());
+            // 建好发送队列；万一退回阻塞发送（以及关闭帧等阻塞发送），卡在慢连接上的时间也不超过 send-time-limit
+            if (sendTimeLimitMs > 0 && session instanceof NativeWebSocketSession nativeSession) {
+                jakarta.websocket.Session standard = nativeSession.getNativeSession(jakarta.websocket.Session.class);
+                if (standard != null) {
+                    standard.getUserProperties().put(BLOCKING_SEND_TIMEOUT, sendTimeLimitMs);
+                }
+            }
+            SessionOutbox outbox = new SessionOutbox(session, sendExecutor, capacity, maxBytes, sendTimeLimitMs, policy);
+            outboxes.put(session.getId(), outbox);
+            SessionOutbox evicted = subscribe(username, outbox);
+            if (evicted != null) {
+                System.out.println("直播间 " + username + " 订阅者超过 " + maxSubscribersPerRoom + " 个，断开最早的会话，Session ID：" + evicted.getSession().getId());
                 try {
-                    oldSession.close(CloseStatus.NORMAL);
+                    evicted.getSession().close(CloseStatus.POLICY_VIOLATION);
                 } catch (IOException e) {
                     System.err.println("关闭旧会话失败，用户 " + username + "，错误：" + e.getMessage());
                 }
             }
-            // 存储新会话
-            sessions.put(username, session);
-            System.out.println("已存储用户 " + username + " 的新会话，当前会话数：" + sessions.size());
+            electPrimary(username, outbox);
+            System.out.println("用户 " + username + " 的直播间新增订阅者，当前订阅者数：" + subscriberCount(username));
         } catch (Exception e) {
             System.err.println("解析 token 失败，关闭连接，Session ID：" + session.getId() + "，错误：" + e.getMessage());
             session.close(CloseStatus.BAD_DATA);
@@ -63,16 +154,105 @@ public class LiveMessageWebSocketHandler extends TextWebSocketHandler {
 
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
-        // 大白话：WebSocket 连接断了，把用户的会话信息删掉
-        String token = (String) session.getAttributes().get("token");
-        if (token != null) {
-            try {
-                String username = jwtUtil.getUsernameFromToken(token);
-                sessions.remove(username);
-                System.out.println("WebSocket 连接关闭，用户：" + username + "，状态码：" + status.getCode());
-            } catch (Exception e) {
-                System.out.println("解析 token 失败，无法移除会话：" + e.getMessage());
+        SessionOutbox outbox = outboxes.remove(session.getId());
+        if (outbox != null) {
+            outbox.close();
+        }
+        // 大白话：WebSocket 连接断了，把会话从直播间里删掉（用户名在连上时已经存好，不用再解析 token）
+        String username = (String) session.getAttributes().get("username");
+        if (username != null && outbox != null) {
+            unsubscribe(username, outbox);
+            electPrimary(username, null);
+            System.out.println("WebSocket 连接关闭，用户：" + username + "，状态码：" + status.getCode() + "，剩余订阅者数：" + subscriberCount(username));
+        }
+    }
+
+    /**
+     * 加入直播间，超过订阅者上限时把最早的挤出去
+     * @return 被挤出去的会话，没有就是 null
+     */
+    private SessionOutbox subscribe(String username, SessionOutbox outbox) {
+        SessionOutbox[] evicted = new SessionOutbox[1];
+        rooms.compute(username, (key, subscribers) -> {
+            if (subscribers == null) {
+                subscribers = new CopyOnWriteArraySet<>();
+            }
+            if (subscribers.size() >= maxSubscribersPerRoom) {
+                // CopyOnWriteArraySet 按加入顺序遍历，第一个就是最早连上的
+                evicted[0] = subscribers.iterator().next();
+                subscribers.remove(evicted[0]);
+            }
+            subscribers.add(outbox);
+            return subscribers;
+        });
+        return evicted[0];
+    }
+
+    /**
+     * 离开直播间，最后一个订阅者走了就把直播间删掉
+     */
+    private void unsubscribe(String username, SessionOutbox outbox) {
+        rooms.computeIfPresent(username, (key, subscribers) -> {
+            subscribers.remove(outbox);
+            return subscribers.isEmpty() ? null : subscribers;
+        });
+    }
+
+    /**
+     * 直播间当前订阅者数
+     * @param username 主播用户名
+     */
+    public int subscriberCount(String username) {
+        Set<SessionOutbox> subscribers = rooms.get(username);
+        return subscribers != null ? subscribers.size() : 0;
+    }
+
+    /**
+     * 重新选直播间的主控：最早连上、还在的 host 会话（连接时的 role 参数，不传按 host）
+     * 主控变了就通知新旧主控，新连上的会话不管是不是主控都告诉它一声
+     * @param username 主播用户名
+     * @param joined 新连上的会话，断开时传 null
+     */
+    private synchronized void electPrimary(String username, SessionOutbox joined) {
+        SessionOutbox primary = null;
+        // CopyOnWriteArraySet 按加入顺序遍历，第一个 host 就是最早连上的
+        for (SessionOutbox outbox : rooms.getOrDefault(username, Set.of())) {
+            if ("host".equals(outbox.getSession().getAttributes().getOrDefault("role", "host"))) {
+                primary = outbox;
+                break;
+            }
+        }
+        SessionOutbox previous = primary != null ? primaryHosts.put(username, primary) : primaryHosts.remove(username);
+        if (previous != primary) {
+            if (previous != null) {
+                sendRole(previous, false);
             }
+            if (primary != null) {
+                sendRole(primary, true);
+                System.out.println("直播间 " + username + " 的主控会话换成 Session ID：" + primary.getSession().getId());
+            }
+        }
+        if (joined != null && joined != primary && joined != previous) {
+            sendRole(joined, false);
+        }
+    }
+
+    /**
+     * 告诉会话它是不是主控，格式 {id, type: "subscriber_role", data: {role, primary}}
+     */
+    private void sendRole(SessionOutbox outbox, boolean primary) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("role", outbox.getSession().getAttributes().getOrDefault("role", "host"));
+        data.put("primary", primary);
+        Map<String, Object> message = new HashMap<>();
+        message.put("id", UUID.randomUUID().toString());
+        message.put("type", "subscriber_role");
+        message.put("timestamp", System.currentTimeMillis());
+        message.put("data", data);
+        try {
+            outbox.offer(new TextMessage(objectMapper.writeValueAsString(message)), null);
+        } catch (JsonProcessingException e) {
+            System.err.println("序列化订阅者角色消息失败，错误：" + e.getMessage());
         }
     }
 
@@ -89,27 +269,29 @@ public class LiveMessageWebSocketHandler extends TextWebSocketHandler {
      * @param name 目标用户名字（数据库中的 name 字段）
      */
     public void sendMessageToUser(String message, String name) {
-        // 大白话：找到用户的 WebSocket 会话，把消息发过去
-        System.out.println("尝试推送消息给用户 " + name + "，消息内容：" + message);
-        WebSocketSession session = sessions.get(name);
-        if (session != null && session.isOpen()) {
-            try {
-                synchronized (session) { // 确保线程安全
-                    session.sendMessage(new TextMessage(message));
-                    System.out.println("成功推送消息给用户 " + name + "，Session ID：" + session.getId());
-                }
-            } catch (IOException e) {
-                System.err.println("推送消息给用户 " + name + " 失败，Session ID：" + session.getId() + "，错误：" + e.getMessage());
-                try {
-                    session.close(CloseStatus.SERVER_ERROR);
-                    sessions.remove(name);
-                    System.out.println("已关闭并移除用户 " + name + " 的会话");
-                } catch (IOException ex) {
-                    System.err.println("关闭会话失败，用户 " + name + "，错误：" + ex.getMessage());
-                }
+        sendMessageToUser(message, name, null);
+    }
+
+    /**
+     * 向指定用户的直播间推送消息，只放进每个订阅者的发送队列，不等网络
+     * @param message 消息内容（JSON 字符串）
+     * @param name 目标用户名字（数据库中的 name 字段）
+     * @param coalesceKey 合并键，coalesce 策略下队列里同一个键的旧消息会被替换，可以为 null
+     */
+    public void sendMessageToUser(String message, String name, String coalesceKey) {
+        // 大白话：找到直播间的全部订阅者，同一个帧放进每个会话的发送队列
+        Set<SessionOutbox> subscribers = rooms.get(name);
+        if (subscribers == null || subscribers.isEmpty()) {
+            System.err.println("用户 " + name + " 的直播间没有订阅者，当前直播间数：" + rooms.size());
+            return;
+        }
+        TextMessage frame = new TextMessage(message);
+        for (SessionOutbox outbox : subscribers) {
+            SessionOutbox.Result result = outbox.offer(frame, coalesceKey);
+            if (result == SessionOutbox.Result.DISCONNECTED || result == SessionOutbox.Result.CLOSED) {
+                unsubscribe(name, outbox);
+                outboxes.remove(outbox.getSession().getId());
             }
-        } else {
-            System.err.println("用户 " + name + " 的 WebSocket 会话不存在或已关闭，当前会话数：" + sessions.size());
         }
     }
 }
\ No newline at end of file
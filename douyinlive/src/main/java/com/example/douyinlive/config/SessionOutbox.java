@@ -0,0 +1,278 @@
+package com.example.douyinlive.config;
+
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一个 WebSocket 会话的发送队列：推消息的线程只管往队列里放，由发送线程池按顺序发出去
+ * 大白话：以前 /live-messages/push 的 HTTP 线程直接 session.sendMessage，浏览器网慢、卡住时推弹幕的线程跟着卡；
+ * 现在队列有条数和字节两个上限，满了按溢出策略处理，推消息的线程永远不会等网络：
+ * drop-oldest 丢最早的一条；coalesce 带相同合并键的新消息直接替换队列里的旧消息（比如进场提示只留最新的），
+ * 没有可替换的再丢最早的；disconnect 直接断开，前端会自动重连
+ * 发送线程也不等网络：消息交给容器异步发送（带 send-time-limit 超时），发完的回调再把下一条交给发送线程池，
+ * 几个卡住的浏览器占不住发送线程，别的直播间照常发；拿不到容器原生会话时才退回阻塞发送
+ * 同一时刻最多一条消息在发，保证顺序
+ */
+public class SessionOutbox {
+
+    /**
+     * 队列满了怎么办
+     */
+    public enum OverflowPolicy {
+        DROP_OLDEST, COALESCE, DISCONNECT;
+
+        /**
+         * 配置里的 drop-oldest / coalesce / disconnect，不认识的按 drop-oldest
+         */
+        public static OverflowPolicy of(String value) {
+            for (OverflowPolicy policy : values()) {
+                if (policy.name().replace('_', '-').equalsIgnoreCase(value.trim())) {
+                    return policy;
+                }
+            }
+            return DROP_OLDEST;
+        }
+    }
+
+    /**
+     * 放进队列的结果
+     */
+    public enum Result {
+        QUEUED, COALESCED, DROPPED_OLDEST, DISCONNECTED, CLOSED
+    }
+
+    // 队列满了断开会话用的关闭码，和 Spring ConcurrentWebSocketSessionDecorator 的一样
+    static final CloseStatus OVERFLOW = CloseStatus.SESSION_NOT_RELIABLE;
+
+    private final WebSocketSession session;
+    private final Executor sender;
+    private final int maxMessages;
+    private final int maxBytes;
+    private final long sendTimeLimitMs;
+    private final OverflowPolicy policy;
+    // 容器原生的会话，有的话用异步发送
+    private final jakarta.websocket.Session nativeSession;
+
+    private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+    private int queuedBytes;
+    private boolean draining;
+    private boolean closed;
+    // 正在发的那条开始发的时间，0 表示没在发；发太久说明浏览器卡死了
+    private volatile long sendingSince;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    public SessionOutbox(WebSocketSession session, Executor sender, int maxMessages, int maxBytes,
+                         long sendTimeLimitMs, OverflowPolicy policy) {
+        this.session = session;
+        this.sender = sender;
+        this.maxMessages = Math.max(1, maxMessages);
+        this.maxBytes = Math.max(1, maxBytes);
+        this.sendTimeLimitMs = sendTimeLimitMs;
+        this.policy = policy;
+        this.nativeSession = session instanceof NativeWebSocketSession standard
+                ? standard.getNativeSession(jakarta.websocket.Session.class) : null;
+        if (nativeSession != null && sendTimeLimitMs > 0) {
+            // 大白话：异步发送超过时间限制还没发完，容器会让回调失败，这里就断开会话
+            nativeSession.getAsyncRemote().setSendTimeout(sendTimeLimitMs);
+        }
+    }
+
+    public WebSocketSession getSession() {
+        return session;
+    }
+
+    /**
+     * 放一条消息，不等网络
+     * @param frame 消息帧，一个直播间的多个会话共用同一个，不重复序列化
+     * @param coalesceKey 合并键，只在 coalesce 策略下生效，可以为 null
+     * @return 放进队列的结果
+     */
+    public Result offer(TextMessage frame, String coalesceKey) {
+        // 大白话：一条消息发了太久还没发完，浏览器多半卡死了，别等了直接断开
+        long since = sendingSince;
+        if (since > 0 && sendTimeLimitMs > 0 && System.currentTimeMillis() - since > sendTimeLimitMs) {
+            System.err.println("WebSocket 发送超过 " + sendTimeLimitMs + " ms 未完成，断开会话，Session ID：" + session.getId());
+            disconnect();
+            return Result.DISCONNECTED;
+        }
+
+        Entry entry = new Entry(frame, coalesceKey);
+        Result result = Result.QUEUED;
+        synchronized (this) {
+            if (closed) {
+                return Result.CLOSED;
+            }
+            if (policy == OverflowPolicy.COALESCE && coalesceKey != null && replace(entry)) {
+                coalesced.incrementAndGet();
+                return Result.COALESCED;
+            }
+            while (!queue.isEmpty() && (queue.size() >= maxMessages || queuedBytes + entry.bytes > maxBytes)) {
+                if (policy == OverflowPolicy.DISCONNECT) {
+                    result = Result.DISCONNECTED;
+                    break;
+                }
+                Entry oldest = queue.pollFirst();
+                queuedBytes -= oldest.bytes;
+                dropped.incrementAndGet();
+                result = Result.DROPPED_OLDEST;
+            }
+            if (result != Result.DISCONNECTED) {
+                queue.addLast(entry);
+                queuedBytes += entry.bytes;
+                if (!draining) {
+                    draining = true;
+                    sender.execute(this::drain);
+                }
+            }
+        }
+        if (result == Result.DISCONNECTED) {
+            System.err.println("WebSocket 发送队列已满（" + maxMessages + " 条 / " + maxBytes + " 字节），断开会话，Session ID：" + session.getId());
+            disconnect();
+        } else if (result == Result.DROPPED_OLDEST && (dropped.get() == 1 || dropped.get() % 100 == 0)) {
+            System.err.println("WebSocket 发送队列已满，丢弃最早的消息，累计丢弃 " + dropped.get() + " 条，Session ID：" + session.getId());
+        }
+        return result;
+    }
+
+    /**
+     * 队列里有同一个合并键的消息就原地替换成新的，位置不变
+     */
+    private boolean replace(Entry entry) {
+        Iterator<Entry> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            Entry queued = iterator.next();
+            if (entry.coalesceKey.equals(queued.coalesceKey)) {
+                queuedBytes += entry.bytes - queued.bytes;
+                queued.frame = entry.frame;
+                queued.bytes = entry.bytes;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private synchronized Entry next() {
+        Entry entry = queue.pollFirst();
+        if (entry == null) {
+            draining = false;
+            return null;
+        }
+        queuedBytes -= entry.bytes;
+        return entry;
+    }
+
+    /**
+     * 在发送线程里发队列：异步发送时只发一条，发完的回调再接着发；阻塞发送时一直发到队列空
+     */
+    private void drain() {
+        Entry entry;
+        while ((entry = next()) != null) {
+            if (!session.isOpen()) {
+                close();
+                return;
+            }
+            sendingSince = System.currentTimeMillis();
+            if (nativeSession != null) {
+                sendAsync(entry);
+                return;
+            }
+            try {
+                session.sendMessage(entry.frame);
+                sent.incrementAndGet();
+            } catch (IOException | RuntimeException e) {
+                System.err.println("WebSocket 推送失败，Session ID：" + session.getId() + "，错误：" + e.getMessage());
+                disconnect();
+                return;
+            } finally {
+                sendingSince = 0;
+            }
+        }
+    }
+
+    /**
+     * 交给容器异步发送一条，发送线程马上返回
+     */
+    private void sendAsync(Entry entry) {
+        try {
+            nativeSession.getAsyncRemote().sendText(entry.frame.getPayload(), result -> {
+                sendingSince = 0;
+                if (!result.isOK()) {
+                    Throwable error = result.getException();
+                    System.err.println("WebSocket 推送失败，Session ID：" + session.getId() + "，错误：" + (error != null ? error.getMessage() : "未知"));
+                    disconnect();
+                    return;
+                }
+                sent.incrementAndGet();
+                // 回调跑在容器的 IO 线程里，下一条交回发送线程池
+                try {
+                    sender.execute(this::drain);
+                } catch (RuntimeException e) {
+                    System.err.println("WebSocket 发送线程池已关闭，Session ID：" + session.getId());
+                    close();
+                }
+            });
+        } catch (RuntimeException e) {
+            sendingSince = 0;
+            System.err.println("WebSocket 推送失败，Session ID：" + session.getId() + "，错误：" + e.getMessage());
+            disconnect();
+        }
+    }
+
+    /**
+     * 不再接收消息，清空队列
+     */
+    public synchronized void close() {
+        closed = true;
+        queue.clear();
+        queuedBytes = 0;
+    }
+
+    private void disconnect() {
+        close();
+        try {
+            session.close(OVERFLOW);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("关闭 WebSocket 会话失败，Session ID：" + session.getId() + "，错误：" + e.getMessage());
+        }
+    }
+
+    public synchronized int size() {
+        return queue.size();
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    private static class Entry {
+        private TextMessage frame;
+        private int bytes;
+        private final String coalesceKey;
+
+        private Entry(TextMessage frame, String coalesceKey) {
+            this.frame = frame;
+            // 按 UTF-16 长度估算，中文按 3 字节算会更准，但这里只是限流，不必精确到字节
+            this.bytes = frame.getPayload().length() * 2;
+            this.coalesceKey = coalesceKey;
+        }
+    }
+}
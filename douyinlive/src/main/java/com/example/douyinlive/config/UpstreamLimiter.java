@@ -0,0 +1,197 @@
+package com.example.douyinlive.config;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按上游主机限制同时进行的请求数，并统计每个上游的请求量、失败数、耗时
+ * 大白话：JDK HttpClient 自己管连接池，但不按主机限流；这里给每个上游一个信号量，
+ * 满了就排队等，等太久抛 ResourceAccessException（向量客户端会当网络错误重试）；
+ * 许可在响应体读完关闭时才还，流式响应也一样
+ */
+public class UpstreamLimiter implements ClientHttpRequestInterceptor {
+
+    private final int defaultMaxConcurrent;
+    private final Map<String, Integer> maxConcurrentByHost;
+    private final long acquireTimeoutMs;
+    private final Map<String, Upstream> upstreams = new ConcurrentHashMap<>();
+
+    public UpstreamLimiter(int defaultMaxConcurrent, Map<String, Integer> maxConcurrentByHost, long acquireTimeoutMs) {
+        this.defaultMaxConcurrent = defaultMaxConcurrent;
+        this.maxConcurrentByHost = maxConcurrentByHost;
+        this.acquireTimeoutMs = acquireTimeoutMs;
+    }
+
+    /**
+     * 拿一个上游的许可，用完必须调用 Permit.release
+     * @param uri 请求地址
+     * @return 许可
+     */
+    public Permit acquire(URI uri) {
+        String host = uri.getHost() == null ? "unknown" : uri.getHost();
+        Upstream upstream = upstreams.computeIfAbsent(host,
+                h -> new Upstream(h, maxConcurrentByHost.getOrDefault(h, defaultMaxConcurrent)));
+        upstream.waiting.incrementAndGet();
+        boolean acquired;
+        try {
+            acquired = upstream.semaphore.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResourceAccessException("等待上游 " + host + " 的连接被中断");
+        } finally {
+            upstream.waiting.decrementAndGet();
+        }
+        if (!acquired) {
+            upstream.rejected.incrementAndGet();
+            throw new ResourceAccessException("上游 " + host + " 并发已满，等待 " + acquireTimeoutMs + " ms 超时");
+        }
+        upstream.requests.incrementAndGet();
+        return new Permit(upstream);
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+        Permit permit = acquire(request.getURI());
+        ClientHttpResponse response;
+        try {
+            response = execution.execute(request, body);
+        } catch (IOException | RuntimeException e) {
+            permit.release(false);
+            throw e;
+        }
+        if (response.getStatusCode().isError()) {
+            permit.markFailed();
+        }
+        return new ReleasingResponse(response, permit);
+    }
+
+    /**
+     * 每个上游的统计快照，给监控接口用
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> data = new LinkedHashMap<>();
+        for (Upstream upstream : upstreams.values()) {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            long completed = upstream.completed.get();
+            stats.put("maxConcurrent", upstream.maxConcurrent);
+            stats.put("inFlight", upstream.maxConcurrent - upstream.semaphore.availablePermits());
+            stats.put("waiting", upstream.waiting.get());
+            stats.put("requests", upstream.requests.get());
+            stats.put("failures", upstream.failures.get());
+            stats.put("rejected", upstream.rejected.get());
+            stats.put("avgLatencyMs", completed == 0 ? 0 : upstream.totalLatencyNanos.get() / completed / 1_000_000);
+            stats.put("maxLatencyMs", upstream.maxLatencyNanos.get() / 1_000_000);
+            data.put(upstream.host, stats);
+        }
+        return data;
+    }
+
+    private static class Upstream {
+        private final String host;
+        private final int maxConcurrent;
+        private final Semaphore semaphore;
+        private final AtomicLong waiting = new AtomicLong();
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong completed = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong totalLatencyNanos = new AtomicLong();
+        private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+        private Upstream(String host, int maxConcurrent) {
+            this.host = host;
+            this.maxConcurrent = maxConcurrent;
+            this.semaphore = new Semaphore(maxConcurrent);
+        }
+    }
+
+    /**
+     * 一次请求占用的许可，只还一次；耗时从拿到许可算到释放
+     */
+    public static class Permit {
+        private final Upstream upstream;
+        private final long start = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean(false);
+        private volatile boolean failed;
+
+        private Permit(Upstream upstream) {
+            this.upstream = upstream;
+        }
+
+        public void markFailed() {
+            failed = true;
+        }
+
+        public void release(boolean success) {
+            if (!released.compareAndSet(false, true)) {
+                return;
+            }
+            long elapsed = System.nanoTime() - start;
+            upstream.completed.incrementAndGet();
+            upstream.totalLatencyNanos.addAndGet(elapsed);
+            upstream.maxLatencyNanos.accumulateAndGet(elapsed, Math::max);
+            if (!success || failed) {
+                upstream.failures.incrementAndGet();
+            }
+            upstream.semaphore.release();
+        }
+    }
+
+    /**
+     * 响应关闭时归还许可
+     */
+    private static class ReleasingResponse implements ClientHttpResponse {
+        private final ClientHttpResponse delegate;
+        private final Permit permit;
+
+        private ReleasingResponse(ClientHttpResponse delegate, Permit permit) {
+            this.delegate = delegate;
+            this.permit = permit;
+        }
+
+        @Override
+        public HttpStatusCode getStatusCode() throws IOException {
+            return delegate.getStatusCode();
+        }
+
+        @Override
+        public String getStatusText() throws IOException {
+            return delegate.getStatusText();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return delegate.getHeaders();
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            return delegate.getBody();
+        }
+
+        @Override
+        public void close() {
+            try {
+                delegate.close();
+            } finally {
+                permit.release(true);
+            }
+        }
+    }
+}
@@ -26,59 +26,83 @@ public class WebSocketConfig implements WebSocketConfigurer {
     @Override
     public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
         registry.addHandler(liveMessageWebSocketHandler(), "/ws/live-messages")
-                .addInterceptors(new HandshakeInterceptor() {
-                    @Override
-                    public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response,
-                                                   WebSocketHandler wsHandler, Map<String, Object> attributes) throws Exception {
-                        String uri = request.getURI().toString();
-                        String query = request.getURI().getQuery();
-                        System.out.println("WebSocket 握手，完整 URI：" + uri);
-                        System.out.println("WebSocket 握手，查询参数：" + (query != null ? query : "null"));
+                .addInterceptors(tokenHandshakeInterceptor())
+                // 大白话：只允许前端服务URL访问WebSocket
+                .setAllowedOrigins(frontendUrl);
+        // 大白话：Python 抓弹幕程序用的推送长连接，握手时带 token 校验一次，之后不再逐条校验
+        registry.addHandler(liveIngestWebSocketHandler(), "/ws/live-ingest")
+                .addInterceptors(tokenHandshakeInterceptor())
+                .setAllowedOrigins(frontendUrl);
+    }
 
-                        if (query == null || query.isEmpty()) {
-                            System.err.println("查询参数为空，未找到 token，拒绝握手");
-                            response.setStatusCode(HttpStatus.BAD_REQUEST);
-                            response.getBody().write("Missing token parameter".getBytes());
-                            return false;
-                        }
+    /**
+     * 握手拦截器：从查询参数里取 token（必填）、role（订阅者角色）、stream（推送流 ID）放进会话属性
+     */
+    private HandshakeInterceptor tokenHandshakeInterceptor() {
+        return new HandshakeInterceptor() {
+            @Override
+            public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                                           WebSocketHandler wsHandler, Map<String, Object> attributes) throws Exception {
+                String uri = request.getURI().toString();
+                String query = request.getURI().getQuery();
+                System.out.println("WebSocket 握手，完整 URI：" + uri);
+                System.out.println("WebSocket 握手，查询参数：" + (query != null ? query : "null"));
+
+                if (query == null || query.isEmpty()) {
+                    System.err.println("查询参数为空，未找到 token，拒绝握手");
+                    response.setStatusCode(HttpStatus.BAD_REQUEST);
+                    response.getBody().write("Missing token parameter".getBytes());
+                    return false;
+                }
 
-                        // 大白话：尝试从查询参数中提取 token，支持复杂编码
-                        try {
-                            String[] params = query.split("&");
-                            for (String param : params) {
-                                if (param.startsWith("token=")) {
-                                    String token = param.substring("token=".length());
-                                    // 大白话：解码 token，防止编码问题
-                                    token = java.net.URLDecoder.decode(token, "UTF-8");
-                                    attributes.put("token", token);
-                                    System.out.println("提取到 token：" + token);
-                                    return true;
-                                }
-                            }
-                            System.err.println("查询参数中未找到 token，参数列表：" + Arrays.toString(params));
-                            response.setStatusCode(HttpStatus.BAD_REQUEST);
-                            response.getBody().write("Missing token parameter".getBytes());
-                            return false;
-                        } catch (Exception e) {
-                            System.err.println("解析 token 失败，错误：" + e.getMessage());
-                            response.setStatusCode(HttpStatus.BAD_REQUEST);
-                            response.getBody().write(("Failed to parse token: " + e.getMessage()).getBytes());
-                            return false;
+                // 大白话：尝试从查询参数中提取 token，支持复杂编码；
+                // role 是订阅者角色（host、tts、moderator、overlay），同一个直播间可以连多个，不传按 host
+                try {
+                    String[] params = query.split("&");
+                    for (String param : params) {
+                        if (param.startsWith("role=")) {
+                            attributes.put("role", java.net.URLDecoder.decode(param.substring("role=".length()), "UTF-8"));
+                        } else if (param.startsWith("stream=")) {
+                            attributes.put("stream", java.net.URLDecoder.decode(param.substring("stream=".length()), "UTF-8"));
                         }
                     }
-
-                    @Override
-                    public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response,
-                                               WebSocketHandler wsHandler, Exception exception) {
-                        System.out.println("WebSocket 握手完成，异常：" + (exception != null ? exception.getMessage() : "无"));
+                    for (String param : params) {
+                        if (param.startsWith("token=")) {
+                            String token = param.substring("token=".length());
+                            // 大白话：解码 token，防止编码问题
+                            token = java.net.URLDecoder.decode(token, "UTF-8");
+                            attributes.put("token", token);
+                            System.out.println("提取到 token：" + token);
+                            return true;
+                        }
                     }
-                })
-                // 大白话：只允许前端服务URL访问WebSocket
-                .setAllowedOrigins(frontendUrl);
+                    System.err.println("查询参数中未找到 token，参数列表：" + Arrays.toString(params));
+                    response.setStatusCode(HttpStatus.BAD_REQUEST);
+                    response.getBody().write("Missing token parameter".getBytes());
+                    return false;
+                } catch (Exception e) {
+                    System.err.println("解析 token 失败，错误：" + e.getMessage());
+                    response.setStatusCode(HttpStatus.BAD_REQUEST);
+                    response.getBody().write(("Failed to parse token: " + e.getMessage()).getBytes());
+                    return false;
+                }
+            }
+
+            @Override
+            public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                                       WebSocketHandler wsHandler, Exception exception) {
+                System.out.println("WebSocket 握手完成，异常：" + (exception != null ? exception.getMessage() : "无"));
+            }
+        };
     }
 
     @Bean
     public LiveMessageWebSocketHandler liveMessageWebSocketHandler() {
         return new LiveMessageWebSocketHandler();
     }
+
+    @Bean
+    public LiveIngestWebSocketHandler liveIngestWebSocketHandler() {
+        return new LiveIngestWebSocketHandler();
+    }
 }
\ No newline at end of file
@@ -1,28 +1,27 @@
 package com.example.douyinlive.controller;
 
 import com.example.douyinlive.entity.Agent;
-import com.example.douyinlive.entity.KnowledgeBase;
 import com.example.douyinlive.entity.ModelConfig; // 已有：引入 ModelConfig 实体
 import com.example.douyinlive.entity.User;
 import com.example.douyinlive.mapper.AgentMapper;
+import com.example.douyinlive.mapper.KnowledgeBaseInfoMapper;
 import com.example.douyinlive.mapper.KnowledgeBaseMapper;
-import com.example.douyinlive.mapper.ModelConfigMapper; // 已有：引入 ModelConfigMapper
 import com.example.douyinlive.mapper.UserMapper;
+import com.example.douyinlive.service.AgentChatService;
+import com.example.douyinlive.service.ModelConfigRegistry;
+import com.example.douyinlive.service.QwenStreamService;
+import com.example.douyinlive.service.SemanticAnswerCache;
 import com.example.douyinlive.util.JwtUtil;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.pgvector.PGvector;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.web.client.HttpClientErrorException;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import jakarta.servlet.http.HttpSession;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  * 智能体控制器，处理智能体的创建、调用、查询、删除等请求
@@ -31,10 +30,6 @@ import java.util.stream.Collectors;
 @RequestMapping("/agents")
 public class AgentController {
 
-    // 保留：从配置文件读取向量维度限制
-    @Value("${embedding.dimension}")
-    private int embeddingDimension;
-
     // 注入 JwtUtil，用于解析 token 获取用户名
     @Autowired
     private JwtUtil jwtUtil;
@@ -50,17 +45,28 @@ public class AgentController {
     @Autowired
     private KnowledgeBaseMapper knowledgeBaseMapper;
 
-    // 注入 RestTemplate，用于向量 API 调用
+    // 注入 KnowledgeBaseInfoMapper，用于校验知识库是否存在
+    @Autowired
+    private KnowledgeBaseInfoMapper knowledgeBaseInfoMapper;
+
+    // 注入智能体对话服务，负责向量化、知识库检索和拼请求体
     @Autowired
-    private RestTemplate restTemplate;
+    private AgentChatService agentChatService;
 
     // 注入 QwenController，用于复用对话逻辑
     @Autowired
     private QwenController qwenController;
 
-    // 已有：注入 ModelConfigMapper，获取模型配置
     @Autowired
-    private ModelConfigMapper modelConfigMapper;
+    private QwenStreamService qwenStreamService;
+
+    // 内存里的模型配置，不用每次对话查数据库
+    @Autowired
+    private ModelConfigRegistry modelConfigRegistry;
+
+    // 语义答案缓存：相近的单轮提问直接复用答案
+    @Autowired
+    private SemanticAnswerCache semanticAnswerCache;
 
     /**
      * 创建直播智能体
@@ -104,8 +110,9 @@ public class AgentController {
                             return response;
                         }
                         // 检查知识库是否存在
-                        List<KnowledgeBase> kbList = knowledgeBaseMapper.selectKnowledgeBasesByUserIdAndKbIdPrefix(user.getId(), kbId + "%");
-                        if (kbList.isEmpty()) {
+                        // 既可以填整个知识库，也可以填单个段落（kbId_N）
+                        if (!knowledgeBaseInfoMapper.existsKnowledgeBaseInfo(user.getId(), kbId)
+                                && !knowledgeBaseMapper.existsKnowledgeBaseByUserIdAndKbId(user.getId(), kbId)) {
                             response.put("success", false);
                             response.put("message", "知识库 ID " + kbId + " 不存在");
                             return response;
@@ -115,6 +122,14 @@ public class AgentController {
                 }
             }
 
+            // 验证向量检索参数
+            String searchParamError = validateVectorSearchParams(agentData);
+            if (searchParamError != null) {
+                response.put("success", false);
+                response.put("message", searchParamError);
+                return response;
+            }
+
             // 创建智能体对象
             Agent agent = new Agent();
             agent.setUserId(user.getId());
@@ -135,6 +150,8 @@ public class AgentController {
             agent.setEnableSearch((Boolean) agentData.getOrDefault("enable_search", false));
             agent.setSearchOptions(agentData.get("search_options") != null ? new ObjectMapper().writeValueAsString(agentData.get("search_options")) : null);
             agent.setTranslationOptions(agentData.get("translation_options") != null ? new ObjectMapper().writeValueAsString(agentData.get("translation_options")) : null);
+            agent.setVectorEfSearch(agentData.get("vector_ef_search") != null ? ((Number) agentData.get("vector_ef_search")).intValue() : null);
+            agent.setVectorProbes(agentData.get("vector_probes") != null ? ((Number) agentData.get("vector_probes")).intValue() : null);
             agent.setCreatedAt(LocalDateTime.now());
             agent.setUpdatedAt(LocalDateTime.now());
 
@@ -228,6 +245,8 @@ public class AgentController {
             // 删除智能体
             int result = agentMapper.deleteAgentById(id);
             if (result > 0) {
+                semanticAnswerCache.invalidateAgent(id);
+                agentChatService.evictTemplate(id);
                 response.put("success", true);
                 response.put("message", "智能体删除成功");
             } else {
@@ -258,16 +277,15 @@ public class AgentController {
                                                              HttpSession session) throws JsonProcessingException {
         System.out.println("收到智能体对话请求，智能体 ID：" + id + "，Session ID：" + session.getId());
         try {
-            // 从数据库获取模型配置
-            List<ModelConfig> configs = modelConfigMapper.selectAllModelConfigs();
-            if (configs.isEmpty()) {
+            // 从内存里的模型配置取，不查数据库
+            ModelConfig config = modelConfigRegistry.current();
+            if (config == null) {
                 Map<String, Object> errorResponse = new HashMap<>();
                 errorResponse.put("success", false);
                 errorResponse.put("message", "未找到模型配置");
                 return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                         .body(errorResponse);
             }
-            ModelConfig config = configs.get(0); // 假设取第一条配置
 
             // 去掉 "Bearer " 前缀，获取用户名
             token = token.substring(7);
@@ -293,65 +311,32 @@ public class AgentController {
                         .body(errorResponse);
             }
 
-            // 准备请求体，合并智能体配置
-            Map<String, Object> chatRequestBody = new HashMap<>(requestBody);
-            ObjectMapper mapper = new ObjectMapper();
-            chatRequestBody.put("model", requestBody.getOrDefault("model", config.getQwenmodel()));
-            chatRequestBody.put("temperature", requestBody.get("temperature") != null ? requestBody.get("temperature") : agent.getTemperature());
-            chatRequestBody.put("top_p", requestBody.get("top_p") != null ? requestBody.get("top_p") : agent.getTopP());
-            chatRequestBody.put("presence_penalty", requestBody.get("presence_penalty") != null ? requestBody.get("presence_penalty") : agent.getPresencePenalty());
-            chatRequestBody.put("max_tokens", requestBody.get("max_tokens") != null ? requestBody.get("max_tokens") : agent.getMaxTokens());
-            chatRequestBody.put("n", requestBody.get("n") != null ? requestBody.get("n") : agent.getN());
-            chatRequestBody.put("seed", requestBody.get("seed") != null ? requestBody.get("seed") : agent.getSeed());
-            chatRequestBody.put("stop", requestBody.get("stop") != null ? requestBody.get("stop") : agent.getStop());
-            chatRequestBody.put("tools", requestBody.get("tools") != null ? requestBody.get("tools") : (agent.getTools() != null ? mapper.readValue(agent.getTools(), Object.class) : null));
-            chatRequestBody.put("tool_choice", requestBody.get("tool_choice") != null ? requestBody.get("tool_choice") : agent.getToolChoice());
-            chatRequestBody.put("parallel_tool_calls", requestBody.get("parallel_tool_calls") != null ? requestBody.get("parallel_tool_calls") : agent.getParallelToolCalls());
-            chatRequestBody.put("enable_search", requestBody.get("enable_search") != null ? requestBody.get("enable_search") : agent.getEnableSearch());
-            chatRequestBody.put("search_options", requestBody.get("search_options") != null ? requestBody.get("search_options") : (agent.getSearchOptions() != null ? mapper.readValue(agent.getSearchOptions(), Object.class) : null));
-            chatRequestBody.put("translation_options", requestBody.get("translation_options") != null ? requestBody.get("translation_options") : (agent.getTranslationOptions() != null ? mapper.readValue(agent.getTranslationOptions(), Object.class) : null));
-
-            // 获取用户输入消息
-            List<Map<String, Object>> inputMessages = (List<Map<String, Object>>) requestBody.getOrDefault("messages", new ArrayList<>());
-            String userInput = inputMessages.stream()
-                    .filter(msg -> "user".equals(msg.get("role")))
-                    .map(msg -> (String) msg.get("content"))
-                    .findFirst()
-                    .orElse("");
-
-            // 如果智能体配置了知识库 ID，执行向量检索
-            List<String> relevantContents = new ArrayList<>();
-            if (agent.getKbIds() != null && !agent.getKbIds().isEmpty()) {
-                // 将用户输入向量化
-                float[] inputEmbedding = generateEmbedding(userInput);
-                if (inputEmbedding != null) {
-                    // 获取知识库 ID 列表
-                    List<String> kbIdList = Arrays.asList(agent.getKbIds().split(","));
-                    // 查询最相似的知识库内容（限制返回 3 条）
-                    List<KnowledgeBase> similarKbs = knowledgeBaseMapper.selectTopSimilarKnowledgeBases(
-                            user.getId(), kbIdList, new PGvector(inputEmbedding), 3);
-                    relevantContents = similarKbs.stream()
-                            .map(KnowledgeBase::getContent)
-                            .collect(Collectors.toList());
-                    System.out.println("检索到相关知识库内容：" + relevantContents);
-                }
+            // 单轮提问先查语义答案缓存，问题向量和知识库检索共用，只算一次
+            List<Map<String, Object>> inputMessages = agentChatService.inputMessages(requestBody);
+            boolean cacheable = semanticAnswerCache.isCacheable(inputMessages);
+            float[] inputEmbedding = cacheable || agentChatService.hasKnowledgeBases(agent) ? agentChatService.embed(agentChatService.firstUserInput(inputMessages)) : null;
+            long cacheGeneration = semanticAnswerCache.generation(agent.getId(), user.getId());
+            String cachedAnswer = cacheable ? semanticAnswerCache.lookup(agent.getId(), inputEmbedding) : null;
+            if (cachedAnswer != null) {
+                Map<String, Object> result = new HashMap<>();
+                result.put("success", true);
+                result.put("content", cachedAnswer);
+                result.put("cached", true);
+                return ResponseEntity.ok()
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .body(result);
             }
 
-            // 处理消息，添加系统提示词和知识库上下文
-            List<Map<String, Object>> messages = new ArrayList<>();
-            // 将知识库内容直接拼接到系统提示词中，不加引导语
-            StringBuilder systemPrompt = new StringBuilder(agent.getSystemPrompt() != null ? agent.getSystemPrompt() : "");
-            if (!relevantContents.isEmpty()) {
-                // 直接拼接知识库内容，不加任何引导语
-                systemPrompt.append("\n\n");
-                systemPrompt.append(String.join("\n", relevantContents));
-            }
-            messages.add(Map.of("role", "system", "content", systemPrompt.toString()));
-            messages.addAll(inputMessages);
-            chatRequestBody.put("messages", messages);
+            // 准备请求体，合并智能体配置、知识库检索结果
+            Map<String, Object> chatRequestBody = agentChatService.buildRequest(agent, config, inputMessages, requestBody, inputEmbedding);
 
             // 大白话：调用 QwenController 的 chat 方法，获取 JSON 响应
             ResponseEntity<Map<String, Object>> qwenResponse = qwenController.chat(chatRequestBody, "Bearer " + token, session);
+            Map<String, Object> qwenBody = qwenResponse.getBody();
+            if (cacheable && qwenResponse.getStatusCode().is2xxSuccessful() && qwenBody != null
+                    && Boolean.TRUE.equals(qwenBody.get("success"))) {
+                semanticAnswerCache.put(agent.getId(), user.getId(), cacheGeneration, inputEmbedding, (String) qwenBody.get("content"));
+            }
             return qwenResponse;
 
         } catch (Exception e) {
@@ -366,6 +351,69 @@ public class AgentController {
 
     }
 
+    /**
+     * 智能体流式对话：和 /{id}/chat 一样合并智能体配置、检索知识库，回复以 SSE 事件边生成边推送
+     * 事件格式见 QwenController.chatStream
+     * @param id 智能体 ID
+     * @param requestBody 前端传递的请求体，包含消息、可选模型参数
+     * @param token JWT token，用于验证用户
+     * @param session HTTP 会话，用于获取 session ID
+     * @return SSE 连接
+     */
+    @PostMapping(value = "/{id}/chat/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter chatWithAgentStream(@PathVariable("id") Integer id,
+                                          @RequestBody Map<String, Object> requestBody,
+                                          @RequestHeader("Authorization") String token,
+                                          HttpSession session) {
+        System.out.println("收到智能体流式对话请求，智能体 ID：" + id + "，Session ID：" + session.getId());
+        try {
+            ModelConfig config = modelConfigRegistry.current();
+            if (config == null) {
+                return failedStream("未找到模型配置");
+            }
+
+            // 去掉 "Bearer " 前缀，获取用户名
+            String username = jwtUtil.getUsernameFromToken(token.substring(7));
+            System.out.println("流式对话请求用户：" + username);
+
+            Agent agent = agentMapper.selectAgentById(id);
+            if (agent == null) {
+                return failedStream("智能体不存在");
+            }
+            User user = userMapper.selectUserByName(username);
+            if (agent.getUserId() != user.getId()) {
+                return failedStream("无权访问该智能体");
+            }
+
+            List<Map<String, Object>> inputMessages = agentChatService.inputMessages(requestBody);
+            boolean cacheable = semanticAnswerCache.isCacheable(inputMessages);
+            float[] inputEmbedding = cacheable || agentChatService.hasKnowledgeBases(agent) ? agentChatService.embed(agentChatService.firstUserInput(inputMessages)) : null;
+            long cacheGeneration = semanticAnswerCache.generation(agent.getId(), user.getId());
+            String cachedAnswer = cacheable ? semanticAnswerCache.lookup(agent.getId(), inputEmbedding) : null;
+            if (cachedAnswer != null) {
+                SseEmitter emitter = qwenStreamService.createEmitter();
+                qwenStreamService.replay(emitter, cachedAnswer);
+                return emitter;
+            }
+
+            Map<String, Object> chatRequestBody = agentChatService.buildRequest(agent, config, inputMessages, requestBody, inputEmbedding);
+            // 正常推完才写缓存，前端中途断开的半截回复不记
+            return qwenController.chatStream(chatRequestBody, token, session, cacheable
+                    ? content -> semanticAnswerCache.put(agent.getId(), user.getId(), cacheGeneration, inputEmbedding, content)
+                    : null);
+        } catch (Exception e) {
+            System.out.println("智能体流式对话失败：" + e.getMessage());
+            e.printStackTrace();
+            return failedStream("智能体对话失败，服务器错误：" + e.getMessage());
+        }
+    }
+
+    private SseEmitter failedStream(String message) {
+        SseEmitter emitter = qwenStreamService.createEmitter();
+        qwenStreamService.fail(emitter, message);
+        return emitter;
+    }
+
     /**
      * 编辑智能体
      * @param id 智能体 ID
@@ -424,8 +472,9 @@ public class AgentController {
                             return response;
                         }
                         // 检查知识库是否存在
-                        List<KnowledgeBase> kbList = knowledgeBaseMapper.selectKnowledgeBasesByUserIdAndKbIdPrefix(user.getId(), kbId + "%");
-                        if (kbList.isEmpty()) {
+                        // 既可以填整个知识库，也可以填单个段落（kbId_N）
+                        if (!knowledgeBaseInfoMapper.existsKnowledgeBaseInfo(user.getId(), kbId)
+                                && !knowledgeBaseMapper.existsKnowledgeBaseByUserIdAndKbId(user.getId(), kbId)) {
                             response.put("success", false);
                             response.put("message", "知识库 ID " + kbId + " 不存在");
                             return response;
@@ -435,6 +484,14 @@ public class AgentController {
                 }
             }
 
+            // 验证向量检索参数
+            String searchParamError = validateVectorSearchParams(agentData);
+            if (searchParamError != null) {
+                response.put("success", false);
+                response.put("message", searchParamError);
+                return response;
+            }
+
             // 更新智能体对象
             agent.setName(agentName);
             agent.setSystemPrompt((String) agentData.get("system_prompt"));
@@ -452,11 +509,16 @@ public class AgentController {
             agent.setEnableSearch((Boolean) agentData.getOrDefault("enable_search", false));
             agent.setSearchOptions(agentData.get("search_options") != null ? new ObjectMapper().writeValueAsString(agentData.get("search_options")) : null);
             agent.setTranslationOptions(agentData.get("translation_options") != null ? new ObjectMapper().writeValueAsString(agentData.get("translation_options")) : null);
+            agent.setVectorEfSearch(agentData.get("vector_ef_search") != null ? ((Number) agentData.get("vector_ef_search")).intValue() : null);
+            agent.setVectorProbes(agentData.get("vector_probes") != null ? ((Number) agentData.get("vector_probes")).intValue() : null);
             agent.setUpdatedAt(LocalDateTime.now());
 
             // 更新数据库
             int result = agentMapper.updateAgent(agent);
             if (result > 0) {
+                // 提示词、知识库、模型参数可能都变了，旧答案作废
+                semanticAnswerCache.invalidateAgent(id);
+                agentChatService.evictTemplate(id);
                 response.put("success", true);
                 response.put("message", "智能体编辑成功");
                 response.put("data", agent);
@@ -474,53 +536,19 @@ public class AgentController {
     }
 
     /**
-     * 生成输入文本的嵌入向量
-     * @param input 输入文本
-     * @return 向量数组
+     * 校验智能体的向量检索参数：vector_ef_search 1-1000，vector_probes 1-32768，不填表示用全局配置
+     * @param agentData 智能体数据
+     * @return 错误信息，没问题返回 null
      */
-    private float[] generateEmbedding(String input) {
-        if (input == null || input.trim().isEmpty()) {
-            return null;
+    private String validateVectorSearchParams(Map<String, Object> agentData) {
+        Object efSearch = agentData.get("vector_ef_search");
+        if (efSearch != null && (!(efSearch instanceof Integer) || (Integer) efSearch < 1 || (Integer) efSearch > 1000)) {
+            return "vector_ef_search 必须是 1 到 1000 之间的整数";
         }
-
-        // 已有：从数据库获取配置
-        List<ModelConfig> configs = modelConfigMapper.selectAllModelConfigs();
-        if (configs.isEmpty()) {
-            System.out.println("未找到模型配置");
-            return null;
-        }
-        ModelConfig config = configs.get(0); //
-
-        String url = config.getEmbeddingurl() + "/embeddings";
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.set("Authorization", "Bearer " + config.getEmbeddingkey());
-
-        Map<String, Object> body = new HashMap<>();
-        body.put("model", config.getEmbeddingmodel());
-        body.put("input", input);
-        body.put("dimension", embeddingDimension); // 使用配置文件中的维度
-        body.put("encoding_format", "float");
-
-        HttpEntity<Map<String, Object>> requestEntity = new HttpEntity<>(body, headers);
-        try {
-            ResponseEntity<Map> response = restTemplate.postForEntity(url, requestEntity, Map.class);
-            if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null) {
-                List<Map<String, Object>> data = (List<Map<String, Object>>) response.getBody().get("data");
-                if (!data.isEmpty()) {
-                    List<Double> embedding = (List<Double>) data.get(0).get("embedding");
-                    float[] vector = new float[embedding.size()];
-                    for (int i = 0; i < embedding.size(); i++) {
-                        vector[i] = embedding.get(i).floatValue();
-                    }
-                    return vector;
-                }
-            }
-            System.out.println("向量生成失败，状态码：" + response.getStatusCode());
-            return null;
-        } catch (HttpClientErrorException e) {
-            System.out.println("向量 API 返回错误：" + e.getResponseBodyAsString());
-            return null;
+        Object probes = agentData.get("vector_probes");
+        if (probes != null && (!(probes instanceof Integer) || (Integer) probes < 1 || (Integer) probes > 32768)) {
+            return "vector_probes 必须是 1 到 32768 之间的整数";
         }
+        return null;
     }
-}
\ No newline at end of file
+}
@@ -1,9 +1,10 @@
 package com.example.douyinlive.controller;
 
 import com.example.douyinlive.entity.User;
-import com.example.douyinlive.mapper.ModelConfigMapper;
 import com.example.douyinlive.entity.ModelConfig;
 import com.example.douyinlive.mapper.UserMapper;
+import com.example.douyinlive.service.ModelConfigRegistry;
+import com.example.douyinlive.service.ModelRouter;
 import com.example.douyinlive.util.JwtUtil;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -44,9 +45,13 @@ public class DataNormalizationController {
     @Autowired
     private UserMapper userMapper;
 
-    // 注入 ModelConfigMapper，获取模型配置
+    // 注入 ModelConfigRegistry，获取内存里的模型配置
     @Autowired
-    private ModelConfigMapper modelConfigMapper;
+    private ModelConfigRegistry modelConfigRegistry;
+
+    // 注入 ModelRouter，数据规范化模型的多接入点路由
+    @Autowired
+    private ModelRouter modelRouter;
 
     // 从配置文件读取最大 Token 数
     @Value("${embedding.max-tokens}")
@@ -239,18 +244,12 @@ public class DataNormalizationController {
      * @return 问答对列表
      */
     private List<Map<String, String>> normalizeToQuestionAnswer(String content) {
-        // 从数据库获取模型配置
-        List<ModelConfig> configs = modelConfigMapper.selectAllModelConfigs();
-        if (configs.isEmpty()) {
+        // 从内存里的模型配置取，不查数据库
+        ModelConfig config = modelConfigRegistry.current();
+        if (config == null) {
             System.out.println("未找到模型配置");
             return new ArrayList<>();
         }
-        ModelConfig config = configs.get(0); // 假设取第一条配置
-
-        String url = config.getDatageshiurl() + "/chat/completions";
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.set("Authorization", "Bearer " + config.getDatageshikey());
 
         // 构造提示词
         String prompt = String.format(NORMALIZE_PROMPT, content);
@@ -267,9 +266,15 @@ public class DataNormalizationController {
         body.put("max_tokens", maxTokens); // 使用配置文件中的 maxTokens
         body.put("temperature", 0.0); // 设置模型温度为 0.0，数据格式化要最保守，严格按原文和提示词生成
 
-        HttpEntity<Map<String, Object>> requestEntity = new HttpEntity<>(body, headers);
         try {
-            ResponseEntity<Map> response = restTemplate.postForEntity(url, requestEntity, Map.class);
+            // 接入点交给 ModelRouter 选：按延迟排、慢了对冲、失败切换
+            ResponseEntity<Map> response = modelRouter.execute(ModelRouter.Role.NORMALIZE, endpoint -> {
+                HttpHeaders headers = new HttpHeaders();
+                headers.setContentType(MediaType.APPLICATION_JSON);
+                headers.set("Authorization", "Bearer " + endpoint.getApiKey());
+                return restTemplate.postForEntity(endpoint.getUrl() + "/chat/completions",
+                        new HttpEntity<>(ModelRouter.withModel(body, endpoint), headers), Map.class);
+            });
             System.out.println("通义千问 API 响应状态码：" + response.getStatusCode());
             if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null) {
                 Map<String, Object> responseBody = response.getBody();
@@ -1,11 +1,17 @@
 package com.example.douyinlive.controller;
 
-import com.example.douyinlive.config.LiveMessageWebSocketHandler;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.example.douyinlive.entity.User;
+import com.example.douyinlive.mapper.UserMapper;
+import com.example.douyinlive.service.DanmuBatcher;
+import com.example.douyinlive.service.DanmuTriage;
+import com.example.douyinlive.service.LiveMessageDispatcher;
+import com.example.douyinlive.service.LiveReplyPipeline;
+import com.example.douyinlive.util.JwtUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -19,20 +25,45 @@ public class LiveMessageController {
     // 控制是否拉取弹幕的标志，线程安全
     private final AtomicBoolean isFetching = new AtomicBoolean(false);
 
-    // 注入 WebSocket 处理类
+    // 注入直播消息分发，转发给前端并交给回复流水线/攒批服务
     @Autowired
-    private LiveMessageWebSocketHandler webSocketHandler;
+    private LiveMessageDispatcher liveMessageDispatcher;
 
-    // 用于 JSON 序列化
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    // 注入弹幕攒批服务，开启后弹幕问题攒一批再交给智能体回复
+    @Autowired
+    private DanmuBatcher danmuBatcher;
+
+    // 注入服务端直播回复流水线，直播间绑定开启后弹幕直接在后端回复
+    @Autowired
+    private LiveReplyPipeline liveReplyPipeline;
+
+    // 注入弹幕分诊，查直播间队列深度和丢弃统计
+    @Autowired
+    private DanmuTriage danmuTriage;
+
+    @Autowired
+    private JwtUtil jwtUtil;
+
+    @Autowired
+    private UserMapper userMapper;
 
     /**
      * API 端点：启动拉取弹幕（实际由 Python 手动控制）
-     * @return 启动结果
+     * 直播间绑定开启了服务端自动回复时，弹幕由后端直接回复并推给语音播放器，回复以 agent_reply 消息推回前端；
+     * 否则请求体带 agent_id 时开启服务端攒批回复：只在弹幕高峰期把问题攒一批交给该智能体，回复以 batch_reply 消息推回前端，
+     * 进了攒批的弹幕带 reply: "batch"，其余弹幕照旧由前端回复
+     * @param body 可选，{agent_id}
+     * @param token JWT token
+     * @return 启动结果，server_reply 表示由服务端自动回复，batch_reply 表示高峰期会攒批回复
      */
     @PostMapping("/start")
-    public Map<String, Object> startFetching() {
+    public Map<String, Object> startFetching(@RequestBody(required = false) Map<String, Object> body,
+                                             @RequestHeader(value = "Authorization", required = false) String token) {
         Map<String, Object> response = new HashMap<>();
+        User user = currentUser(token);
+        boolean serverReply = user != null && liveReplyPipeline.isEnabled(user.getName());
+        response.put("server_reply", serverReply);
+        response.put("batch_reply", !serverReply && enableBatchReply(body, user));
         if (isFetching.compareAndSet(false, true)) {
             System.out.println("开始拉取弹幕，状态切换为 true");
             response.put("status", "success");
@@ -50,8 +81,12 @@ public class LiveMessageController {
      * @return 停止结果
      */
     @PostMapping("/stop")
-    public Map<String, Object> stopFetching() {
+    public Map<String, Object> stopFetching(@RequestHeader(value = "Authorization", required = false) String token) {
         Map<String, Object> response = new HashMap<>();
+        User user = currentUser(token);
+        if (user != null) {
+            danmuBatcher.disable(user.getName());
+        }
         if (isFetching.compareAndSet(true, false)) {
             System.out.println("停止拉取弹幕，状态切换为 false");
             response.put("status", "success");
@@ -83,29 +118,13 @@ public class LiveMessageController {
                 return response;
             }
 
-            // 大白话：检查消息类型，若为 enter_room，转换为弹幕消息格式
-            String messageType = (String) message.get("type");
-            Map<String, Object> formattedMessage = new HashMap<>(message);
-
-            if ("enter_room".equals(messageType)) {
-                Map<String, Object> data = (Map<String, Object>) message.get("data");
-                String viewerName = (String) data.get("viewer_name");
-                String viewerId = String.valueOf(data.get("viewer_id")); // 确保是字符串
-                formattedMessage.put("type", "chat"); // 改为 chat 类型
-                formattedMessage.put("data", new HashMap<String, Object>() {{
-                    put("user_id", viewerId);
-                    put("user_name", viewerName);
-                    put("content", viewerName + " 进入了直播间");
-                }});
-                System.out.println("转换 enter_room 消息为弹幕格式，用户：" + username + "，转换后：" + formattedMessage);
-            }
-
-            // 大白话：将消息转为 JSON 字符串并分发给对应用户
-            String messageJson = objectMapper.writeValueAsString(formattedMessage);
-            webSocketHandler.sendMessageToUser(messageJson, username);
-            System.out.println("成功分发弹幕消息给用户 " + username + "：" + messageJson);
+            LiveMessageDispatcher.Outcome outcome = liveMessageDispatcher.dispatch(username, message);
+            System.out.println("已分发弹幕消息给用户 " + username + "，结果：" + outcome);
             response.put("status", "success");
             response.put("message", "消息已分发给用户 " + username);
+            response.put("queued", outcome == LiveMessageDispatcher.Outcome.QUEUED);
+            response.put("batched", outcome == LiveMessageDispatcher.Outcome.BATCHED);
+            response.put("dropped", outcome == LiveMessageDispatcher.Outcome.DROPPED);
         } catch (Exception e) {
             System.err.println("推送弹幕消息失败，消息：" + message + "，错误：" + e.getMessage());
             e.printStackTrace();
@@ -114,4 +133,98 @@ public class LiveMessageController {
         }
         return response;
     }
+
+    /**
+     * API 端点：一次接收 Python 推送的多条弹幕/进场消息，逐条分发
+     * 大白话：高峰期每秒几百条弹幕，一条一个 POST 两边都在白白耗 CPU；Python 端攒一小批（比如 200 毫秒内的）一起推过来，
+     * 一个请求里按顺序分发完。单条出错不影响其他条，响应里带每种结果的条数
+     * @param messages 消息数组，每条格式和 /push 一样
+     * @return 处理结果：accepted 分发成功条数、rejected 出错条数、queued 进了服务端回复流水线的条数、batched 进了攒批的条数、
+     * dropped 被弹幕分诊丢掉的条数（算在 accepted 里）
+     */
+    @PostMapping("/push-batch")
+    public Map<String, Object> pushMessages(@RequestBody List<Map<String, Object>> messages) {
+        Map<String, Object> response = new HashMap<>();
+        int accepted = 0;
+        int rejected = 0;
+        int queued = 0;
+        int batched = 0;
+        int dropped = 0;
+        for (Map<String, Object> message : messages) {
+            String username = message != null && message.get("username") instanceof String name ? name : null;
+            if (username == null || username.isEmpty()) {
+                rejected++;
+                continue;
+            }
+            try {
+                LiveMessageDispatcher.Outcome outcome = liveMessageDispatcher.dispatch(username, message);
+                accepted++;
+                if (outcome == LiveMessageDispatcher.Outcome.QUEUED) {
+                    queued++;
+                } else if (outcome == LiveMessageDispatcher.Outcome.BATCHED) {
+                    batched++;
+                } else if (outcome == LiveMessageDispatcher.Outcome.DROPPED) {
+                    dropped++;
+                }
+            } catch (Exception e) {
+                rejected++;
+                System.err.println("推送弹幕消息失败，消息：" + message + "，错误：" + e.getMessage());
+            }
+        }
+        System.out.println("收到 Python 批量推送的消息 " + messages.size() + " 条，分发 " + accepted + " 条，出错 " + rejected + " 条");
+        response.put("status", rejected == 0 ? "success" : "partial");
+        response.put("accepted", accepted);
+        response.put("rejected", rejected);
+        response.put("queued", queued);
+        response.put("batched", batched);
+        response.put("dropped", dropped);
+        return response;
+    }
+
+    /**
+     * API 端点：当前用户直播间的弹幕分诊统计
+     * @param token JWT token
+     * @return depth 当前排队条数，categories 每类（purchase、question、first-time、chat、enter、spam）的排队、收到、放行、按原因丢弃的条数
+     */
+    @GetMapping("/triage")
+    public Map<String, Object> getTriageStats(@RequestHeader(value = "Authorization", required = false) String token) {
+        Map<String, Object> response = new HashMap<>();
+        User user = currentUser(token);
+        if (user == null) {
+            response.put("success", false);
+            response.put("message", "用户未登录");
+            return response;
+        }
+        Map<String, Object> stats = danmuTriage.snapshot(user.getName());
+        response.put("success", true);
+        response.put("message", "获取弹幕分诊统计成功");
+        response.put("enabled", danmuTriage.isEnabled());
+        response.put("data", stats != null ? stats : new HashMap<>());
+        return response;
+    }
+
+    /**
+     * 请求体带了 agent_id 且智能体属于当前用户时，开启该用户直播间的攒批回复
+     * @return 是否开启
+     */
+    private boolean enableBatchReply(Map<String, Object> body, User user) {
+        if (body == null || !(body.get("agent_id") instanceof Number) || user == null) {
+            return false;
+        }
+        int agentId = ((Number) body.get("agent_id")).intValue();
+        return danmuBatcher.enable(user.getName(), user.getId(), agentId);
+    }
+
+    // 去掉 "Bearer " 前缀，按 token 里的用户名查用户，token 缺失或无效返回 null
+    private User currentUser(String token) {
+        if (token == null || !token.startsWith("Bearer ")) {
+            return null;
+        }
+        try {
+            return userMapper.selectUserByName(jwtUtil.getUsernameFromToken(token.substring(7)));
+        } catch (Exception e) {
+            System.err.println("解析 token 失败：" + e.getMessage());
+            return null;
+        }
+    }
 }
\ No newline at end of file
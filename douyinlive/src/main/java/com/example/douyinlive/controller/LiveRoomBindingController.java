@@ -0,0 +1,146 @@
+package com.example.douyinlive.controller;
+
+import com.example.douyinlive.entity.Agent;
+import com.example.douyinlive.entity.LiveRoomBinding;
+import com.example.douyinlive.entity.User;
+import com.example.douyinlive.entity.VoiceConfig;
+import com.example.douyinlive.mapper.AgentMapper;
+import com.example.douyinlive.mapper.LiveRoomBindingMapper;
+import com.example.douyinlive.mapper.UserMapper;
+import com.example.douyinlive.mapper.VoiceConfigMapper;
+import com.example.douyinlive.service.LiveReplyPipeline;
+import com.example.douyinlive.util.JwtUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 直播间绑定控制器：配置服务端自动回复用的智能体、语音配置和开关
+ */
+@RestController
+@RequestMapping("/live-rooms/binding")
+public class LiveRoomBindingController {
+
+    @Autowired
+    private JwtUtil jwtUtil;
+
+    @Autowired
+    private UserMapper userMapper;
+
+    @Autowired
+    private AgentMapper agentMapper;
+
+    @Autowired
+    private VoiceConfigMapper voiceConfigMapper;
+
+    @Autowired
+    private LiveRoomBindingMapper liveRoomBindingMapper;
+
+    // 注入服务端直播回复流水线，绑定改了通知它重新加载
+    @Autowired
+    private LiveReplyPipeline liveReplyPipeline;
+
+    /**
+     * 查询当前用户的直播间绑定
+     * @param token 用户 token
+     * @return 绑定，没有绑定时 data 为 null
+     */
+    @GetMapping
+    public ResponseEntity<Map<String, Object>> getBinding(@RequestHeader("Authorization") String token) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            // 去掉 "Bearer " 前缀，获取用户名
+            String username = jwtUtil.getUsernameFromToken(token.substring(7));
+            User user = userMapper.selectUserByName(username);
+            if (user == null) {
+                response.put("success", false);
+                response.put("message", "用户不存在");
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(response);
+            }
+            response.put("success", true);
+            response.put("data", liveRoomBindingMapper.selectBindingByUserId(user.getId()));
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            System.out.println("查询直播间绑定失败：" + e.getMessage());
+            e.printStackTrace();
+            response.put("success", false);
+            response.put("message", "查询直播间绑定失败，服务器错误");
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+        }
+    }
+
+    /**
+     * 新增或修改当前用户的直播间绑定
+     * @param bindingData agent_id（必填）、voice_config_id（可选）、tts_enabled（默认 true）、enabled（默认 true）
+     * @param token 用户 token
+     * @return 保存后的绑定
+     */
+    @PutMapping
+    public ResponseEntity<Map<String, Object>> saveBinding(@RequestBody Map<String, Object> bindingData,
+                                                           @RequestHeader("Authorization") String token) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            // 去掉 "Bearer " 前缀，获取用户名
+            String username = jwtUtil.getUsernameFromToken(token.substring(7));
+            User user = userMapper.selectUserByName(username);
+            if (user == null) {
+                response.put("success", false);
+                response.put("message", "用户不存在");
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(response);
+            }
+
+            // 校验智能体属于当前用户
+            if (!(bindingData.get("agent_id") instanceof Number)) {
+                response.put("success", false);
+                response.put("message", "agent_id 不能为空");
+                return ResponseEntity.badRequest().body(response);
+            }
+            int agentId = ((Number) bindingData.get("agent_id")).intValue();
+            Agent agent = agentMapper.selectAgentById(agentId);
+            if (agent == null || agent.getUserId() != user.getId()) {
+                response.put("success", false);
+                response.put("message", "智能体不存在或无权使用");
+                return ResponseEntity.badRequest().body(response);
+            }
+
+            // 校验语音配置存在且属于当前用户
+            String voiceConfigId = bindingData.get("voice_config_id") != null ? String.valueOf(bindingData.get("voice_config_id")) : null;
+            if (voiceConfigId != null) {
+                VoiceConfig voiceConfig = voiceConfigMapper.selectConfigById(voiceConfigId);
+                if (voiceConfig == null || voiceConfig.getUserId() != user.getId()) {
+                    response.put("success", false);
+                    response.put("message", "语音配置不存在或无权使用");
+                    return ResponseEntity.badRequest().body(response);
+                }
+            }
+
+            LocalDateTime now = LocalDateTime.now();
+            LiveRoomBinding binding = new LiveRoomBinding();
+            binding.setUserId(user.getId());
+            binding.setAgentId(agentId);
+            binding.setVoiceConfigId(voiceConfigId);
+            binding.setTtsEnabled((Boolean) bindingData.getOrDefault("tts_enabled", true));
+            binding.setEnabled((Boolean) bindingData.getOrDefault("enabled", true));
+            binding.setCreatedAt(now);
+            binding.setUpdatedAt(now);
+            liveRoomBindingMapper.upsertBinding(binding);
+            liveReplyPipeline.refresh(username);
+
+            response.put("success", true);
+            response.put("message", "直播间绑定已保存");
+            response.put("data", liveRoomBindingMapper.selectBindingByUserId(user.getId()));
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            System.out.println("保存直播间绑定失败：" + e.getMessage());
+            e.printStackTrace();
+            response.put("success", false);
+            response.put("message", "保存直播间绑定失败，服务器错误");
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+        }
+    }
+}
@@ -2,8 +2,10 @@ package com.example.douyinlive.controller;
 
 import com.example.douyinlive.entity.ModelConfig;
 import com.example.douyinlive.entity.User;
-import com.example.douyinlive.mapper.ModelConfigMapper;
 import com.example.douyinlive.mapper.UserMapper;
+import com.example.douyinlive.service.ModelConfigRegistry;
+import com.example.douyinlive.service.ModelRouter;
+import com.example.douyinlive.service.QwenTokenizer;
 import com.example.douyinlive.util.JwtUtil;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.poi.hwpf.HWPFDocument;
@@ -45,9 +47,17 @@ public class LiveScriptController {
     @Autowired
     private UserMapper userMapper;
 
-    // 注入 ModelConfigMapper，获取模型配置
+    // 注入 ModelRouter，按延迟选直播模型接入点、失败切换
     @Autowired
-    private ModelConfigMapper modelConfigMapper;
+    private ModelRouter modelRouter;
+
+    // 注入 QwenTokenizer，本地统计 Token 数
+    @Autowired
+    private QwenTokenizer qwenTokenizer;
+
+    // 注入 ModelConfigRegistry，获取内存里的模型配置
+    @Autowired
+    private ModelConfigRegistry modelConfigRegistry;
 
     // 大白话注释：从配置文件读取直播剧本专用的最大 Token 数
     @Value("${live-script.max-tokens}")
@@ -240,26 +250,19 @@ public class LiveScriptController {
      */
     // 大白话注释：调用通义千问 API，生成直播剧本，优化为推理模式
     private String generateScript(String content) {
-        // 从数据库获取模型配置
-        List<ModelConfig> configs = modelConfigMapper.selectAllModelConfigs();
-        if (configs.isEmpty()) {
+        // 从内存里的模型配置取，不查数据库
+        ModelConfig config = modelConfigRegistry.current();
+        if (config == null) {
             System.out.println("未找到模型配置");
             return "";
         }
-        ModelConfig config = configs.get(0); // 假设取第一条配置
 
-        // 大白话注释：检查 liveurl 是否为 null
-        if (config.getLiveurl() == null || config.getLiveurl().trim().isEmpty()) {
+        // 大白话注释：检查 liveurl 和额外的直播模型接入点是否都没配
+        if (modelRouter.endpoints(ModelRouter.Role.LIVE).isEmpty()) {
             System.out.println("直播剧本生成失败：liveurl 未配置");
             return "";
         }
 
-        // 大白话注释：修复 URL 构造，避免重复拼接 /chat/completions
-        String url = config.getLiveurl(); // 直接使用 liveurl，不再额外拼接
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.set("Authorization", "Bearer " + config.getLivekey());
-
         // 构造提示词
         String prompt = String.format(LIVE_SCRIPT_PROMPT, content);
 
@@ -276,9 +279,14 @@ public class LiveScriptController {
         body.put("presence_penalty", 0.0); // 大白话注释：减少生成额外内容
         body.put("max_tokens", maxTokens); // 大白话注释：保持最大 Token 数，支持长输出
 
-        HttpEntity<Map<String, Object>> requestEntity = new HttpEntity<>(body, headers);
         try {
-            ResponseEntity<Map> response = restTemplate.postForEntity(url, requestEntity, Map.class);
+            // 大白话注释：liveurl 是完整地址，不再额外拼接 /chat/completions；接入点交给 ModelRouter 选
+            ResponseEntity<Map> response = modelRouter.execute(ModelRouter.Role.LIVE, endpoint -> {
+                HttpHeaders headers = new HttpHeaders();
+                headers.setContentType(MediaType.APPLICATION_JSON);
+                headers.set("Authorization", "Bearer " + endpoint.getApiKey());
+                return restTemplate.postForEntity(endpoint.getUrl(), new HttpEntity<>(ModelRouter.withModel(body, endpoint), headers), Map.class);
+            });
             System.out.println("通义千问 API 响应状态码：" + response.getStatusCode());
             if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null) {
                 Map<String, Object> responseBody = response.getBody();
@@ -328,16 +336,12 @@ public class LiveScriptController {
     }
 
     /**
-     * 估算输入内容的 Token 数，简单基于字符数
-     * 大白话注释：中文 1 字符 ≈ 1 Token，英文单词算半个 Token，粗略估算
+     * 统计输入内容的 Token 数
+     * 大白话注释：交给 QwenTokenizer，配了 Qwen 词表就是精确值，没配就按汉字、英文、数字分别估算
      * @param content 输入内容
-     * @return 估算的 Token 数
+     * @return Token 数
      */
     private int estimateTokenCount(String content) {
-        if (content == null || content.isEmpty()) {
-            return 0;
-        }
-        // 大白话注释：直接用字符数作为 Token 数，中文为主的文档比较准
-        return content.length();
+        return qwenTokenizer.count(content);
     }
 }
\ No newline at end of file
@@ -1,9 +1,13 @@
 package com.example.douyinlive.controller;
 
 import com.example.douyinlive.entity.ModelConfig;
+import com.example.douyinlive.entity.ModelEndpoint;
 import com.example.douyinlive.entity.User;
 import com.example.douyinlive.mapper.ModelConfigMapper;
+import com.example.douyinlive.mapper.ModelEndpointMapper;
 import com.example.douyinlive.mapper.UserMapper;
+import com.example.douyinlive.service.ModelConfigRegistry;
+import com.example.douyinlive.service.ModelRouter;
 import com.example.douyinlive.util.JwtUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
@@ -16,7 +20,7 @@ import java.util.List;
 import java.util.Map;
 
 /**
- * 模型配置控制器，处理大模型配置的获取和更新
+ * 模型配置控制器，处理大模型配置的获取和更新，以及额外模型接入点的增删改查
  */
 @RestController
 @RequestMapping("/model-config")
@@ -25,12 +29,18 @@ public class ModelConfigController {
     @Autowired
     private ModelConfigMapper modelConfigMapper;
 
+    @Autowired
+    private ModelEndpointMapper modelEndpointMapper;
+
     @Autowired
     private UserMapper userMapper;
 
     @Autowired
     private JwtUtil jwtUtil;
 
+    @Autowired
+    private ModelConfigRegistry modelConfigRegistry;
+
     /**
      * 获取所有模型配置
      * @param token 用户 token
@@ -99,6 +109,8 @@ public class ModelConfigController {
                 // 大白话注释：新增时确保所有字段都能存，包括直播模型的配置
                 int result = modelConfigMapper.insertModelConfig(configData);
                 if (result > 0) {
+                    // 大白话注释：改完立刻刷新内存里的配置，下一条对话就用新的
+                    modelConfigRegistry.reload();
                     response.put("success", true);
                     response.put("message", "模型配置创建成功");
                     response.put("data", configData);
@@ -111,6 +123,7 @@ public class ModelConfigController {
                 // 大白话注释：更新时也要支持直播模型的字段
                 int result = modelConfigMapper.updateModelConfig(configData);
                 if (result > 0) {
+                    modelConfigRegistry.reload();
                     response.put("success", true);
                     response.put("message", "模型配置更新成功");
                     response.put("data", configData);
@@ -129,4 +142,132 @@ public class ModelConfigController {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
         }
     }
+
+    /**
+     * 获取所有模型接入点（model_config 里的主接入点之外额外配的）
+     * @param token 用户 token
+     * @return 接入点列表
+     */
+    @GetMapping("/endpoints")
+    public ResponseEntity<Map<String, Object>> getEndpoints(@RequestHeader("Authorization") String token) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            // 去掉 "Bearer " 前缀，获取用户名
+            String username = jwtUtil.getUsernameFromToken(token.substring(7));
+            User user = userMapper.selectUserByName(username);
+            if (user == null) {
+                response.put("success", false);
+                response.put("message", "用户不存在");
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(response);
+            }
+
+            response.put("success", true);
+            response.put("message", "获取模型接入点成功");
+            response.put("data", modelEndpointMapper.selectAllEndpoints());
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            System.out.println("获取模型接入点失败：" + e.getMessage());
+            e.printStackTrace();
+            response.put("success", false);
+            response.put("message", "获取模型接入点失败，服务器错误：" + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+        }
+    }
+
+    /**
+     * 新增或更新模型接入点，没有 id 是新增
+     * @param endpoint role（chat / embedding / live / normalize）、url、model、apiKey、priority、backup、enabled
+     * @param token 用户 token
+     * @return 保存后的接入点
+     */
+    @PostMapping("/endpoints")
+    public ResponseEntity<Map<String, Object>> saveEndpoint(@RequestBody ModelEndpoint endpoint,
+                                                            @RequestHeader("Authorization") String token) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            // 去掉 "Bearer " 前缀，获取用户名
+            String username = jwtUtil.getUsernameFromToken(token.substring(7));
+            User user = userMapper.selectUserByName(username);
+            if (user == null) {
+                response.put("success", false);
+                response.put("message", "用户不存在");
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(response);
+            }
+            if (ModelRouter.Role.of(endpoint.getRole()) == null) {
+                response.put("success", false);
+                response.put("message", "role 只能是 chat、embedding、live、normalize");
+                return ResponseEntity.badRequest().body(response);
+            }
+            if (endpoint.getUrl() == null || endpoint.getUrl().trim().isEmpty()
+                    || endpoint.getModel() == null || endpoint.getModel().trim().isEmpty()) {
+                response.put("success", false);
+                response.put("message", "url 和 model 不能为空");
+                return ResponseEntity.badRequest().body(response);
+            }
+
+            LocalDateTime now = LocalDateTime.now();
+            endpoint.setUpdatedAt(now);
+            int result;
+            if (endpoint.getId() == null) {
+                endpoint.setCreatedAt(now);
+                result = modelEndpointMapper.insertEndpoint(endpoint);
+            } else {
+                result = modelEndpointMapper.updateEndpoint(endpoint);
+            }
+            if (result == 0) {
+                response.put("success", false);
+                response.put("message", "模型接入点不存在");
+                return ResponseEntity.badRequest().body(response);
+            }
+            // 改完立刻刷新内存里的配置，下一次调用就按新的接入点路由
+            modelConfigRegistry.reload();
+            response.put("success", true);
+            response.put("message", "模型接入点保存成功");
+            response.put("data", endpoint);
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            System.out.println("保存模型接入点失败：" + e.getMessage());
+            e.printStackTrace();
+            response.put("success", false);
+            response.put("message", "保存模型接入点失败，服务器错误：" + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+        }
+    }
+
+    /**
+     * 删除模型接入点
+     * @param id 接入点 ID
+     * @param token 用户 token
+     * @return 删除结果
+     */
+    @DeleteMapping("/endpoints/{id}")
+    public ResponseEntity<Map<String, Object>> deleteEndpoint(@PathVariable int id,
+                                                              @RequestHeader("Authorization") String token) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            // 去掉 "Bearer " 前缀，获取用户名
+            String username = jwtUtil.getUsernameFromToken(token.substring(7));
+            User user = userMapper.selectUserByName(username);
+            if (user == null) {
+                response.put("success", false);
+                response.put("message", "用户不存在");
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(response);
+            }
+            if (modelEndpointMapper.deleteEndpoint(id) == 0) {
+                response.put("success", false);
+                response.put("message", "模型接入点不存在");
+                return ResponseEntity.badRequest().body(response);
+            }
+            modelConfigRegistry.reload();
+            response.put("success", true);
+            response.put("message", "模型接入点删除成功");
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            System.out.println("删除模型接入点失败：" + e.getMessage());
+            e.printStackTrace();
+            response.put("success", false);
+            response.put("message", "删除模型接入点失败，服务器错误：" + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+        }
+    }
 }
\ No newline at end of file
@@ -1,7 +1,9 @@
 package com.example.douyinlive.controller;
 
 import com.example.douyinlive.entity.ModelConfig; // 新增
-import com.example.douyinlive.mapper.ModelConfigMapper; // 新增
+import com.example.douyinlive.service.ModelConfigRegistry;
+import com.example.douyinlive.service.ModelRouter;
+import com.example.douyinlive.service.QwenStreamService;
 import com.example.douyinlive.util.JwtUtil;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -10,10 +12,12 @@ import org.springframework.http.*;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import jakarta.servlet.http.HttpSession;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 @RestController
 @RequestMapping("/qwen")
@@ -23,7 +27,18 @@ public class QwenController {
     private JwtUtil jwtUtil;
 
     @Autowired
-    private ModelConfigMapper modelConfigMapper; // 新增
+    private ModelConfigRegistry modelConfigRegistry; // 内存里的模型配置，不查数据库
+
+    @Autowired
+    private QwenStreamService qwenStreamService;
+
+    // 对话接入点路由：按延迟选、慢了对冲、挂了切换
+    @Autowired
+    private ModelRouter modelRouter;
+
+    // 共用的 HTTP 客户端，带连接池和超时
+    @Autowired
+    private RestTemplate restTemplate;
 
 //    private final Map<String, Map<String, Object>> userContexts = new ConcurrentHashMap<>();
 
@@ -34,59 +49,36 @@ public class QwenController {
                                                     HttpSession session) throws JsonProcessingException {
         System.out.println("收到 AI 对话请求，Session ID：" + session.getId());
         try {
-            // 从数据库获取模型配置
-            List<ModelConfig> configs = modelConfigMapper.selectAllModelConfigs();
-            if (configs.isEmpty()) {
+            // 从内存里的模型配置取，不查数据库
+            ModelConfig config = modelConfigRegistry.current();
+            if (config == null) {
                 Map<String, Object> errorResponse = new HashMap<>();
                 errorResponse.put("success", false);
                 errorResponse.put("message", "未找到模型配置");
                 return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                         .body(errorResponse);
             }
-            ModelConfig config = configs.get(0); // 假设取第一条配置
 
             token = token.substring(7);
             String username = jwtUtil.getUsernameFromToken(token);
             System.out.println("对话请求用户：" + username);
 
-            RestTemplate restTemplate = new RestTemplate();
-            // 直接使用数据库的完整 URL
-            String url = config.getQwenurl();
-            System.out.println("调用通义千问 API URL：" + url);
-
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            headers.set("Authorization", "Bearer " + config.getQwenkey());
-
-            Map<String, Object> body = new HashMap<>();
-            body.put("model", requestBody.getOrDefault("model", config.getQwenmodel()));
+            Map<String, Object> body = buildRequestBody(requestBody, config);
             body.put("stream", false); // 大白话：关闭流式传输，获取完整响应
-            body.put("modalities", requestBody.getOrDefault("modalities", List.of("text")));
-            body.put("temperature", requestBody.get("temperature"));
-            body.put("top_p", requestBody.get("top_p"));
-            body.put("presence_penalty", requestBody.get("presence_penalty"));
-            body.put("response_format", requestBody.getOrDefault("response_format", Map.of("type", "text")));
-            body.put("max_tokens", requestBody.get("max_tokens"));
-            body.put("n", requestBody.getOrDefault("n", 1));
-            body.put("seed", requestBody.get("seed"));
-            body.put("stop", requestBody.get("stop"));
-            body.put("tools", requestBody.get("tools")); // 保留 tools=null
-            body.put("enable_search", requestBody.getOrDefault("enable_search", false));
-            body.put("search_options", requestBody.get("search_options"));
-            body.put("translation_options", requestBody.get("translation_options"));
-
-            // 大白话：直接用前端传来的消息，不加历史
-            List<Map<String, Object>> messages = (List<Map<String, Object>>) requestBody.getOrDefault("messages", new ArrayList<>());
-            body.put("messages", messages);
 
             System.out.println("通义千问 API 请求体：" + new ObjectMapper().writeValueAsString(body));
 
-            HttpEntity<Map<String, Object>> requestEntity = new HttpEntity<>(body, headers);
-
-            // 大白话：不再用流式请求，直接获取完整的 JSON 响应
+            // 大白话：不再用流式请求，直接获取完整的 JSON 响应；接入点交给 ModelRouter 选，慢了对冲、挂了切换
             ResponseEntity<Map> response;
             try {
-                response = restTemplate.exchange(url, HttpMethod.POST, requestEntity, Map.class);
+                response = modelRouter.execute(ModelRouter.Role.CHAT, endpoint -> {
+                    System.out.println("调用通义千问 API URL：" + endpoint.getUrl());
+                    HttpHeaders headers = new HttpHeaders();
+                    headers.setContentType(MediaType.APPLICATION_JSON);
+                    headers.set("Authorization", "Bearer " + endpoint.getApiKey());
+                    HttpEntity<Map<String, Object>> requestEntity = new HttpEntity<>(ModelRouter.withModel(body, endpoint), headers);
+                    return restTemplate.exchange(endpoint.getUrl(), HttpMethod.POST, requestEntity, Map.class);
+                });
             } catch (HttpClientErrorException e) {
                 String errorBody = e.getResponseBodyAsString();
                 System.out.println("通义千问 API 返回错误：" + errorBody);
@@ -127,6 +119,68 @@ public class QwenController {
         }
     }
 
+    /**
+     * 流式对话：参数和 /qwen/chat 一样，回复以 SSE 事件边生成边推送
+     * 事件：delta（{content}，新增的一段文字）、done（{success, content, finish_reason, usage}）、error（{success, message}）
+     */
+    @PostMapping(value = "/chat/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter chatStream(@RequestBody Map<String, Object> requestBody,
+                                 @RequestHeader("Authorization") String token,
+                                 HttpSession session) {
+        return chatStream(requestBody, token, session, null);
+    }
 
+    /**
+     * 同上，正常结束后把完整回复交给 onDone（智能体对话用它写答案缓存）
+     */
+    public SseEmitter chatStream(Map<String, Object> requestBody, String token, HttpSession session,
+                                 Consumer<String> onDone) {
+        System.out.println("收到 AI 流式对话请求，Session ID：" + session.getId());
+        SseEmitter emitter = qwenStreamService.createEmitter();
+        try {
+            ModelConfig config = modelConfigRegistry.current();
+            if (config == null) {
+                qwenStreamService.fail(emitter, "未找到模型配置");
+                return emitter;
+            }
+
+            token = token.substring(7);
+            String username = jwtUtil.getUsernameFromToken(token);
+            System.out.println("流式对话请求用户：" + username);
+
+            Map<String, Object> body = buildRequestBody(requestBody, config);
+            qwenStreamService.stream(body, emitter, onDone);
+        } catch (Exception e) {
+            System.out.println("AI 流式对话失败：" + e.getMessage());
+            e.printStackTrace();
+            qwenStreamService.fail(emitter, "AI 对话失败，服务器错误：" + e.getMessage());
+        }
+        return emitter;
+    }
 
+    /**
+     * 按前端参数和模型配置拼通义千问请求体（不含 stream）
+     */
+    private Map<String, Object> buildRequestBody(Map<String, Object> requestBody, ModelConfig config) {
+        Map<String, Object> body = new HashMap<>();
+        body.put("model", requestBody.getOrDefault("model", config.getQwenmodel()));
+        body.put("modalities", requestBody.getOrDefault("modalities", List.of("text")));
+        body.put("temperature", requestBody.get("temperature"));
+        body.put("top_p", requestBody.get("top_p"));
+        body.put("presence_penalty", requestBody.get("presence_penalty"));
+        body.put("response_format", requestBody.getOrDefault("response_format", Map.of("type", "text")));
+        body.put("max_tokens", requestBody.get("max_tokens"));
+        body.put("n", requestBody.getOrDefault("n", 1));
+        body.put("seed", requestBody.get("seed"));
+        body.put("stop", requestBody.get("stop"));
+        body.put("tools", requestBody.get("tools")); // 保留 tools=null
+        body.put("enable_search", requestBody.getOrDefault("enable_search", false));
+        body.put("search_options", requestBody.get("search_options"));
+        body.put("translation_options", requestBody.get("translation_options"));
+
+        // 大白话：直接用前端传来的消息，不加历史
+        List<Map<String, Object>> messages = (List<Map<String, Object>>) requestBody.getOrDefault("messages", new ArrayList<>());
+        body.put("messages", messages);
+        return body;
+    }
 }
\ No newline at end of file
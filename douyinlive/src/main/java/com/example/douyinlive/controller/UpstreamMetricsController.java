@@ -0,0 +1,104 @@
+package com.example.douyinlive.controller;
+
+import com.example.douyinlive.config.UpstreamLimiter;
+import com.example.douyinlive.entity.User;
+import com.example.douyinlive.mapper.UserMapper;
+import com.example.douyinlive.service.DanmuTriage;
+import com.example.douyinlive.service.ModelRouter;
+import com.example.douyinlive.util.JwtUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 上游 HTTP 调用监控：每个上游主机的并发上限、进行中 / 排队中的请求数、失败数、耗时；
+ * 每个模型接入点的熔断状态和耗时分位数；各直播间弹幕分诊的队列深度和丢弃统计
+ * 统计里有全站的上游地址和各直播间的情况，只有 vector-index.admin-users 里配置的用户能看
+ */
+@RestController
+@RequestMapping("/metrics")
+public class UpstreamMetricsController {
+
+    @Autowired
+    private UpstreamLimiter upstreamLimiter;
+
+    @Autowired
+    private ModelRouter modelRouter;
+
+    @Autowired
+    private DanmuTriage danmuTriage;
+
+    @Autowired
+    private UserMapper userMapper;
+
+    @Autowired
+    private JwtUtil jwtUtil;
+
+    // 管理员用户名，逗号分隔，和向量索引管理共用一份，为空时谁都不能看
+    @Value("${vector-index.admin-users:}")
+    private String adminUsers;
+
+    @GetMapping("/upstreams")
+    public ResponseEntity<Map<String, Object>> getUpstreams(@RequestHeader("Authorization") String token) {
+        Map<String, Object> response = new HashMap<>();
+        if (!isAdmin(token)) {
+            response.put("success", false);
+            response.put("message", "无权查看监控统计");
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(response);
+        }
+        response.put("success", true);
+        response.put("message", "获取上游调用统计成功");
+        response.put("data", upstreamLimiter.snapshot());
+        return ResponseEntity.ok(response);
+    }
+
+    @GetMapping("/model-routes")
+    public ResponseEntity<Map<String, Object>> getModelRoutes(@RequestHeader("Authorization") String token) {
+        Map<String, Object> response = new HashMap<>();
+        if (!isAdmin(token)) {
+            response.put("success", false);
+            response.put("message", "无权查看监控统计");
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(response);
+        }
+        response.put("success", true);
+        response.put("message", "获取模型接入点统计成功");
+        response.put("data", modelRouter.snapshot());
+        return ResponseEntity.ok(response);
+    }
+
+    @GetMapping("/danmu-triage")
+    public ResponseEntity<Map<String, Object>> getDanmuTriage(@RequestHeader("Authorization") String token) {
+        Map<String, Object> response = new HashMap<>();
+        if (!isAdmin(token)) {
+            response.put("success", false);
+            response.put("message", "无权查看监控统计");
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(response);
+        }
+        response.put("success", true);
+        response.put("message", "获取弹幕分诊统计成功");
+        response.put("data", danmuTriage.snapshot());
+        return ResponseEntity.ok(response);
+    }
+
+    private boolean isAdmin(String token) {
+        try {
+            // 去掉 "Bearer " 前缀，获取用户名
+            String username = jwtUtil.getUsernameFromToken(token.substring(7));
+            User user = userMapper.selectUserByName(username);
+            return user != null && Arrays.stream(adminUsers.split(","))
+                    .map(String::trim)
+                    .anyMatch(name -> !name.isEmpty() && name.equals(user.getName()));
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
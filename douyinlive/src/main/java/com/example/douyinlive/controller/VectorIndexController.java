@@ -0,0 +1,174 @@
+package com.example.douyinlive.controller;
+
+import com.example.douyinlive.entity.User;
+import com.example.douyinlive.mapper.UserMapper;
+import com.example.douyinlive.service.VectorIndexService;
+import com.example.douyinlive.util.JwtUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 向量索引管理控制器：查看索引、重建索引、跑召回率-延迟测评
+ * 索引是全站共用的，只有 vector-index.admin-users 里配置的用户能操作
+ */
+@RestController
+@RequestMapping("/admin/vector-index")
+public class VectorIndexController {
+
+    @Autowired
+    private VectorIndexService vectorIndexService;
+
+    @Autowired
+    private UserMapper userMapper;
+
+    @Autowired
+    private JwtUtil jwtUtil;
+
+    // 管理员用户名，逗号分隔，为空时谁都不能操作
+    @Value("${vector-index.admin-users:}")
+    private String adminUsers;
+
+    /**
+     * 查看当前索引定义、段落数和重建状态
+     * @param token 用户 token
+     * @return 索引信息
+     */
+    @GetMapping
+    public ResponseEntity<Map<String, Object>> getIndex(@RequestHeader("Authorization") String token) {
+        Map<String, Object> response = new HashMap<>();
+        if (!isAdmin(token)) {
+            response.put("success", false);
+            response.put("message", "无权操作向量索引");
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(response);
+        }
+        try {
+            response.put("success", true);
+            response.put("message", "获取向量索引成功");
+            response.put("data", vectorIndexService.describe());
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            System.out.println("获取向量索引失败：" + e.getMessage());
+            response.put("success", false);
+            response.put("message", "获取向量索引失败，服务器错误：" + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+        }
+    }
+
+    /**
+     * 按参数在后台重建索引，不填的参数用配置文件里的
+     * @param params type（hnsw / ivfflat）、m、ef_construction、lists（0 为自动）
+     * @param token 用户 token
+     * @return 是否已开始重建
+     */
+    @PostMapping("/rebuild")
+    public ResponseEntity<Map<String, Object>> rebuild(@RequestBody(required = false) Map<String, Object> params,
+                                                       @RequestHeader("Authorization") String token) {
+        Map<String, Object> response = new HashMap<>();
+        if (!isAdmin(token)) {
+            response.put("success", false);
+            response.put("message", "无权操作向量索引");
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(response);
+        }
+        try {
+            VectorIndexService.IndexSpec configured = vectorIndexService.configuredSpec();
+            Map<String, Object> body = params != null ? params : new HashMap<>();
+            VectorIndexService.IndexSpec spec = new VectorIndexService.IndexSpec(
+                    (String) body.getOrDefault("type", configured.getMethod()),
+                    intParam(body, "m", configured.getM()),
+                    intParam(body, "ef_construction", configured.getEfConstruction()),
+                    intParam(body, "lists", configured.getLists()));
+            if (!vectorIndexService.startRebuild(spec)) {
+                response.put("success", false);
+                response.put("message", "向量索引正在重建中");
+                return ResponseEntity.status(HttpStatus.CONFLICT).body(response);
+            }
+            response.put("success", true);
+            response.put("message", "已开始重建向量索引，进度请查看 GET /admin/vector-index");
+            response.put("data", spec.describe());
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException | ClassCastException e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(response);
+        }
+    }
+
+    /**
+     * 召回率-延迟测评，用来给当前部署挑 ef_search / probes
+     * @param samples 抽样查询条数
+     * @param k 每次取前几条
+     * @param steps 要测的档位，逗号分隔，不填用默认档位
+     * @param token 用户 token
+     * @return 每个档位的召回率和 p50 / p95 延迟
+     */
+    @GetMapping("/report")
+    public ResponseEntity<Map<String, Object>> report(@RequestParam(value = "samples", defaultValue = "50") int samples,
+                                                      @RequestParam(value = "k", defaultValue = "3") int k,
+                                                      @RequestParam(value = "steps", required = false) String steps,
+                                                      @RequestHeader("Authorization") String token) {
+        Map<String, Object> response = new HashMap<>();
+        if (!isAdmin(token)) {
+            response.put("success", false);
+            response.put("message", "无权操作向量索引");
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(response);
+        }
+        if (samples < 1 || samples > 1000 || k < 1 || k > 100) {
+            response.put("success", false);
+            response.put("message", "samples 必须在 1 到 1000 之间，k 必须在 1 到 100 之间");
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(response);
+        }
+        try {
+            List<Integer> stepList = new ArrayList<>();
+            if (steps != null && !steps.isBlank()) {
+                for (String step : steps.split(",")) {
+                    int value = Integer.parseInt(step.trim());
+                    if (value < 1 || value > 1000) {
+                        throw new IllegalArgumentException("档位必须在 1 到 1000 之间");
+                    }
+                    stepList.add(value);
+                }
+            }
+            response.put("success", true);
+            response.put("message", "向量索引测评完成");
+            response.put("data", vectorIndexService.report(samples, k, stepList));
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(response);
+        } catch (Exception e) {
+            System.out.println("向量索引测评失败：" + e.getMessage());
+            e.printStackTrace();
+            response.put("success", false);
+            response.put("message", "向量索引测评失败，服务器错误：" + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+        }
+    }
+
+    private boolean isAdmin(String token) {
+        try {
+            // 去掉 "Bearer " 前缀，获取用户名
+            String username = jwtUtil.getUsernameFromToken(token.substring(7));
+            User user = userMapper.selectUserByName(username);
+            return user != null && Arrays.stream(adminUsers.split(","))
+                    .map(String::trim)
+                    .anyMatch(name -> !name.isEmpty() && name.equals(user.getName()));
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static int intParam(Map<String, Object> body, String key, int defaultValue) {
+        Object value = body.get(key);
+        return value != null ? ((Number) value).intValue() : defaultValue;
+    }
+}
@@ -45,6 +45,10 @@ public class Agent implements Serializable {
     private String kbIds;
     // 音色配置，用于语音合成
     private String voice;
+    // 知识库检索时的 HNSW ef_search，为空时用全局配置
+    private Integer vectorEfSearch;
+    // 知识库检索时的 ivfflat probes，为空时用全局配置
+    private Integer vectorProbes;
     // 创建时间
     private LocalDateTime createdAt;
     // 更新时间
@@ -203,6 +207,22 @@ public class Agent implements Serializable {
         this.voice = voice;
     }
 
+    public Integer getVectorEfSearch() {
+        return vectorEfSearch;
+    }
+
+    public void setVectorEfSearch(Integer vectorEfSearch) {
+        this.vectorEfSearch = vectorEfSearch;
+    }
+
+    public Integer getVectorProbes() {
+        return vectorProbes;
+    }
+
+    public void setVectorProbes(Integer vectorProbes) {
+        this.vectorProbes = vectorProbes;
+    }
+
     public LocalDateTime getCreatedAt() {
         return createdAt;
     }
@@ -0,0 +1,63 @@
+package com.example.douyinlive.entity;
+
+import com.pgvector.PGvector;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * 向量缓存实体类，对应数据库 embedding_cache 表
+ */
+public class EmbeddingCacheEntry implements Serializable {
+    // 规范化文本的 SHA-256（十六进制），和 model、dimension 一起组成主键
+    private String contentHash;
+    // 向量模型名称
+    private String model;
+    // 向量维度
+    private int dimension;
+    // 向量数据
+    private PGvector embedding;
+    // 创建时间
+    private LocalDateTime createdAt;
+
+    // 以下是 getter 和 setter 方法
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public void setModel(String model) {
+        this.model = model;
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    public void setDimension(int dimension) {
+        this.dimension = dimension;
+    }
+
+    public PGvector getEmbedding() {
+        return embedding;
+    }
+
+    public void setEmbedding(PGvector embedding) {
+        this.embedding = embedding;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+}
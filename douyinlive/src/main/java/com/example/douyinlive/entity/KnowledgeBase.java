@@ -15,6 +15,10 @@ public class KnowledgeBase implements Serializable {
     private int userId;
     // 知识库 ID，唯一
     private String kbId;
+    // 所属知识库的数字 ID，关联 knowledge_base_info 表
+    private Integer kbInfoId;
+    // 段落在知识库里的序号，从 0 开始
+    private Integer ordinal;
     // 原始文本
     private String content;
     // 向量数据
@@ -49,6 +53,22 @@ public class KnowledgeBase implements Serializable {
         this.kbId = kbId;
     }
 
+    public Integer getKbInfoId() {
+        return kbInfoId;
+    }
+
+    public void setKbInfoId(Integer kbInfoId) {
+        this.kbInfoId = kbInfoId;
+    }
+
+    public Integer getOrdinal() {
+        return ordinal;
+    }
+
+    public void setOrdinal(Integer ordinal) {
+        this.ordinal = ordinal;
+    }
+
     public String getContent() {
         return content;
     }
@@ -0,0 +1,62 @@
+package com.example.douyinlive.entity;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * 知识库实体类，对应数据库 knowledge_base_info 表
+ * 一个逻辑知识库一行，段落存在 knowledge_base 表里，通过 kb_info_id 关联
+ */
+public class KnowledgeBaseInfo implements Serializable {
+    // 知识库数字 ID，主键，自增
+    private int id;
+    // 用户 ID，关联 user 表
+    private int userId;
+    // 知识库 ID（用户起的名字），同一用户下唯一
+    private String kbId;
+    // 创建时间
+    private LocalDateTime createdAt;
+    // 更新时间
+    private LocalDateTime updatedAt;
+
+    // 以下是 getter 和 setter 方法
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public void setUserId(int userId) {
+        this.userId = userId;
+    }
+
+    public String getKbId() {
+        return kbId;
+    }
+
+    public void setKbId(String kbId) {
+        this.kbId = kbId;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public LocalDateTime getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(LocalDateTime updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.douyinlive.entity;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * 知识库异步入库任务实体类，对应数据库 knowledge_base_job 表
+ */
+public class KnowledgeBaseJob implements Serializable {
+    // 任务 ID，主键，UUID
+    private String id;
+    // 用户 ID，关联 user 表
+    private int userId;
+    // 要创建的知识库 ID
+    private String kbId;
+    // 上传时的原始文件名
+    private String fileName;
+    // 上传文件落盘路径，重启后从这里继续处理
+    private String filePath;
+    // 任务状态：PENDING、RUNNING、SUCCEEDED、FAILED
+    private String status;
+    // 已解析的段落数
+    private int segmentsParsed;
+    // 已向量化的段落数
+    private int segmentsEmbedded;
+    // 已入库的段落数
+    private int segmentsStored;
+    // 失败原因
+    private String message;
+    // 创建时间
+    private LocalDateTime createdAt;
+    // 更新时间
+    private LocalDateTime updatedAt;
+
+    // 以下是 getter 和 setter 方法
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public void setUserId(int userId) {
+        this.userId = userId;
+    }
+
+    public String getKbId() {
+        return kbId;
+    }
+
+    public void setKbId(String kbId) {
+        this.kbId = kbId;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public void setFilePath(String filePath) {
+        this.filePath = filePath;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public int getSegmentsParsed() {
+        return segmentsParsed;
+    }
+
+    public void setSegmentsParsed(int segmentsParsed) {
+        this.segmentsParsed = segmentsParsed;
+    }
+
+    public int getSegmentsEmbedded() {
+        return segmentsEmbedded;
+    }
+
+    public void setSegmentsEmbedded(int segmentsEmbedded) {
+        this.segmentsEmbedded = segmentsEmbedded;
+    }
+
+    public int getSegmentsStored() {
+        return segmentsStored;
+    }
+
+    public void setSegmentsStored(int segmentsStored) {
+        this.segmentsStored = segmentsStored;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public LocalDateTime getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(LocalDateTime updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.douyinlive.entity;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * 知识库段落的轻量视图，只有文本没有向量，查看知识库内容时用
+ */
+public class KnowledgeBaseSegment implements Serializable {
+    // 段落的知识库 ID（kbId_N）
+    private String kbId;
+    // 原始文本
+    private String content;
+    // 创建时间
+    private LocalDateTime createdAt;
+    // 更新时间
+    private LocalDateTime updatedAt;
+
+    // 以下是 getter 和 setter 方法
+    public String getKbId() {
+        return kbId;
+    }
+
+    public void setKbId(String kbId) {
+        this.kbId = kbId;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public void setContent(String content) {
+        this.content = content;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public LocalDateTime getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(LocalDateTime updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
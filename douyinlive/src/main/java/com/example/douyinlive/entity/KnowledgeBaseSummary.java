@@ -0,0 +1,51 @@
+package com.example.douyinlive.entity;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * 知识库汇总，一个逻辑知识库（去掉 _N 段落后缀）一行
+ */
+public class KnowledgeBaseSummary implements Serializable {
+    // 逻辑知识库 ID
+    private String kbId;
+    // 段落数
+    private int segmentCount;
+    // 最早的段落创建时间
+    private LocalDateTime createdAt;
+    // 最近的段落更新时间
+    private LocalDateTime updatedAt;
+
+    // 以下是 getter 和 setter 方法
+    public String getKbId() {
+        return kbId;
+    }
+
+    public void setKbId(String kbId) {
+        this.kbId = kbId;
+    }
+
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    public void setSegmentCount(int segmentCount) {
+        this.segmentCount = segmentCount;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public LocalDateTime getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(LocalDateTime updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.douyinlive.entity;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * 直播间绑定实体类，对应数据库 live_room_binding 表
+ * 一个主播（用户）一个直播间，绑定服务端自动回复用的智能体和语音配置
+ */
+public class LiveRoomBinding implements Serializable {
+    // 用户 ID，主键，关联 user 表
+    private int userId;
+    // 回复用的智能体 ID，关联 agents 表
+    private int agentId;
+    // 语音合成配置 ID，关联 voice_configs 表，为空时不做语音合成
+    private String voiceConfigId;
+    // 是否把回复发给语音合成播放器
+    private boolean ttsEnabled;
+    // 是否开启服务端自动回复
+    private boolean enabled;
+    // 创建时间
+    private LocalDateTime createdAt;
+    // 更新时间
+    private LocalDateTime updatedAt;
+
+    // 以下是 getter 和 setter 方法
+    public int getUserId() {
+        return userId;
+    }
+
+    public void setUserId(int userId) {
+        this.userId = userId;
+    }
+
+    public int getAgentId() {
+        return agentId;
+    }
+
+    public void setAgentId(int agentId) {
+        this.agentId = agentId;
+    }
+
+    public String getVoiceConfigId() {
+        return voiceConfigId;
+    }
+
+    public void setVoiceConfigId(String voiceConfigId) {
+        this.voiceConfigId = voiceConfigId;
+    }
+
+    public boolean isTtsEnabled() {
+        return ttsEnabled;
+    }
+
+    public void setTtsEnabled(boolean ttsEnabled) {
+        this.ttsEnabled = ttsEnabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public LocalDateTime getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(LocalDateTime updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
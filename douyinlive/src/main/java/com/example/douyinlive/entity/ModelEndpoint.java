@@ -0,0 +1,112 @@
+package com.example.douyinlive.entity;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * 模型接入点实体类，对应数据库 model_endpoint 表
+ * model_config 里每种用途只有一个地址，这里可以再配多个（别的地域、别的账号或者更便宜的备用模型）
+ */
+public class ModelEndpoint implements Serializable {
+    // 记录 ID，主键，自增
+    private Integer id;
+    // 用途：chat（对话）、embedding（向量）、live（直播剧本）、normalize（数据规范化）
+    private String role;
+    // 接口地址，和 model_config 里同用途的地址格式一样
+    private String url;
+    // 模型名称
+    private String model;
+    // API Key
+    private String apiKey;
+    // 优先级，数字小的先用；延迟统计出来之后按延迟排
+    private int priority;
+    // 是否备用：主用接入点都熔断了才用
+    private boolean backup;
+    // 是否启用
+    private boolean enabled;
+    // 创建时间
+    private LocalDateTime createdAt;
+    // 更新时间
+    private LocalDateTime updatedAt;
+
+    // 以下是 getter 和 setter 方法
+    public Integer getId() {
+        return id;
+    }
+
+    public void setId(Integer id) {
+        this.id = id;
+    }
+
+    public String getRole() {
+        return role;
+    }
+
+    public void setRole(String role) {
+        this.role = role;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public void setModel(String model) {
+        this.model = model;
+    }
+
+    public String getApiKey() {
+        return apiKey;
+    }
+
+    public void setApiKey(String apiKey) {
+        this.apiKey = apiKey;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    public boolean isBackup() {
+        return backup;
+    }
+
+    public void setBackup(boolean backup) {
+        this.backup = backup;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public LocalDateTime getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(LocalDateTime updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
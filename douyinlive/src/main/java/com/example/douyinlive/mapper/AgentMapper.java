@@ -15,8 +15,8 @@ public interface AgentMapper {
      * @param agent 智能体对象
      * @return 受影响的行数
      */
-    @Insert("INSERT INTO agents (user_id, name, system_prompt, temperature, top_p, presence_penalty, max_tokens, n, seed, stop, tools, tool_choice, parallel_tool_calls, enable_search, search_options, translation_options, kb_ids, voice, created_at, updated_at) " +
-            "VALUES (#{userId}, #{name}, #{systemPrompt}, #{temperature}, #{topP}, #{presencePenalty}, #{maxTokens}, #{n}, #{seed}, #{stop}, #{tools}, #{toolChoice}, #{parallelToolCalls}, #{enableSearch}, #{searchOptions}, #{translationOptions}, #{kbIds}, #{voice}, #{createdAt}, #{updatedAt})")
+    @Insert("INSERT INTO agents (user_id, name, system_prompt, temperature, top_p, presence_penalty, max_tokens, n, seed, stop, tools, tool_choice, parallel_tool_calls, enable_search, search_options, translation_options, kb_ids, voice, vector_ef_search, vector_probes, created_at, updated_at) " +
+            "VALUES (#{userId}, #{name}, #{systemPrompt}, #{temperature}, #{topP}, #{presencePenalty}, #{maxTokens}, #{n}, #{seed}, #{stop}, #{tools}, #{toolChoice}, #{parallelToolCalls}, #{enableSearch}, #{searchOptions}, #{translationOptions}, #{kbIds}, #{voice}, #{vectorEfSearch}, #{vectorProbes}, #{createdAt}, #{updatedAt})")
     @Options(useGeneratedKeys = true, keyProperty = "id")
     int insertAgent(Agent agent);
 
@@ -76,6 +76,8 @@ public interface AgentMapper {
             "translation_options = #{translationOptions}, " +
             "kb_ids = #{kbIds}, " +
             "voice = #{voice}, " +
+            "vector_ef_search = #{vectorEfSearch}, " +
+            "vector_probes = #{vectorProbes}, " +
             "updated_at = #{updatedAt} " +
             "WHERE id = #{id}")
     int updateAgent(Agent agent);
@@ -0,0 +1,46 @@
+package com.example.douyinlive.mapper;
+
+import com.example.douyinlive.entity.EmbeddingCacheEntry;
+import org.apache.ibatis.annotations.*;
+
+import java.util.List;
+
+/**
+ * 向量缓存 Mapper，操作 embedding_cache 表
+ */
+@Mapper
+public interface EmbeddingCacheMapper {
+
+    /**
+     * 按文本哈希批量查询缓存的向量
+     * @param model 向量模型名称
+     * @param dimension 向量维度
+     * @param hashes 规范化文本的哈希列表
+     * @return 命中的缓存记录
+     */
+    @Select("<script>" +
+            "SELECT content_hash, model, dimension, embedding, created_at FROM embedding_cache " +
+            "WHERE model = #{model} AND dimension = #{dimension} AND content_hash IN " +
+            "<foreach collection='hashes' item='hash' open='(' separator=',' close=')'>#{hash}</foreach>" +
+            "</script>")
+    @Results({
+            @Result(column = "embedding", property = "embedding", typeHandler = com.example.douyinlive.typehandler.PGvectorTypeHandler.class)
+    })
+    List<EmbeddingCacheEntry> selectByHashes(@Param("model") String model,
+                                             @Param("dimension") int dimension,
+                                             @Param("hashes") List<String> hashes);
+
+    /**
+     * 批量写入缓存，已存在的键直接跳过
+     * @param entries 缓存记录列表
+     * @return 受影响的行数
+     */
+    @Insert("<script>" +
+            "INSERT INTO embedding_cache (content_hash, model, dimension, embedding, created_at) VALUES " +
+            "<foreach collection='list' item='e' separator=','>" +
+            "(#{e.contentHash}, #{e.model}, #{e.dimension}, #{e.embedding, typeHandler=com.example.douyinlive.typehandler.PGvectorTypeHandler}, #{e.createdAt})" +
+            "</foreach>" +
+            " ON CONFLICT (content_hash, model, dimension) DO NOTHING" +
+            "</script>")
+    int batchInsertIgnoreExisting(@Param("list") List<EmbeddingCacheEntry> entries);
+}
@@ -0,0 +1,80 @@
+package com.example.douyinlive.mapper;
+
+import com.example.douyinlive.entity.KnowledgeBaseInfo;
+import org.apache.ibatis.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 知识库 Mapper，操作 knowledge_base_info 表
+ */
+@Mapper
+public interface KnowledgeBaseInfoMapper {
+
+    /**
+     * 插入知识库，(user_id, kb_id) 重复时抛出 DuplicateKeyException
+     * @param info 知识库对象
+     * @return 受影响的行数
+     */
+    @Insert("INSERT INTO knowledge_base_info (user_id, kb_id, created_at, updated_at) " +
+            "VALUES (#{userId}, #{kbId}, #{createdAt}, #{updatedAt})")
+    @Options(useGeneratedKeys = true, keyProperty = "id")
+    int insertKnowledgeBaseInfo(KnowledgeBaseInfo info);
+
+    /**
+     * 插入知识库，已存在则跳过（老数据迁移用）
+     * @param info 知识库对象
+     * @return 受影响的行数
+     */
+    @Insert("INSERT INTO knowledge_base_info (user_id, kb_id, created_at, updated_at) " +
+            "VALUES (#{userId}, #{kbId}, #{createdAt}, #{updatedAt}) ON CONFLICT (user_id, kb_id) DO NOTHING")
+    int insertKnowledgeBaseInfoIgnoreExisting(KnowledgeBaseInfo info);
+
+    /**
+     * 根据用户 ID 和知识库 ID 查询
+     * @param userId 用户 ID
+     * @param kbId 知识库 ID
+     * @return 知识库对象
+     */
+    @Select("SELECT * FROM knowledge_base_info WHERE user_id = #{userId} AND kb_id = #{kbId}")
+    KnowledgeBaseInfo selectKnowledgeBaseInfo(@Param("userId") Integer userId, @Param("kbId") String kbId);
+
+    /**
+     * 按名字批量查询用户的知识库
+     * @param userId 用户 ID
+     * @param kbIds 知识库 ID 列表
+     * @return 找到的知识库
+     */
+    @Select("<script>" +
+            "SELECT * FROM knowledge_base_info WHERE user_id = #{userId} AND kb_id IN " +
+            "<foreach collection='kbIds' item='kbId' open='(' separator=',' close=')'>#{kbId}</foreach>" +
+            "</script>")
+    List<KnowledgeBaseInfo> selectKnowledgeBaseInfos(@Param("userId") Integer userId, @Param("kbIds") List<String> kbIds);
+
+    /**
+     * 判断用户下知识库是否存在
+     * @param userId 用户 ID
+     * @param kbId 知识库 ID
+     * @return 是否存在
+     */
+    @Select("SELECT EXISTS (SELECT 1 FROM knowledge_base_info WHERE user_id = #{userId} AND kb_id = #{kbId})")
+    boolean existsKnowledgeBaseInfo(@Param("userId") Integer userId, @Param("kbId") String kbId);
+
+    /**
+     * 更新知识库的更新时间
+     * @param id 知识库数字 ID
+     * @param updatedAt 更新时间
+     * @return 受影响的行数
+     */
+    @Update("UPDATE knowledge_base_info SET updated_at = #{updatedAt} WHERE id = #{id}")
+    int touchKnowledgeBaseInfo(@Param("id") Integer id, @Param("updatedAt") LocalDateTime updatedAt);
+
+    /**
+     * 删除知识库，段落通过外键级联删除
+     * @param id 知识库数字 ID
+     * @return 受影响的行数
+     */
+    @Delete("DELETE FROM knowledge_base_info WHERE id = #{id}")
+    int deleteKnowledgeBaseInfoById(Integer id);
+}
@@ -0,0 +1,77 @@
+package com.example.douyinlive.mapper;
+
+import com.example.douyinlive.entity.KnowledgeBaseJob;
+import org.apache.ibatis.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 知识库异步入库任务 Mapper，操作 knowledge_base_job 表
+ */
+@Mapper
+public interface KnowledgeBaseJobMapper {
+
+    /**
+     * 插入新任务
+     * @param job 任务对象
+     * @return 受影响的行数
+     */
+    @Insert("INSERT INTO knowledge_base_job (id, user_id, kb_id, file_name, file_path, status, segments_parsed, segments_embedded, segments_stored, message, created_at, updated_at) " +
+            "VALUES (#{id}, #{userId}, #{kbId}, #{fileName}, #{filePath}, #{status}, #{segmentsParsed}, #{segmentsEmbedded}, #{segmentsStored}, #{message}, #{createdAt}, #{updatedAt})")
+    int insertJob(KnowledgeBaseJob job);
+
+    /**
+     * 根据 ID 查询任务
+     * @param id 任务 ID
+     * @return 任务对象
+     */
+    @Select("SELECT * FROM knowledge_base_job WHERE id = #{id}")
+    KnowledgeBaseJob selectJobById(String id);
+
+    /**
+     * 查询用户某个知识库还没结束的任务，防止重复提交
+     * @param userId 用户 ID
+     * @param kbId 知识库 ID
+     * @return 任务对象
+     */
+    @Select("SELECT * FROM knowledge_base_job WHERE user_id = #{userId} AND kb_id = #{kbId} AND status IN ('PENDING', 'RUNNING') LIMIT 1")
+    KnowledgeBaseJob selectActiveJobByUserIdAndKbId(@Param("userId") Integer userId, @Param("kbId") String kbId);
+
+    /**
+     * 查询所有还没结束的任务，启动时恢复用
+     * @return 任务列表
+     */
+    @Select("SELECT * FROM knowledge_base_job WHERE status IN ('PENDING', 'RUNNING') ORDER BY created_at")
+    List<KnowledgeBaseJob> selectUnfinishedJobs();
+
+    /**
+     * 更新任务状态
+     * @param id 任务 ID
+     * @param status 新状态
+     * @param message 说明或失败原因
+     * @param updatedAt 更新时间
+     * @return 受影响的行数
+     */
+    @Update("UPDATE knowledge_base_job SET status = #{status}, message = #{message}, updated_at = #{updatedAt} WHERE id = #{id}")
+    int updateJobStatus(@Param("id") String id,
+                        @Param("status") String status,
+                        @Param("message") String message,
+                        @Param("updatedAt") LocalDateTime updatedAt);
+
+    /**
+     * 更新任务进度
+     * @param id 任务 ID
+     * @param parsed 已解析段落数
+     * @param embedded 已向量化段落数
+     * @param stored 已入库段落数
+     * @param updatedAt 更新时间
+     * @return 受影响的行数
+     */
+    @Update("UPDATE knowledge_base_job SET segments_parsed = #{parsed}, segments_embedded = #{embedded}, segments_stored = #{stored}, updated_at = #{updatedAt} WHERE id = #{id}")
+    int updateJobProgress(@Param("id") String id,
+                          @Param("parsed") int parsed,
+                          @Param("embedded") int embedded,
+                          @Param("stored") int stored,
+                          @Param("updatedAt") LocalDateTime updatedAt);
+}
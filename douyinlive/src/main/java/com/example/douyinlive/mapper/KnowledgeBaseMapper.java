@@ -1,6 +1,8 @@
 package com.example.douyinlive.mapper;
 
 import com.example.douyinlive.entity.KnowledgeBase;
+import com.example.douyinlive.entity.KnowledgeBaseSegment;
+import com.example.douyinlive.entity.KnowledgeBaseSummary;
 import com.pgvector.PGvector;
 import org.apache.ibatis.annotations.*;
 import java.util.List;
@@ -16,70 +18,198 @@ public interface KnowledgeBaseMapper {
      * @param kb 知识库对象
      * @return 受影响的行数
      */
-    @Insert("INSERT INTO knowledge_base (user_id, kb_id, content, embedding, created_at, updated_at) " +
-            "VALUES (#{userId}, #{kbId}, #{content}, #{embedding, typeHandler=com.example.douyinlive.typehandler.PGvectorTypeHandler}, #{createdAt}, #{updatedAt})")
+    @Insert("INSERT INTO knowledge_base (user_id, kb_id, kb_info_id, ordinal, content, embedding, created_at, updated_at) " +
+            "VALUES (#{userId}, #{kbId}, #{kbInfoId}, #{ordinal}, #{content}, #{embedding, typeHandler=com.example.douyinlive.typehandler.PGvectorTypeHandler}, #{createdAt}, #{updatedAt})")
     @Options(useGeneratedKeys = true, keyProperty = "id")
     int insertKnowledgeBase(KnowledgeBase kb);
 
     /**
-     * 根据用户 ID 和知识库 ID 查询记录
+     * 判断用户下某个知识库 ID 的记录是否存在，只走索引不取数据
      * @param userId 用户 ID
      * @param kbId 知识库 ID
-     * @return 知识库对象
+     * @return 是否存在
      */
-    @Select("SELECT * FROM knowledge_base WHERE user_id = #{userId} AND kb_id = #{kbId}")
-    KnowledgeBase selectKnowledgeBaseByUserIdAndKbId(Integer userId, String kbId);
+    @Select("SELECT EXISTS (SELECT 1 FROM knowledge_base WHERE user_id = #{userId} AND kb_id = #{kbId})")
+    boolean existsKnowledgeBaseByUserIdAndKbId(@Param("userId") Integer userId, @Param("kbId") String kbId);
 
     /**
-     * 根据用户 ID 查询所有知识库记录
+     * 根据用户 ID 查询所有段落的 kb_id 和时间，不取文本和向量
+     * 配合 (user_id, kb_id) INCLUDE (created_at, updated_at) 索引可以只扫索引
      * @param userId 用户 ID
-     * @return 知识库对象列表
+     * @return 段落列表（content 为空）
      */
-    @Select("SELECT * FROM knowledge_base WHERE user_id = #{userId}")
-    List<KnowledgeBase> selectKnowledgeBasesByUserId(Integer userId);
+    @Select("SELECT kb_id, created_at, updated_at FROM knowledge_base WHERE user_id = #{userId} ORDER BY kb_id")
+    List<KnowledgeBaseSegment> selectKnowledgeBaseIndexByUserId(Integer userId);
 
     /**
-     * 根据用户 ID 和知识库 ID 前缀查询记录（支持模糊匹配）
+     * 知识库汇总：一个知识库一行，带段落数
      * @param userId 用户 ID
-     * @param kbIdPrefix 知识库 ID 前缀
-     * @return 知识库对象列表
+     * @return 汇总列表
+     */
+    @Select("SELECT i.kb_id, COUNT(k.id) AS segment_count, i.created_at, i.updated_at " +
+            "FROM knowledge_base_info i LEFT JOIN knowledge_base k ON k.kb_info_id = i.id " +
+            "WHERE i.user_id = #{userId} GROUP BY i.id ORDER BY i.kb_id")
+    List<KnowledgeBaseSummary> selectKnowledgeBaseSummariesByUserId(Integer userId);
+
+    /**
+     * 按段落序号查询某个知识库的全部段落文本，不取向量
+     * @param kbInfoId 知识库数字 ID
+     * @return 段落列表
      */
-    @Select("SELECT * FROM knowledge_base WHERE user_id = #{userId} AND kb_id LIKE #{kbIdPrefix}")
-    List<KnowledgeBase> selectKnowledgeBasesByUserIdAndKbIdPrefix(@Param("userId") Integer userId, @Param("kbIdPrefix") String kbIdPrefix);
+    @Select("SELECT kb_id, content, created_at, updated_at FROM knowledge_base WHERE kb_info_id = #{kbInfoId} ORDER BY ordinal")
+    List<KnowledgeBaseSegment> selectSegmentTextsByKbInfoId(Integer kbInfoId);
 
     /**
-     * 根据用户 ID 和知识库 ID 前缀删除记录
+     * 查询单个段落的文本，不取向量
      * @param userId 用户 ID
-     * @param kbIdPrefix 知识库 ID 前缀
+     * @param kbId 段落的知识库 ID（kbId_N）
+     * @return 段落，不存在返回 null
+     */
+    @Select("SELECT kb_id, content, created_at, updated_at FROM knowledge_base WHERE user_id = #{userId} AND kb_id = #{kbId}")
+    KnowledgeBaseSegment selectSegmentTextByUserIdAndKbId(@Param("userId") Integer userId, @Param("kbId") String kbId);
+
+    /**
+     * 查询某个知识库的全部段落，不读向量（增量更新比对用）
+     * @param kbInfoId 知识库数字 ID
+     * @return 知识库对象列表（embedding 为空）
+     */
+    @Select("SELECT id, user_id, kb_id, kb_info_id, ordinal, content, created_at, updated_at FROM knowledge_base WHERE kb_info_id = #{kbInfoId} ORDER BY ordinal")
+    List<KnowledgeBase> selectSegmentsByKbInfoId(Integer kbInfoId);
+
+    /**
+     * 删除某个知识库的全部段落
+     * @param kbInfoId 知识库数字 ID
      * @return 受影响的行数
      */
-    @Delete("DELETE FROM knowledge_base WHERE user_id = #{userId} AND kb_id LIKE #{kbIdPrefix}")
-    int deleteKnowledgeBasesByUserIdAndKbIdPrefix(@Param("userId") Integer userId, @Param("kbIdPrefix") String kbIdPrefix);
+    @Delete("DELETE FROM knowledge_base WHERE kb_info_id = #{kbInfoId}")
+    int deleteKnowledgeBasesByKbInfoId(Integer kbInfoId);
 
     /**
-     * 查询与给定向量最相似的知识库记录
+     * 删除单个段落
+     * @param userId 用户 ID
+     * @param kbId 段落的知识库 ID（kbId_N）
+     * @return 受影响的行数
+     */
+    @Delete("DELETE FROM knowledge_base WHERE user_id = #{userId} AND kb_id = #{kbId}")
+    int deleteKnowledgeBaseByUserIdAndKbId(@Param("userId") Integer userId, @Param("kbId") String kbId);
+
+    /**
+     * 根据用户 ID 和一组完整的知识库 ID 删除记录
      * @param userId 用户 ID
      * @param kbIds 知识库 ID 列表
-     * @param queryVector 查询向量
-     * @param limit 返回记录数
-     * @return 知识库对象列表
+     * @return 受影响的行数
      */
-    @Select("<script>" +
-            "SELECT * FROM knowledge_base " +
-            "WHERE user_id = #{userId} " +
-            "<if test='kbIds != null and kbIds.size > 0'>" +
-            "AND kb_id IN " +
+    @Delete("<script>" +
+            "DELETE FROM knowledge_base WHERE user_id = #{userId} AND kb_id IN " +
             "<foreach collection='kbIds' item='kbId' open='(' separator=',' close=')'>" +
             "#{kbId}" +
             "</foreach>" +
+            "</script>")
+    int deleteKnowledgeBasesByUserIdAndKbIds(@Param("userId") Integer userId, @Param("kbIds") List<String> kbIds);
+
+    /**
+     * 检索过滤条件：属于指定知识库（kb_info_id）或者就是指定的单个段落（kb_id）
+     */
+    String RETRIEVAL_FILTER =
+            "user_id = #{userId} AND (FALSE " +
+            "<if test='kbInfoIds != null and kbInfoIds.size > 0'>" +
+            "OR kb_info_id IN <foreach collection='kbInfoIds' item='kbInfoId' open='(' separator=',' close=')'>#{kbInfoId}</foreach> " +
+            "</if>" +
+            "<if test='segmentKbIds != null and segmentKbIds.size > 0'>" +
+            "OR kb_id IN <foreach collection='segmentKbIds' item='kbId' open='(' separator=',' close=')'>#{kbId}</foreach> " +
             "</if>" +
+            ")";
+
+    /**
+     * 统计检索范围内的段落数，用来决定走精确检索还是向量索引
+     * @param userId 用户 ID
+     * @param kbInfoIds 知识库数字 ID 列表
+     * @param segmentKbIds 单独指定的段落 kb_id 列表
+     * @return 段落数
+     */
+    @Select("<script>SELECT COUNT(*) FROM knowledge_base WHERE " + RETRIEVAL_FILTER + "</script>")
+    int countRetrievalCandidates(@Param("userId") Integer userId,
+                                 @Param("kbInfoIds") List<Integer> kbInfoIds,
+                                 @Param("segmentKbIds") List<String> segmentKbIds);
+
+    /**
+     * 精确检索：先按归属把候选段落取出来（走 btree），再对候选逐个算距离排序，不用向量索引
+     * 候选少的时候比索引更快，而且召回率是 100%
+     * @param userId 用户 ID
+     * @param kbInfoIds 知识库数字 ID 列表
+     * @param segmentKbIds 单独指定的段落 kb_id 列表
+     * @param queryVector 查询向量
+     * @param limit 返回记录数
+     * @return 知识库对象列表
+     */
+    @Select("<script>" +
+            "WITH candidates AS MATERIALIZED (" +
+            "SELECT id, user_id, kb_id, kb_info_id, ordinal, content, created_at, updated_at, embedding FROM knowledge_base WHERE " + RETRIEVAL_FILTER +
+            ") " +
+            "SELECT id, user_id, kb_id, kb_info_id, ordinal, content, created_at, updated_at FROM candidates " +
             "ORDER BY embedding <![CDATA[<=>]]> #{queryVector, typeHandler=com.example.douyinlive.typehandler.PGvectorTypeHandler} " +
             "LIMIT #{limit}" +
             "</script>")
-    List<KnowledgeBase> selectTopSimilarKnowledgeBases(@Param("userId") Integer userId,
-                                                       @Param("kbIds") List<String> kbIds,
-                                                       @Param("queryVector") PGvector queryVector,
-                                                       @Param("limit") Integer limit);
+    List<KnowledgeBase> selectTopSimilarExact(@Param("userId") Integer userId,
+                                              @Param("kbInfoIds") List<Integer> kbInfoIds,
+                                              @Param("segmentKbIds") List<String> segmentKbIds,
+                                              @Param("queryVector") PGvector queryVector,
+                                              @Param("limit") Integer limit);
+
+    /**
+     * 走向量索引检索，配合 pgvector 0.8 的迭代扫描（iterative_scan = relaxed_order）：
+     * 过滤后不够 limit 条时索引会继续往下扫，不会像普通后过滤那样少返回；
+     * relaxed_order 下索引返回的顺序可能略有出入，外层再按距离排一次
+     * @param userId 用户 ID
+     * @param kbInfoIds 知识库数字 ID 列表
+     * @param segmentKbIds 单独指定的段落 kb_id 列表
+     * @param queryVector 查询向量
+     * @param limit 返回记录数
+     * @return 知识库对象列表
+     */
+    @Select("<script>" +
+            "WITH ranked AS MATERIALIZED (" +
+            "SELECT id, user_id, kb_id, kb_info_id, ordinal, content, created_at, updated_at, " +
+            "embedding <![CDATA[<=>]]> #{queryVector, typeHandler=com.example.douyinlive.typehandler.PGvectorTypeHandler} AS distance " +
+            "FROM knowledge_base WHERE " + RETRIEVAL_FILTER + " ORDER BY distance LIMIT #{limit}" +
+            ") " +
+            "SELECT id, user_id, kb_id, kb_info_id, ordinal, content, created_at, updated_at FROM ranked ORDER BY distance" +
+            "</script>")
+    List<KnowledgeBase> selectTopSimilarByIndex(@Param("userId") Integer userId,
+                                                @Param("kbInfoIds") List<Integer> kbInfoIds,
+                                                @Param("segmentKbIds") List<String> segmentKbIds,
+                                                @Param("queryVector") PGvector queryVector,
+                                                @Param("limit") Integer limit);
+
+    /**
+     * 查询 pgvector 扩展版本
+     * @return 版本号，比如 0.8.0
+     */
+    @Select("SELECT extversion FROM pg_extension WHERE extname = 'vector'")
+    String selectVectorExtensionVersion();
+
+    /**
+     * 在当前事务里打开 ivfflat / hnsw 的迭代扫描（pgvector 0.8 及以上）
+     * @return set_config 的返回值
+     */
+    @Select("SELECT set_config('ivfflat.iterative_scan', 'relaxed_order', true) || ',' || set_config('hnsw.iterative_scan', 'relaxed_order', true)")
+    String enableIterativeIndexScan();
+
+    /**
+     * 在当前事务里设置 HNSW 检索的候选列表大小，越大召回越高、越慢
+     * @param efSearch hnsw.ef_search，1-1000
+     * @return set_config 的返回值
+     */
+    @Select("SELECT set_config('hnsw.ef_search', #{efSearch}::text, true)")
+    String setHnswEfSearch(@Param("efSearch") int efSearch);
+
+    /**
+     * 在当前事务里设置 ivfflat 检索要扫的聚类个数，越大召回越高、越慢
+     * @param probes ivfflat.probes
+     * @return set_config 的返回值
+     */
+    @Select("SELECT set_config('ivfflat.probes', #{probes}::text, true)")
+    String setIvfflatProbes(@Param("probes") int probes);
 
     /**
      * 更新知识库记录
@@ -101,11 +231,61 @@ public interface KnowledgeBaseMapper {
      * @return 受影响的行数
      */
     @Insert("<script>" +
-            "INSERT INTO knowledge_base (user_id, kb_id, content, embedding, created_at, updated_at) " +
+            "INSERT INTO knowledge_base (user_id, kb_id, kb_info_id, ordinal, content, embedding, created_at, updated_at) " +
             "VALUES " +
             "<foreach collection='list' item='kb' separator=','>" +
-            "(#{kb.userId}, #{kb.kbId}, #{kb.content}, #{kb.embedding, typeHandler=com.example.douyinlive.typehandler.PGvectorTypeHandler}, #{kb.createdAt}, #{kb.updatedAt})" +
+            "(#{kb.userId}, #{kb.kbId}, #{kb.kbInfoId}, #{kb.ordinal}, #{kb.content}, #{kb.embedding, typeHandler=com.example.douyinlive.typehandler.PGvectorTypeHandler}, #{kb.createdAt}, #{kb.updatedAt})" +
             "</foreach>" +
             "</script>")
     int batchInsertKnowledgeBase(@Param("list") List<KnowledgeBase> kbList);
-}
\ No newline at end of file
+
+    /**
+     * 查询还没关联到 knowledge_base_info 的老段落（只取 id、user_id、kb_id、created_at），迁移用
+     * @param withOrdinalSuffix true 只查 kb_id 以 _数字 结尾的（不含前导 0），false 只查其余的
+     * @param limit 每批条数
+     * @return 知识库对象列表
+     */
+    @Select("<script>" +
+            "SELECT id, user_id, kb_id, created_at, updated_at FROM knowledge_base " +
+            "WHERE kb_info_id IS NULL AND user_id IS NOT NULL AND kb_id " +
+            "<choose><when test='withOrdinalSuffix'>~</when><otherwise>!~</otherwise></choose>" +
+            " '_(0|[1-9][0-9]{0,8})$' ORDER BY id LIMIT #{limit}" +
+            "</script>")
+    List<KnowledgeBase> selectUnlinkedSegments(@Param("withOrdinalSuffix") boolean withOrdinalSuffix, @Param("limit") int limit);
+
+    /**
+     * 查询某个知识库当前最大的段落序号，没有段落返回 -1
+     * @param kbInfoId 知识库数字 ID
+     * @return 最大序号
+     */
+    @Select("SELECT COALESCE(MAX(ordinal), -1) FROM knowledge_base WHERE kb_info_id = #{kbInfoId}")
+    int selectMaxOrdinal(Integer kbInfoId);
+
+    /**
+     * 批量给段落设置所属知识库和序号，迁移用
+     * @param kbList 知识库对象列表（用 id、kbInfoId、ordinal）
+     * @return 受影响的行数
+     */
+    @Update("<script>" +
+            "UPDATE knowledge_base AS k SET kb_info_id = v.kb_info_id, ordinal = v.ordinal FROM (VALUES " +
+            "<foreach collection='list' item='kb' separator=','>" +
+            "(#{kb.id}, #{kb.kbInfoId}, #{kb.ordinal})" +
+            "</foreach>" +
+            ") AS v(id, kb_info_id, ordinal) WHERE k.id = v.id" +
+            "</script>")
+    int batchLinkSegments(@Param("list") List<KnowledgeBase> kbList);
+
+    /**
+     * 批量改段落的序号和 kb_id，增量更新用
+     * @param kbList 知识库对象列表（用 id、ordinal、kbId）
+     * @return 受影响的行数
+     */
+    @Update("<script>" +
+            "UPDATE knowledge_base AS k SET ordinal = v.ordinal, kb_id = v.kb_id FROM (VALUES " +
+            "<foreach collection='list' item='kb' separator=','>" +
+            "(#{kb.id}, #{kb.ordinal}, #{kb.kbId})" +
+            "</foreach>" +
+            ") AS v(id, ordinal, kb_id) WHERE k.id = v.id" +
+            "</script>")
+    int batchRenumberSegments(@Param("list") List<KnowledgeBase> kbList);
+}
@@ -0,0 +1,38 @@
+package com.example.douyinlive.mapper;
+
+import com.example.douyinlive.entity.LiveRoomBinding;
+import org.apache.ibatis.annotations.*;
+
+/**
+ * 直播间绑定 Mapper，操作 live_room_binding 表
+ */
+@Mapper
+public interface LiveRoomBindingMapper {
+
+    /**
+     * 查询用户的直播间绑定
+     * @param userId 用户 ID
+     * @return 绑定，没有时返回 null
+     */
+    @Select("SELECT * FROM live_room_binding WHERE user_id = #{userId}")
+    LiveRoomBinding selectBindingByUserId(int userId);
+
+    /**
+     * 新增或覆盖用户的直播间绑定
+     * @param binding 绑定
+     * @return 受影响的行数
+     */
+    @Insert("INSERT INTO live_room_binding (user_id, agent_id, voice_config_id, tts_enabled, enabled, created_at, updated_at) " +
+            "VALUES (#{userId}, #{agentId}, #{voiceConfigId}, #{ttsEnabled}, #{enabled}, #{createdAt}, #{updatedAt}) " +
+            "ON CONFLICT (user_id) DO UPDATE SET agent_id = EXCLUDED.agent_id, voice_config_id = EXCLUDED.voice_config_id, " +
+            "tts_enabled = EXCLUDED.tts_enabled, enabled = EXCLUDED.enabled, updated_at = EXCLUDED.updated_at")
+    int upsertBinding(LiveRoomBinding binding);
+
+    /**
+     * 删除用户的直播间绑定
+     * @param userId 用户 ID
+     * @return 受影响的行数
+     */
+    @Delete("DELETE FROM live_room_binding WHERE user_id = #{userId}")
+    int deleteBindingByUserId(int userId);
+}
@@ -18,6 +18,13 @@ public interface ModelConfigMapper {
     @Select("SELECT * FROM model_config")
     List<ModelConfig> selectAllModelConfigs();
 
+    /**
+     * 查询生效的模型配置（有多条时取 ID 最小的）
+     * @return 模型配置，没有返回 null
+     */
+    @Select("SELECT * FROM model_config ORDER BY id LIMIT 1")
+    ModelConfig selectPrimaryModelConfig();
+
     /**
      * 插入模型配置
      * @param config 模型配置对象
@@ -0,0 +1,54 @@
+package com.example.douyinlive.mapper;
+
+import com.example.douyinlive.entity.ModelEndpoint;
+import org.apache.ibatis.annotations.*;
+
+import java.util.List;
+
+/**
+ * 模型接入点 Mapper，操作 model_endpoint 表
+ */
+@Mapper
+public interface ModelEndpointMapper {
+
+    /**
+     * 查询所有接入点
+     * @return 接入点列表，按用途、优先级排序
+     */
+    @Select("SELECT * FROM model_endpoint ORDER BY role, priority, id")
+    List<ModelEndpoint> selectAllEndpoints();
+
+    /**
+     * 查询启用的接入点
+     * @return 接入点列表，按用途、优先级排序
+     */
+    @Select("SELECT * FROM model_endpoint WHERE enabled ORDER BY role, priority, id")
+    List<ModelEndpoint> selectEnabledEndpoints();
+
+    /**
+     * 插入接入点
+     * @param endpoint 接入点
+     * @return 受影响的行数
+     */
+    @Insert("INSERT INTO model_endpoint (role, url, model, api_key, priority, backup, enabled, created_at, updated_at) " +
+            "VALUES (#{role}, #{url}, #{model}, #{apiKey}, #{priority}, #{backup}, #{enabled}, #{createdAt}, #{updatedAt})")
+    @Options(useGeneratedKeys = true, keyProperty = "id")
+    int insertEndpoint(ModelEndpoint endpoint);
+
+    /**
+     * 更新接入点
+     * @param endpoint 接入点
+     * @return 受影响的行数
+     */
+    @Update("UPDATE model_endpoint SET role = #{role}, url = #{url}, model = #{model}, api_key = #{apiKey}, " +
+            "priority = #{priority}, backup = #{backup}, enabled = #{enabled}, updated_at = #{updatedAt} WHERE id = #{id}")
+    int updateEndpoint(ModelEndpoint endpoint);
+
+    /**
+     * 删除接入点
+     * @param id 接入点 ID
+     * @return 受影响的行数
+     */
+    @Delete("DELETE FROM model_endpoint WHERE id = #{id}")
+    int deleteEndpoint(int id);
+}
@@ -0,0 +1,100 @@
+package com.example.douyinlive.mapper;
+
+import com.example.douyinlive.entity.KnowledgeBase;
+import com.pgvector.PGvector;
+import org.apache.ibatis.annotations.*;
+
+import java.util.List;
+
+/**
+ * 知识库向量索引管理 Mapper：查看、重建 knowledge_base.embedding 上的 HNSW / ivfflat 索引，以及召回率测评用的查询
+ * 建索引的 DDL 没法用占位符，索引名、方法和参数都由 VectorIndexService 拼好并校验过
+ */
+@Mapper
+public interface VectorIndexMapper {
+
+    /**
+     * 查询索引定义
+     * @param indexName 索引名
+     * @return CREATE INDEX 语句，索引不存在返回 null
+     */
+    @Select("SELECT indexdef FROM pg_indexes WHERE schemaname = current_schema() AND indexname = #{indexName}")
+    String selectIndexDefinition(@Param("indexName") String indexName);
+
+    /**
+     * 统计有向量的段落数，用来估算 ivfflat 的 lists
+     * @return 段落数
+     */
+    @Select("SELECT COUNT(*) FROM knowledge_base WHERE embedding IS NOT NULL")
+    long countEmbeddings();
+
+    /**
+     * 不锁写入地建向量索引（CONCURRENTLY 不能在事务里执行）
+     * @param indexName 索引名
+     * @param method hnsw 或 ivfflat
+     * @param options WITH 里的参数，比如 m = 16, ef_construction = 64
+     */
+    @Update("CREATE INDEX CONCURRENTLY ${indexName} ON knowledge_base USING ${method} (embedding vector_cosine_ops) WITH (${options})")
+    void createVectorIndex(@Param("indexName") String indexName,
+                           @Param("method") String method,
+                           @Param("options") String options);
+
+    /**
+     * 不锁写入地删除索引
+     * @param indexName 索引名
+     */
+    @Update("DROP INDEX CONCURRENTLY IF EXISTS ${indexName}")
+    void dropIndex(@Param("indexName") String indexName);
+
+    /**
+     * 在当前事务里删除索引，会短暂锁表，换索引时和重命名放在同一个事务里
+     * @param indexName 索引名
+     */
+    @Update("DROP INDEX IF EXISTS ${indexName}")
+    void dropIndexInTransaction(@Param("indexName") String indexName);
+
+    /**
+     * 设置当前事务等锁的最长时间，换索引时别在长查询后面排太久、把后面的查询也堵住
+     * @param timeout 比如 5s
+     * @return set_config 的返回值
+     */
+    @Select("SELECT set_config('lock_timeout', #{timeout}, true)")
+    String setLockTimeout(@Param("timeout") String timeout);
+
+    /**
+     * 重命名索引
+     * @param from 原索引名
+     * @param to 新索引名
+     */
+    @Update("ALTER INDEX ${from} RENAME TO ${to}")
+    void renameIndex(@Param("from") String from, @Param("to") String to);
+
+    /**
+     * 随机抽一些段落的向量当测评查询
+     * @param limit 抽取条数
+     * @return 段落（只有 id 和向量）
+     */
+    @Select("SELECT id, embedding FROM knowledge_base WHERE id IN " +
+            "(SELECT id FROM knowledge_base WHERE embedding IS NOT NULL ORDER BY random() LIMIT #{limit})")
+    @Results({
+            @Result(column = "embedding", property = "embedding", typeHandler = com.example.douyinlive.typehandler.PGvectorTypeHandler.class)
+    })
+    List<KnowledgeBase> selectSampleEmbeddings(@Param("limit") int limit);
+
+    /**
+     * 全表找最相似的段落 ID，是否走索引由当前事务的设置决定
+     * @param queryVector 查询向量
+     * @param limit 返回条数
+     * @return 段落 ID，按距离从近到远
+     */
+    @Select("SELECT id FROM knowledge_base WHERE embedding IS NOT NULL " +
+            "ORDER BY embedding <=> #{queryVector, typeHandler=com.example.douyinlive.typehandler.PGvectorTypeHandler} LIMIT #{limit}")
+    List<Integer> selectNearestIds(@Param("queryVector") PGvector queryVector, @Param("limit") int limit);
+
+    /**
+     * 在当前事务里禁用索引扫描，用来算精确结果（标准答案）
+     * @return set_config 的返回值
+     */
+    @Select("SELECT set_config('enable_indexscan', 'off', true)")
+    String disableIndexScan();
+}
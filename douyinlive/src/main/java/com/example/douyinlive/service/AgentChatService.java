@@ -0,0 +1,210 @@
+package com.example.douyinlive.service;
+
+import com.example.douyinlive.entity.Agent;
+import com.example.douyinlive.entity.KnowledgeBase;
+import com.example.douyinlive.entity.ModelConfig;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * 智能体对话：合并智能体配置、检索知识库、拼通义千问请求体
+ * 大白话：AgentController 的 HTTP 接口和服务端直播回复流水线（{@link LiveReplyPipeline}）共用这一套，
+ * 后者不经过浏览器，直接在后端调用 {@link #answer(Agent, String)}；
+ * 智能体的固定部分预编译成 {@link AgentRequestTemplate} 缓存起来，每次对话只拼检索结果和消息
+ */
+@Service
+public class AgentChatService {
+
+    @Autowired
+    private EmbeddingClient embeddingClient;
+
+    @Autowired
+    private KnowledgeBaseRetriever knowledgeBaseRetriever;
+
+    @Autowired
+    private SemanticAnswerCache semanticAnswerCache;
+
+    @Autowired
+    private ModelConfigRegistry modelConfigRegistry;
+
+    @Autowired
+    private ContextPacker contextPacker;
+
+    @Autowired
+    private ModelRouter modelRouter;
+
+    // 每次检索多少条候选段落，再按 Token 预算装箱
+    @Value("${agent.context.candidates:8}")
+    private int contextCandidates;
+
+    // 共用的 HTTP 客户端，带连接池和超时
+    @Autowired
+    private RestTemplate restTemplate;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // 智能体 ID -> 预编译好的请求模板
+    private final Map<Integer, AgentRequestTemplate> templates = new ConcurrentHashMap<>();
+
+    // 前端消息列表的类型，请求体里的 messages 按它转换
+    private static final TypeReference<List<Map<String, Object>>> MESSAGES_TYPE = new TypeReference<>() {
+    };
+
+    public List<Map<String, Object>> inputMessages(Map<String, Object> requestBody) {
+        List<Map<String, Object>> messages = objectMapper.convertValue(requestBody.get("messages"), MESSAGES_TYPE);
+        return messages != null ? messages : new ArrayList<>();
+    }
+
+    // 获取用户输入消息
+    public String firstUserInput(List<Map<String, Object>> inputMessages) {
+        return inputMessages.stream()
+                .filter(msg -> "user".equals(msg.get("role")))
+                .map(msg -> (String) msg.get("content"))
+                .findFirst()
+                .orElse("");
+    }
+
+    public boolean hasKnowledgeBases(Agent agent) {
+        return agent.getKbIds() != null && !agent.getKbIds().isEmpty();
+    }
+
+    /**
+     * 合并智能体配置和前端参数，检索知识库并把结果拼进系统提示词，生成通义千问请求体
+     * @param inputEmbedding 用户输入的向量，为 null 时不检索知识库
+     */
+    public Map<String, Object> buildRequest(Agent agent, ModelConfig config,
+                                            List<Map<String, Object>> inputMessages,
+                                            Map<String, Object> requestBody,
+                                            float[] inputEmbedding) throws JsonProcessingException {
+        AgentRequestTemplate template = template(agent);
+
+        // 如果智能体配置了知识库 ID，执行向量检索
+        List<String> relevantContents = new ArrayList<>();
+        if (!template.getKbIds().isEmpty() && inputEmbedding != null) {
+            // 按段落所属知识库过滤，多取几条候选，按相似度顺序装到 Token 预算为止
+            List<KnowledgeBase> similarKbs = knowledgeBaseRetriever.searchTopSimilar(
+                    agent.getUserId(), template.getKbIds(), inputEmbedding, contextCandidates, agent.getVectorEfSearch(), agent.getVectorProbes());
+            relevantContents = contextPacker.pack(similarKbs.stream()
+                    .map(KnowledgeBase::getContent)
+                    .collect(Collectors.toList()));
+            System.out.println("检索到相关知识库内容：" + relevantContents);
+        }
+
+        // 系统提示词在前、知识库内容在后，前端消息跟在后面
+        return template.render(requestBody, config.getQwenmodel(), inputMessages, relevantContents);
+    }
+
+    /**
+     * 取智能体的预编译请求模板，没有或智能体改过（updated_at 变了）就重新编译
+     * @param agent 智能体
+     * @return 请求模板
+     */
+    public AgentRequestTemplate template(Agent agent) throws JsonProcessingException {
+        AgentRequestTemplate template = templates.get(agent.getId());
+        if (template == null || !template.matches(agent)) {
+            template = AgentRequestTemplate.compile(agent, objectMapper);
+            templates.put(agent.getId(), template);
+        }
+        return template;
+    }
+
+    /**
+     * 智能体改了或删了，丢掉它的请求模板
+     * @param agentId 智能体 ID
+     */
+    public void evictTemplate(int agentId) {
+        templates.remove(agentId);
+    }
+
+    /**
+     * 生成输入文本的嵌入向量
+     * @param input 输入文本
+     * @return 向量数组
+     */
+    public float[] embed(String input) {
+        if (input == null || input.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            // 大白话：限速、重试都交给共享的向量客户端，这里失败了就不走知识库检索
+            return embeddingClient.embed(input);
+        } catch (RuntimeException e) {
+            System.out.println("向量生成失败：" + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 后端直接回答一个单轮问题：先查语义答案缓存，没命中再检索知识库、调通义千问，答案写回缓存
+     * @param agent 智能体
+     * @param question 问题
+     * @return 回复内容
+     */
+    public String answer(Agent agent, String question) throws JsonProcessingException {
+        ModelConfig config = modelConfigRegistry.current();
+        if (config == null) {
+            throw new IllegalStateException("未找到模型配置");
+        }
+        List<Map<String, Object>> inputMessages = List.of(Map.of("role", "user", "content", question));
+        boolean cacheable = semanticAnswerCache.isCacheable(inputMessages);
+        float[] inputEmbedding = cacheable || hasKnowledgeBases(agent) ? embed(question) : null;
+        long cacheGeneration = semanticAnswerCache.generation(agent.getId(), agent.getUserId());
+        String cachedAnswer = cacheable ? semanticAnswerCache.lookup(agent.getId(), inputEmbedding) : null;
+        if (cachedAnswer != null) {
+            return cachedAnswer;
+        }
+        Map<String, Object> body = buildRequest(agent, config, inputMessages, new HashMap<>(), inputEmbedding);
+        String content = complete(body);
+        if (cacheable) {
+            semanticAnswerCache.put(agent.getId(), agent.getUserId(), cacheGeneration, inputEmbedding, content);
+        }
+        return content;
+    }
+
+    /**
+     * 非流式调用通义千问，返回第一条回复的内容；接入点由 {@link ModelRouter} 按延迟选，慢了对冲、挂了切换
+     * @param body 请求体（buildRequest 的结果）
+     * @return 回复内容，没有内容时返回空串
+     */
+    public String complete(Map<String, Object> body) {
+        return modelRouter.execute(ModelRouter.Role.CHAT, endpoint -> {
+            Map<String, Object> requestBody = ModelRouter.withModel(body, endpoint);
+            requestBody.put("stream", false);
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.APPLICATION_JSON);
+            headers.set("Authorization", "Bearer " + endpoint.getApiKey());
+            ResponseEntity<JsonNode> response = restTemplate.exchange(endpoint.getUrl(), HttpMethod.POST,
+                    new HttpEntity<>(requestBody, headers), JsonNode.class);
+            return extractContent(response.getBody());
+        });
+    }
+
+    /**
+     * 取 OpenAI 兼容响应里第一条回复的内容，没有内容时返回空串
+     */
+    public static String extractContent(JsonNode responseBody) {
+        if (responseBody == null) {
+            return "";
+        }
+        JsonNode content = responseBody.path("choices").path(0).path("message").path("content");
+        return content.isTextual() ? content.asText() : "";
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.douyinlive.service;
+
+import com.example.douyinlive.entity.Agent;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.RawValue;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 智能体预编译好的请求模板，不可变，按智能体缓存在 {@link AgentChatService} 里
+ * 大白话：智能体配置很少改，但每次对话都要把 tools、search_options、translation_options 从 JSON 字符串解析一遍、
+ * 拼一遍系统提示词；这里在智能体第一次被用到（或改过之后）时做一次：
+ * JSON 配置校验后压成紧凑字符串，用 {@link RawValue} 放进请求体，序列化时原样写出，不再解析成对象树再写回去；
+ * 系统提示词放在最前面、知识库内容拼在后面，同一个智能体的每次请求开头都一样，上游的前缀缓存能命中
+ */
+public class AgentRequestTemplate {
+
+    private final int agentId;
+    private final LocalDateTime updatedAt;
+    private final String systemPrompt;
+    // 没有检索到知识库内容时直接复用的系统消息
+    private final Map<String, Object> systemMessage;
+    // 智能体自己的模型参数，前端没传对应参数时用这里的值（值可能为 null，和原来的行为一致）
+    private final Map<String, Object> defaults;
+    private final List<String> kbIds;
+
+    private AgentRequestTemplate(Agent agent, Map<String, Object> defaults) {
+        this.agentId = agent.getId();
+        this.updatedAt = agent.getUpdatedAt();
+        this.systemPrompt = agent.getSystemPrompt() != null ? agent.getSystemPrompt() : "";
+        this.systemMessage = Map.of("role", "system", "content", systemPrompt);
+        this.defaults = Collections.unmodifiableMap(defaults);
+        List<String> kbIdList = new ArrayList<>();
+        if (agent.getKbIds() != null && !agent.getKbIds().isEmpty()) {
+            Collections.addAll(kbIdList, agent.getKbIds().split(","));
+        }
+        this.kbIds = Collections.unmodifiableList(kbIdList);
+    }
+
+    /**
+     * 把智能体编译成请求模板
+     * @param agent 智能体
+     * @param mapper 用来校验、压缩 JSON 配置
+     * @return 模板
+     * @throws JsonProcessingException tools / search_options / translation_options 不是合法 JSON
+     */
+    public static AgentRequestTemplate compile(Agent agent, ObjectMapper mapper) throws JsonProcessingException {
+        Map<String, Object> defaults = new LinkedHashMap<>();
+        defaults.put("temperature", agent.getTemperature());
+        defaults.put("top_p", agent.getTopP());
+        defaults.put("presence_penalty", agent.getPresencePenalty());
+        defaults.put("max_tokens", agent.getMaxTokens());
+        defaults.put("n", agent.getN());
+        defaults.put("seed", agent.getSeed());
+        defaults.put("stop", agent.getStop());
+        defaults.put("tools", rawJson(agent.getTools(), mapper));
+        defaults.put("tool_choice", agent.getToolChoice());
+        defaults.put("parallel_tool_calls", agent.getParallelToolCalls());
+        defaults.put("enable_search", agent.getEnableSearch());
+        defaults.put("search_options", rawJson(agent.getSearchOptions(), mapper));
+        defaults.put("translation_options", rawJson(agent.getTranslationOptions(), mapper));
+        return new AgentRequestTemplate(agent, defaults);
+    }
+
+    private static RawValue rawJson(String json, ObjectMapper mapper) throws JsonProcessingException {
+        if (json == null) {
+            return null;
+        }
+        return new RawValue(mapper.writeValueAsString(mapper.readTree(json)));
+    }
+
+    /**
+     * 模板是不是按这个版本的智能体编译的（智能体编辑后 updated_at 会变）
+     */
+    public boolean matches(Agent agent) {
+        return agentId == agent.getId() && Objects.equals(updatedAt, agent.getUpdatedAt());
+    }
+
+    /**
+     * 生成一次对话的请求体：前端传了的参数优先，没传的用智能体的
+     * @param requestBody 前端请求体
+     * @param model 默认模型
+     * @param inputMessages 前端消息
+     * @param relevantContents 检索到的知识库内容
+     * @return 请求体
+     */
+    public Map<String, Object> render(Map<String, Object> requestBody, String model,
+                                      List<Map<String, Object>> inputMessages, List<String> relevantContents) {
+        Map<String, Object> body = new HashMap<>(requestBody);
+        body.put("model", requestBody.getOrDefault("model", model));
+        for (Map.Entry<String, Object> entry : defaults.entrySet()) {
+            if (requestBody.get(entry.getKey()) == null) {
+                body.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        List<Map<String, Object>> messages = new ArrayList<>(inputMessages.size() + 1);
+        messages.add(systemMessage(relevantContents));
+        messages.addAll(inputMessages);
+        body.put("messages", messages);
+        return body;
+    }
+
+    // 将知识库内容直接拼接到系统提示词后面，不加引导语
+    private Map<String, Object> systemMessage(List<String> relevantContents) {
+        if (relevantContents.isEmpty()) {
+            return systemMessage;
+        }
+        int length = systemPrompt.length() + 2;
+        for (String content : relevantContents) {
+            length += content.length() + 1;
+        }
+        StringBuilder prompt = new StringBuilder(length).append(systemPrompt).append("\n\n");
+        for (int i = 0; i < relevantContents.size(); i++) {
+            if (i > 0) {
+                prompt.append('\n');
+            }
+            prompt.append(relevantContents.get(i));
+        }
+        return Map.of("role", "system", "content", prompt.toString());
+    }
+
+    public String getSystemPrompt() {
+        return systemPrompt;
+    }
+
+    public List<String> getKbIds() {
+        return kbIds;
+    }
+}
@@ -0,0 +1,174 @@
+package com.example.douyinlive.service;
+
+import com.example.douyinlive.util.TextSimilarity;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 知识库检索结果装箱：按相似度从高到低往系统提示词里放，放满 Token 预算为止
+ * 大白话：以前固定拼前 3 条，段落长的时候提示词很大、又慢又贵，偶尔还超长报错；段落短的时候又放得太少。
+ * 现在按 {@link QwenTokenizer} 数 Token：和已选段落几乎一样的跳过，首尾和已选段落重叠的部分剪掉，
+ * 最后一条放不下时在句子边界截断（剩的预算太少就不放了）
+ */
+@Service
+public class ContextPacker {
+
+    // 句子结束的标点，截断时尽量停在这些字符后面
+    private static final String SENTENCE_ENDS = "。！？；!?;\n";
+
+    @Autowired
+    private QwenTokenizer tokenizer;
+
+    // 拼进提示词的知识库内容最多占多少 Token
+    @Value("${agent.context.max-tokens:1500}")
+    private int maxTokens;
+
+    // 预算剩下不到这么多 Token 时，不再截断塞半条进去
+    @Value("${agent.context.min-segment-tokens:32}")
+    private int minSegmentTokens;
+
+    // 和已选段落字面相似度（字符二元组 Jaccard）不低于这个值的算重复
+    @Value("${agent.context.dedup-similarity:0.85}")
+    private double dedupSimilarity;
+
+    // 首尾重叠至少这么多字才剪掉，太短的重叠多半是巧合
+    @Value("${agent.context.min-overlap-chars:16}")
+    private int minOverlapChars;
+
+    public int getMaxTokens() {
+        return maxTokens;
+    }
+
+    /**
+     * 按默认预算装箱
+     * @param candidates 检索到的段落，相似度从高到低
+     * @return 要拼进提示词的内容，顺序不变
+     */
+    public List<String> pack(Collection<String> candidates) {
+        return pack(candidates, maxTokens);
+    }
+
+    /**
+     * 按指定预算装箱
+     * @param candidates 检索到的段落，相似度从高到低
+     * @param budget Token 预算（段落之间的换行也算）
+     * @return 要拼进提示词的内容，顺序不变
+     */
+    public List<String> pack(Collection<String> candidates, int budget) {
+        List<String> packed = new ArrayList<>();
+        List<String> normalized = new ArrayList<>();
+        int remaining = budget;
+        for (String candidate : candidates) {
+            if (candidate == null || candidate.isBlank() || remaining <= 0) {
+                continue;
+            }
+            String text = candidate.trim();
+            String key = TextSimilarity.normalize(text);
+            if (isDuplicate(key, normalized)) {
+                continue;
+            }
+            text = trimOverlap(text, packed);
+            if (text.isEmpty()) {
+                continue;
+            }
+
+            // 段落之间用一个换行隔开，也占 Token
+            int separator = packed.isEmpty() ? 0 : 1;
+            int tokens = tokenizer.count(text) + separator;
+            if (tokens > remaining) {
+                if (remaining - separator < minSegmentTokens) {
+                    break;
+                }
+                text = truncate(text, remaining - separator);
+                if (text.isEmpty()) {
+                    break;
+                }
+                tokens = tokenizer.count(text) + separator;
+            }
+            packed.add(text);
+            normalized.add(key);
+            remaining -= tokens;
+        }
+        System.out.println("知识库内容装箱：候选 " + candidates.size() + " 条，放入 " + packed.size()
+                + " 条，约 " + (budget - remaining) + "/" + budget + " Token");
+        return packed;
+    }
+
+    /**
+     * 和已选段落一样、被已选段落包含、或者字面相似度太高都算重复
+     */
+    private boolean isDuplicate(String key, List<String> normalized) {
+        if (key.isEmpty()) {
+            return true;
+        }
+        for (String selected : normalized) {
+            if (selected.contains(key) || TextSimilarity.bigramSimilarity(selected, key) >= dedupSimilarity) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 切段时相邻段落会有重叠：候选段落开头和已选段落结尾重复（或结尾和已选段落开头重复）的部分剪掉
+     */
+    private String trimOverlap(String text, List<String> packed) {
+        for (String selected : packed) {
+            int head = overlap(selected, text);
+            if (head >= minOverlapChars) {
+                text = text.substring(head).trim();
+            }
+            int tail = overlap(text, selected);
+            if (tail >= minOverlapChars) {
+                text = text.substring(0, text.length() - tail).trim();
+            }
+            if (text.isEmpty()) {
+                break;
+            }
+        }
+        return text;
+    }
+
+    /**
+     * first 的结尾和 second 的开头最长重叠多少字
+     */
+    static int overlap(String first, String second) {
+        int max = Math.min(first.length(), second.length());
+        for (int length = max; length > 0; length--) {
+            if (first.regionMatches(first.length() - length, second, 0, length)) {
+                return length;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 截到不超过 budget 个 Token：二分找最长的前缀，再往回退到最近的句子结尾（退太多就不退了）
+     */
+    private String truncate(String text, int budget) {
+        int low = 0;
+        int high = text.length();
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (tokenizer.count(text.substring(0, mid)) <= budget) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (low > 0 && Character.isHighSurrogate(text.charAt(low - 1))) {
+            low--;
+        }
+        for (int end = low; end > low / 2; end--) {
+            if (SENTENCE_ENDS.indexOf(text.charAt(end - 1)) >= 0) {
+                return text.substring(0, end).trim();
+            }
+        }
+        return text.substring(0, low).trim();
+    }
+}
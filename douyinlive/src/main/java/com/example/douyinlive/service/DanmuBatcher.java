@@ -0,0 +1,416 @@
+package com.example.douyinlive.service;
+
+import com.example.douyinlive.config.LiveMessageWebSocketHandler;
+import com.example.douyinlive.entity.Agent;
+import com.example.douyinlive.entity.KnowledgeBase;
+import com.example.douyinlive.entity.ModelConfig;
+import com.example.douyinlive.mapper.AgentMapper;
+import com.example.douyinlive.util.TextSimilarity;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 弹幕问题攒批：高峰期每秒几十条弹幕，不再一条弹幕调一次大模型
+ * 大白话：每个直播间（按主播用户名区分）开一个小窗口，窗口到点或攒够 N 条就把这批问题一起发给智能体，
+ * 几乎一样的问题（去掉标点空格后相同或字面高度相似）只问一次，答案按问题拆开后通过 WebSocket 推回前端（type = batch_reply）
+ * 直播间要先通过 /live-messages/start 带上 agent_id 开启；开启后也只在高峰期攒批：最近 rate-window-ms 内弹幕不到 peak-rate 条/秒时
+ * 不收，弹幕照旧由前端一条条回复，不用等攒批窗口
+ */
+@Service
+public class DanmuBatcher {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Autowired
+    private AgentMapper agentMapper;
+
+    @Autowired
+    private ModelConfigRegistry modelConfigRegistry;
+
+    @Autowired
+    private EmbeddingClient embeddingClient;
+
+    @Autowired
+    private KnowledgeBaseRetriever knowledgeBaseRetriever;
+
+    @Autowired
+    private LiveMessageWebSocketHandler webSocketHandler;
+
+    @Autowired
+    private AgentChatService agentChatService;
+
+    @Autowired
+    private ContextPacker contextPacker;
+
+    // 是否允许开启攒批
+    @Value("${danmu.batch.enabled:true}")
+    private boolean enabled;
+
+    // 攒批窗口：第一条问题进来后最多等多久
+    @Value("${danmu.batch.window-ms:1500}")
+    private long windowMs;
+
+    // 一批最多多少个（去重后的）问题，攒够立刻发
+    @Value("${danmu.batch.max-questions:10}")
+    private int maxQuestions;
+
+    // 两条弹幕字面相似度（字符二元组 Jaccard）不低于这个值就算同一个问题
+    @Value("${danmu.batch.similarity:0.6}")
+    private double similarity;
+
+    // 每个问题检索几条知识库段落
+    @Value("${danmu.batch.kb-limit-per-question:2}")
+    private int kbLimitPerQuestion;
+
+    // 直播间最近 rate-window-ms 内平均每秒弹幕数达到这个值才算高峰，才开始攒批
+    @Value("${danmu.batch.peak-rate:3}")
+    private double peakRate;
+
+    @Value("${danmu.batch.rate-window-ms:5000}")
+    private long rateWindowMs;
+
+    // 直播间用户名 -> 攒批状态
+    private final Map<String, RoomBatch> rooms = new ConcurrentHashMap<>();
+
+    // 窗口到点的定时器
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "danmu-batch-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // 调大模型的线程，调用是阻塞的，不能占着定时器
+    private final ExecutorService answerExecutor;
+
+    public DanmuBatcher(@Value("${danmu.batch.workers:4}") int workers) {
+        AtomicInteger counter = new AtomicInteger();
+        this.answerExecutor = Executors.newFixedThreadPool(workers, r -> {
+            Thread thread = new Thread(r, "danmu-batch-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.shutdownNow();
+        answerExecutor.shutdownNow();
+    }
+
+    /**
+     * 开启直播间的攒批回复
+     * @param username 主播用户名
+     * @param userId 主播用户 ID
+     * @param agentId 回复用的智能体 ID
+     * @return 是否开启成功（配置里关掉了攒批，或智能体不存在、不属于该用户时返回 false）
+     */
+    public boolean enable(String username, int userId, int agentId) {
+        if (!enabled) {
+            return false;
+        }
+        Agent agent = agentMapper.selectAgentById(agentId);
+        if (agent == null || agent.getUserId() != userId) {
+            System.err.println("开启弹幕攒批回复失败：智能体 " + agentId + " 不存在或不属于用户 " + username);
+            return false;
+        }
+        RoomBatch old = rooms.put(username, new RoomBatch(username, userId, agentId));
+        if (old != null) {
+            old.cancel();
+        }
+        System.out.println("直播间 " + username + " 开启弹幕攒批回复，智能体 ID：" + agentId);
+        return true;
+    }
+
+    /**
+     * 关闭直播间的攒批回复，还没发出去的问题直接丢掉
+     * @param username 主播用户名
+     */
+    public void disable(String username) {
+        RoomBatch room = rooms.remove(username);
+        if (room != null) {
+            room.cancel();
+            System.out.println("直播间 " + username + " 关闭弹幕攒批回复");
+        }
+    }
+
+    /**
+     * 收到一条观众弹幕
+     * @param username 主播用户名
+     * @param viewerName 观众昵称
+     * @param content 弹幕内容
+     * @return 直播间开启了攒批、正处在高峰期且问题已收下返回 true
+     */
+    public boolean offer(String username, String viewerName, String content) {
+        RoomBatch room = rooms.get(username);
+        if (room == null || content == null) {
+            return false;
+        }
+        // 大白话：弹幕少的时候一条条答更快，不值得等攒批窗口
+        if (!room.busy(System.currentTimeMillis())) {
+            return false;
+        }
+        String normalized = TextSimilarity.normalize(content);
+        if (normalized.isEmpty()) {
+            // 纯表情、标点，没什么可答的
+            return false;
+        }
+        List<Question> ready = room.add(viewerName, content.trim(), normalized);
+        if (ready != null) {
+            answerExecutor.execute(() -> answer(room, ready));
+        }
+        return true;
+    }
+
+    /**
+     * 把一批问题一次发给智能体，答案拆开推回前端
+     */
+    private void answer(RoomBatch room, List<Question> questions) {
+        long start = System.currentTimeMillis();
+        try {
+            ModelConfig config = modelConfigRegistry.current();
+            if (config == null) {
+                System.err.println("弹幕攒批回复失败：未找到模型配置");
+                return;
+            }
+            Agent agent = agentMapper.selectAgentById(room.agentId);
+            if (agent == null || agent.getUserId() != room.userId) {
+                System.err.println("弹幕攒批回复失败：智能体 " + room.agentId + " 不存在或不属于用户 " + room.username);
+                return;
+            }
+
+            Map<String, Object> body = buildRequestBody(agent, config, questions);
+            List<String> answers = parseAnswers(agentChatService.complete(body), questions.size());
+
+            List<Map<String, Object>> replies = new ArrayList<>();
+            for (int i = 0; i < questions.size(); i++) {
+                if (answers.get(i) == null || answers.get(i).isEmpty()) {
+                    continue;
+                }
+                Map<String, Object> reply = new HashMap<>();
+                reply.put("question", questions.get(i).text);
+                reply.put("user_names", new ArrayList<>(questions.get(i).viewerNames));
+                reply.put("content", answers.get(i));
+                replies.add(reply);
+            }
+            if (replies.isEmpty()) {
+                System.err.println("弹幕攒批回复为空，直播间：" + room.username);
+                return;
+            }
+            Map<String, Object> message = new HashMap<>();
+            message.put("id", "batch-" + UUID.randomUUID());
+            message.put("type", "batch_reply");
+            message.put("username", room.username);
+            message.put("data", Map.of("replies", replies));
+            webSocketHandler.sendMessageToUser(objectMapper.writeValueAsString(message), room.username);
+            System.out.println("直播间 " + room.username + " 弹幕攒批回复完成，问题数：" + questions.size()
+                    + "，回复数：" + replies.size() + "，耗时：" + (System.currentTimeMillis() - start) + " ms");
+        } catch (Exception e) {
+            System.err.println("弹幕攒批回复失败，直播间：" + room.username + "，错误：" + e.getMessage());
+        }
+    }
+
+    /**
+     * 智能体提示词 + 每个问题检索到的知识库段落（去重后拼在一起）+ 按编号作答的要求，问题编号从 1 开始
+     */
+    private Map<String, Object> buildRequestBody(Agent agent, ModelConfig config, List<Question> questions) throws Exception {
+        AgentRequestTemplate template = agentChatService.template(agent);
+        Set<String> relevantContents = new LinkedHashSet<>();
+        if (!template.getKbIds().isEmpty()) {
+            try {
+                List<String> texts = new ArrayList<>();
+                for (Question question : questions) {
+                    texts.add(question.text);
+                }
+                List<float[]> vectors = embeddingClient.embedAll(texts);
+                List<List<KnowledgeBase>> results = new ArrayList<>();
+                for (float[] vector : vectors) {
+                    results.add(knowledgeBaseRetriever.searchTopSimilar(agent.getUserId(), template.getKbIds(), vector,
+                            kbLimitPerQuestion, agent.getVectorEfSearch(), agent.getVectorProbes()));
+                }
+                // 按名次轮流取：先放每个问题最相关的一条，再放每个问题的第二条，预算不够时每个问题都能分到
+                for (int rank = 0; rank < kbLimitPerQuestion; rank++) {
+                    for (List<KnowledgeBase> result : results) {
+                        if (rank < result.size()) {
+                            relevantContents.add(result.get(rank).getContent());
+                        }
+                    }
+                }
+            } catch (RuntimeException e) {
+                // 大白话：向量化失败就不带知识库，照样回答
+                System.out.println("弹幕攒批检索知识库失败：" + e.getMessage());
+            }
+        }
+
+        StringBuilder systemPrompt = new StringBuilder(template.getSystemPrompt());
+        // 多个问题检索到的段落合在一起也按 Token 预算装箱
+        List<String> packedContents = contextPacker.pack(relevantContents);
+        if (!packedContents.isEmpty()) {
+            systemPrompt.append("\n\n");
+            systemPrompt.append(String.join("\n", packedContents));
+        }
+        systemPrompt.append("\n\n下面是直播间观众的多条弹幕，请逐条回复，每条回复独立成句，适合主播直接念出来。")
+                .append("只输出 JSON 对象，格式：{\"answers\":[{\"index\":1,\"answer\":\"...\"}]}，index 对应弹幕编号，每条弹幕都要有回复。");
+        StringBuilder userPrompt = new StringBuilder();
+        for (int i = 0; i < questions.size(); i++) {
+            userPrompt.append(i + 1).append(". ").append(questions.get(i).text).append("\n");
+        }
+
+        List<Map<String, Object>> messages = new ArrayList<>();
+        messages.add(Map.of("role", "system", "content", systemPrompt.toString()));
+        messages.add(Map.of("role", "user", "content", userPrompt.toString()));
+
+        Map<String, Object> body = new HashMap<>();
+        body.put("model", config.getQwenmodel());
+        body.put("messages", messages);
+        body.put("response_format", Map.of("type", "json_object"));
+        body.put("temperature", agent.getTemperature());
+        body.put("top_p", agent.getTopP());
+        body.put("presence_penalty", agent.getPresencePenalty());
+        body.put("seed", agent.getSeed());
+        if (agent.getMaxTokens() != null) {
+            // 智能体的 max_tokens 是一条回复的长度，一批要按问题数放大
+            body.put("max_tokens", agent.getMaxTokens() * questions.size());
+        }
+        return body;
+    }
+
+    /**
+     * 按编号拆答案，缺的位置为 null；模型没按 JSON 输出时，只有一个问题就把整段当答案
+     */
+    private List<String> parseAnswers(String content, int count) {
+        List<String> answers = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            answers.add(null);
+        }
+        try {
+            JsonNode items = objectMapper.readTree(content).path("answers");
+            for (JsonNode item : items) {
+                int index = item.path("index").asInt(0);
+                if (index >= 1 && index <= count) {
+                    answers.set(index - 1, item.path("answer").asText("").trim());
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("弹幕攒批回复不是合法 JSON：" + content);
+            if (count == 1) {
+                answers.set(0, content.trim());
+            }
+        }
+        return answers;
+    }
+
+    private static class Question {
+        private final String text;
+        private final String normalized;
+        // 问过这个问题的观众，按先后顺序
+        private final Set<String> viewerNames = new LinkedHashSet<>();
+
+        private Question(String text, String normalized) {
+            this.text = text;
+            this.normalized = normalized;
+        }
+    }
+
+    /**
+     * 一个直播间正在攒的一批问题
+     */
+    private class RoomBatch {
+        private final String username;
+        private final int userId;
+        private final int agentId;
+        private List<Question> pending = new ArrayList<>();
+        private ScheduledFuture<?> flushTask;
+        private boolean cancelled;
+        // 最近 rate-window-ms 内收到弹幕的时间
+        private final ArrayDeque<Long> arrivals = new ArrayDeque<>();
+
+        private RoomBatch(String username, int userId, int agentId) {
+            this.username = username;
+            this.userId = userId;
+            this.agentId = agentId;
+        }
+
+        /**
+         * 记一条弹幕，判断是不是高峰期；这一批还没发出去时也算，免得一批问题被拆开
+         */
+        private synchronized boolean busy(long now) {
+            arrivals.addLast(now);
+            while (now - arrivals.peekFirst() > rateWindowMs) {
+                arrivals.pollFirst();
+            }
+            return !pending.isEmpty() || arrivals.size() >= peakRate * rateWindowMs / 1000;
+        }
+
+        /**
+         * 收下一个问题；攒够了返回这一批，否则返回 null（第一条问题进来时启动窗口定时器）
+         */
+        private synchronized List<Question> add(String viewerName, String text, String normalized) {
+            if (cancelled) {
+                return null;
+            }
+            for (Question question : pending) {
+                if (TextSimilarity.bigramSimilarity(question.normalized, normalized) >= similarity) {
+                    question.viewerNames.add(viewerName);
+                    return null;
+                }
+            }
+            Question question = new Question(text, normalized);
+            question.viewerNames.add(viewerName);
+            pending.add(question);
+            if (pending.size() >= maxQuestions) {
+                return take();
+            }
+            if (flushTask == null) {
+                flushTask = timer.schedule(this::flush, windowMs, TimeUnit.MILLISECONDS);
+            }
+            return null;
+        }
+
+        private void flush() {
+            List<Question> ready;
+            synchronized (this) {
+                flushTask = null;
+                if (cancelled || pending.isEmpty()) {
+                    return;
+                }
+                ready = take();
+            }
+            answerExecutor.execute(() -> answer(this, ready));
+        }
+
+        private List<Question> take() {
+            if (flushTask != null) {
+                flushTask.cancel(false);
+                flushTask = null;
+            }
+            List<Question> ready = pending;
+            pending = new ArrayList<>();
+            return ready;
+        }
+
+        private synchronized void cancel() {
+            cancelled = true;
+            take();
+        }
+    }
+}
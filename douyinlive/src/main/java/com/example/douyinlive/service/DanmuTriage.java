@@ -0,0 +1,510 @@
+package com.example.douyinlive.service;
+
+import com.example.douyinlive.util.TextSimilarity;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * 弹幕分诊：每个直播间一个按类别排优先级的队列，高峰期先放重要的、丢没价值的
+ * 大白话：刷屏的时候进场提示、刷屏弹幕和真正问价格、要链接的弹幕挤在一起，主播后台看不过来，智能体也被没用的弹幕占满。
+ * 现在每条消息先分类：问价格/链接（purchase）、提问（question）、第一次说话的观众（first-time）、普通弹幕（chat）、进场（enter），
+ * 同一句话在去重窗口内重复出现、或者同一个观众短时间内刷太多的算刷屏（spam）直接丢；
+ * 每类有自己的限速，队列积压过半时 shed-classes 里的类别直接丢；
+ * 出队按类别优先级、同类先来先出，每个直播间按 max-per-second 放行，排太久的丢掉，满了先丢优先级最低里最早的
+ * 各直播间的队列深度、每类收到 / 放行 / 各种原因丢弃的条数可以查
+ */
+@Service
+public class DanmuTriage {
+
+    /**
+     * 弹幕类别
+     */
+    public enum Category {
+        PURCHASE, QUESTION, FIRST_TIME, CHAT, ENTER, SPAM;
+
+        /**
+         * 配置里的 purchase / first-time 之类，不认识的返回 null
+         */
+        static Category of(String value) {
+            for (Category category : values()) {
+                if (category.name().replace('_', '-').equalsIgnoreCase(value.trim())) {
+                    return category;
+                }
+            }
+            return null;
+        }
+
+        String key() {
+            return name().toLowerCase().replace('_', '-');
+        }
+    }
+
+    // 丢弃原因
+    private static final String[] DROP_REASONS = {"duplicate", "spam", "rate_limited", "shed", "overflow", "stale"};
+    private static final int DUPLICATE = 0;
+    private static final int SPAM = 1;
+    private static final int RATE_LIMITED = 2;
+    private static final int SHED = 3;
+    private static final int OVERFLOW = 4;
+    private static final int STALE = 5;
+
+    // 每个直播间最多记住多少个说过话的观众（判断第一次说话），以及去重、刷屏统计最多记多少条
+    private static final int MAX_TRACKED = 20000;
+
+    // 是否开启分诊，关掉时消息直接分发
+    @Value("${danmu.triage.enabled:true}")
+    private boolean enabled;
+
+    // 每个直播间最多排多少条
+    @Value("${danmu.triage.capacity:200}")
+    private int capacity;
+
+    // 每个直播间每秒最多放行多少条，0 表示不限
+    @Value("${danmu.triage.max-per-second:20}")
+    private double maxPerSecond;
+
+    // 排队超过这个时间就丢掉
+    @Value("${danmu.triage.max-age-ms:15000}")
+    private long maxAgeMs;
+
+    // 类别优先级，从高到低，逗号分隔；没列出的排在最后
+    @Value("${danmu.triage.priorities:purchase,question,first-time,chat,enter}")
+    private String priorities;
+
+    // 问价格、要链接的关键词，逗号分隔
+    @Value("${danmu.triage.purchase-keywords:多少钱,价格,价钱,链接,怎么买,在哪买,哪里买,下单,优惠,券,包邮,库存,尺码,发货,上车}")
+    private String purchaseKeywords;
+
+    // 每类每秒最多收多少条（类别:条数，逗号分隔），0 或没列出表示不限
+    @Value("${danmu.triage.class-rates:chat:10,enter:3}")
+    private String classRates;
+
+    // 队列积压到 shed-threshold（占 capacity 的比例）以上时直接丢的类别
+    @Value("${danmu.triage.shed-classes:enter,chat}")
+    private String shedClasses;
+
+    @Value("${danmu.triage.shed-threshold:0.5}")
+    private double shedThreshold;
+
+    // 同一句话（去掉标点空格后）在这个时间内再出现算重复
+    @Value("${danmu.triage.dedup-window-ms:10000}")
+    private long dedupWindowMs;
+
+    // 同一个观众 viewer-window-ms 内最多说几句，超过的算刷屏，0 表示不限
+    @Value("${danmu.triage.viewer-limit:5}")
+    private int viewerLimit;
+
+    @Value("${danmu.triage.viewer-window-ms:10000}")
+    private long viewerWindowMs;
+
+    @Value("${danmu.triage.workers:2}")
+    private int workers;
+
+    // 优先级从高到低的类别（不含 SPAM）
+    private List<Category> order;
+    private List<String> keywords;
+    private final Map<Category, Double> rates = new EnumMap<>(Category.class);
+    private final Set<Category> sheddable = new HashSet<>();
+
+    // 主播用户名 -> 直播间队列
+    private final Map<String, Room> rooms = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService drainExecutor;
+
+    // 放行的消息交给谁（LiveMessageDispatcher 转发给前端和回复流水线）
+    private volatile BiConsumer<String, Map<String, Object>> delivery;
+
+    @PostConstruct
+    public void init() {
+        order = new ArrayList<>();
+        for (String item : priorities.split(",")) {
+            Category category = Category.of(item);
+            if (category != null && category != Category.SPAM && !order.contains(category)) {
+                order.add(category);
+            }
+        }
+        for (Category category : Category.values()) {
+            if (category != Category.SPAM && !order.contains(category)) {
+                order.add(category);
+            }
+        }
+        keywords = new ArrayList<>();
+        for (String keyword : purchaseKeywords.split(",")) {
+            if (!keyword.isBlank()) {
+                keywords.add(keyword.trim());
+            }
+        }
+        for (String item : classRates.split(",")) {
+            int colon = item.lastIndexOf(':');
+            Category category = colon > 0 ? Category.of(item.substring(0, colon)) : null;
+            if (category != null) {
+                rates.put(category, Double.parseDouble(item.substring(colon + 1).trim()));
+            }
+        }
+        for (String item : shedClasses.split(",")) {
+            Category category = Category.of(item);
+            if (category != null) {
+                sheddable.add(category);
+            }
+        }
+        AtomicInteger counter = new AtomicInteger();
+        drainExecutor = Executors.newScheduledThreadPool(workers, r -> {
+            Thread thread = new Thread(r, "danmu-triage-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        drainExecutor.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 设置放行的消息交给谁
+     * @param delivery (主播用户名, 消息)
+     */
+    public void setDelivery(BiConsumer<String, Map<String, Object>> delivery) {
+        this.delivery = delivery;
+    }
+
+    /**
+     * 收一条消息
+     * @param username 主播用户名
+     * @param message 消息，格式 {type, data, ...}
+     * @return 进了队列返回 true，被丢掉返回 false
+     */
+    public boolean offer(String username, Map<String, Object> message) {
+        Room room = rooms.computeIfAbsent(username, Room::new);
+        boolean schedule;
+        synchronized (room) {
+            Category category = room.classify(message);
+            Stats stats = room.stats.get(category);
+            stats.received++;
+            if (category == Category.SPAM) {
+                stats.dropped[room.lastDropReason]++;
+                return false;
+            }
+            // 大白话：类别随消息一起转发，前端可以高亮问价格的弹幕，回复流水线也按它排优先级
+            message.put("category", category.key());
+            long now = System.currentTimeMillis();
+            Bucket bucket = room.buckets.get(category);
+            if (bucket != null && !bucket.tryTake(now)) {
+                stats.dropped[RATE_LIMITED]++;
+                return false;
+            }
+            if (sheddable.contains(category) && room.size >= capacity * shedThreshold) {
+                stats.dropped[SHED]++;
+                return false;
+            }
+            if (room.size >= capacity && !room.evictLowest(category)) {
+                stats.dropped[OVERFLOW]++;
+                return false;
+            }
+            room.queues.get(category).addLast(new Item(message, now));
+            room.size++;
+            schedule = !room.draining;
+            room.draining = true;
+        }
+        if (schedule) {
+            drainExecutor.execute(room::drain);
+        }
+        return true;
+    }
+
+    /**
+     * 各直播间的队列深度和每类统计
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new HashMap<>();
+        rooms.forEach((username, room) -> snapshot.put(username, room.snapshot()));
+        return snapshot;
+    }
+
+    /**
+     * 某个直播间的队列深度和每类统计，没有记录返回 null
+     * @param username 主播用户名
+     */
+    public Map<String, Object> snapshot(String username) {
+        Room room = rooms.get(username);
+        return room != null ? room.snapshot() : null;
+    }
+
+    private static class Item {
+        private final Map<String, Object> message;
+        private final long receivedAt;
+
+        private Item(Map<String, Object> message, long receivedAt) {
+            this.message = message;
+            this.receivedAt = receivedAt;
+        }
+    }
+
+    private static class Stats {
+        private long received;
+        private long delivered;
+        private final long[] dropped = new long[DROP_REASONS.length];
+    }
+
+    /**
+     * 令牌桶，只在直播间锁里用，不用自己加锁；桶容量为 1 秒的量，至少 1 个
+     */
+    private static class Bucket {
+        private final double perMs;
+        private final double capacity;
+        private double tokens;
+        private long lastRefill;
+
+        private Bucket(double perSecond) {
+            this.perMs = perSecond / 1000;
+            this.capacity = Math.max(1, perSecond);
+            this.tokens = capacity;
+            this.lastRefill = System.currentTimeMillis();
+        }
+
+        private void refill(long now) {
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * perMs);
+            lastRefill = now;
+        }
+
+        private boolean tryTake(long now) {
+            refill(now);
+            if (tokens < 1) {
+                return false;
+            }
+            tokens -= 1;
+            return true;
+        }
+
+        /**
+         * 还要等多少毫秒才有一个令牌
+         */
+        private long waitMs(long now) {
+            refill(now);
+            return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / perMs);
+        }
+    }
+
+    /**
+     * 一个直播间：每类一个先进先出队列，同一时刻最多一个线程在放行
+     */
+    private class Room {
+        private final String username;
+        private final Map<Category, ArrayDeque<Item>> queues = new EnumMap<>(Category.class);
+        private final Map<Category, Stats> stats = new EnumMap<>(Category.class);
+        private final Map<Category, Bucket> buckets = new EnumMap<>(Category.class);
+        private final Bucket output = maxPerSecond > 0 ? new Bucket(maxPerSecond) : null;
+        private int size;
+        private boolean draining;
+
+        // 说过话的观众（按最近说话排序，超过上限丢最久没说话的）
+        private final Map<String, Boolean> chatters = lru();
+        // 去掉标点后的弹幕内容 -> 最近一次出现的时间
+        private final Map<String, Long> recentTexts = lru();
+        // 观众 -> {窗口开始时间, 窗口内条数}
+        private final Map<String, long[]> viewerCounts = lru();
+        // 最近一次判成 SPAM 的原因
+        private int lastDropReason;
+
+        private Room(String username) {
+            this.username = username;
+            for (Category category : Category.values()) {
+                queues.put(category, new ArrayDeque<>());
+                stats.put(category, new Stats());
+                Double rate = rates.get(category);
+                if (rate != null && rate > 0) {
+                    buckets.put(category, new Bucket(rate));
+                }
+            }
+        }
+
+        /**
+         * 分类，顺带记下去重、刷屏、第一次说话的状态
+         */
+        @SuppressWarnings("unchecked")
+        private Category classify(Map<String, Object> message) {
+            Map<String, Object> data = message.get("data") instanceof Map ? (Map<String, Object>) message.get("data") : Map.of();
+            if ("enter_room".equals(message.get("type"))) {
+                return Category.ENTER;
+            }
+            long now = System.currentTimeMillis();
+            String viewer = String.valueOf(data.getOrDefault("user_id", data.get("user_name")));
+            String content = data.get("content") instanceof String text ? text : "";
+
+            if (viewerLimit > 0) {
+                long[] window = viewerCounts.get(viewer);
+                if (window == null || now - window[0] > viewerWindowMs) {
+                    window = new long[]{now, 0};
+                }
+                window[1]++;
+                viewerCounts.put(viewer, window);
+                if (window[1] > viewerLimit) {
+                    lastDropReason = SPAM;
+                    return Category.SPAM;
+                }
+            }
+            String normalized = TextSimilarity.normalize(content);
+            if (!normalized.isEmpty()) {
+                Long lastSeen = recentTexts.get(normalized);
+                recentTexts.put(normalized, now);
+                if (lastSeen != null && now - lastSeen <= dedupWindowMs) {
+                    lastDropReason = DUPLICATE;
+                    return Category.SPAM;
+                }
+            }
+
+            boolean firstTime = chatters.put(viewer, Boolean.TRUE) == null;
+            for (String keyword : keywords) {
+                if (content.contains(keyword)) {
+                    return Category.PURCHASE;
+                }
+            }
+            if (LiveReplyPipeline.isQuestion(content)) {
+                return Category.QUESTION;
+            }
+            return firstTime ? Category.FIRST_TIME : Category.CHAT;
+        }
+
+        /**
+         * 队列满了，淘汰优先级最低里最早的一条；新来的比队列里的都低就不淘汰
+         * @return 腾出了位置返回 true
+         */
+        private boolean evictLowest(Category incoming) {
+            for (int i = order.size() - 1; i >= 0; i--) {
+                Category category = order.get(i);
+                if (category == incoming) {
+                    // 同类的先淘汰最早的
+                    ArrayDeque<Item> queue = queues.get(category);
+                    if (queue.isEmpty()) {
+                        return false;
+                    }
+                    queue.pollFirst();
+                    size--;
+                    stats.get(category).dropped[OVERFLOW]++;
+                    return true;
+                }
+                ArrayDeque<Item> queue = queues.get(category);
+                if (!queue.isEmpty()) {
+                    queue.pollFirst();
+                    size--;
+                    stats.get(category).dropped[OVERFLOW]++;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 取下一条：优先级高的类别先出，同类先来先出；排太久的丢掉
+         */
+        private Item poll(long now) {
+            for (Category category : order) {
+                ArrayDeque<Item> queue = queues.get(category);
+                Item item;
+                while ((item = queue.pollFirst()) != null) {
+                    size--;
+                    if (now - item.receivedAt <= maxAgeMs) {
+                        stats.get(category).delivered++;
+                        return item;
+                    }
+                    stats.get(category).dropped[STALE]++;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * 在放行线程里按速率放行，没令牌了就过一会儿再来
+         */
+        private void drain() {
+            while (true) {
+                Item item;
+                synchronized (this) {
+                    long now = System.currentTimeMillis();
+                    if (size > 0 && output != null) {
+                        long wait = output.waitMs(now);
+                        if (wait > 0) {
+                            drainExecutor.schedule(this::drain, wait, TimeUnit.MILLISECONDS);
+                            return;
+                        }
+                    }
+                    item = size > 0 ? poll(now) : null;
+                    if (item == null) {
+                        draining = false;
+                        return;
+                    }
+                    if (output != null) {
+                        output.tryTake(now);
+                    }
+                }
+                try {
+                    BiConsumer<String, Map<String, Object>> target = delivery;
+                    if (target != null) {
+                        target.accept(username, item.message);
+                    }
+                } catch (RuntimeException e) {
+                    System.err.println("直播间 " + username + " 分发弹幕失败：" + e.getMessage());
+                }
+            }
+        }
+
+        private synchronized Map<String, Object> snapshot() {
+            Map<String, Object> snapshot = new HashMap<>();
+            snapshot.put("depth", size);
+            snapshot.put("capacity", capacity);
+            Map<String, Object> categories = new LinkedHashMap<>();
+            for (Category category : Category.values()) {
+                Stats stat = stats.get(category);
+                Map<String, Object> item = new HashMap<>();
+                item.put("depth", queues.get(category).size());
+                item.put("received", stat.received);
+                item.put("delivered", stat.delivered);
+                Map<String, Long> dropped = new HashMap<>();
+                long total = 0;
+                for (int i = 0; i < DROP_REASONS.length; i++) {
+                    if (stat.dropped[i] > 0) {
+                        dropped.put(DROP_REASONS[i], stat.dropped[i]);
+                        total += stat.dropped[i];
+                    }
+                }
+                item.put("dropped", dropped);
+                item.put("dropped_total", total);
+                categories.put(category.key(), item);
+            }
+            snapshot.put("categories", categories);
+            return snapshot;
+        }
+    }
+
+    // 按访问顺序排的有界 Map，超过上限丢最久没碰过的
+    private static <V> Map<String, V> lru() {
+        return new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > MAX_TRACKED;
+            }
+        };
+    }
+}
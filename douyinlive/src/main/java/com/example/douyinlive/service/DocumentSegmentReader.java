@@ -0,0 +1,254 @@
+package com.example.douyinlive.service;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 知识库文档分段读取器，边解析文件边切分段落
+ * 大白话：不再把整个文件读成一个大字符串，而是一行一行 / 一页一页地读，攒够一段就交给下游
+ */
+@Component
+public class DocumentSegmentReader {
+
+    // 用于 JSON 流式解析和问答对序列化
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // 从配置文件读取单段最大 Token 数
+    @Value("${embedding.max-tokens}")
+    private int maxTokens;
+
+    // 从配置文件读取文本长度限制
+    @Value("${knowledge-base.max-text-length}")
+    private int maxTextLength;
+
+    @Value("${knowledge-base.min-text-length}")
+    private int minTextLength;
+
+    /**
+     * 接收切分好的段落
+     */
+    @FunctionalInterface
+    public interface SegmentSink {
+        void accept(String segment) throws InterruptedException;
+    }
+
+    /**
+     * 判断文件类型是否支持
+     * @param fileName 小写文件名
+     * @return 是否支持
+     */
+    public static boolean isSupported(String fileName) {
+        return fileName.endsWith(".txt") || fileName.endsWith(".doc") || fileName.endsWith(".docx") ||
+                fileName.endsWith(".xls") || fileName.endsWith(".xlsx") || fileName.endsWith(".pdf") ||
+                fileName.endsWith(".json");
+    }
+
+    /**
+     * 一次性读出全部段落，给需要完整段落列表的场景用（例如知识库更新）
+     * @param file 上传的文件
+     * @return 段落列表
+     */
+    public List<String> readAll(MultipartFile file) throws IOException, InterruptedException {
+        List<String> segments = new ArrayList<>();
+        read(file.getOriginalFilename(), file, segments::add);
+        return segments;
+    }
+
+    /**
+     * 流式解析文件，每切出一段就调用一次 sink
+     * 文本过短、JSON 格式无效时抛出 IllegalArgumentException，由调用方转成 400
+     * @param originalFileName 原始文件名，用于判断文件类型
+     * @param source 文件内容（上传文件或落盘的任务文件）
+     * @param sink 段落接收者
+     */
+    public void read(String originalFileName, InputStreamSource source, SegmentSink sink) throws IOException, InterruptedException {
+        String fileName = originalFileName.toLowerCase();
+        try (InputStream is = source.getInputStream()) {
+            if (fileName.endsWith(".json")) {
+                readJson(is, sink);
+                return;
+            }
+            LineSegmenter segmenter = new LineSegmenter(sink);
+            if (fileName.endsWith(".txt")) {
+                // 明确指定 UTF-8 编码，避免乱码
+                BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    // 大白话：一行一行喂给分段器，超过最大长度就停
+                    if (!segmenter.acceptLine(line)) break;
+                }
+            } else if (fileName.endsWith(".doc") || fileName.endsWith(".docx")) {
+                XWPFDocument doc;
+                try {
+                    doc = new XWPFDocument(is);
+                } catch (Exception e) {
+                    throw new IOException("解析 Word 文件失败，文件可能损坏或格式不支持");
+                }
+                try (doc) {
+                    for (XWPFParagraph para : doc.getParagraphs()) {
+                        if (!segmenter.acceptText(para.getText())) break;
+                    }
+                }
+            } else if (fileName.endsWith(".xls") || fileName.endsWith(".xlsx")) {
+                Workbook workbook;
+                try {
+                    workbook = fileName.endsWith(".xls") ? new HSSFWorkbook(is) : new XSSFWorkbook(is);
+                } catch (Exception e) {
+                    throw new IOException("解析 Excel 文件失败，文件可能损坏或格式不支持");
+                }
+                try (workbook) {
+                    // 只解析第一个 Sheet，避免复杂结构
+                    Sheet sheet = workbook.getSheetAt(0);
+                    for (Row row : sheet) {
+                        StringBuilder sb = new StringBuilder();
+                        for (Cell cell : row) {
+                            sb.append(cell.toString()).append(" ");
+                        }
+                        if (!segmenter.acceptLine(sb.toString())) break;
+                    }
+                }
+            } else if (fileName.endsWith(".pdf")) {
+                PDDocument pdf;
+                try {
+                    // 大白话：PDF 的解析缓存放到临时文件，不占堆内存
+                    pdf = PDDocument.load(is, MemoryUsageSetting.setupTempFileOnly());
+                } catch (Exception e) {
+                    throw new IOException("解析 PDF 文件失败，文件可能加密或格式不支持");
+                }
+                try (pdf) {
+                    PDFTextStripper stripper = new PDFTextStripper();
+                    // 按页提取，前面的页先分段先入库
+                    for (int page = 1; page <= pdf.getNumberOfPages(); page++) {
+                        stripper.setStartPage(page);
+                        stripper.setEndPage(page);
+                        if (!segmenter.acceptText(stripper.getText(pdf))) break;
+                    }
+                }
+            } else {
+                throw new IOException("无法解析文件，文件类型不支持");
+            }
+            segmenter.finish();
+        }
+    }
+
+    /**
+     * 流式读取 JSON 数组，每个问答对就是一段
+     */
+    private void readJson(InputStream is, SegmentSink sink) throws IOException, InterruptedException {
+        int totalLength = 0;
+        try (JsonParser parser = objectMapper.getFactory().createParser(is)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IllegalArgumentException("JSON 文件格式无效");
+            }
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                if (parser.currentToken() == null) {
+                    throw new IllegalArgumentException("JSON 文件格式无效");
+                }
+                JsonNode qa = objectMapper.readTree(parser);
+                String segment = objectMapper.writeValueAsString(qa);
+                totalLength += segment.length();
+                if (totalLength > maxTextLength) {
+                    System.out.println("文本超长，已截断至 " + maxTextLength + " 字符");
+                    break;
+                }
+                sink.accept(segment);
+            }
+        } catch (JsonProcessingException e) {
+            System.out.println("JSON 解析失败：" + e.getMessage());
+            throw new IllegalArgumentException("JSON 文件格式无效");
+        }
+        if (totalLength < minTextLength) {
+            throw new IllegalArgumentException("文本长度过短，至少 " + minTextLength + " 字符");
+        }
+    }
+
+    /**
+     * 按行累积段落，规则和原来的 segmentText 一致：
+     * 跳过空行，一段不超过 maxTokens * 3 / 4 个字符（1 Token ≈ 0.75 字，后续可引入 tiktoken）
+     */
+    private class LineSegmenter {
+        private final SegmentSink sink;
+        private final int maxChars = maxTokens * 3 / 4;
+        private StringBuilder segment = new StringBuilder();
+        private int currentLength = 0;
+        private int totalLength = 0;
+
+        LineSegmenter(SegmentSink sink) {
+            this.sink = sink;
+        }
+
+        /**
+         * 喂入一块可能包含多行的文本
+         * @return false 表示已达到最大文本长度，调用方应停止读取
+         */
+        boolean acceptText(String text) throws InterruptedException {
+            if (text == null) return true;
+            for (String line : text.replace("\r\n", "\n").split("\n")) {
+                if (!acceptLine(line)) return false;
+            }
+            return true;
+        }
+
+        /**
+         * 喂入一行文本
+         * @return false 表示已达到最大文本长度，调用方应停止读取
+         */
+        boolean acceptLine(String line) throws InterruptedException {
+            boolean more = true;
+            if (totalLength + line.length() > maxTextLength) {
+                // 自动截断超长文本
+                line = line.substring(0, Math.max(0, maxTextLength - totalLength));
+                System.out.println("文本超长，已截断至 " + maxTextLength + " 字符");
+                more = false;
+            }
+            totalLength += line.length() + 1;
+            if (line.trim().isEmpty()) return more; // 跳过空行
+            if (currentLength + line.length() > maxChars && segment.length() > 0) {
+                sink.accept(segment.toString());
+                segment = new StringBuilder();
+                currentLength = 0;
+            }
+            segment.append(line).append("\n");
+            currentLength += line.length();
+            return more;
+        }
+
+        /**
+         * 文件读完，校验长度并交出最后一段
+         */
+        void finish() throws InterruptedException {
+            if (totalLength < minTextLength) {
+                throw new IllegalArgumentException("文本长度过短，至少 " + minTextLength + " 字符");
+            }
+            if (segment.length() > 0) {
+                sink.accept(segment.toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.douyinlive.service;
+
+import com.example.douyinlive.entity.EmbeddingCacheEntry;
+import com.example.douyinlive.mapper.EmbeddingCacheMapper;
+import com.pgvector.PGvector;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按内容寻址的向量缓存
+ * 大白话：同一段文字（规范化后）在同一个模型、同一维度下向量是一样的，算过一次就记下来；
+ * 先查进程内的 LRU，没有再查 embedding_cache 表，都没有才去调远程 API
+ */
+@Service
+public class EmbeddingCache {
+
+    @Autowired
+    private EmbeddingCacheMapper embeddingCacheMapper;
+
+    // 是否启用缓存
+    @Value("${embedding.cache.enabled:true}")
+    private boolean enabled;
+
+    // 是否启用数据库这一层
+    @Value("${embedding.cache.db-enabled:true}")
+    private boolean dbEnabled;
+
+    // 进程内缓存：键是 model|dimension|hash，访问顺序淘汰
+    private final Map<String, float[]> memory;
+
+    public EmbeddingCache(@Value("${embedding.cache.max-entries:5000}") int maxEntries) {
+        this.memory = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, float[]> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 文本规范化：NFKC（全角半角统一）、去首尾空白、连续空白合并成一个空格
+     */
+    public static String normalize(String text) {
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFKC);
+        return normalized.trim().replaceAll("\\s+", " ");
+    }
+
+    /**
+     * 规范化文本的 SHA-256，十六进制
+     */
+    public static String hash(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] bytes = digest.digest(normalize(text).getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 批量查缓存
+     * @param model 向量模型名称
+     * @param dimension 向量维度
+     * @param hashes 文本哈希
+     * @return 命中的 哈希 → 向量
+     */
+    public Map<String, float[]> getAll(String model, int dimension, List<String> hashes) {
+        Map<String, float[]> hits = new HashMap<>();
+        if (!enabled || hashes.isEmpty()) {
+            return hits;
+        }
+        List<String> misses = new ArrayList<>();
+        synchronized (memory) {
+            for (String hash : hashes) {
+                float[] vector = memory.get(key(model, dimension, hash));
+                if (vector != null) {
+                    hits.put(hash, vector);
+                } else {
+                    misses.add(hash);
+                }
+            }
+        }
+        if (!dbEnabled || misses.isEmpty()) {
+            return hits;
+        }
+        try {
+            List<EmbeddingCacheEntry> entries = embeddingCacheMapper.selectByHashes(model, dimension, misses);
+            synchronized (memory) {
+                for (EmbeddingCacheEntry entry : entries) {
+                    float[] vector = entry.getEmbedding().toArray();
+                    hits.put(entry.getContentHash(), vector);
+                    memory.put(key(model, dimension, entry.getContentHash()), vector);
+                }
+            }
+        } catch (Exception e) {
+            // 大白话：缓存表查不了就当没命中，照样调 API
+            System.err.println("查询向量缓存失败：" + e.getMessage());
+        }
+        return hits;
+    }
+
+    /**
+     * 批量写缓存（内存和数据库都写）
+     * @param model 向量模型名称
+     * @param dimension 向量维度
+     * @param vectors 哈希 → 向量
+     */
+    public void putAll(String model, int dimension, Map<String, float[]> vectors) {
+        if (!enabled || vectors.isEmpty()) {
+            return;
+        }
+        synchronized (memory) {
+            for (Map.Entry<String, float[]> e : vectors.entrySet()) {
+                memory.put(key(model, dimension, e.getKey()), e.getValue());
+            }
+        }
+        if (!dbEnabled) {
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        List<EmbeddingCacheEntry> entries = new ArrayList<>(vectors.size());
+        for (Map.Entry<String, float[]> e : vectors.entrySet()) {
+            EmbeddingCacheEntry entry = new EmbeddingCacheEntry();
+            entry.setContentHash(e.getKey());
+            entry.setModel(model);
+            entry.setDimension(dimension);
+            entry.setEmbedding(new PGvector(e.getValue()));
+            entry.setCreatedAt(now);
+            entries.add(entry);
+        }
+        try {
+            embeddingCacheMapper.batchInsertIgnoreExisting(entries);
+        } catch (Exception e) {
+            System.err.println("写入向量缓存失败：" + e.getMessage());
+        }
+    }
+
+    private String key(String model, int dimension, String hash) {
+        return model + "|" + dimension + "|" + hash;
+    }
+}
@@ -0,0 +1,389 @@
+package com.example.douyinlive.service;
+
+import com.example.douyinlive.entity.ModelConfig;
+import com.example.douyinlive.entity.ModelEndpoint;
+import com.fasterxml.jackson.databind.JsonNode;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 向量 API 客户端，知识库入库和智能体对话共用
+ * 大白话：一批段落拆成多个请求并发发出去；每个 API Key 一个令牌桶限速；
+ * 遇到 429 / 5xx / 网络错误带随机抖动重试；批大小根据成功和限流情况自动伸缩；
+ * 算过的文本走 {@link EmbeddingCache}，不重复调 API
+ */
+@Service
+public class EmbeddingClient {
+
+    @Autowired
+    private ModelConfigRegistry modelConfigRegistry;
+
+    @Autowired
+    private RestTemplate restTemplate;
+
+    @Autowired
+    private EmbeddingCache embeddingCache;
+
+    @Autowired
+    private ModelRouter modelRouter;
+
+    // 从配置文件读取向量维度
+    @Value("${embedding.dimension}")
+    private int embeddingDimension;
+
+    // 单个请求最多带多少段（初始值），之后按情况自适应
+    @Value("${embedding.client.batch-size:6}")
+    private int initialBatchSize;
+
+    // 自适应批大小的上限
+    @Value("${embedding.client.max-batch-size:10}")
+    private int maxBatchSize;
+
+    // 每个 API Key 每秒最多发多少个请求
+    @Value("${embedding.client.requests-per-second:10}")
+    private double requestsPerSecond;
+
+    // 429 / 5xx 最多重试次数
+    @Value("${embedding.client.max-retries:3}")
+    private int maxRetries;
+
+    // 重试退避基数（毫秒），第 n 次重试最多等 base * 2^n
+    @Value("${embedding.client.retry-backoff-ms:500}")
+    private long retryBackoffMs;
+
+    // 连续成功多少次后批大小加一
+    private static final int GROW_AFTER_SUCCESSES = 5;
+
+    // 每个 API Key 一个令牌桶
+    private final Map<String, TokenBucket> rateLimiters = new ConcurrentHashMap<>();
+
+    // 每个 API Key 当前的批大小
+    private final Map<String, AdaptiveBatchSize> batchSizes = new ConcurrentHashMap<>();
+
+    // 并发发请求的线程池，大小就是全局并发度
+    private final ExecutorService requestExecutor;
+
+    public EmbeddingClient(@Value("${embedding.client.parallelism:4}") int parallelism) {
+        AtomicInteger counter = new AtomicInteger();
+        this.requestExecutor = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread thread = new Thread(r, "embedding-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        requestExecutor.shutdownNow();
+    }
+
+    /**
+     * 生成单条文本的嵌入向量
+     * @param input 输入文本
+     * @return 向量数组
+     */
+    public float[] embed(String input) {
+        return embedAll(List.of(input)).get(0);
+    }
+
+    /**
+     * 批量生成嵌入向量，按输入顺序返回
+     * 任一批最终失败就抛出 RuntimeException
+     * @param segments 文本段落
+     * @return 向量列表
+     */
+    public List<float[]> embedAll(List<String> segments) {
+        if (segments.isEmpty()) {
+            return new ArrayList<>();
+        }
+        ModelConfig config = loadModelConfig();
+        if (!embeddingCache.isEnabled()) {
+            return requestAll(segments, config);
+        }
+
+        // 大白话：先按内容哈希查缓存，同一批里重复的段落也只算一次，只把没见过的发给 API
+        String model = config.getEmbeddingmodel();
+        List<String> hashes = new ArrayList<>(segments.size());
+        for (String segment : segments) {
+            hashes.add(EmbeddingCache.hash(segment));
+        }
+        Map<String, float[]> vectors = embeddingCache.getAll(model, embeddingDimension, new ArrayList<>(new LinkedHashSet<>(hashes)));
+        Map<String, String> missing = new LinkedHashMap<>();
+        for (int i = 0; i < segments.size(); i++) {
+            if (!vectors.containsKey(hashes.get(i))) {
+                missing.putIfAbsent(hashes.get(i), segments.get(i));
+            }
+        }
+        if (!missing.isEmpty()) {
+            List<float[]> fetched = requestAll(new ArrayList<>(missing.values()), config);
+            Map<String, float[]> fresh = new HashMap<>();
+            int j = 0;
+            for (String hash : missing.keySet()) {
+                fresh.put(hash, fetched.get(j++));
+            }
+            embeddingCache.putAll(model, embeddingDimension, fresh);
+            vectors.putAll(fresh);
+        }
+        System.out.println("向量缓存命中：" + (segments.size() - missing.size()) + "/" + segments.size());
+
+        List<float[]> embeddings = new ArrayList<>(segments.size());
+        for (String hash : hashes) {
+            embeddings.add(vectors.get(hash));
+        }
+        return embeddings;
+    }
+
+    /**
+     * 把段落拆成多批并发请求向量 API，按输入顺序返回
+     */
+    private List<float[]> requestAll(List<String> segments, ModelConfig config) {
+        String key = config.getEmbeddingkey() != null ? config.getEmbeddingkey() : "";
+        AdaptiveBatchSize batchSize = batchSizes.computeIfAbsent(key, k -> new AdaptiveBatchSize(initialBatchSize, maxBatchSize));
+        int size = batchSize.get();
+
+        // 只有一批就在当前线程发，省一次线程切换
+        if (segments.size() <= size) {
+            return requestWithRetry(segments, config, batchSize);
+        }
+
+        List<Future<List<float[]>>> futures = new ArrayList<>();
+        for (int i = 0; i < segments.size(); i += size) {
+            List<String> batch = segments.subList(i, Math.min(i + size, segments.size()));
+            futures.add(requestExecutor.submit(() -> requestWithRetry(batch, config, batchSize)));
+        }
+        List<float[]> embeddings = new ArrayList<>(segments.size());
+        try {
+            for (Future<List<float[]>> future : futures) {
+                embeddings.addAll(future.get());
+            }
+        } catch (InterruptedException e) {
+            futures.forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("向量生成被中断");
+        } catch (ExecutionException e) {
+            futures.forEach(f -> f.cancel(true));
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException("向量生成失败：" + cause.getMessage(), cause);
+        }
+        return embeddings;
+    }
+
+    /**
+     * 从内存里的模型配置取，不查数据库
+     */
+    private ModelConfig loadModelConfig() {
+        ModelConfig config = modelConfigRegistry.current();
+        if (config == null) {
+            System.out.println("未找到模型配置");
+            throw new RuntimeException("未找到模型配置");
+        }
+        return config;
+    }
+
+    /**
+     * 发送一批请求，429 / 5xx / 网络错误时带抖动重试
+     */
+    private List<float[]> requestWithRetry(List<String> batch, ModelConfig config, AdaptiveBatchSize batchSize) {
+        for (int attempt = 0; ; attempt++) {
+            long retryAfterMs = -1;
+            try {
+                // 大白话：一次尝试里由 ModelRouter 选接入点、慢了对冲、失败换下一个；所有接入点都失败了才走下面的退避重试
+                List<float[]> result = modelRouter.execute(ModelRouter.Role.EMBEDDING, endpoint -> {
+                    rateLimiters.computeIfAbsent(endpoint.getApiKey() != null ? endpoint.getApiKey() : "",
+                            k -> new TokenBucket(requestsPerSecond)).acquire();
+                    return request(batch, endpoint);
+                });
+                batchSize.onSuccess();
+                return result;
+            } catch (HttpStatusCodeException e) {
+                int status = e.getStatusCode().value();
+                boolean retryable = status == 429 || e.getStatusCode().is5xxServerError();
+                System.out.println("向量 API 返回错误：" + status + " " + e.getResponseBodyAsString());
+                if (!retryable || attempt >= maxRetries) {
+                    throw new RuntimeException("向量 API 调用失败：" + e.getStatusCode());
+                }
+                if (status == 429) {
+                    batchSize.onThrottled();
+                }
+                retryAfterMs = parseRetryAfter(e.getResponseHeaders());
+            } catch (ResourceAccessException e) {
+                System.out.println("向量 API 网络错误：" + e.getMessage());
+                if (attempt >= maxRetries) {
+                    throw new RuntimeException("向量 API 调用失败：" + e.getMessage());
+                }
+            }
+            sleepBeforeRetry(attempt, retryAfterMs);
+        }
+    }
+
+    /**
+     * 真正向一个接入点发一次向量 API 请求
+     */
+    private List<float[]> request(List<String> batch, ModelEndpoint endpoint) {
+        String url = endpoint.getUrl() + "/embeddings";
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.set("Authorization", "Bearer " + endpoint.getApiKey());
+
+        Map<String, Object> body = new HashMap<>();
+        body.put("model", endpoint.getModel());
+        body.put("input", batch);
+        body.put("dimension", embeddingDimension);
+        body.put("encoding_format", "float");
+
+        HttpEntity<Map<String, Object>> requestEntity = new HttpEntity<>(body, headers);
+        ResponseEntity<JsonNode> response = restTemplate.postForEntity(url, requestEntity, JsonNode.class);
+        if (response.getStatusCode() != HttpStatus.OK || response.getBody() == null) {
+            System.out.println("向量 API 调用失败，状态码：" + response.getStatusCode());
+            throw new RuntimeException("向量 API 调用失败");
+        }
+        JsonNode data = response.getBody().path("data");
+        if (!data.isArray() || data.size() != batch.size()) {
+            System.out.println("向量数量与输入段落不匹配，预期：" + batch.size() + "，实际：" + data.size());
+            throw new RuntimeException("向量生成失败，数量不匹配");
+        }
+        List<float[]> embeddings = new ArrayList<>(batch.size());
+        for (JsonNode item : data) {
+            JsonNode embedding = item.path("embedding");
+            if (embedding.size() != embeddingDimension) {
+                System.out.println("向量维度错误，预期：" + embeddingDimension + "，实际：" + embedding.size());
+                throw new RuntimeException("向量维度不匹配");
+            }
+            float[] vector = new float[embedding.size()];
+            for (int j = 0; j < embedding.size(); j++) {
+                vector[j] = embedding.get(j).floatValue();
+            }
+            embeddings.add(vector);
+        }
+        return embeddings;
+    }
+
+    /**
+     * 解析 Retry-After 头（秒），没有就返回 -1
+     */
+    private long parseRetryAfter(HttpHeaders headers) {
+        if (headers == null) return -1;
+        String value = headers.getFirst(HttpHeaders.RETRY_AFTER);
+        if (value == null) return -1;
+        try {
+            return Long.parseLong(value.trim()) * 1000;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 指数退避加全抖动：等待 [0, base * 2^attempt) 毫秒，服务端给了 Retry-After 就以它为下限
+     */
+    private void sleepBeforeRetry(int attempt, long retryAfterMs) {
+        long cap = retryBackoffMs << Math.min(attempt, 10);
+        long delay = ThreadLocalRandom.current().nextLong(Math.max(1, cap));
+        if (retryAfterMs > delay) {
+            delay = retryAfterMs;
+        }
+        try {
+            TimeUnit.MILLISECONDS.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("向量生成被中断");
+        }
+    }
+
+    /**
+     * 令牌桶：按固定速率补充令牌，桶容量等于每秒请求数，允许小幅突发
+     */
+    static class TokenBucket {
+        private final double capacity;
+        private final double tokensPerNano;
+        private double tokens;
+        private long lastRefill;
+
+        TokenBucket(double requestsPerSecond) {
+            this.capacity = Math.max(1, requestsPerSecond);
+            this.tokensPerNano = requestsPerSecond / TimeUnit.SECONDS.toNanos(1);
+            this.tokens = capacity;
+            this.lastRefill = System.nanoTime();
+        }
+
+        /**
+         * 取一个令牌，不够就睡到够为止
+         */
+        void acquire() {
+            long waitNanos;
+            synchronized (this) {
+                long now = System.nanoTime();
+                tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+                lastRefill = now;
+                tokens -= 1;
+                // 大白话：先记账（可以欠），欠多少令牌就等多久，保证排队的请求按速率放行
+                waitNanos = tokens >= 0 ? 0 : (long) (-tokens / tokensPerNano);
+            }
+            if (waitNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("向量生成被中断");
+                }
+            }
+        }
+    }
+
+    /**
+     * 自适应批大小：连续成功就慢慢加，被限流就减半
+     */
+    static class AdaptiveBatchSize {
+        private final int max;
+        private final AtomicInteger size;
+        private final AtomicInteger successes = new AtomicInteger();
+
+        AdaptiveBatchSize(int initial, int max) {
+            this.max = Math.max(1, max);
+            this.size = new AtomicInteger(Math.max(1, Math.min(initial, this.max)));
+        }
+
+        int get() {
+            return size.get();
+        }
+
+        void onSuccess() {
+            if (successes.incrementAndGet() >= GROW_AFTER_SUCCESSES) {
+                successes.set(0);
+                size.updateAndGet(s -> Math.min(max, s + 1));
+            }
+        }
+
+        void onThrottled() {
+            successes.set(0);
+            size.updateAndGet(s -> Math.max(1, s / 2));
+        }
+    }
+}
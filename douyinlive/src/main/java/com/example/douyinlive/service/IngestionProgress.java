@@ -0,0 +1,62 @@
+package com.example.douyinlive.service;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 知识库入库进度，流水线各阶段边处理边累加
+ */
+public class IngestionProgress {
+    // 已解析出的段落数
+    private final AtomicInteger parsed = new AtomicInteger();
+    // 已生成向量的段落数
+    private final AtomicInteger embedded = new AtomicInteger();
+    // 已写入数据库的段落数
+    private final AtomicInteger stored = new AtomicInteger();
+    // 进度变化回调，异步任务用它把进度写回数据库
+    private final Consumer<IngestionProgress> listener;
+
+    public IngestionProgress() {
+        this(null);
+    }
+
+    public IngestionProgress(Consumer<IngestionProgress> listener) {
+        this.listener = listener;
+    }
+
+    public int getParsed() {
+        return parsed.get();
+    }
+
+    public int getEmbedded() {
+        return embedded.get();
+    }
+
+    public int getStored() {
+        return stored.get();
+    }
+
+    int addParsed(int delta) {
+        int value = parsed.addAndGet(delta);
+        notifyListener();
+        return value;
+    }
+
+    int addEmbedded(int delta) {
+        int value = embedded.addAndGet(delta);
+        notifyListener();
+        return value;
+    }
+
+    int addStored(int delta) {
+        int value = stored.addAndGet(delta);
+        notifyListener();
+        return value;
+    }
+
+    private void notifyListener() {
+        if (listener != null) {
+            listener.accept(this);
+        }
+    }
+}
@@ -0,0 +1,496 @@
+package com.example.douyinlive.service;
+
+import com.example.douyinlive.entity.KnowledgeBase;
+import com.example.douyinlive.entity.KnowledgeBaseInfo;
+import com.example.douyinlive.mapper.KnowledgeBaseInfoMapper;
+import com.example.douyinlive.mapper.KnowledgeBaseMapper;
+import com.pgvector.PGvector;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 知识库流式入库流水线：解析 → 分段 → 向量化 → 入库
+ * 大白话：各阶段之间用有界队列连起来，下游慢了上游就等着（背压），
+ * 内存里最多只压着几批段落；前面的段落先入库，后面的页还在解析
+ */
+@Component
+public class KnowledgeBaseIngestionPipeline {
+
+    // 阶段之间的结束标记
+    private static final List<String> END_OF_SEGMENTS = Collections.emptyList();
+    private static final List<KnowledgeBase> END_OF_VECTORS = Collections.emptyList();
+
+    @Autowired
+    private DocumentSegmentReader segmentReader;
+
+    @Autowired
+    private KnowledgeBaseMapper knowledgeBaseMapper;
+
+    @Autowired
+    private KnowledgeBaseInfoMapper knowledgeBaseInfoMapper;
+
+    @Autowired
+    private EmbeddingClient embeddingClient;
+
+    // 知识库内容变了，该用户智能体缓存的答案作废
+    @Autowired
+    private SemanticAnswerCache semanticAnswerCache;
+
+    // 从配置文件读取段数限制
+    @Value("${embedding.max-lines}")
+    private int maxLines;
+
+    // 每批向量化、入库的段落数，向量客户端会再拆成多个请求并发发出
+    @Value("${knowledge-base.ingest.batch-size:40}")
+    private int batchSize;
+
+    // 阶段之间最多排队的批数，超过就阻塞上游
+    @Value("${knowledge-base.ingest.queue-capacity:2}")
+    private int queueCapacity;
+
+    // 向量化和入库阶段跑在这里，解析阶段跑在调用方线程；每次入库占两个线程
+    private final ExecutorService stageExecutor;
+
+    // 同时入库的知识库数，和入库任务的工作线程数一样；HTTP 同步创建也占一个名额，满了就等
+    private final Semaphore ingestPermits;
+
+    // 增量更新的写库部分在一个短事务里跑，向量化不在事务里
+    private final TransactionTemplate transactionTemplate;
+
+    public KnowledgeBaseIngestionPipeline(@Value("${knowledge-base.job.workers:2}") int workers,
+                                          PlatformTransactionManager transactionManager) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        int concurrency = Math.max(1, workers);
+        this.ingestPermits = new Semaphore(concurrency, true);
+        // 大白话：线程数正好够 concurrency 个入库各跑两个阶段，不会有阶段排队等线程把流水线卡死
+        this.stageExecutor = Executors.newFixedThreadPool(concurrency * 2, new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "kb-ingest-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        stageExecutor.shutdownNow();
+    }
+
+    /**
+     * 流式创建知识库，段落按 kbId_0、kbId_1... 编号
+     * 任何阶段失败都会删除已入库的段落，文本过短、段数超限、JSON 无效时抛出 IllegalArgumentException
+     * 同时入库的知识库数有上限（knowledge-base.job.workers），满了就等前面的跑完
+     * @param userId 用户 ID
+     * @param kbId 知识库 ID
+     * @param fileName 原始文件名，用于判断文件类型
+     * @param source 文件内容
+     * @param progress 进度，各阶段实时累加
+     * @return 入库的段落数
+     */
+    public int ingest(int userId, String kbId, String fileName, InputStreamSource source, IngestionProgress progress) throws Exception {
+        ingestPermits.acquire();
+        try {
+            return runIngest(userId, kbId, fileName, source, progress);
+        } finally {
+            ingestPermits.release();
+        }
+    }
+
+    private int runIngest(int userId, String kbId, String fileName, InputStreamSource source, IngestionProgress progress) throws Exception {
+        BlockingQueue<List<String>> segmentQueue = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<List<KnowledgeBase>> vectorQueue = new ArrayBlockingQueue<>(queueCapacity);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        // 先登记知识库，拿到数字 ID；同一用户下重名由唯一索引兜底
+        KnowledgeBaseInfo info = new KnowledgeBaseInfo();
+        info.setUserId(userId);
+        info.setKbId(kbId);
+        info.setCreatedAt(LocalDateTime.now());
+        info.setUpdatedAt(info.getCreatedAt());
+        try {
+            knowledgeBaseInfoMapper.insertKnowledgeBaseInfo(info);
+        } catch (DuplicateKeyException e) {
+            throw new IllegalArgumentException("知识库 ID 已存在");
+        }
+        int kbInfoId = info.getId();
+
+        Future<?> embedStage = stageExecutor.submit(() -> runStage(failure, () -> {
+            int ordinal = 0;
+            List<String> batch;
+            while ((batch = take(segmentQueue, failure)) != END_OF_SEGMENTS) {
+                List<float[]> embeddings = embeddingClient.embedAll(batch);
+                progress.addEmbedded(batch.size());
+                LocalDateTime now = LocalDateTime.now();
+                List<KnowledgeBase> kbList = new ArrayList<>(batch.size());
+                for (int i = 0; i < batch.size(); i++) {
+                    KnowledgeBase kb = new KnowledgeBase();
+                    kb.setUserId(userId);
+                    kb.setKbInfoId(kbInfoId);
+                    kb.setOrdinal(ordinal);
+                    kb.setKbId(kbId + "_" + ordinal++);
+                    kb.setContent(batch.get(i));
+                    kb.setEmbedding(new PGvector(embeddings.get(i)));
+                    kb.setCreatedAt(now);
+                    kb.setUpdatedAt(now);
+                    kbList.add(kb);
+                }
+                put(vectorQueue, kbList, failure);
+            }
+            put(vectorQueue, END_OF_VECTORS, failure);
+        }));
+
+        Future<?> storeStage = stageExecutor.submit(() -> runStage(failure, () -> {
+            List<KnowledgeBase> kbList;
+            while ((kbList = take(vectorQueue, failure)) != END_OF_VECTORS) {
+                // 大白话：每批单独提交，前面的段落马上就能查到
+                int result = knowledgeBaseMapper.batchInsertKnowledgeBase(kbList);
+                if (result != kbList.size()) {
+                    throw new RuntimeException("存储知识库失败，插入数量不匹配");
+                }
+                progress.addStored(kbList.size());
+            }
+        }));
+
+        try {
+            // 解析阶段：在当前线程边读边分段，攒满一批就交给向量化阶段
+            List<String> pending = new ArrayList<>(batchSize);
+            runStage(failure, () -> {
+                segmentReader.read(fileName, source, segment -> {
+                    if (progress.addParsed(1) > maxLines) {
+                        throw new IllegalArgumentException("文本段数超过限制（最大 " + maxLines + " 段）");
+                    }
+                    pending.add(segment);
+                    if (pending.size() >= batchSize) {
+                        put(segmentQueue, new ArrayList<>(pending), failure);
+                        pending.clear();
+                    }
+                });
+                if (!pending.isEmpty()) {
+                    put(segmentQueue, new ArrayList<>(pending), failure);
+                }
+                put(segmentQueue, END_OF_SEGMENTS, failure);
+            });
+            embedStage.get();
+            storeStage.get();
+        } catch (Exception e) {
+            failure.compareAndSet(null, e);
+        }
+
+        Throwable error = failure.get();
+        if (error != null) {
+            // 入库阶段不打断，等它把手头这批写完再回滚，避免漏删
+            embedStage.cancel(true);
+            awaitQuietly(storeStage);
+            // 大白话：失败了就把已经入库的段落和知识库登记一起删掉，不留半截知识库
+            int deleted = knowledgeBaseMapper.deleteKnowledgeBasesByKbInfoId(kbInfoId);
+            knowledgeBaseInfoMapper.deleteKnowledgeBaseInfoById(kbInfoId);
+            System.out.println("知识库 " + kbId + " 入库失败，已回滚段落数：" + deleted);
+            if (error instanceof Exception) {
+                throw (Exception) error;
+            }
+            throw new RuntimeException(error);
+        }
+        System.out.println("知识库 " + kbId + " 流式入库完成，段落数：" + progress.getStored());
+        semanticAnswerCache.invalidateUser(userId);
+        return progress.getStored();
+    }
+
+    /**
+     * 增量更新知识库：按内容哈希和库里已有段落比对，只向量化新增或改动的段落
+     * 每段的序号就是它在新文件里的位置：内容没变的行只在位置变了时改序号和 kb_id；改动的段落优先复用被淘汰的行（原地 UPDATE），
+     * 不够再 INSERT，多出来的旧行 DELETE
+     * 大白话：向量化是远程调用，会重试、退避，所以先在事务外把改动的段落向量化好，再开一个短事务重新比对、写库，
+     * 不会拿着数据库连接和行锁等模型；事务提交后作废语义缓存
+     * 段数超限时抛出 IllegalArgumentException，向量化期间知识库被别的请求改过、有段落没拿到向量时抛出 IllegalStateException
+     * @param info 要更新的知识库
+     * @param segments 新文件分出来的全部段落
+     * @return 统计：unchanged、updated、inserted、deleted
+     */
+    public Map<String, Integer> applyIncrementalUpdate(KnowledgeBaseInfo info, List<String> segments) {
+        if (segments.size() > maxLines) {
+            throw new IllegalArgumentException("文本段数超过限制（最大 " + maxLines + " 段）");
+        }
+        // 按当前库里的段落算出要向量化的内容，同样的内容只算一次
+        Map<String, String> pending = new LinkedHashMap<>();
+        for (int position : match(knowledgeBaseMapper.selectSegmentsByKbInfoId(info.getId()), segments).changedPositions) {
+            String content = segments.get(position);
+            pending.putIfAbsent(EmbeddingCache.hash(content), content);
+        }
+        Map<String, float[]> vectors = new HashMap<>();
+        List<float[]> embeddings = embeddingClient.embedAll(new ArrayList<>(pending.values()));
+        int i = 0;
+        for (String hash : pending.keySet()) {
+            vectors.put(hash, embeddings.get(i++));
+        }
+
+        Map<String, Integer> stats = transactionTemplate.execute(status -> write(info, segments, vectors));
+        // 大白话：提交后才作废，提交前作废的话，并发的问答可能又把旧知识库的答案缓存回去
+        semanticAnswerCache.invalidateUser(info.getUserId());
+        System.out.println("知识库 " + info.getKbId() + " 增量更新完成：" + stats);
+        return stats;
+    }
+
+    /**
+     * 新段落和旧行的比对结果
+     */
+    private static class Match {
+        // 每个位置对应的旧行，没匹配上的位置是 null
+        private KnowledgeBase[] rows;
+        private final Set<Integer> keptIds = new HashSet<>();
+        // 内容变了的位置
+        private final List<Integer> changedPositions = new ArrayList<>();
+        // 没匹配上的旧行，按原来的顺序
+        private final List<KnowledgeBase> freed = new ArrayList<>();
+    }
+
+    /**
+     * 按内容哈希把新段落和旧行对上
+     */
+    private Match match(List<KnowledgeBase> existing, List<String> segments) {
+        Match match = new Match();
+        // 旧段落按内容哈希分组，同样的内容可能出现多次，按原来的顺序先到先得
+        Map<String, Deque<KnowledgeBase>> byHash = new HashMap<>();
+        for (KnowledgeBase kb : existing) {
+            byHash.computeIfAbsent(EmbeddingCache.hash(kb.getContent()), h -> new ArrayDeque<>()).add(kb);
+        }
+        match.rows = new KnowledgeBase[segments.size()];
+        for (int position = 0; position < segments.size(); position++) {
+            Deque<KnowledgeBase> same = byHash.get(EmbeddingCache.hash(segments.get(position)));
+            KnowledgeBase kb = same != null ? same.pollFirst() : null;
+            if (kb != null) {
+                match.rows[position] = kb;
+                match.keptIds.add(kb.getId());
+            } else {
+                match.changedPositions.add(position);
+            }
+        }
+        for (KnowledgeBase kb : existing) {
+            if (!match.keptIds.contains(kb.getId())) {
+                match.freed.add(kb);
+            }
+        }
+        return match;
+    }
+
+    /**
+     * 在事务里重新比对并写库，向量都已经算好
+     */
+    private Map<String, Integer> write(KnowledgeBaseInfo info, List<String> segments, Map<String, float[]> vectors) {
+        int userId = info.getUserId();
+        String kbId = info.getKbId();
+        LocalDateTime now = LocalDateTime.now();
+        // 先改登记表的更新时间，顺带锁住这个知识库，同一个知识库的并发更新在这里排队
+        if (knowledgeBaseInfoMapper.touchKnowledgeBaseInfo(info.getId(), now) != 1) {
+            throw new IllegalStateException("知识库不存在");
+        }
+        Match match = match(knowledgeBaseMapper.selectSegmentsByKbInfoId(info.getId()), segments);
+        KnowledgeBase[] rows = match.rows;
+        List<Integer> changedPositions = match.changedPositions;
+        // 没匹配上的旧行拿去原地更新，用不完的删掉
+        List<KnowledgeBase> freed = match.freed;
+
+        List<String> changed = new ArrayList<>(changedPositions.size());
+        List<float[]> embeddings = new ArrayList<>(changedPositions.size());
+        for (int position : changedPositions) {
+            float[] vector = vectors.get(EmbeddingCache.hash(segments.get(position)));
+            if (vector == null) {
+                throw new IllegalStateException("知识库在更新期间被其他请求修改，请重试");
+            }
+            changed.add(segments.get(position));
+            embeddings.add(vector);
+        }
+
+        // 先删掉用不上的旧行，腾出序号
+        List<String> deletes = new ArrayList<>();
+        for (int i = changed.size(); i < freed.size(); i++) {
+            deletes.add(freed.get(i).getKbId());
+        }
+        if (!deletes.isEmpty()) {
+            knowledgeBaseMapper.deleteKnowledgeBasesByUserIdAndKbIds(userId, deletes);
+        }
+
+        // 复用的旧行占上改动段落的位置，再把位置或 kb_id 变了的行改过去
+        for (int i = 0; i < changed.size() && i < freed.size(); i++) {
+            rows[changedPositions.get(i)] = freed.get(i);
+        }
+        List<KnowledgeBase> moved = new ArrayList<>();
+        List<KnowledgeBase> renamed = new ArrayList<>();
+        for (int position = 0; position < rows.length; position++) {
+            KnowledgeBase kb = rows[position];
+            if (kb == null) {
+                continue;
+            }
+            if (kb.getOrdinal() == null || kb.getOrdinal() != position) {
+                moved.add(kb);
+            } else if (!(kbId + "_" + position).equals(kb.getKbId())) {
+                renamed.add(kb);
+            }
+            kb.setOrdinal(position);
+            kb.setKbId(kbId + "_" + position);
+        }
+        renumber(kbId, moved, renamed);
+
+        int updated = 0;
+        List<KnowledgeBase> inserts = new ArrayList<>();
+        for (int i = 0; i < changed.size(); i++) {
+            int position = changedPositions.get(i);
+            if (i < freed.size()) {
+                KnowledgeBase kb = rows[position];
+                kb.setContent(changed.get(i));
+                kb.setEmbedding(new PGvector(embeddings.get(i)));
+                kb.setUpdatedAt(now);
+                if (knowledgeBaseMapper.updateKnowledgeBase(kb) != 1) {
+                    throw new RuntimeException("更新知识库段落失败：" + kb.getKbId());
+                }
+                updated++;
+            } else {
+                KnowledgeBase kb = new KnowledgeBase();
+                kb.setUserId(userId);
+                kb.setKbInfoId(info.getId());
+                kb.setOrdinal(position);
+                kb.setKbId(kbId + "_" + position);
+                kb.setContent(changed.get(i));
+                kb.setEmbedding(new PGvector(embeddings.get(i)));
+                kb.setCreatedAt(now);
+                kb.setUpdatedAt(now);
+                inserts.add(kb);
+            }
+        }
+        for (int i = 0; i < inserts.size(); i += batchSize) {
+            List<KnowledgeBase> batch = inserts.subList(i, Math.min(i + batchSize, inserts.size()));
+            if (knowledgeBaseMapper.batchInsertKnowledgeBase(batch) != batch.size()) {
+                throw new RuntimeException("存储知识库失败，插入数量不匹配");
+            }
+        }
+
+        Map<String, Integer> stats = new LinkedHashMap<>();
+        stats.put("unchanged", match.keptIds.size());
+        stats.put("updated", updated);
+        stats.put("inserted", inserts.size());
+        stats.put("deleted", deletes.size());
+        return stats;
+    }
+
+    /**
+     * 改段落的序号和 kb_id
+     * 大白话：(kb_info_id, ordinal) 和 kb_id 都有唯一约束，Postgres 逐行检查，插一行到开头、两行互换位置时直接改会撞；
+     * 所以要改的行先挪到临时位置（序号取负数，kb_id 改成 kbId#行 ID，正常的 kb_id 里不会有 #），再改成最终的序号和 kb_id
+     * @param kbId 知识库 ID
+     * @param moved 序号变了的行，已经设好最终的序号和 kb_id
+     * @param renamed 只有 kb_id 变了的行
+     */
+    private void renumber(String kbId, List<KnowledgeBase> moved, List<KnowledgeBase> renamed) {
+        List<KnowledgeBase> all = new ArrayList<>(moved);
+        all.addAll(renamed);
+        List<KnowledgeBase> parked = new ArrayList<>(all.size());
+        for (int i = 0; i < all.size(); i++) {
+            KnowledgeBase kb = all.get(i);
+            KnowledgeBase temp = new KnowledgeBase();
+            temp.setId(kb.getId());
+            // 只改 kb_id 的行序号本来就是对的，不用挪
+            temp.setOrdinal(i < moved.size() ? -1 - kb.getOrdinal() : kb.getOrdinal());
+            temp.setKbId(kbId + "#" + kb.getId());
+            parked.add(temp);
+        }
+        for (List<KnowledgeBase> rows : List.of(parked, all)) {
+            for (int i = 0; i < rows.size(); i += batchSize) {
+                List<KnowledgeBase> batch = rows.subList(i, Math.min(i + batchSize, rows.size()));
+                if (knowledgeBaseMapper.batchRenumberSegments(batch) != batch.size()) {
+                    throw new RuntimeException("更新知识库段落序号失败，更新数量不匹配");
+                }
+            }
+        }
+    }
+
+    /**
+     * 阶段主体，允许抛出受检异常
+     */
+    @FunctionalInterface
+    private interface Stage {
+        void run() throws Exception;
+    }
+
+    /**
+     * 执行一个阶段，出错时记录第一个错误，其他阶段看到后自行退出
+     */
+    private void runStage(AtomicReference<Throwable> failure, Stage stage) {
+        try {
+            stage.run();
+        } catch (PipelineAbortedException e) {
+            // 其他阶段已经失败，这里安静退出
+        } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+        }
+    }
+
+    /**
+     * 带背压的入队：队列满了就等，其他阶段失败则放弃
+     */
+    private <T> void put(BlockingQueue<T> queue, T item, AtomicReference<Throwable> failure) throws InterruptedException {
+        while (!queue.offer(item, 200, TimeUnit.MILLISECONDS)) {
+            if (failure.get() != null) throw new PipelineAbortedException();
+        }
+    }
+
+    /**
+     * 出队：队列空了就等，其他阶段失败则放弃
+     */
+    private <T> T take(BlockingQueue<T> queue, AtomicReference<Throwable> failure) throws InterruptedException {
+        T item;
+        while ((item = queue.poll(200, TimeUnit.MILLISECONDS)) == null) {
+            if (failure.get() != null) throw new PipelineAbortedException();
+        }
+        return item;
+    }
+
+    private void awaitQuietly(Future<?> stage) {
+        try {
+            stage.get();
+        } catch (Exception ignored) {
+            // 阶段自己的错误已经记在 failure 里，这里只等它结束
+        }
+    }
+
+    /**
+     * 其他阶段失败时用来跳出当前阶段
+     */
+    private static class PipelineAbortedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        PipelineAbortedException() {
+            super("知识库入库流水线已中止", null, false, false);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package com.example.douyinlive.service;
+
+import com.example.douyinlive.entity.KnowledgeBaseInfo;
+import com.example.douyinlive.entity.KnowledgeBaseJob;
+import com.example.douyinlive.mapper.KnowledgeBaseInfoMapper;
+import com.example.douyinlive.mapper.KnowledgeBaseJobMapper;
+import com.example.douyinlive.mapper.KnowledgeBaseMapper;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 知识库异步入库任务服务
+ * 大白话：上传接口把文件落盘、记一条任务就立刻返回，真正的解析/向量化/入库交给有界的后台线程池；
+ * 任务状态存在 knowledge_base_job 表里，服务重启后没跑完的任务会重新排队
+ */
+@Service
+public class KnowledgeBaseJobService {
+
+    public static final String STATUS_PENDING = "PENDING";
+    public static final String STATUS_RUNNING = "RUNNING";
+    public static final String STATUS_SUCCEEDED = "SUCCEEDED";
+    public static final String STATUS_FAILED = "FAILED";
+
+    // 进度最多每隔这么久写一次数据库，避免每段都打一次库
+    private static final long PROGRESS_FLUSH_INTERVAL_MS = 500;
+
+    @Autowired
+    private KnowledgeBaseJobMapper jobMapper;
+
+    @Autowired
+    private KnowledgeBaseMapper knowledgeBaseMapper;
+
+    @Autowired
+    private KnowledgeBaseInfoMapper knowledgeBaseInfoMapper;
+
+    @Autowired
+    private KnowledgeBaseIngestionPipeline ingestionPipeline;
+
+    // 任务文件落盘目录
+    @Value("${knowledge-base.job.upload-dir:Uploads/kb-jobs}")
+    private String uploadDir;
+
+    // 停机时等正在跑的任务跑完的最长时间，超时就打断，被打断的任务下次启动重跑
+    @Value("${knowledge-base.job.shutdown-timeout-seconds:30}")
+    private long shutdownTimeoutSeconds;
+
+    private final ThreadPoolExecutor workerExecutor;
+
+    // 正在停机，这之后失败的任务多半是被打断的，不算失败
+    private volatile boolean stopping;
+
+    public KnowledgeBaseJobService(@Value("${knowledge-base.job.workers:2}") int workers,
+                                   @Value("${knowledge-base.job.queue-capacity:20}") int queueCapacity) {
+        AtomicInteger counter = new AtomicInteger();
+        this.workerExecutor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+            Thread thread = new Thread(r, "kb-job-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // 大白话：还在排队的任务不跑了，留在 PENDING；正在跑的给一段时间跑完，超时再打断，没跑完的下次启动接着跑
+        stopping = true;
+        workerExecutor.shutdown();
+        List<Runnable> queued = new ArrayList<>();
+        workerExecutor.getQueue().drainTo(queued);
+        if (!queued.isEmpty()) {
+            System.out.println("停机，" + queued.size() + " 个排队中的知识库入库任务留到下次启动");
+        }
+        try {
+            if (!workerExecutor.awaitTermination(shutdownTimeoutSeconds, TimeUnit.SECONDS)) {
+                System.err.println("知识库入库任务 " + shutdownTimeoutSeconds + " 秒内没跑完，打断，下次启动重跑");
+                workerExecutor.shutdownNow();
+                workerExecutor.awaitTermination(5, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            workerExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 提交异步入库任务：文件落盘、写任务记录、排队
+     * 队列满时任务直接标记失败并抛出 RejectedExecutionException
+     * @param userId 用户 ID
+     * @param kbId 知识库 ID
+     * @param file 上传的文件
+     * @return 任务对象
+     */
+    public KnowledgeBaseJob submit(int userId, String kbId, MultipartFile file) throws IOException {
+        String jobId = UUID.randomUUID().toString();
+        Path dir = Paths.get(uploadDir).toAbsolutePath();
+        Files.createDirectories(dir);
+        Path target = dir.resolve(jobId + "_" + Paths.get(file.getOriginalFilename()).getFileName());
+        try (InputStream is = file.getInputStream()) {
+            Files.copy(is, target);
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        KnowledgeBaseJob job = new KnowledgeBaseJob();
+        job.setId(jobId);
+        job.setUserId(userId);
+        job.setKbId(kbId);
+        job.setFileName(file.getOriginalFilename());
+        job.setFilePath(target.toString());
+        job.setStatus(STATUS_PENDING);
+        job.setCreatedAt(now);
+        job.setUpdatedAt(now);
+        jobMapper.insertJob(job);
+        System.out.println("知识库入库任务已创建，任务 ID：" + jobId + "，kb_id：" + kbId);
+
+        try {
+            enqueue(job);
+        } catch (RejectedExecutionException e) {
+            finish(job, STATUS_FAILED, "任务队列已满，请稍后再试");
+            throw e;
+        }
+        return job;
+    }
+
+    /**
+     * 查询任务
+     * @param jobId 任务 ID
+     * @return 任务对象
+     */
+    public KnowledgeBaseJob getJob(String jobId) {
+        return jobMapper.selectJobById(jobId);
+    }
+
+    /**
+     * 查询用户某个知识库是否有还没结束的任务
+     */
+    public boolean hasActiveJob(int userId, String kbId) {
+        return jobMapper.selectActiveJobByUserIdAndKbId(userId, kbId) != null;
+    }
+
+    /**
+     * 启动后恢复没跑完的任务；数据库不可用时只打日志，不影响启动
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void recoverUnfinishedJobs() {
+        List<KnowledgeBaseJob> jobs;
+        try {
+            jobs = jobMapper.selectUnfinishedJobs();
+        } catch (Exception e) {
+            System.err.println("恢复知识库入库任务失败：" + e.getMessage());
+            return;
+        }
+        for (KnowledgeBaseJob job : jobs) {
+            try {
+                if (STATUS_RUNNING.equals(job.getStatus())) {
+                    // 大白话：上次跑到一半服务挂了，先把写了一半的知识库清掉再重跑
+                    KnowledgeBaseInfo info = knowledgeBaseInfoMapper.selectKnowledgeBaseInfo(job.getUserId(), job.getKbId());
+                    if (info != null) {
+                        int deleted = knowledgeBaseMapper.deleteKnowledgeBasesByKbInfoId(info.getId());
+                        knowledgeBaseInfoMapper.deleteKnowledgeBaseInfoById(info.getId());
+                        System.out.println("任务 " + job.getId() + " 上次未完成，已清理段落数：" + deleted);
+                    }
+                }
+                jobMapper.updateJobStatus(job.getId(), STATUS_PENDING, null, LocalDateTime.now());
+                enqueue(job);
+                System.out.println("已恢复知识库入库任务，任务 ID：" + job.getId());
+            } catch (RejectedExecutionException e) {
+                // 队列满了就留在 PENDING，下次启动再恢复
+                System.err.println("任务队列已满，任务 " + job.getId() + " 暂不恢复");
+            } catch (Exception e) {
+                System.err.println("恢复任务 " + job.getId() + " 失败：" + e.getMessage());
+            }
+        }
+    }
+
+    private void enqueue(KnowledgeBaseJob job) {
+        workerExecutor.execute(() -> run(job));
+    }
+
+    /**
+     * 在工作线程里跑完整条入库流水线
+     */
+    private void run(KnowledgeBaseJob job) {
+        System.out.println("开始执行知识库入库任务，任务 ID：" + job.getId());
+        jobMapper.updateJobStatus(job.getId(), STATUS_RUNNING, null, LocalDateTime.now());
+        AtomicLong lastFlush = new AtomicLong();
+        IngestionProgress progress = new IngestionProgress(p -> {
+            long now = System.currentTimeMillis();
+            long last = lastFlush.get();
+            if (now - last >= PROGRESS_FLUSH_INTERVAL_MS && lastFlush.compareAndSet(last, now)) {
+                flushProgress(job, p);
+            }
+        });
+        try {
+            ingestionPipeline.ingest(job.getUserId(), job.getKbId(), job.getFileName(),
+                    new FileSystemResource(job.getFilePath()), progress);
+            flushProgress(job, progress);
+            finish(job, STATUS_SUCCEEDED, null);
+            System.out.println("知识库入库任务完成，任务 ID：" + job.getId() + "，段落数：" + progress.getStored());
+        } catch (Exception e) {
+            if (stopping) {
+                // 停机时被打断：任务留在 RUNNING、文件留着，下次启动 recoverUnfinishedJobs 清掉半截数据重跑
+                System.out.println("停机打断了知识库入库任务，下次启动重跑，任务 ID：" + job.getId() + "，错误：" + e.getMessage());
+                return;
+            }
+            System.out.println("知识库入库任务失败，任务 ID：" + job.getId() + "，错误：" + e.getMessage());
+            e.printStackTrace();
+            flushProgress(job, progress);
+            finish(job, STATUS_FAILED, e.getMessage());
+        }
+    }
+
+    private void flushProgress(KnowledgeBaseJob job, IngestionProgress progress) {
+        try {
+            jobMapper.updateJobProgress(job.getId(), progress.getParsed(), progress.getEmbedded(),
+                    progress.getStored(), LocalDateTime.now());
+        } catch (Exception e) {
+            System.err.println("更新任务进度失败，任务 ID：" + job.getId() + "，错误：" + e.getMessage());
+        }
+    }
+
+    /**
+     * 任务结束：记录最终状态并删除落盘文件
+     */
+    private void finish(KnowledgeBaseJob job, String status, String message) {
+        jobMapper.updateJobStatus(job.getId(), status, message, LocalDateTime.now());
+        try {
+            Files.deleteIfExists(Paths.get(job.getFilePath()));
+        } catch (IOException e) {
+            System.err.println("删除任务文件失败：" + job.getFilePath() + "，错误：" + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.douyinlive.service;
+
+import com.example.douyinlive.entity.KnowledgeBase;
+import com.example.douyinlive.entity.KnowledgeBaseInfo;
+import com.example.douyinlive.mapper.KnowledgeBaseInfoMapper;
+import com.example.douyinlive.mapper.KnowledgeBaseMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 老知识库数据迁移：给还没有 kb_info_id 的段落补上所属知识库和序号
+ * 大白话：以前知识库只靠 kb_id 的 "名字_序号" 约定串起来，查询全靠 LIKE 前缀；
+ * 启动后在后台线程里分批把它们登记到 knowledge_base_info，每批单独提交，中途挂了下次接着迁
+ */
+@Service
+public class KnowledgeBaseMigrationService {
+
+    // kb_id 末尾的段落序号，不认前导 0，避免 shoe_01 和 shoe_1 撞号
+    private static final Pattern ORDINAL_SUFFIX = Pattern.compile("^(.+)_(0|[1-9][0-9]{0,8})$");
+
+    @Autowired
+    private KnowledgeBaseMapper knowledgeBaseMapper;
+
+    @Autowired
+    private KnowledgeBaseInfoMapper knowledgeBaseInfoMapper;
+
+    // 每批迁移的段落数
+    @Value("${knowledge-base.migration.batch-size:500}")
+    private int batchSize;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrateInBackground() {
+        Thread thread = new Thread(this::migrate, "kb-migration");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 先迁带 _序号 后缀的段落，再迁没有后缀的（排在已有序号后面）；数据库不可用时只打日志
+     */
+    void migrate() {
+        try {
+            int linked = migratePass(true) + migratePass(false);
+            if (linked > 0) {
+                System.out.println("老知识库段落迁移完成，共迁移：" + linked);
+            }
+        } catch (Exception e) {
+            System.err.println("老知识库段落迁移失败：" + e.getMessage());
+        }
+    }
+
+    private int migratePass(boolean withOrdinalSuffix) {
+        int total = 0;
+        while (true) {
+            List<KnowledgeBase> rows = knowledgeBaseMapper.selectUnlinkedSegments(withOrdinalSuffix, batchSize);
+            if (rows.isEmpty()) {
+                return total;
+            }
+            Map<String, KnowledgeBaseInfo> infos = new HashMap<>();
+            Map<Integer, Integer> nextOrdinals = new HashMap<>();
+            for (KnowledgeBase row : rows) {
+                String name = row.getKbId();
+                Integer ordinal = null;
+                if (withOrdinalSuffix) {
+                    Matcher matcher = ORDINAL_SUFFIX.matcher(row.getKbId());
+                    if (matcher.matches()) {
+                        name = matcher.group(1);
+                        ordinal = Integer.parseInt(matcher.group(2));
+                    }
+                }
+                String kbName = name;
+                KnowledgeBaseInfo info = infos.computeIfAbsent(row.getUserId() + "|" + kbName, k -> resolveInfo(row, kbName));
+                if (ordinal == null) {
+                    int infoId = info.getId();
+                    ordinal = nextOrdinals.computeIfAbsent(infoId, id -> knowledgeBaseMapper.selectMaxOrdinal(id) + 1);
+                    nextOrdinals.put(infoId, ordinal + 1);
+                }
+                row.setKbInfoId(info.getId());
+                row.setOrdinal(ordinal);
+            }
+            knowledgeBaseMapper.batchLinkSegments(rows);
+            total += rows.size();
+            System.out.println("已迁移老知识库段落：" + total);
+        }
+    }
+
+    /**
+     * 找到段落所属的知识库，没有就按段落的创建时间登记一个
+     */
+    private KnowledgeBaseInfo resolveInfo(KnowledgeBase row, String kbName) {
+        KnowledgeBaseInfo info = new KnowledgeBaseInfo();
+        info.setUserId(row.getUserId());
+        info.setKbId(kbName);
+        info.setCreatedAt(row.getCreatedAt());
+        info.setUpdatedAt(row.getUpdatedAt());
+        knowledgeBaseInfoMapper.insertKnowledgeBaseInfoIgnoreExisting(info);
+        return knowledgeBaseInfoMapper.selectKnowledgeBaseInfo(row.getUserId(), kbName);
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.douyinlive.service;
+
+import com.example.douyinlive.entity.KnowledgeBase;
+import com.example.douyinlive.entity.KnowledgeBaseInfo;
+import com.example.douyinlive.mapper.KnowledgeBaseInfoMapper;
+import com.example.douyinlive.mapper.KnowledgeBaseMapper;
+import com.pgvector.PGvector;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 智能体知识库检索：按段落所属的知识库过滤，再找最相似的段落
+ * 大白话：智能体挂的 kb_ids 先换成知识库数字 ID（填的是单个段落 kbId_N 的按段落算），
+ * 范围内段落不多就直接精确算距离；段落多了走向量索引，并打开 pgvector 的迭代扫描，
+ * 避免索引先取一批、过滤完只剩几条的问题；pgvector 太老不支持迭代扫描时宁可精确算
+ */
+@Service
+public class KnowledgeBaseRetriever {
+
+    @Autowired
+    private KnowledgeBaseMapper knowledgeBaseMapper;
+
+    @Autowired
+    private KnowledgeBaseInfoMapper knowledgeBaseInfoMapper;
+
+    // 候选段落不超过这个数就精确检索
+    @Value("${knowledge-base.retrieval.exact-threshold:5000}")
+    private int exactThreshold;
+
+    // 走索引时默认的 hnsw.ef_search / ivfflat.probes，0 表示用 pgvector 的默认值；智能体自己配了就用智能体的
+    @Value("${knowledge-base.retrieval.ef-search:0}")
+    private int defaultEfSearch;
+
+    @Value("${knowledge-base.retrieval.probes:0}")
+    private int defaultProbes;
+
+    // pgvector 是否支持迭代扫描，第一次用到时查一次扩展版本
+    private volatile Boolean iterativeScanSupported;
+
+    /**
+     * 在智能体挂的知识库里找最相似的段落
+     * @param userId 用户 ID
+     * @param kbIds 智能体的知识库 ID（知识库名或段落 kbId_N）
+     * @param queryVector 查询向量
+     * @param limit 返回条数
+     * @param efSearch 智能体配置的 hnsw.ef_search，为空用默认
+     * @param probes 智能体配置的 ivfflat.probes，为空用默认
+     * @return 按相似度从高到低的段落（不含向量）
+     */
+    @Transactional(readOnly = true)
+    public List<KnowledgeBase> searchTopSimilar(int userId, List<String> kbIds, float[] queryVector, int limit,
+                                                Integer efSearch, Integer probes) {
+        if (kbIds == null || kbIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Map<String, Integer> infoIdByName = new HashMap<>();
+        for (KnowledgeBaseInfo info : knowledgeBaseInfoMapper.selectKnowledgeBaseInfos(userId, kbIds)) {
+            infoIdByName.put(info.getKbId(), info.getId());
+        }
+        List<Integer> kbInfoIds = new ArrayList<>();
+        List<String> segmentKbIds = new ArrayList<>();
+        for (String kbId : kbIds) {
+            Integer infoId = infoIdByName.get(kbId);
+            if (infoId != null) {
+                kbInfoIds.add(infoId);
+            } else {
+                segmentKbIds.add(kbId);
+            }
+        }
+
+        PGvector vector = new PGvector(queryVector);
+        int candidates = knowledgeBaseMapper.countRetrievalCandidates(userId, kbInfoIds, segmentKbIds);
+        if (candidates == 0) {
+            return new ArrayList<>();
+        }
+        if (candidates <= exactThreshold || !isIterativeScanSupported()) {
+            System.out.println("知识库精确检索，候选段落数：" + candidates);
+            return knowledgeBaseMapper.selectTopSimilarExact(userId, kbInfoIds, segmentKbIds, vector, limit);
+        }
+        // set_config(..., true) 只在当前事务内生效，所以整个方法要在事务里
+        knowledgeBaseMapper.enableIterativeIndexScan();
+        applySearchParameters(efSearch, probes, limit);
+        System.out.println("知识库索引检索（迭代扫描），候选段落数：" + candidates);
+        return knowledgeBaseMapper.selectTopSimilarByIndex(userId, kbInfoIds, segmentKbIds, vector, limit);
+    }
+
+    /**
+     * 设置本次检索的 ef_search / probes（只在当前事务内生效）
+     * ef_search 比 limit 小时 HNSW 最多只返回 ef_search 条，所以至少取 limit
+     */
+    private void applySearchParameters(Integer efSearch, Integer probes, int limit) {
+        int ef = efSearch != null ? efSearch : defaultEfSearch;
+        if (ef > 0) {
+            knowledgeBaseMapper.setHnswEfSearch(Math.min(1000, Math.max(ef, limit)));
+        }
+        int p = probes != null ? probes : defaultProbes;
+        if (p > 0) {
+            knowledgeBaseMapper.setIvfflatProbes(p);
+        }
+    }
+
+    /**
+     * pgvector 0.8.0 开始支持 ivfflat / hnsw 的 iterative_scan
+     */
+    private boolean isIterativeScanSupported() {
+        Boolean supported = iterativeScanSupported;
+        if (supported == null) {
+            String version = knowledgeBaseMapper.selectVectorExtensionVersion();
+            supported = version != null && compareVersion(version, "0.8.0") >= 0;
+            iterativeScanSupported = supported;
+            System.out.println("pgvector 版本：" + version + "，迭代扫描：" + (supported ? "支持" : "不支持"));
+        }
+        return supported;
+    }
+
+    private static int compareVersion(String a, String b) {
+        String[] pa = a.split("\\.");
+        String[] pb = b.split("\\.");
+        for (int i = 0; i < Math.max(pa.length, pb.length); i++) {
+            int va = i < pa.length ? parseIntPrefix(pa[i]) : 0;
+            int vb = i < pb.length ? parseIntPrefix(pb[i]) : 0;
+            if (va != vb) {
+                return Integer.compare(va, vb);
+            }
+        }
+        return 0;
+    }
+
+    private static int parseIntPrefix(String part) {
+        int end = 0;
+        while (end < part.length() && Character.isDigit(part.charAt(end))) end++;
+        return end == 0 ? 0 : Integer.parseInt(part.substring(0, end));
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.douyinlive.service;
+
+import com.example.douyinlive.config.LiveMessageWebSocketHandler;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 直播消息分发：Python 推来的弹幕/进场消息转发给直播间的 WebSocket 订阅者，观众弹幕再交给服务端回复流水线或攒批服务
+ * HTTP 推送（/live-messages/push、/push-batch）和推送 WebSocket（/ws/live-ingest）共用这一套
+ * 开了弹幕分诊（{@link DanmuTriage}）时弹幕和进场消息先进直播间的分诊队列，按优先级和速率放行后再分发
+ */
+@Service
+public class LiveMessageDispatcher {
+
+    /**
+     * 分发结果
+     */
+    public enum Outcome {
+        // 只转发给了前端
+        FORWARDED,
+        // 进了服务端回复流水线
+        QUEUED,
+        // 进了攒批
+        BATCHED,
+        // 进了分诊队列，稍后分发
+        TRIAGED,
+        // 被分诊丢掉（重复、刷屏、限速、积压时丢弃低价值消息、队列满）
+        DROPPED
+    }
+
+    // 用于 JSON 序列化
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Autowired
+    private LiveMessageWebSocketHandler webSocketHandler;
+
+    @Autowired
+    private LiveReplyPipeline liveReplyPipeline;
+
+    @Autowired
+    private DanmuBatcher danmuBatcher;
+
+    @Autowired
+    private DanmuTriage danmuTriage;
+
+    @PostConstruct
+    public void init() {
+        danmuTriage.setDelivery((username, message) -> {
+            try {
+                deliver(username, message);
+            } catch (JsonProcessingException e) {
+                System.err.println("分发弹幕消息失败，消息：" + message + "，错误：" + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * 分发一条消息，开了分诊的弹幕和进场消息先排队
+     * @param username 主播用户名
+     * @param message 消息，格式 {type, timestamp, data, ...}
+     * @return 分发结果
+     */
+    public Outcome dispatch(String username, Map<String, Object> message) throws JsonProcessingException {
+        Object type = message.get("type");
+        if (danmuTriage.isEnabled() && ("chat".equals(type) || "enter_room".equals(type))) {
+            return danmuTriage.offer(username, message) ? Outcome.TRIAGED : Outcome.DROPPED;
+        }
+        return deliver(username, message);
+    }
+
+    /**
+     * 马上分发一条消息
+     * @param username 主播用户名
+     * @param message 消息
+     * @return 分发结果
+     */
+    @SuppressWarnings("unchecked")
+    private Outcome deliver(String username, Map<String, Object> message) throws JsonProcessingException {
+        // 大白话：检查消息类型，若为 enter_room，转换为弹幕消息格式；弹幕原样转发，不用复制一份
+        String messageType = (String) message.get("type");
+        Map<String, Object> formattedMessage = message;
+
+        if ("enter_room".equals(messageType)) {
+            Map<String, Object> data = (Map<String, Object>) message.get("data");
+            String viewerName = (String) data.get("viewer_name");
+            String viewerId = String.valueOf(data.get("viewer_id")); // 确保是字符串
+            Map<String, Object> chatData = new HashMap<>();
+            chatData.put("user_id", viewerId);
+            chatData.put("user_name", viewerName);
+            chatData.put("content", viewerName + " 进入了直播间");
+            formattedMessage = new HashMap<>(message);
+            formattedMessage.put("type", "chat"); // 改为 chat 类型
+            formattedMessage.put("data", chatData);
+            // 标记是进场提示：服务端回复和攒批都只管观众弹幕，进场欢迎仍由前端回复
+            formattedMessage.put("source", "enter_room");
+        }
+
+        // 大白话：真正的观众弹幕（不含进场提示）优先交给服务端回复流水线，没开的话再交给攒批服务（只在高峰期收）
+        Outcome outcome = Outcome.FORWARDED;
+        if ("chat".equals(messageType) && message.get("data") instanceof Map) {
+            Map<String, Object> data = (Map<String, Object>) message.get("data");
+            String viewerName = (String) data.get("user_name");
+            String content = (String) data.get("content");
+            // 问价格、要链接的优先答，其次是提问
+            int priority = "purchase".equals(message.get("category")) ? 2 : LiveReplyPipeline.isQuestion(content == null ? "" : content) ? 1 : 0;
+            if (liveReplyPipeline.offer(username, viewerName, content, priority)) {
+                outcome = Outcome.QUEUED;
+            } else if (danmuBatcher.offer(username, viewerName, content)) {
+                outcome = Outcome.BATCHED;
+                // 告诉前端这条进了攒批，等 batch_reply，不用再自己调智能体
+                formattedMessage.put("reply", "batch");
+            }
+        }
+
+        // 大白话：将消息转为 JSON 字符串放进用户的发送队列；进场提示带合并键，coalesce 策略下队列里只留最新一条
+        String messageJson = objectMapper.writeValueAsString(formattedMessage);
+        webSocketHandler.sendMessageToUser(messageJson, username, "enter_room".equals(messageType) ? "enter_room" : null);
+        return outcome;
+    }
+}
@@ -0,0 +1,359 @@
+package com.example.douyinlive.service;
+
+import com.example.douyinlive.config.LiveMessageWebSocketHandler;
+import com.example.douyinlive.entity.Agent;
+import com.example.douyinlive.entity.LiveRoomBinding;
+import com.example.douyinlive.entity.User;
+import com.example.douyinlive.entity.VoiceConfig;
+import com.example.douyinlive.mapper.AgentMapper;
+import com.example.douyinlive.mapper.LiveRoomBindingMapper;
+import com.example.douyinlive.mapper.UserMapper;
+import com.example.douyinlive.mapper.VoiceConfigMapper;
+import com.example.douyinlive.util.JwtUtil;
+import com.example.douyinlive.util.TextSimilarity;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 服务端直播回复流水线：弹幕进来 → 过滤 → 直播间优先级队列 → 智能体回答 → 推给语音播放器和前端
+ * 大白话：以前是 Python 推弹幕 → 后端转给浏览器 → 浏览器再回调 /agents/{id}/chat → 浏览器再发给语音服务，
+ * 每条回复多绕一圈外网，还受浏览器调度影响；开了直播间绑定（live_room_binding.enabled）后全程在后端完成，
+ * 前端只收 agent_reply 消息用来展示
+ * 每个直播间同时只答一条，保证播报顺序；提问类弹幕优先，队列满了先丢不是提问的、最早的，排太久的直接跳过
+ */
+@Service
+public class LiveReplyPipeline {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Autowired
+    private UserMapper userMapper;
+
+    @Autowired
+    private AgentMapper agentMapper;
+
+    @Autowired
+    private VoiceConfigMapper voiceConfigMapper;
+
+    @Autowired
+    private LiveRoomBindingMapper liveRoomBindingMapper;
+
+    @Autowired
+    private AgentChatService agentChatService;
+
+    @Autowired
+    private LiveMessageWebSocketHandler webSocketHandler;
+
+    @Autowired
+    private JwtUtil jwtUtil;
+
+    // 共用的 HTTP 客户端，带连接池和超时
+    @Autowired
+    private RestTemplate restTemplate;
+
+    // 语音合成播放器地址（music/audio_player.py）
+    @Value("${live-reply.tts-url:http://localhost:8082}")
+    private String ttsUrl;
+
+    // 每个直播间最多排多少条弹幕
+    @Value("${live-reply.queue-capacity:50}")
+    private int queueCapacity;
+
+    // 弹幕排队超过这个时间就不答了，观众早就不关心了
+    @Value("${live-reply.max-age-ms:30000}")
+    private long maxAgeMs;
+
+    // 去掉标点空格后少于这么多字的弹幕不答（"1""666" 之类）
+    @Value("${live-reply.min-length:2}")
+    private int minLength;
+
+    // 主播用户名 -> 直播间绑定，没有绑定存 Optional.empty()，避免每条弹幕都查库
+    private final Map<String, Optional<LiveRoomBinding>> bindings = new ConcurrentHashMap<>();
+
+    // 主播用户名 -> 直播间队列
+    private final Map<String, Room> rooms = new ConcurrentHashMap<>();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final ExecutorService replyExecutor;
+
+    public LiveReplyPipeline(@Value("${live-reply.workers:8}") int workers) {
+        AtomicInteger counter = new AtomicInteger();
+        this.replyExecutor = Executors.newFixedThreadPool(workers, r -> {
+            Thread thread = new Thread(r, "live-reply-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        replyExecutor.shutdownNow();
+    }
+
+    /**
+     * 直播间绑定改了，下次用到时重新查库；关掉绑定时清空还没答的弹幕
+     * 直播间队列本身留着：它可能还在答手上那条，删掉的话重新打开时会多出一个队列并行答，播报顺序就乱了
+     * @param username 主播用户名
+     */
+    public void refresh(String username) {
+        bindings.remove(username);
+        LiveRoomBinding binding = binding(username);
+        if (binding == null || !binding.isEnabled()) {
+            Room room = rooms.get(username);
+            if (room != null) {
+                room.clear();
+            }
+        }
+    }
+
+    /**
+     * 直播间是否开启了服务端自动回复
+     * @param username 主播用户名
+     */
+    public boolean isEnabled(String username) {
+        LiveRoomBinding binding = binding(username);
+        return binding != null && binding.isEnabled();
+    }
+
+    /**
+     * 收到一条观众弹幕，优先级由 LiveMessageDispatcher 按弹幕分诊的类别定
+     * @param username 主播用户名
+     * @param viewerName 观众昵称
+     * @param content 弹幕内容
+     * @param priority 优先级，越大越先答（2 = 问价格/链接，1 = 提问，0 = 其他）
+     * @return 直播间开启了服务端回复且弹幕进了队列返回 true，队列满了被丢掉返回 false
+     */
+    public boolean offer(String username, String viewerName, String content, int priority) {
+        if (content == null || !isEnabled(username)) {
+            return false;
+        }
+        String text = content.trim();
+        if (TextSimilarity.normalize(text).length() < minLength) {
+            return false;
+        }
+        Item item = new Item(viewerName, text, priority, sequence.incrementAndGet(), System.currentTimeMillis());
+        Room room = rooms.computeIfAbsent(username, Room::new);
+        if (!room.add(item)) {
+            return false;
+        }
+        if (room.startDraining()) {
+            replyExecutor.execute(room::drain);
+        }
+        return true;
+    }
+
+    private LiveRoomBinding binding(String username) {
+        return bindings.computeIfAbsent(username, name -> {
+            User user = userMapper.selectUserByName(name);
+            return Optional.ofNullable(user != null ? liveRoomBindingMapper.selectBindingByUserId(user.getId()) : null);
+        }).orElse(null);
+    }
+
+    /**
+     * 粗略判断是不是提问：带问号或常见疑问词
+     */
+    static boolean isQuestion(String text) {
+        if (text.contains("?") || text.contains("？")) {
+            return true;
+        }
+        for (String word : new String[]{"吗", "怎么", "多少", "什么", "哪", "几", "能不能", "有没有", "可以", "如何", "为啥", "为什么"}) {
+            if (text.contains(word)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 答一条弹幕：智能体回答（带语义答案缓存），推给语音播放器和前端
+     */
+    private void reply(String username, Item item) {
+        long start = System.currentTimeMillis();
+        LiveRoomBinding binding = binding(username);
+        if (binding == null || !binding.isEnabled()) {
+            return;
+        }
+        try {
+            Agent agent = agentMapper.selectAgentById(binding.getAgentId());
+            if (agent == null || agent.getUserId() != binding.getUserId()) {
+                System.err.println("直播间 " + username + " 绑定的智能体 " + binding.getAgentId() + " 不存在或不属于该用户");
+                return;
+            }
+            String content = agentChatService.answer(agent, item.text);
+            if (content == null || content.isBlank()) {
+                return;
+            }
+            if (binding.isTtsEnabled() && binding.getVoiceConfigId() != null) {
+                synthesize(username, binding.getVoiceConfigId(), content);
+            }
+            Map<String, Object> data = new HashMap<>();
+            data.put("user_name", item.viewerName);
+            data.put("question", item.text);
+            data.put("content", content);
+            data.put("spoken", binding.isTtsEnabled() && binding.getVoiceConfigId() != null);
+            Map<String, Object> message = new HashMap<>();
+            message.put("id", "reply-" + UUID.randomUUID());
+            message.put("type", "agent_reply");
+            message.put("username", username);
+            message.put("data", data);
+            webSocketHandler.sendMessageToUser(objectMapper.writeValueAsString(message), username);
+            System.out.println("直播间 " + username + " 服务端回复完成，排队 " + (start - item.receivedAt)
+                    + " ms，回答 " + (System.currentTimeMillis() - start) + " ms");
+        } catch (Exception e) {
+            System.err.println("直播间 " + username + " 服务端回复失败，弹幕：" + item.text + "，错误：" + e.getMessage());
+        }
+    }
+
+    /**
+     * 把回复发给语音播放器排队合成，请求格式和前端 sendDocumentSegment 一样
+     */
+    private void synthesize(String username, String voiceConfigId, String text) {
+        VoiceConfig voice = voiceConfigMapper.selectConfigById(voiceConfigId);
+        if (voice == null) {
+            System.err.println("直播间 " + username + " 绑定的语音配置 " + voiceConfigId + " 不存在，跳过语音合成");
+            return;
+        }
+        Map<String, Object> voiceConfig = new HashMap<>();
+        voiceConfig.put("id", voice.getId());
+        voiceConfig.put("model", voice.getModel());
+        voiceConfig.put("voice", voice.isCustomVoice() ? voice.getVoiceId() : voice.getVoice());
+        voiceConfig.put("isCustomVoice", voice.isCustomVoice());
+        voiceConfig.put("format", voice.getFormat());
+        voiceConfig.put("volume", voice.getVolume());
+        voiceConfig.put("speechRate", voice.getSpeechRate());
+        voiceConfig.put("pitchRate", voice.getPitchRate());
+        voiceConfig.put("modelkey", voice.getModelkey());
+
+        Map<String, Object> body = new HashMap<>();
+        body.put("text", text.trim());
+        body.put("index", -1);
+        body.put("audio_type", "barrage");
+        body.put("voice_config", voiceConfig);
+
+        // 大白话：播放器会拿 token 回调 /users/me 校验，这里替主播签一个
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.set("Authorization", "Bearer " + jwtUtil.generateToken(username));
+        try {
+            restTemplate.postForEntity(ttsUrl + "/synthesize", new HttpEntity<>(body, headers), Map.class);
+        } catch (Exception e) {
+            System.err.println("直播间 " + username + " 发送语音合成失败：" + e.getMessage());
+        }
+    }
+
+    private static class Item {
+        private final String viewerName;
+        private final String text;
+        // 2 = 问价格/链接，1 = 提问，0 = 其他
+        private final int priority;
+        private final long seq;
+        private final long receivedAt;
+
+        private Item(String viewerName, String text, int priority, long seq, long receivedAt) {
+            this.viewerName = viewerName;
+            this.text = text;
+            this.priority = priority;
+            this.seq = seq;
+            this.receivedAt = receivedAt;
+        }
+    }
+
+    /**
+     * 一个直播间的待答弹幕，同一时刻最多一个线程在答
+     */
+    private class Room {
+        private final String username;
+        private final List<Item> items = new ArrayList<>();
+        private boolean draining;
+
+        private Room(String username) {
+            this.username = username;
+        }
+
+        /**
+         * 放进队列，满了先淘汰优先级最低里最早的一条（新来的更低就丢新来的）
+         * @return 放进去了返回 true，新来的被丢掉返回 false
+         */
+        private synchronized boolean add(Item item) {
+            if (items.size() >= queueCapacity) {
+                Item victim = item;
+                for (Item queued : items) {
+                    if (queued.priority < victim.priority
+                            || (queued.priority == victim.priority && queued.seq < victim.seq)) {
+                        victim = queued;
+                    }
+                }
+                if (victim == item) {
+                    return false;
+                }
+                items.remove(victim);
+            }
+            items.add(item);
+            return true;
+        }
+
+        /**
+         * 还没有线程在答就占住
+         * @return 需要启动一个线程来答时返回 true
+         */
+        private synchronized boolean startDraining() {
+            if (draining || items.isEmpty()) {
+                return false;
+            }
+            draining = true;
+            return true;
+        }
+
+        /**
+         * 取下一条：优先级高的先答，同优先级先来先答；排太久的丢掉
+         */
+        private synchronized Item next() {
+            long now = System.currentTimeMillis();
+            items.removeIf(queued -> now - queued.receivedAt > maxAgeMs);
+            Item best = null;
+            for (Item queued : items) {
+                if (best == null || queued.priority > best.priority
+                        || (queued.priority == best.priority && queued.seq < best.seq)) {
+                    best = queued;
+                }
+            }
+            if (best == null) {
+                draining = false;
+                return null;
+            }
+            items.remove(best);
+            return best;
+        }
+
+        private void drain() {
+            Item item;
+            while ((item = next()) != null) {
+                reply(username, item);
+            }
+        }
+
+        private synchronized void clear() {
+            items.clear();
+        }
+    }
+}
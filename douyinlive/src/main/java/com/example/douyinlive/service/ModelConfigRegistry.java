@@ -0,0 +1,161 @@
+package com.example.douyinlive.service;
+
+import com.example.douyinlive.entity.ModelConfig;
+import com.example.douyinlive.entity.ModelEndpoint;
+import com.example.douyinlive.mapper.ModelConfigMapper;
+import com.example.douyinlive.mapper.ModelEndpointMapper;
+import jakarta.annotation.PreDestroy;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 内存里的模型配置：通义千问、向量、直播脚本、数据规范化调用都从这里取，不再每次查 model_config
+ * 大白话：启动时加载一次，ModelConfigController 改了配置就立刻重载；
+ * 另外开一条专用连接 LISTEN model_config_changed，别的实例或直接改库时触发器发 NOTIFY，这里也会重载；
+ * model_endpoint 里的额外接入点一起加载，给 {@link ModelRouter} 用
+ */
+@Service
+public class ModelConfigRegistry {
+
+    static final String CHANNEL = "model_config_changed";
+
+    @Autowired
+    private ModelConfigMapper modelConfigMapper;
+
+    @Autowired
+    private ModelEndpointMapper modelEndpointMapper;
+
+    @Value("${spring.datasource.url}")
+    private String jdbcUrl;
+
+    @Value("${spring.datasource.username}")
+    private String jdbcUsername;
+
+    @Value("${spring.datasource.password}")
+    private String jdbcPassword;
+
+    // 是否监听数据库的配置变更通知
+    @Value("${model-config.listen-enabled:true}")
+    private boolean listenEnabled;
+
+    // 监听连接断开后多久重连
+    @Value("${model-config.listen-retry-ms:5000}")
+    private long listenRetryMs;
+
+    // 当前配置，没有配置或还没加载成功时为 null
+    private volatile ModelConfig current;
+
+    // 启用的额外接入点
+    private volatile List<ModelEndpoint> endpoints = new ArrayList<>();
+
+    private volatile boolean loaded;
+
+    private volatile boolean stopped;
+
+    /**
+     * 当前生效的模型配置；第一次用到时还没加载就同步加载一次
+     * @return 模型配置，表里没有配置时返回 null
+     */
+    public ModelConfig current() {
+        if (!loaded) {
+            synchronized (this) {
+                if (!loaded) {
+                    reload();
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 启用的额外接入点（不含 model_config 里的主接入点）
+     * @return 接入点列表，按用途、优先级排序
+     */
+    public List<ModelEndpoint> endpoints() {
+        current();
+        return endpoints;
+    }
+
+    /**
+     * 从数据库重新加载，配置有多条时取 ID 最小的一条
+     */
+    public synchronized void reload() {
+        current = modelConfigMapper.selectPrimaryModelConfig();
+        try {
+            endpoints = List.copyOf(modelEndpointMapper.selectEnabledEndpoints());
+        } catch (RuntimeException e) {
+            // 大白话：还没建 model_endpoint 表的老库照样能用，只是没有额外接入点
+            System.err.println("加载模型接入点失败，只用主接入点：" + e.getMessage());
+            endpoints = new ArrayList<>();
+        }
+        loaded = true;
+        System.out.println(current == null ? "未找到模型配置" : "模型配置已加载，ID：" + current.getId() + "，额外接入点：" + endpoints.size());
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        try {
+            current();
+        } catch (Exception e) {
+            System.err.println("加载模型配置失败：" + e.getMessage());
+        }
+        if (!listenEnabled) {
+            return;
+        }
+        Thread thread = new Thread(this::listen, "model-config-listener");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * 用单独的连接（不占连接池）LISTEN，断了就等一会儿重连，重连后先重载一次，防止断线期间漏掉通知
+     */
+    private void listen() {
+        boolean reconnecting = false;
+        while (!stopped) {
+            try (Connection connection = DriverManager.getConnection(jdbcUrl, jdbcUsername, jdbcPassword)) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + CHANNEL);
+                }
+                if (reconnecting) {
+                    reload();
+                }
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                while (!stopped) {
+                    PGNotification[] notifications = pgConnection.getNotifications(10_000);
+                    if (notifications != null && notifications.length > 0) {
+                        System.out.println("收到模型配置变更通知，重新加载");
+                        reload();
+                    }
+                }
+            } catch (Exception e) {
+                if (stopped) {
+                    return;
+                }
+                System.err.println("监听模型配置变更失败，" + listenRetryMs + " ms 后重连：" + e.getMessage());
+                reconnecting = true;
+                try {
+                    Thread.sleep(listenRetryMs);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+}
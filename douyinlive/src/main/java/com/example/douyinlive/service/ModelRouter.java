@@ -0,0 +1,527 @@
+package com.example.douyinlive.service;
+
+import com.example.douyinlive.entity.ModelConfig;
+import com.example.douyinlive.entity.ModelEndpoint;
+import com.example.douyinlive.util.VirtualThreads;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpStatusCodeException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * 大模型多接入点路由：按延迟选接入点、慢了发对冲请求、连续失败就熔断切到备用
+ * 大白话：model_config 里每种用途（对话、向量、直播剧本、数据规范化）的地址是主接入点，
+ * model_endpoint 里可以再配几个；每次调用按最近的延迟从快到慢排，主用的都熔断了才用备用（backup）的；
+ * 第一个请求超过这个接入点 p95 耗时还没回来，就再往下一个接入点发一份，谁先回来用谁，另一个取消；
+ * 对冲会多花钱，所以限制对冲请求最多占总请求的 hedge-ratio；
+ * 连续失败 failure-threshold 次熔断 open-ms，到时间后放一个请求试探，成功就恢复
+ */
+@Service
+public class ModelRouter {
+
+    /**
+     * 调用用途，对应 model_config 里的一组地址 / 模型 / Key，也是 model_endpoint.role 的取值
+     */
+    public enum Role {
+        CHAT("chat"), EMBEDDING("embedding"), LIVE("live"), NORMALIZE("normalize");
+
+        private final String value;
+
+        Role(String value) {
+            this.value = value;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public static Role of(String value) {
+            for (Role role : values()) {
+                if (role.value.equals(value)) {
+                    return role;
+                }
+            }
+            return null;
+        }
+    }
+
+    @Autowired
+    private ModelConfigRegistry modelConfigRegistry;
+
+    // 是否发对冲请求
+    @Value("${model-router.hedge-enabled:true}")
+    private boolean hedgeEnabled;
+
+    // 对冲请求最多占总请求数的比例
+    @Value("${model-router.hedge-ratio:0.1}")
+    private double hedgeRatio;
+
+    // 对冲等待时间取接入点最近的 p95 耗时，不低于下限；p95 超过上限的不对冲（毫秒）
+    @Value("${model-router.hedge-min-delay-ms:200}")
+    private long hedgeMinDelayMs;
+
+    @Value("${model-router.hedge-max-delay-ms:15000}")
+    private long hedgeMaxDelayMs;
+
+    // 接入点至少有这么多次耗时记录才算 p95，不够就不对冲
+    @Value("${model-router.min-samples:20}")
+    private int minSamples;
+
+    // 每个接入点保留最近多少次耗时
+    @Value("${model-router.latency-window:200}")
+    private int latencyWindow;
+
+    // 耗时记录超过这么久没更新就当不知道快慢，让它重新有机会被选中
+    @Value("${model-router.latency-stale-ms:60000}")
+    private long latencyStaleMs;
+
+    // 连续失败多少次熔断
+    @Value("${model-router.failure-threshold:5}")
+    private int failureThreshold;
+
+    // 熔断多久后放一个请求试探
+    @Value("${model-router.open-ms:30000}")
+    private long openMs;
+
+    // 接入点 -> 健康状况（熔断状态、耗时统计）
+    private final Map<String, Health> healths = new ConcurrentHashMap<>();
+
+    // 对冲额度：每个请求加 hedgeRatio，发一次对冲扣 1，最多攒 HEDGE_BURST
+    private static final double HEDGE_BURST = 10;
+    private double hedgeCredits;
+
+    private final ExecutorService attemptExecutor;
+
+    public ModelRouter(@Value("${model-router.workers:32}") int workers,
+                       @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        ExecutorService virtualExecutor = virtualThreads ? VirtualThreads.newPerTaskExecutor("model-router-") : null;
+        if (virtualExecutor != null) {
+            this.attemptExecutor = virtualExecutor;
+            return;
+        }
+        AtomicInteger counter = new AtomicInteger();
+        this.attemptExecutor = Executors.newFixedThreadPool(workers, r -> {
+            Thread thread = new Thread(r, "model-router-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        attemptExecutor.shutdownNow();
+    }
+
+    /**
+     * 某种用途的全部接入点：model_config 里的主接入点在前（id 为空），再是 model_endpoint 里启用的
+     * 向量接入点必须和主接入点同一个模型，否则向量对不上知识库里存的，这种直接忽略
+     */
+    public List<ModelEndpoint> endpoints(Role role) {
+        List<ModelEndpoint> endpoints = new ArrayList<>();
+        ModelEndpoint primary = primary(role, modelConfigRegistry.current());
+        if (primary != null) {
+            endpoints.add(primary);
+        }
+        for (ModelEndpoint endpoint : modelConfigRegistry.endpoints()) {
+            if (!role.value.equals(endpoint.getRole())) {
+                continue;
+            }
+            if (role == Role.EMBEDDING && primary != null && !Objects.equals(primary.getModel(), endpoint.getModel())) {
+                continue;
+            }
+            endpoints.add(endpoint);
+        }
+        return endpoints;
+    }
+
+    private static ModelEndpoint primary(Role role, ModelConfig config) {
+        if (config == null) {
+            return null;
+        }
+        ModelEndpoint endpoint = new ModelEndpoint();
+        endpoint.setRole(role.value);
+        endpoint.setEnabled(true);
+        switch (role) {
+            case CHAT:
+                endpoint.setUrl(config.getQwenurl());
+                endpoint.setModel(config.getQwenmodel());
+                endpoint.setApiKey(config.getQwenkey());
+                break;
+            case EMBEDDING:
+                endpoint.setUrl(config.getEmbeddingurl());
+                endpoint.setModel(config.getEmbeddingmodel());
+                endpoint.setApiKey(config.getEmbeddingkey());
+                break;
+            case LIVE:
+                endpoint.setUrl(config.getLiveurl());
+                endpoint.setModel(config.getLivemodel());
+                endpoint.setApiKey(config.getLivekey());
+                break;
+            default:
+                endpoint.setUrl(config.getDatageshiurl());
+                endpoint.setModel(config.getDatageshimodel());
+                endpoint.setApiKey(config.getDatageshikey());
+        }
+        if (endpoint.getUrl() == null || endpoint.getUrl().trim().isEmpty()) {
+            return null;
+        }
+        return endpoint;
+    }
+
+    /**
+     * 这次调用按什么顺序用接入点：没熔断的主用接入点按延迟从快到慢，都熔断了用备用的，
+     * 全都熔断了就按配置顺序硬着头皮试（总比直接报错强）
+     * @param role 用途
+     * @param stream 流式调用按首字耗时排，非流式按整体耗时排
+     */
+    public List<ModelEndpoint> candidates(Role role, boolean stream) {
+        List<ModelEndpoint> all = endpoints(role);
+        List<ModelEndpoint> main = new ArrayList<>();
+        List<ModelEndpoint> backup = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (ModelEndpoint endpoint : all) {
+            if (health(endpoint).allows(now)) {
+                (endpoint.isBackup() ? backup : main).add(endpoint);
+            }
+        }
+        List<ModelEndpoint> ordered = main.isEmpty() ? backup : main;
+        if (ordered.isEmpty()) {
+            return all;
+        }
+        // 优先级先排一遍，延迟一样（比如都没有记录）时按优先级
+        ordered.sort(Comparator.comparingInt(ModelEndpoint::getPriority));
+        ordered.sort(Comparator.comparingDouble(endpoint -> health(endpoint).latency(stream).score(now, latencyStaleMs)));
+        if (ordered == main) {
+            // 大白话：主用的都在前面，后面接上备用的，主用的全失败了还能往下切
+            backup.sort(Comparator.comparingInt(ModelEndpoint::getPriority));
+            ordered.addAll(backup);
+        }
+        return ordered;
+    }
+
+    /**
+     * 发到别的接入点时把请求体里的模型换成那个接入点的；主接入点保持原样（前端可能指定了模型）
+     * @param body 请求体
+     * @param endpoint 接入点
+     * @return 新的请求体
+     */
+    public static Map<String, Object> withModel(Map<String, Object> body, ModelEndpoint endpoint) {
+        Map<String, Object> copy = new HashMap<>(body);
+        if (endpoint.getId() != null || !copy.containsKey("model")) {
+            copy.put("model", endpoint.getModel());
+        }
+        return copy;
+    }
+
+    /**
+     * 按延迟路由调用，慢了发对冲请求，失败了换下一个接入点
+     * 参数错误这类换接入点也没用的错误（4xx，除了鉴权失败、超时、限流）直接抛出
+     * @param role 用途
+     * @param call 对一个接入点发一次请求
+     * @return 最先成功的结果
+     * @throws RuntimeException 所有接入点都失败时抛出最后一个错误
+     */
+    public <T> T execute(Role role, Function<ModelEndpoint, T> call) {
+        List<ModelEndpoint> candidates = candidates(role, false);
+        if (candidates.isEmpty()) {
+            throw new IllegalStateException("未配置" + role.value + "模型接入点");
+        }
+        addHedgeCredit();
+        BlockingQueue<Outcome<T>> outcomes = new LinkedBlockingQueue<>();
+        AtomicBoolean settled = new AtomicBoolean(false);
+        List<Future<?>> attempts = new ArrayList<>();
+        int next = 0;
+        int running = 0;
+        boolean hedged = false;
+        RuntimeException lastError = null;
+        try {
+            attempts.add(launch(candidates.get(next++), call, outcomes, settled));
+            running++;
+            while (running > 0 || next < candidates.size()) {
+                if (running == 0) {
+                    // 前面的都失败了，换下一个接入点
+                    attempts.add(launch(candidates.get(next++), call, outcomes, settled));
+                    running++;
+                    continue;
+                }
+                long delay = hedged ? -1 : hedgeDelay(candidates.get(0));
+                Outcome<T> outcome = delay >= 0 ? outcomes.poll(delay, TimeUnit.MILLISECONDS) : outcomes.take();
+                if (outcome == null) {
+                    hedged = true;
+                    if (takeHedgeCredit()) {
+                        // 只有一个接入点时对冲也发给它，换条连接往往就快了
+                        ModelEndpoint target = next < candidates.size() ? candidates.get(next++) : candidates.get(0);
+                        System.out.println(role.value + " 请求超过 " + delay + " ms 未返回，对冲到 " + target.getUrl());
+                        attempts.add(launch(target, call, outcomes, settled));
+                        running++;
+                    }
+                    continue;
+                }
+                running--;
+                if (outcome.error == null) {
+                    return outcome.value;
+                }
+                if (!isFailover(outcome.error)) {
+                    throw outcome.error;
+                }
+                lastError = outcome.error;
+                System.out.println(role.value + " 接入点 " + outcome.endpoint.getUrl() + " 调用失败：" + outcome.error.getMessage());
+            }
+            throw lastError;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("调用" + role.value + "模型被中断");
+        } finally {
+            settled.set(true);
+            for (Future<?> attempt : attempts) {
+                attempt.cancel(true);
+            }
+        }
+    }
+
+    private <T> Future<?> launch(ModelEndpoint endpoint, Function<ModelEndpoint, T> call,
+                                 BlockingQueue<Outcome<T>> outcomes, AtomicBoolean settled) {
+        return attemptExecutor.submit(() -> {
+            long start = System.currentTimeMillis();
+            try {
+                T value = call.apply(endpoint);
+                record(endpoint, false, System.currentTimeMillis() - start, true);
+                outcomes.add(new Outcome<>(endpoint, value, null));
+            } catch (RuntimeException e) {
+                // 已经有结果了，被取消的那份不算接入点失败；请求本身有问题也不怪接入点
+                if (!settled.get() && isFailover(e)) {
+                    record(endpoint, false, System.currentTimeMillis() - start, false);
+                }
+                outcomes.add(new Outcome<>(endpoint, null, e));
+            }
+        });
+    }
+
+    /**
+     * 记一次调用结果，流式调用转发时自己调
+     * @param endpoint 接入点
+     * @param stream 是否流式（流式记首字耗时）
+     * @param latencyMs 耗时
+     * @param success 是否成功，失败只记熔断、不记耗时
+     */
+    public void record(ModelEndpoint endpoint, boolean stream, long latencyMs, boolean success) {
+        Health health = health(endpoint);
+        if (success) {
+            health.latency(stream).add(latencyMs);
+            health.onSuccess();
+        } else {
+            health.onFailure(failureThreshold, openMs, endpoint.getUrl());
+        }
+    }
+
+    /**
+     * 换个接入点有没有可能成功：网络错误、5xx、限流、鉴权失败、超时算；其他 4xx 是请求本身的问题
+     */
+    static boolean isFailover(RuntimeException e) {
+        if (e instanceof HttpStatusCodeException) {
+            return isFailoverStatus(((HttpStatusCodeException) e).getStatusCode().value());
+        }
+        return true;
+    }
+
+    /**
+     * 上游返回这个状态码时换接入点有没有用
+     */
+    public static boolean isFailoverStatus(int status) {
+        return status >= 500 || status == 401 || status == 403 || status == 408 || status == 429;
+    }
+
+    /**
+     * 第一个请求等多久再对冲，-1 表示不对冲
+     */
+    private long hedgeDelay(ModelEndpoint endpoint) {
+        if (!hedgeEnabled) {
+            return -1;
+        }
+        long p95 = health(endpoint).latency(false).percentile(0.95, minSamples);
+        // 记录不够不知道什么算慢；p95 本来就很长的（比如生成直播剧本）再发一份也快不了多少，白花钱
+        if (p95 < 0 || p95 > hedgeMaxDelayMs) {
+            return -1;
+        }
+        return Math.max(hedgeMinDelayMs, p95);
+    }
+
+    private synchronized void addHedgeCredit() {
+        hedgeCredits = Math.min(HEDGE_BURST, hedgeCredits + hedgeRatio);
+    }
+
+    private synchronized boolean takeHedgeCredit() {
+        if (hedgeCredits < 1) {
+            return false;
+        }
+        hedgeCredits -= 1;
+        return true;
+    }
+
+    private Health health(ModelEndpoint endpoint) {
+        return healths.computeIfAbsent(endpoint.getRole() + "|" + endpoint.getUrl() + "|" + endpoint.getModel(),
+                key -> new Health(latencyWindow));
+    }
+
+    /**
+     * 每个接入点的熔断状态和耗时统计，给监控接口用
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> data = new LinkedHashMap<>();
+        long now = System.currentTimeMillis();
+        for (Role role : Role.values()) {
+            List<Map<String, Object>> items = new ArrayList<>();
+            for (ModelEndpoint endpoint : endpoints(role)) {
+                Health health = health(endpoint);
+                Map<String, Object> stats = new LinkedHashMap<>();
+                stats.put("id", endpoint.getId());
+                stats.put("url", endpoint.getUrl());
+                stats.put("model", endpoint.getModel());
+                stats.put("backup", endpoint.isBackup());
+                stats.put("state", health.state(now));
+                stats.put("consecutiveFailures", health.consecutiveFailures);
+                stats.put("p50Ms", health.latency(false).percentile(0.5, 1));
+                stats.put("p95Ms", health.latency(false).percentile(0.95, 1));
+                stats.put("streamFirstTokenP95Ms", health.latency(true).percentile(0.95, 1));
+                items.add(stats);
+            }
+            data.put(role.value, items);
+        }
+        return data;
+    }
+
+    private static class Outcome<T> {
+        private final ModelEndpoint endpoint;
+        private final T value;
+        private final RuntimeException error;
+
+        private Outcome(ModelEndpoint endpoint, T value, RuntimeException error) {
+            this.endpoint = endpoint;
+            this.value = value;
+            this.error = error;
+        }
+    }
+
+    /**
+     * 一个接入点的熔断器：关闭 → 连续失败够数打开 → 到时间半开放一个试探 → 成功关闭、失败再打开
+     */
+    private static class Health {
+        private final Latency complete;
+        private final Latency firstToken;
+        private int consecutiveFailures;
+        private long openedAt;
+        private long openUntil;
+        // 半开时放出去的试探请求在这个时间前有效，试探的那次没真正发出去（排在后面没轮到）也不会一直卡住
+        private long probeUntil;
+
+        private Health(int window) {
+            this.complete = new Latency(window);
+            this.firstToken = new Latency(window);
+        }
+
+        private Latency latency(boolean stream) {
+            return stream ? firstToken : complete;
+        }
+
+        private synchronized boolean allows(long now) {
+            if (openUntil == 0) {
+                return true;
+            }
+            if (now < openUntil || now < probeUntil) {
+                return false;
+            }
+            // 半开：只放这一个请求过去试探
+            probeUntil = now + (openUntil - openedAt);
+            return true;
+        }
+
+        private synchronized String state(long now) {
+            if (openUntil == 0) {
+                return "closed";
+            }
+            return now < openUntil ? "open" : "half_open";
+        }
+
+        private synchronized void onSuccess() {
+            consecutiveFailures = 0;
+            openUntil = 0;
+            probeUntil = 0;
+        }
+
+        private synchronized void onFailure(int threshold, long openMs, String url) {
+            consecutiveFailures++;
+            if (openUntil != 0 || consecutiveFailures >= threshold) {
+                // 还没熔断的到了阈值就熔断；半开试探失败了重新熔断
+                System.err.println("模型接入点 " + url + " 连续失败 " + consecutiveFailures + " 次，熔断 " + openMs + " ms");
+                openedAt = System.currentTimeMillis();
+                openUntil = openedAt + openMs;
+                probeUntil = 0;
+            }
+        }
+    }
+
+    /**
+     * 最近若干次耗时的环形缓冲
+     */
+    private static class Latency {
+        private final long[] samples;
+        private int size;
+        private int next;
+        private long updatedAt;
+
+        private Latency(int window) {
+            this.samples = new long[Math.max(1, window)];
+        }
+
+        private synchronized void add(long latencyMs) {
+            samples[next] = latencyMs;
+            next = (next + 1) % samples.length;
+            size = Math.min(size + 1, samples.length);
+            updatedAt = System.currentTimeMillis();
+        }
+
+        /**
+         * @return 第 p 分位耗时，记录不到 minSamples 次返回 -1
+         */
+        private synchronized long percentile(double p, int minSamples) {
+            if (size == 0 || size < minSamples) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            return sorted[Math.min(size - 1, (int) Math.ceil(p * size) - 1)];
+        }
+
+        /**
+         * 排序用的分数：最近的中位数耗时；没有记录或记录太旧返回 0，让它有机会被选中重新测
+         */
+        private long score(long now, long staleMs) {
+            synchronized (this) {
+                if (size == 0 || now - updatedAt > staleMs) {
+                    return 0;
+                }
+            }
+            return percentile(0.5, 1);
+        }
+    }
+}
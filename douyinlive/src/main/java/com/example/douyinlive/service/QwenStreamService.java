@@ -0,0 +1,301 @@
+package com.example.douyinlive.service;
+
+import com.example.douyinlive.config.UpstreamLimiter;
+import com.example.douyinlive.entity.ModelEndpoint;
+import com.example.douyinlive.util.VirtualThreads;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * 通义千问流式对话：把上游的 SSE 增量原样转成给前端的 SSE 事件
+ * 大白话：上游每吐一小段字就立刻推给前端，不用等整段回答生成完，主播能更快开口；
+ * 事件有三种：delta（新增的一段文字）、done（结束，带完整内容和用量）、error（出错）；
+ * 前端断开或超时就关掉上游连接，不再白白消耗 token；
+ * 接入点按 {@link ModelRouter} 的首字耗时排序，一个字还没推出去就失败了会换下一个接入点（流式不发对冲请求）
+ */
+@Service
+public class QwenStreamService {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // 共用的 HTTP 客户端和上游并发控制，见 HttpClientConfig
+    @Autowired
+    private HttpClient httpClient;
+
+    @Autowired
+    private UpstreamLimiter upstreamLimiter;
+
+    @Autowired
+    private ModelRouter modelRouter;
+
+    private final ExecutorService streamExecutor;
+
+    // 一次流式对话最长持续时间
+    @Value("${qwen.stream.timeout-ms:180000}")
+    private long timeoutMs;
+
+    /**
+     * 开了虚拟线程（JDK 21+）时每个流式对话一个虚拟线程，并发只受上游并发上限约束；否则用固定大小的平台线程池
+     */
+    public QwenStreamService(@Value("${qwen.stream.workers:16}") int workers,
+                             @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        ExecutorService virtualExecutor = virtualThreads ? VirtualThreads.newPerTaskExecutor("qwen-stream-") : null;
+        if (virtualExecutor != null) {
+            this.streamExecutor = virtualExecutor;
+            return;
+        }
+        AtomicInteger counter = new AtomicInteger();
+        this.streamExecutor = Executors.newFixedThreadPool(workers, r -> {
+            Thread thread = new Thread(r, "qwen-stream-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        streamExecutor.shutdownNow();
+    }
+
+    /**
+     * 新建一个给前端的 SSE 连接
+     */
+    public SseEmitter createEmitter() {
+        return new SseEmitter(timeoutMs);
+    }
+
+    /**
+     * 还没开始转发就出错时用：推一个 error 事件然后结束
+     */
+    public void fail(SseEmitter emitter, String message) {
+        Map<String, Object> error = new HashMap<>();
+        error.put("success", false);
+        error.put("message", message);
+        try {
+            emitter.send(SseEmitter.event().name("error").data(error));
+            emitter.complete();
+        } catch (IOException | IllegalStateException e) {
+            emitter.completeWithError(e);
+        }
+    }
+
+    /**
+     * 已经有现成回复（比如命中答案缓存）时用：一个 delta 事件推完整内容，再推 done 结束，事件格式和正常流式一样
+     */
+    public void replay(SseEmitter emitter, String content) {
+        Map<String, Object> done = new HashMap<>();
+        done.put("success", true);
+        done.put("content", content);
+        done.put("finish_reason", "stop");
+        done.put("cached", true);
+        try {
+            emitter.send(SseEmitter.event().name("delta").data(Map.of("content", content)));
+            emitter.send(SseEmitter.event().name("done").data(done));
+            emitter.complete();
+        } catch (IOException | IllegalStateException e) {
+            emitter.completeWithError(e);
+        }
+    }
+
+    /**
+     * 在后台线程里请求上游并转发，调用方直接把 emitter 返回给 Spring
+     * 接入点由 {@link ModelRouter} 按首字耗时排序；还没往前端推过内容时失败（连不上、5xx、限流）就换下一个接入点
+     * @param body 请求体，会强制 stream = true
+     * @param emitter 给前端的 SSE 连接
+     */
+    public void stream(Map<String, Object> body, SseEmitter emitter) {
+        stream(body, emitter, null);
+    }
+
+    /**
+     * 同上，正常结束（推完 done 事件）后把完整回复交给 onDone，比如写进答案缓存；出错或前端断开时不回调
+     * @param onDone 完整回复的回调，可以为 null
+     */
+    public void stream(Map<String, Object> body, SseEmitter emitter, Consumer<String> onDone) {
+        List<ModelEndpoint> endpoints = modelRouter.candidates(ModelRouter.Role.CHAT, true);
+        if (endpoints.isEmpty()) {
+            fail(emitter, "未配置对话模型接入点");
+            return;
+        }
+        Map<String, Object> requestBody = new HashMap<>(body);
+        requestBody.put("stream", true);
+        // 大白话：最后一个分片带上 token 用量
+        requestBody.put("stream_options", Map.of("include_usage", true));
+
+        AtomicBoolean closed = new AtomicBoolean(false);
+        AtomicReference<InputStream> upstream = new AtomicReference<>();
+        Runnable close = () -> {
+            closed.set(true);
+            InputStream in = upstream.get();
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        };
+        emitter.onCompletion(close);
+        emitter.onTimeout(close);
+        emitter.onError(e -> close.run());
+
+        streamExecutor.execute(() -> {
+            for (int i = 0; i < endpoints.size(); i++) {
+                boolean last = i == endpoints.size() - 1;
+                if (!forward(endpoints.get(i), requestBody, emitter, closed, upstream, onDone, last)) {
+                    return;
+                }
+                System.out.println("通义千问流式接入点 " + endpoints.get(i).getUrl() + " 失败，换下一个");
+            }
+        });
+    }
+
+    /**
+     * 对一个接入点请求并转发
+     * @param last 是不是最后一个接入点，是的话失败直接给前端推 error
+     * @return 还没推过内容就失败、可以换下一个接入点时返回 true
+     */
+    private boolean forward(ModelEndpoint endpoint, Map<String, Object> body, SseEmitter emitter,
+                            AtomicBoolean closed, AtomicReference<InputStream> upstream, Consumer<String> onDone,
+                            boolean last) {
+        long start = System.currentTimeMillis();
+        String url = endpoint.getUrl();
+        UpstreamLimiter.Permit permit = null;
+        boolean success = false;
+        boolean firstToken = true;
+        try {
+            // 流式对话整个过程都占着这个上游的一个并发名额
+            permit = upstreamLimiter.acquire(URI.create(url));
+            HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                    .timeout(Duration.ofMillis(timeoutMs))
+                    .header("Content-Type", "application/json")
+                    .header("Accept", "text/event-stream")
+                    .header("Authorization", "Bearer " + endpoint.getApiKey())
+                    .POST(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(ModelRouter.withModel(body, endpoint)), StandardCharsets.UTF_8))
+                    .build();
+            HttpResponse<InputStream> response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            InputStream in = response.body();
+            upstream.set(in);
+            if (closed.get()) {
+                in.close();
+                return false;
+            }
+            if (response.statusCode() != 200) {
+                String errorBody = new String(in.readNBytes(4096), StandardCharsets.UTF_8);
+                in.close();
+                System.out.println("通义千问流式 API 返回错误：" + errorBody);
+                permit.markFailed();
+                int status = response.statusCode();
+                boolean failover = ModelRouter.isFailoverStatus(status);
+                if (failover) {
+                    modelRouter.record(endpoint, true, System.currentTimeMillis() - start, false);
+                }
+                if (failover && !last) {
+                    return true;
+                }
+                fail(emitter, "通义千问 API 调用失败：" + status + " - " + errorBody);
+                return false;
+            }
+
+            StringBuilder content = new StringBuilder();
+            Object usage = null;
+            String finishReason = null;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+                String line;
+                while (!closed.get() && (line = reader.readLine()) != null) {
+                    // SSE 里只有 data: 行有内容，空行和注释跳过
+                    if (!line.startsWith("data:")) {
+                        continue;
+                    }
+                    String data = line.substring(5).trim();
+                    if ("[DONE]".equals(data)) {
+                        break;
+                    }
+                    JsonNode chunk = objectMapper.readTree(data);
+                    if (chunk.hasNonNull("usage")) {
+                        usage = objectMapper.treeToValue(chunk.get("usage"), Object.class);
+                    }
+                    JsonNode choice = chunk.path("choices").path(0);
+                    if (choice.hasNonNull("finish_reason")) {
+                        finishReason = choice.get("finish_reason").asText();
+                    }
+                    String delta = choice.path("delta").path("content").asText("");
+                    if (delta.isEmpty()) {
+                        continue;
+                    }
+                    if (firstToken) {
+                        firstToken = false;
+                        long firstTokenMs = System.currentTimeMillis() - start;
+                        modelRouter.record(endpoint, true, firstTokenMs, true);
+                        System.out.println("通义千问流式首字耗时：" + firstTokenMs + " ms");
+                    }
+                    content.append(delta);
+                    emitter.send(SseEmitter.event().name("delta").data(Map.of("content", delta)));
+                }
+            }
+            if (closed.get()) {
+                System.out.println("前端已断开，停止转发通义千问流式响应");
+                return false;
+            }
+
+            Map<String, Object> done = new HashMap<>();
+            done.put("success", true);
+            done.put("content", content.toString());
+            done.put("finish_reason", finishReason);
+            done.put("usage", usage);
+            emitter.send(SseEmitter.event().name("done").data(done));
+            emitter.complete();
+            success = true;
+            System.out.println("通义千问流式对话完成，总耗时：" + (System.currentTimeMillis() - start) + " ms");
+            if (onDone != null) {
+                onDone.accept(content.toString());
+            }
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            emitter.complete();
+            return false;
+        } catch (Exception e) {
+            if (closed.get()) {
+                // 前端断开后关掉上游流，读流会抛异常，属于正常结束
+                return false;
+            }
+            System.out.println("通义千问流式对话失败：" + e.getMessage());
+            modelRouter.record(endpoint, true, System.currentTimeMillis() - start, false);
+            if (firstToken && !last) {
+                // 大白话：一个字都还没推给前端，换个接入点重来前端感觉不到
+                return true;
+            }
+            fail(emitter, "AI 对话失败，服务器错误：" + e.getMessage());
+            return false;
+        } finally {
+            if (permit != null) {
+                permit.release(success || closed.get());
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.douyinlive.service;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 通义千问（Qwen 系列）本地 Token 计数
+ * 大白话：先按 Qwen 分词器的正则把文本切成小段（英文单词、单个数字、标点串、空白），
+ * 配了词表文件（Qwen 官方的 qwen.tiktoken，每行 "base64 字节串 排名"）就对每段做字节级 BPE 合并，数出来和线上一致；
+ * 没配词表就按段估算：汉字按 0.7 个 Token 一个字、英文按 4 个字母一个 Token、数字一位一个、标点一个一个算，宁多勿少
+ */
+@Service
+public class QwenTokenizer {
+
+    // Qwen2 分词器的预切分正则：英文缩写、字母串（前面可带一个符号）、单个数字、标点串、换行、空白
+    private static final Pattern PRE_TOKENIZE = Pattern.compile(
+            "(?i:'s|'t|'re|'ve|'m|'ll|'d)|[^\\r\\n\\p{L}\\p{N}]?\\p{L}+|\\p{N}| ?[^\\s\\p{L}\\p{N}]+[\\r\\n]*|\\s*[\\r\\n]+|\\s+(?!\\S)|\\s+");
+
+    // 词表文件路径，为空时用估算
+    @Value("${qwen.tokenizer.vocab-path:}")
+    private String vocabPath;
+
+    // 字节串（按 ISO-8859-1 一个字节对应一个字符存成字符串）-> 合并排名
+    private volatile Map<String, Integer> ranks;
+
+    @PostConstruct
+    public void init() {
+        if (vocabPath == null || vocabPath.isBlank()) {
+            System.out.println("未配置 Qwen 词表，Token 数按估算");
+            return;
+        }
+        try {
+            ranks = loadRanks(vocabPath);
+            System.out.println("Qwen 词表加载完成，词条数：" + ranks.size());
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Qwen 词表加载失败，Token 数改为估算：" + e.getMessage());
+        }
+    }
+
+    static Map<String, Integer> loadRanks(String path) throws IOException {
+        Map<String, Integer> loaded = new HashMap<>(200_000);
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int space = line.indexOf(' ');
+                if (space <= 0) {
+                    continue;
+                }
+                byte[] bytes = Base64.getDecoder().decode(line.substring(0, space));
+                loaded.put(new String(bytes, StandardCharsets.ISO_8859_1), Integer.parseInt(line.substring(space + 1).trim()));
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * 词表是否加载成功（false 表示 count 返回的是估算值）
+     */
+    public boolean isExact() {
+        return ranks != null;
+    }
+
+    /**
+     * 统计文本的 Token 数
+     * @param text 文本
+     * @return Token 数
+     */
+    public int count(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        Map<String, Integer> vocab = ranks;
+        int tokens = 0;
+        Matcher matcher = PRE_TOKENIZE.matcher(text);
+        while (matcher.find()) {
+            String piece = matcher.group();
+            tokens += vocab != null ? bpeCount(piece, vocab) : estimate(piece);
+        }
+        return tokens;
+    }
+
+    /**
+     * 对一段做字节级 BPE：每次合并排名最小的相邻两块，直到合并不了，剩几块就是几个 Token
+     */
+    static int bpeCount(String piece, Map<String, Integer> vocab) {
+        String bytes = new String(piece.getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1);
+        if (vocab.containsKey(bytes)) {
+            return 1;
+        }
+        List<String> parts = new ArrayList<>(bytes.length());
+        for (int i = 0; i < bytes.length(); i++) {
+            parts.add(bytes.substring(i, i + 1));
+        }
+        while (parts.size() > 1) {
+            int best = -1;
+            int bestRank = Integer.MAX_VALUE;
+            for (int i = 0; i < parts.size() - 1; i++) {
+                Integer rank = vocab.get(parts.get(i) + parts.get(i + 1));
+                if (rank != null && rank < bestRank) {
+                    bestRank = rank;
+                    best = i;
+                }
+            }
+            if (best < 0) {
+                break;
+            }
+            parts.set(best, parts.get(best) + parts.remove(best + 1));
+        }
+        return parts.size();
+    }
+
+    /**
+     * 没有词表时估算一段的 Token 数
+     */
+    static int estimate(String piece) {
+        int cjk = 0;
+        int letters = 0;
+        int others = 0;
+        for (int i = 0; i < piece.length(); ) {
+            int cp = piece.codePointAt(i);
+            i += Character.charCount(cp);
+            if (Character.isIdeographic(cp) || Character.UnicodeScript.of(cp) == Character.UnicodeScript.HANGUL
+                    || Character.UnicodeScript.of(cp) == Character.UnicodeScript.HIRAGANA
+                    || Character.UnicodeScript.of(cp) == Character.UnicodeScript.KATAKANA) {
+                cjk++;
+            } else if (Character.isLetter(cp)) {
+                letters++;
+            } else if (!Character.isWhitespace(cp)) {
+                // 数字在预切分时已经一位一段，标点一个算一个
+                others++;
+            }
+        }
+        int tokens = (cjk * 7 + 9) / 10 + (letters + 3) / 4 + others;
+        // 纯空白、换行也至少占一个
+        return Math.max(1, tokens);
+    }
+}
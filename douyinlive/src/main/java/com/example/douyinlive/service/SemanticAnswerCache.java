@@ -0,0 +1,219 @@
+package com.example.douyinlive.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 智能体语义答案缓存：新问题和最近答过的问题向量足够接近，就直接复用答案
+ * 大白话：直播间里 "多少钱""怎么买""有优惠吗" 会被问几百遍，每次都走 向量化 → 检索 → 大模型 太浪费；
+ * 每个智能体记最近一批 (问题向量, 答案)，余弦距离不超过阈值就算命中；
+ * 条目有过期时间，每个智能体有条数上限，智能体多了按最近使用淘汰；
+ * 智能体的提示词、知识库改了，或者用户的知识库内容变了，就清掉相关缓存；
+ * 清缓存时顺便记一个版本号，查缓存时读版本号、写缓存时带回来，中间版本号变了说明答案是按旧配置算的，不写
+ */
+@Service
+public class SemanticAnswerCache {
+
+    // 是否启用
+    @Value("${agent.answer-cache.enabled:true}")
+    private boolean enabled;
+
+    // 命中阈值：余弦距离（1 - 余弦相似度）不超过这个值算同一个问题
+    @Value("${agent.answer-cache.max-distance:0.08}")
+    private double maxDistance;
+
+    // 答案过期时间
+    @Value("${agent.answer-cache.ttl-seconds:600}")
+    private long ttlSeconds;
+
+    // 每个智能体最多缓存多少条，超了淘汰最旧的
+    @Value("${agent.answer-cache.max-entries-per-agent:200}")
+    private int maxEntriesPerAgent;
+
+    // 智能体 ID -> 该智能体的缓存，访问顺序，超过上限淘汰最久没用的智能体
+    private final Map<Integer, AgentEntries> agents;
+
+    // 每个智能体、每个用户最后一次清缓存时的版本号，没清过是 0；都在 synchronized (agents) 里读写
+    private final Map<Integer, Long> agentGenerations = new HashMap<>();
+    private final Map<Integer, Long> userGenerations = new HashMap<>();
+    private long clock;
+
+    public SemanticAnswerCache(@Value("${agent.answer-cache.max-agents:1000}") int maxAgents) {
+        this.agents = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, AgentEntries> eldest) {
+                return size() > maxAgents;
+            }
+        };
+    }
+
+    /**
+     * 只缓存单轮提问：只有一条 user 消息，没有历史对话（有历史时答案依赖上下文）
+     * @param messages 前端传来的消息
+     * @return 是否可以走缓存
+     */
+    public boolean isCacheable(List<Map<String, Object>> messages) {
+        if (!enabled || messages == null || messages.size() != 1) {
+            return false;
+        }
+        Map<String, Object> message = messages.get(0);
+        Object content = message.get("content");
+        return "user".equals(message.get("role")) && content instanceof String && !((String) content).isBlank();
+    }
+
+    /**
+     * 当前缓存版本号，查缓存前读一次，写缓存时传给 {@link #put}
+     * @param agentId 智能体 ID
+     * @param userId 智能体所属用户 ID
+     * @return 版本号，智能体或用户的缓存被清过就会变
+     */
+    public long generation(int agentId, int userId) {
+        synchronized (agents) {
+            return Math.max(agentGenerations.getOrDefault(agentId, 0L), userGenerations.getOrDefault(userId, 0L));
+        }
+    }
+
+    /**
+     * 查找相近问题的答案
+     * @param agentId 智能体 ID
+     * @param embedding 问题向量
+     * @return 命中的答案，没命中返回 null
+     */
+    public String lookup(int agentId, float[] embedding) {
+        if (!enabled || embedding == null) {
+            return null;
+        }
+        float[] query = unit(embedding);
+        long now = System.currentTimeMillis();
+        synchronized (agents) {
+            AgentEntries entries = agents.get(agentId);
+            if (entries == null) {
+                return null;
+            }
+            Entry best = null;
+            double bestSimilarity = 1 - maxDistance;
+            for (Iterator<Entry> it = entries.items.iterator(); it.hasNext(); ) {
+                Entry entry = it.next();
+                if (entry.expiresAt <= now) {
+                    it.remove();
+                    continue;
+                }
+                double similarity = dot(query, entry.embedding);
+                if (similarity >= bestSimilarity) {
+                    bestSimilarity = similarity;
+                    best = entry;
+                }
+            }
+            if (best == null) {
+                return null;
+            }
+            System.out.println("智能体 " + agentId + " 命中语义答案缓存，余弦距离：" + String.format("%.4f", 1 - bestSimilarity));
+            return best.answer;
+        }
+    }
+
+    /**
+     * 记下一个问题的答案
+     * @param agentId 智能体 ID
+     * @param userId 智能体所属用户 ID，用户知识库变化时按用户清缓存
+     * @param generation 查缓存前读到的版本号（{@link #generation}），之后缓存被清过就不写
+     * @param embedding 问题向量
+     * @param answer 答案
+     */
+    public void put(int agentId, int userId, long generation, float[] embedding, String answer) {
+        if (!enabled || embedding == null || answer == null || answer.isEmpty()) {
+            return;
+        }
+        Entry entry = new Entry(unit(embedding), answer, System.currentTimeMillis() + ttlSeconds * 1000);
+        synchronized (agents) {
+            if (generation(agentId, userId) != generation) {
+                System.out.println("智能体 " + agentId + " 的缓存在回答期间被清过，这次的答案不写缓存");
+                return;
+            }
+            AgentEntries entries = agents.computeIfAbsent(agentId, id -> new AgentEntries(userId));
+            entries.items.addLast(entry);
+            while (entries.items.size() > maxEntriesPerAgent) {
+                entries.items.removeFirst();
+            }
+        }
+    }
+
+    /**
+     * 智能体的提示词、知识库等配置变了，或者智能体被删了
+     * @param agentId 智能体 ID
+     */
+    public void invalidateAgent(int agentId) {
+        synchronized (agents) {
+            agents.remove(agentId);
+            agentGenerations.put(agentId, ++clock);
+        }
+    }
+
+    /**
+     * 用户的知识库内容变了，他的智能体答案可能都过时了
+     * @param userId 用户 ID
+     */
+    public void invalidateUser(int userId) {
+        synchronized (agents) {
+            agents.values().removeIf(entries -> entries.userId == userId);
+            userGenerations.put(userId, ++clock);
+        }
+    }
+
+    private static float[] unit(float[] vector) {
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        norm = Math.sqrt(norm);
+        float[] unit = new float[vector.length];
+        if (norm == 0) {
+            return unit;
+        }
+        for (int i = 0; i < vector.length; i++) {
+            unit[i] = (float) (vector[i] / norm);
+        }
+        return unit;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        if (a.length != b.length) {
+            return -1;
+        }
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    private static class AgentEntries {
+        private final int userId;
+        // 按写入顺序，最旧的在前
+        private final Deque<Entry> items = new ArrayDeque<>();
+
+        private AgentEntries(int userId) {
+            this.userId = userId;
+        }
+    }
+
+    private static class Entry {
+        private final float[] embedding;
+        private final String answer;
+        private final long expiresAt;
+
+        private Entry(float[] embedding, String answer, long expiresAt) {
+            this.embedding = embedding;
+            this.answer = answer;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package com.example.douyinlive.service;
+
+import com.example.douyinlive.entity.KnowledgeBase;
+import com.example.douyinlive.mapper.KnowledgeBaseMapper;
+import com.example.douyinlive.mapper.VectorIndexMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 知识库向量索引管理：按配置建 / 重建 HNSW 或 ivfflat 索引，测不同 ef_search / probes 下的召回率和延迟
+ * 大白话：新索引先用临时名字 CONCURRENTLY 建好（不挡写入），再删掉旧的、改名顶上；
+ * 测评时随机抽段落向量当查询，禁用索引算出标准答案，再逐个档位走索引比对
+ */
+@Service
+public class VectorIndexService {
+
+    public static final String INDEX_NAME = "idx_knowledge_base_embedding";
+    private static final String BUILD_INDEX_NAME = "idx_knowledge_base_embedding_rebuild";
+
+    private static final List<Integer> DEFAULT_EF_SEARCH_STEPS = Arrays.asList(10, 20, 40, 80, 160, 320);
+    private static final List<Integer> DEFAULT_PROBES_STEPS = Arrays.asList(1, 2, 4, 8, 16, 32);
+
+    @Autowired
+    private VectorIndexMapper vectorIndexMapper;
+
+    @Autowired
+    private KnowledgeBaseMapper knowledgeBaseMapper;
+
+    private final TransactionTemplate transactionTemplate;
+
+    // 配置的索引类型：hnsw 或 ivfflat
+    @Value("${vector-index.type:ivfflat}")
+    private String indexType;
+
+    @Value("${vector-index.hnsw.m:16}")
+    private int hnswM;
+
+    @Value("${vector-index.hnsw.ef-construction:64}")
+    private int hnswEfConstruction;
+
+    // ivfflat 聚类个数，0 表示按段落数估算
+    @Value("${vector-index.ivfflat.lists:0}")
+    private int ivfflatLists;
+
+    // 启动时索引和配置不一致就在后台重建
+    @Value("${vector-index.build-on-startup:false}")
+    private boolean buildOnStartup;
+
+    private final AtomicBoolean building = new AtomicBoolean(false);
+
+    // 最近一次建索引的结果，给管理接口看
+    private volatile Map<String, Object> lastBuild;
+
+    @Autowired
+    public VectorIndexService(PlatformTransactionManager transactionManager) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildOnStartup() {
+        if (!buildOnStartup) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                IndexSpec spec = configuredSpec();
+                String definition = vectorIndexMapper.selectIndexDefinition(INDEX_NAME);
+                if (spec.matches(definition)) {
+                    System.out.println("向量索引与配置一致，不用重建：" + definition);
+                    return;
+                }
+                startRebuild(spec);
+            } catch (Exception e) {
+                System.err.println("启动时检查向量索引失败：" + e.getMessage());
+            }
+        }, "vector-index");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 按配置文件生成索引参数
+     */
+    public IndexSpec configuredSpec() {
+        return new IndexSpec(indexType, hnswM, hnswEfConstruction, ivfflatLists);
+    }
+
+    /**
+     * 当前索引状态
+     * @return 索引定义、段落数、是否正在重建、最近一次重建结果
+     */
+    public Map<String, Object> describe() {
+        Map<String, Object> data = new HashMap<>();
+        String definition = vectorIndexMapper.selectIndexDefinition(INDEX_NAME);
+        IndexSpec configured = configuredSpec();
+        data.put("definition", definition);
+        data.put("rows", vectorIndexMapper.countEmbeddings());
+        data.put("configured", configured.describe());
+        data.put("matchesConfig", configured.matches(definition));
+        data.put("building", building.get());
+        data.put("lastBuild", lastBuild);
+        return data;
+    }
+
+    /**
+     * 在后台线程里重建索引，同一时间只允许一个
+     * @param spec 索引参数，调用前先 validate
+     * @return 是否开始了（已经在建返回 false）
+     */
+    public boolean startRebuild(IndexSpec spec) {
+        spec.validate();
+        if (!building.compareAndSet(false, true)) {
+            return false;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                rebuild(spec);
+            } finally {
+                building.set(false);
+            }
+        }, "vector-index-build");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    private void rebuild(IndexSpec spec) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("startedAt", LocalDateTime.now());
+        long start = System.currentTimeMillis();
+        try {
+            int lists = spec.lists;
+            if ("ivfflat".equals(spec.method) && lists == 0) {
+                lists = estimateLists(vectorIndexMapper.countEmbeddings());
+            }
+            String options = "hnsw".equals(spec.method)
+                    ? "m = " + spec.m + ", ef_construction = " + spec.efConstruction
+                    : "lists = " + lists;
+            System.out.println("开始重建向量索引：USING " + spec.method + " WITH (" + options + ")");
+            // 上次没建完留下的 invalid 索引先清掉
+            vectorIndexMapper.dropIndex(BUILD_INDEX_NAME);
+            try {
+                vectorIndexMapper.createVectorIndex(BUILD_INDEX_NAME, spec.method, options);
+            } catch (RuntimeException e) {
+                vectorIndexMapper.dropIndex(BUILD_INDEX_NAME);
+                throw e;
+            }
+            // 大白话：删旧索引和改名放在一个短事务里，要么都成功要么都不做，检索不会碰上没有索引的空档；
+            // 等锁超时就整个回滚，新索引留着，下次重建时先清掉
+            transactionTemplate.executeWithoutResult(status -> {
+                vectorIndexMapper.setLockTimeout("5s");
+                vectorIndexMapper.dropIndexInTransaction(INDEX_NAME);
+                vectorIndexMapper.renameIndex(BUILD_INDEX_NAME, INDEX_NAME);
+            });
+            result.put("success", true);
+            result.put("definition", vectorIndexMapper.selectIndexDefinition(INDEX_NAME));
+            System.out.println("向量索引重建完成，耗时 " + (System.currentTimeMillis() - start) + " ms");
+        } catch (Exception e) {
+            result.put("success", false);
+            result.put("message", e.getMessage());
+            System.err.println("向量索引重建失败：" + e.getMessage());
+        }
+        result.put("elapsedMs", System.currentTimeMillis() - start);
+        lastBuild = result;
+    }
+
+    /**
+     * pgvector 的建议：100 万行以内 lists = 行数 / 1000，再多用 sqrt(行数)
+     */
+    static int estimateLists(long rows) {
+        long lists = rows <= 1_000_000 ? rows / 1000 : (long) Math.sqrt(rows);
+        return (int) Math.max(1, Math.min(32768, lists));
+    }
+
+    /**
+     * 召回率-延迟测评：抽样段落向量当查询，禁用索引算出精确前 k 条，再在各个 ef_search（HNSW）或 probes（ivfflat）档位下走索引比对
+     * @param samples 查询条数
+     * @param k 每次取前几条
+     * @param steps 要测的 ef_search / probes 档位，为空用默认档位
+     * @return 每个档位的平均召回率和 p50 / p95 延迟
+     */
+    public Map<String, Object> report(int samples, int k, List<Integer> steps) {
+        String definition = vectorIndexMapper.selectIndexDefinition(INDEX_NAME);
+        if (definition == null) {
+            throw new IllegalStateException("向量索引不存在");
+        }
+        boolean hnsw = definition.contains("USING hnsw");
+        String param = hnsw ? "ef_search" : "probes";
+        if (steps == null || steps.isEmpty()) {
+            steps = hnsw ? DEFAULT_EF_SEARCH_STEPS : DEFAULT_PROBES_STEPS;
+        }
+
+        List<KnowledgeBase> queries = vectorIndexMapper.selectSampleEmbeddings(samples);
+        List<Set<Integer>> truth = new ArrayList<>();
+        long[] exactLatencies = new long[queries.size()];
+        for (int i = 0; i < queries.size(); i++) {
+            KnowledgeBase query = queries.get(i);
+            long[] elapsed = new long[1];
+            List<Integer> ids = transactionTemplate.execute(status -> {
+                vectorIndexMapper.disableIndexScan();
+                long start = System.nanoTime();
+                List<Integer> result = vectorIndexMapper.selectNearestIds(query.getEmbedding(), k);
+                elapsed[0] = System.nanoTime() - start;
+                return result;
+            });
+            truth.add(new HashSet<>(ids));
+            exactLatencies[i] = elapsed[0];
+        }
+
+        List<Map<String, Object>> results = new ArrayList<>();
+        results.add(summarize("exact", null, 1.0, exactLatencies));
+        for (int step : steps) {
+            long[] latencies = new long[queries.size()];
+            double recallSum = 0;
+            for (int i = 0; i < queries.size(); i++) {
+                KnowledgeBase query = queries.get(i);
+                long[] elapsed = new long[1];
+                List<Integer> ids = transactionTemplate.execute(status -> {
+                    if (hnsw) {
+                        knowledgeBaseMapper.setHnswEfSearch(step);
+                    } else {
+                        knowledgeBaseMapper.setIvfflatProbes(step);
+                    }
+                    long start = System.nanoTime();
+                    List<Integer> result = vectorIndexMapper.selectNearestIds(query.getEmbedding(), k);
+                    elapsed[0] = System.nanoTime() - start;
+                    return result;
+                });
+                latencies[i] = elapsed[0];
+                Set<Integer> expected = truth.get(i);
+                if (!expected.isEmpty()) {
+                    int hit = 0;
+                    for (Integer id : ids) {
+                        if (expected.contains(id)) hit++;
+                    }
+                    recallSum += (double) hit / expected.size();
+                }
+            }
+            results.add(summarize(param, step, queries.isEmpty() ? 0 : recallSum / queries.size(), latencies));
+        }
+
+        Map<String, Object> data = new HashMap<>();
+        data.put("definition", definition);
+        data.put("samples", queries.size());
+        data.put("k", k);
+        data.put("results", results);
+        return data;
+    }
+
+    private static Map<String, Object> summarize(String param, Integer value, double recall, long[] latencies) {
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        Map<String, Object> row = new HashMap<>();
+        row.put("param", param);
+        row.put("value", value);
+        row.put("recall", Math.round(recall * 1000) / 1000.0);
+        row.put("p50Ms", sorted.length == 0 ? 0 : Math.round(sorted[sorted.length / 2] / 10_000.0) / 100.0);
+        row.put("p95Ms", sorted.length == 0 ? 0 : Math.round(sorted[Math.min(sorted.length - 1, (int) (sorted.length * 0.95))] / 10_000.0) / 100.0);
+        return row;
+    }
+
+    /**
+     * 索引参数
+     * m / ef_construction 只对 HNSW 有效，lists 只对 ivfflat 有效（0 表示按段落数估算）
+     */
+    public static class IndexSpec {
+        private final String method;
+        private final int m;
+        private final int efConstruction;
+        private final int lists;
+
+        public IndexSpec(String method, int m, int efConstruction, int lists) {
+            this.method = method == null ? null : method.trim().toLowerCase();
+            this.m = m;
+            this.efConstruction = efConstruction;
+            this.lists = lists;
+        }
+
+        /**
+         * 参数会直接拼进 DDL，所以必须先校验
+         */
+        public void validate() {
+            if (!"hnsw".equals(method) && !"ivfflat".equals(method)) {
+                throw new IllegalArgumentException("索引类型只能是 hnsw 或 ivfflat");
+            }
+            if ("hnsw".equals(method)) {
+                if (m < 2 || m > 100) {
+                    throw new IllegalArgumentException("m 必须在 2 到 100 之间");
+                }
+                if (efConstruction < 4 || efConstruction > 1000 || efConstruction < 2 * m) {
+                    throw new IllegalArgumentException("ef_construction 必须在 4 到 1000 之间，且不小于 2 * m");
+                }
+            } else if (lists < 0 || lists > 32768) {
+                throw new IllegalArgumentException("lists 必须在 0 到 32768 之间（0 表示自动估算）");
+            }
+        }
+
+        /**
+         * 现有索引定义是否和这组参数一致；ivfflat 自动 lists 时只看类型，不因为数据量变化反复重建
+         */
+        public boolean matches(String definition) {
+            if (definition == null || !definition.contains("USING " + method + " ")) {
+                return false;
+            }
+            if ("hnsw".equals(method)) {
+                return definition.contains("m='" + m + "'") && definition.contains("ef_construction='" + efConstruction + "'");
+            }
+            return lists == 0 || definition.contains("lists='" + lists + "'");
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public int getM() {
+            return m;
+        }
+
+        public int getEfConstruction() {
+            return efConstruction;
+        }
+
+        public int getLists() {
+            return lists;
+        }
+
+        public Map<String, Object> describe() {
+            Map<String, Object> data = new HashMap<>();
+            data.put("type", method);
+            if ("hnsw".equals(method)) {
+                data.put("m", m);
+                data.put("ef_construction", efConstruction);
+            } else {
+                data.put("lists", lists);
+            }
+            return data;
+        }
+    }
+}
@@ -3,22 +3,33 @@ package com.example.douyinlive.typehandler;
 import com.pgvector.PGvector;
 import org.apache.ibatis.type.BaseTypeHandler;
 import org.apache.ibatis.type.JdbcType;
+import org.postgresql.PGConnection;
+import org.postgresql.util.PGobject;
 
 import java.sql.*;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 /**
  * MyBatis TypeHandler，用于处理 PGvector 类型与 PostgreSQL VECTOR 类型的映射
+ * 大白话：第一次在某个连接上用到时把 vector 类型注册给 PG 驱动，之后驱动就按 pgvector 的二进制格式
+ * （int16 维度 + int16 保留 + 大端 float4 数组）收发，不再把 1024 个浮点数转成字符串再 split 回来；
+ * 连接还没注册、或者语句还没被服务端预编译时驱动仍走文本格式，这里两种都能处理
  */
 public class PGvectorTypeHandler extends BaseTypeHandler<PGvector> {
 
+    // 已经注册过 vector 类型的物理连接，连接关闭回收后自动移除
+    private static final Map<PGConnection, Boolean> REGISTERED = Collections.synchronizedMap(new WeakHashMap<>());
+
     /**
      * 设置非空参数到 PreparedStatement
      */
     @Override
     public void setNonNullParameter(PreparedStatement ps, int i, PGvector parameter, JdbcType jdbcType) throws SQLException {
-        // PGvector 的 toString() 直接输出 VECTOR 格式（如 {0.1,0.2,...}）
-        String vectorString = parameter.toString();
-        ps.setObject(i, vectorString, Types.OTHER);
+        registerVectorType(ps.getConnection());
+        // PGvector 实现了 PGBinaryObject，注册后驱动直接写二进制，否则回退成文本
+        ps.setObject(i, parameter);
     }
 
     /**
@@ -26,8 +37,8 @@ public class PGvectorTypeHandler extends BaseTypeHandler<PGvector> {
      */
     @Override
     public PGvector getNullableResult(ResultSet rs, String columnName) throws SQLException {
-        String vectorString = rs.getString(columnName);
-        return parseVector(vectorString);
+        registerVectorType(rs.getStatement().getConnection());
+        return toVector(rs.getObject(columnName));
     }
 
     /**
@@ -35,8 +46,8 @@ public class PGvectorTypeHandler extends BaseTypeHandler<PGvector> {
      */
     @Override
     public PGvector getNullableResult(ResultSet rs, int columnIndex) throws SQLException {
-        String vectorString = rs.getString(columnIndex);
-        return parseVector(vectorString);
+        registerVectorType(rs.getStatement().getConnection());
+        return toVector(rs.getObject(columnIndex));
     }
 
     /**
@@ -44,28 +55,95 @@ public class PGvectorTypeHandler extends BaseTypeHandler<PGvector> {
      */
     @Override
     public PGvector getNullableResult(CallableStatement cs, int columnIndex) throws SQLException {
-        String vectorString = cs.getString(columnIndex);
-        return parseVector(vectorString);
+        return toVector(cs.getObject(columnIndex));
+    }
+
+    /**
+     * 在连接上注册 vector 类型，驱动据此开启该类型的二进制收发
+     */
+    private static void registerVectorType(Connection connection) throws SQLException {
+        if (connection == null || !connection.isWrapperFor(PGConnection.class)) {
+            return;
+        }
+        PGConnection pgConnection = connection.unwrap(PGConnection.class);
+        if (REGISTERED.containsKey(pgConnection)) {
+            return;
+        }
+        PGvector.addVectorType(connection);
+        REGISTERED.put(pgConnection, Boolean.TRUE);
+    }
+
+    /**
+     * 把驱动返回的对象转成 PGvector：二进制路径直接是 PGvector，
+     * 没注册类型时是 PGobject 或字符串，查询里用 vector_send(...) 取出时是 bytea
+     */
+    private static PGvector toVector(Object value) throws SQLException {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof PGvector) {
+            return (PGvector) value;
+        }
+        if (value instanceof byte[]) {
+            return decodeBinary((byte[]) value);
+        }
+        if (value instanceof PGobject) {
+            return parseText(((PGobject) value).getValue());
+        }
+        return parseText(value.toString());
+    }
+
+    /**
+     * 按 pgvector 二进制格式编码
+     */
+    public static byte[] encodeBinary(PGvector vector) {
+        byte[] bytes = new byte[vector.lengthInBytes()];
+        vector.toBytes(bytes, 0);
+        return bytes;
     }
 
     /**
-     * 解析 PostgreSQL VECTOR 字符串为 PGvector 对象
+     * 按 pgvector 二进制格式解码
      */
-    private PGvector parseVector(String vectorString) throws SQLException {
+    public static PGvector decodeBinary(byte[] bytes) throws SQLException {
+        PGvector vector = new PGvector();
+        vector.setByteValue(bytes, 0);
+        return vector;
+    }
+
+    /**
+     * 解析 PostgreSQL VECTOR 文本（[0.1,0.2,...]，兼容大括号），直接按下标扫描，不做 replace/split
+     */
+    public static PGvector parseText(String vectorString) throws SQLException {
         if (vectorString == null || vectorString.isEmpty()) {
             return null;
         }
         try {
-            // 去掉大括号，分割为 float 数组
-            String cleaned = vectorString.replace("{", "").replace("}", "");
-            String[] parts = cleaned.split(",");
-            float[] vector = new float[parts.length];
-            for (int i = 0; i < parts.length; i++) {
-                vector[i] = Float.parseFloat(parts[i].trim());
+            int start = 0;
+            int end = vectorString.length();
+            char first = vectorString.charAt(0);
+            if (first == '[' || first == '{') start++;
+            char last = vectorString.charAt(end - 1);
+            if (last == ']' || last == '}') end--;
+            if (start >= end) {
+                return new PGvector(new float[0]);
+            }
+            int count = 1;
+            for (int i = start; i < end; i++) {
+                if (vectorString.charAt(i) == ',') count++;
+            }
+            float[] vector = new float[count];
+            int index = 0;
+            int tokenStart = start;
+            for (int i = start; i <= end; i++) {
+                if (i == end || vectorString.charAt(i) == ',') {
+                    vector[index++] = Float.parseFloat(vectorString.substring(tokenStart, i).trim());
+                    tokenStart = i + 1;
+                }
             }
             return new PGvector(vector);
         } catch (Exception e) {
             throw new SQLException("Failed to parse VECTOR string: " + vectorString, e);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,55 @@
+package com.example.douyinlive.util;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 文本相似度工具类
+ * 弹幕攒批、弹幕分诊判断是不是同一个问题，知识库上下文装箱判断段落是不是重复，都用这一套
+ */
+public class TextSimilarity {
+
+    /**
+     * 去掉空白、标点和符号，英文转小写
+     * @param text 原始文本
+     * @return 规范化后的文本
+     */
+    public static String normalize(String text) {
+        StringBuilder builder = new StringBuilder();
+        text.codePoints()
+                .filter(Character::isLetterOrDigit)
+                .map(Character::toLowerCase)
+                .forEach(builder::appendCodePoint);
+        return builder.toString();
+    }
+
+    /**
+     * 字符二元组 Jaccard 相似度，单字的按整串比较
+     * @param a 规范化后的文本
+     * @param b 规范化后的文本
+     * @return 0 到 1 之间的相似度
+     */
+    public static double bigramSimilarity(String a, String b) {
+        if (a.equals(b)) {
+            return 1;
+        }
+        Set<String> bigramsA = bigrams(a);
+        Set<String> bigramsB = bigrams(b);
+        Set<String> union = new HashSet<>(bigramsA);
+        union.addAll(bigramsB);
+        bigramsA.retainAll(bigramsB);
+        return union.isEmpty() ? 0 : (double) bigramsA.size() / union.size();
+    }
+
+    private static Set<String> bigrams(String text) {
+        Set<String> bigrams = new HashSet<>();
+        if (text.length() < 2) {
+            bigrams.add(text);
+            return bigrams;
+        }
+        for (int i = 0; i + 2 <= text.length(); i++) {
+            bigrams.add(text.substring(i, i + 2));
+        }
+        return bigrams;
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.douyinlive.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 虚拟线程工具类
+ * 项目按 JDK 17 编译，虚拟线程是 JDK 21 的 API，所以通过反射创建；
+ * 跑在 JDK 21 及以上时返回每个任务一个虚拟线程的执行器，否则返回 null，由调用方退回平台线程池
+ */
+public class VirtualThreads {
+
+    /**
+     * 当前 JDK 是否支持虚拟线程
+     * @return JDK 21 及以上返回 true
+     */
+    public static boolean isSupported() {
+        return Runtime.version().feature() >= 21;
+    }
+
+    /**
+     * 创建每个任务一个虚拟线程的执行器，线程名为 namePrefix + 序号
+     * @param namePrefix 线程名前缀
+     * @return 执行器，不支持虚拟线程时返回 null
+     */
+    public static ExecutorService newPerTaskExecutor(String namePrefix) {
+        if (!isSupported()) {
+            return null;
+        }
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 1L);
+            ThreadFactory factory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+            Method newExecutor = java.util.concurrent.Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) newExecutor.invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            System.err.println("创建虚拟线程执行器失败，退回平台线程：" + e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.douyinlive.benchmark;
+
+import com.example.douyinlive.config.HttpClientConfig;
+import com.example.douyinlive.util.VirtualThreads;
+import com.sun.net.httpserver.HttpServer;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对话并发能力基准：同样 N 个同时到来的对话请求，每个都阻塞等一个慢上游（模拟大模型耗时），
+ * 比较 Tomcat 默认的 200 个平台线程和每请求一个虚拟线程时的总耗时、吞吐和延迟分布
+ * 上游是进程内的假接口，请求走和线上一样的 RestTemplate + JDK HttpClient；上游并发上限调到足够大，只看线程的影响
+ * 运行：mvn test-compile exec:java -Dexec.mainClass=com.example.douyinlive.benchmark.ChatConcurrencyBenchmark -Dexec.classpathScope=test
+ * 可选参数：bench.requests（并发请求数，默认 1000）、bench.upstream-latency-ms（上游耗时，默认 2000）、bench.platform-threads（默认 200）
+ * 虚拟线程需要 JDK 21+，JDK 17 上只跑平台线程那一组
+ */
+public class ChatConcurrencyBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int requests = Integer.getInteger("bench.requests", 1000);
+        long latencyMs = Long.getLong("bench.upstream-latency-ms", 2000);
+        int platformThreads = Integer.getInteger("bench.platform-threads", 200);
+
+        HttpServer upstream = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 4096);
+        ExecutorService upstreamExecutor = VirtualThreads.isSupported()
+                ? VirtualThreads.newPerTaskExecutor("fake-llm-")
+                : Executors.newCachedThreadPool();
+        upstream.setExecutor(upstreamExecutor);
+        byte[] reply = "{\"choices\":[{\"message\":{\"content\":\"好的\"}}]}".getBytes(StandardCharsets.UTF_8);
+        upstream.createContext("/chat/completions", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            try {
+                Thread.sleep(latencyMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, reply.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(reply);
+            }
+        });
+        upstream.start();
+        String url = "http://127.0.0.1:" + upstream.getAddress().getPort() + "/chat/completions";
+
+        System.out.printf("requests=%d upstream-latency=%dms jdk=%d%n", requests, latencyMs, Runtime.version().feature());
+        System.out.printf("%-22s %10s %12s %10s %10s%n", "mode", "total(ms)", "chats/s", "p50(ms)", "p99(ms)");
+        try {
+            ExecutorService platform = Executors.newFixedThreadPool(platformThreads);
+            run("platform-" + platformThreads, platform, url, requests, false);
+            platform.shutdown();
+
+            ExecutorService virtual = VirtualThreads.newPerTaskExecutor("chat-");
+            if (virtual != null) {
+                run("virtual", virtual, url, requests, true);
+                virtual.shutdown();
+            } else {
+                System.out.println("virtual                当前 JDK 不支持虚拟线程，跳过");
+            }
+        } finally {
+            upstream.stop(0);
+            upstreamExecutor.shutdownNow();
+        }
+    }
+
+    private static void run(String mode, ExecutorService handlers, String url, int requests, boolean virtualThreads) throws Exception {
+        HttpClientConfig config = new HttpClientConfig();
+        RestTemplate restTemplate = config.restTemplate(config.httpClient(5000, virtualThreads),
+                config.upstreamLimiter(requests, "", 600_000), 600_000);
+        Map<String, Object> body = Map.of("model", "bench", "messages", List.of(Map.of("role", "user", "content", "你好")));
+
+        long start = System.nanoTime();
+        List<Future<Long>> futures = new ArrayList<>(requests);
+        for (int i = 0; i < requests; i++) {
+            // 所有请求同一时刻到达，排队时间也算在延迟里
+            long submitted = System.nanoTime();
+            futures.add(handlers.submit(() -> {
+                restTemplate.postForEntity(url, body, Map.class);
+                return System.nanoTime() - submitted;
+            }));
+        }
+        long[] latencies = new long[requests];
+        for (int i = 0; i < requests; i++) {
+            latencies[i] = futures.get(i).get(10, TimeUnit.MINUTES);
+        }
+        long totalNanos = System.nanoTime() - start;
+        Arrays.sort(latencies);
+        System.out.printf("%-22s %10d %12.1f %10d %10d%n", mode, totalNanos / 1_000_000,
+                requests / (totalNanos / 1e9), latencies[requests / 2] / 1_000_000,
+                latencies[Math.min(requests - 1, (int) (requests * 0.99))] / 1_000_000);
+    }
+}
@@ -0,0 +1,205 @@
+package com.example.douyinlive.benchmark;
+
+import com.pgvector.PGvector;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * 多知识库过滤检索基准：智能体挂 1、5、20 个知识库时，三种写法的召回率和延迟
+ * - postfilter：直接 WHERE kb_info_id IN (...) ORDER BY embedding <=> q LIMIT k，索引扫完再过滤，可能少返回
+ * - exact：先按归属取候选（MATERIALIZED CTE），再精确排序，召回率 100%，作为标准答案
+ * - iterative：pgvector 0.8+ 的 iterative_scan = relaxed_order，索引边扫边过滤直到凑够 k 条
+ * 需要一个装了 pgvector 的 PostgreSQL，会建一张 kb_retrieval_bench 表，跑完删掉。运行：
+ * mvn test-compile exec:java -Dexec.mainClass=com.example.douyinlive.benchmark.KnowledgeBaseRetrievalBenchmark -Dexec.classpathScope=test \
+ *   -Dbench.url=jdbc:postgresql://127.0.0.1:5432/douyinlive -Dbench.user=postgres -Dbench.password=...
+ * 可选参数：bench.kbs（知识库总数，默认 40）、bench.segments（每个知识库段落数，默认 1000）、bench.dim（默认 1024）、
+ * bench.queries（每组查询数，默认 50）、bench.k（默认 3）、bench.index（ivfflat 或 hnsw，默认 ivfflat）
+ */
+public class KnowledgeBaseRetrievalBenchmark {
+
+    private static final String TABLE = "kb_retrieval_bench";
+
+    public static void main(String[] args) throws SQLException {
+        String url = System.getProperty("bench.url", "jdbc:postgresql://127.0.0.1:5432/douyinlive");
+        String user = System.getProperty("bench.user", "postgres");
+        String password = System.getProperty("bench.password", "");
+        int kbs = Integer.getInteger("bench.kbs", 40);
+        int segmentsPerKb = Integer.getInteger("bench.segments", 1000);
+        int dim = Integer.getInteger("bench.dim", 1024);
+        int queries = Integer.getInteger("bench.queries", 50);
+        int k = Integer.getInteger("bench.k", 3);
+        String index = System.getProperty("bench.index", "ivfflat");
+
+        Random random = new Random(42);
+        float[][] centers = new float[kbs][];
+        for (int i = 0; i < kbs; i++) {
+            centers[i] = randomUnit(random, dim);
+        }
+
+        try (Connection conn = DriverManager.getConnection(url, user, password)) {
+            PGvector.addVectorType(conn);
+            setup(conn, centers, segmentsPerKb, random, index);
+            boolean iterative = supportsIterativeScan(conn);
+            System.out.printf("rows=%d dim=%d index=%s iterative_scan=%s%n", kbs * segmentsPerKb, dim, index, iterative);
+            System.out.printf("%-6s %-10s %8s %10s %10s%n", "kbs", "strategy", "recall", "p50(ms)", "p95(ms)");
+            try {
+                for (int attached : new int[]{1, 5, 20}) {
+                    if (attached > kbs) continue;
+                    List<Integer> kbSet = new ArrayList<>();
+                    for (int i = 0; i < attached; i++) kbSet.add(i);
+                    List<float[]> qs = new ArrayList<>();
+                    for (int i = 0; i < queries; i++) {
+                        qs.add(perturb(centers[kbSet.get(random.nextInt(attached))], random, 0.6f));
+                    }
+                    List<Set<Integer>> truth = new ArrayList<>();
+                    for (float[] q : qs) truth.add(new HashSet<>(exact(conn, kbSet, q, k)));
+                    report(conn, "exact", attached, kbSet, qs, truth, k);
+                    report(conn, "postfilter", attached, kbSet, qs, truth, k);
+                    if (iterative) report(conn, "iterative", attached, kbSet, qs, truth, k);
+                }
+            } finally {
+                try (Statement st = conn.createStatement()) {
+                    st.execute("DROP TABLE IF EXISTS " + TABLE);
+                }
+            }
+        }
+    }
+
+    private static void setup(Connection conn, float[][] centers, int segmentsPerKb, Random random, String index) throws SQLException {
+        int dim = centers[0].length;
+        try (Statement st = conn.createStatement()) {
+            st.execute("DROP TABLE IF EXISTS " + TABLE);
+            st.execute("CREATE UNLOGGED TABLE " + TABLE + " (id serial PRIMARY KEY, kb_info_id integer NOT NULL, embedding vector(" + dim + ") NOT NULL)");
+        }
+        conn.setAutoCommit(false);
+        try (PreparedStatement ps = conn.prepareStatement("INSERT INTO " + TABLE + " (kb_info_id, embedding) VALUES (?, ?)")) {
+            for (int kb = 0; kb < centers.length; kb++) {
+                for (int i = 0; i < segmentsPerKb; i++) {
+                    ps.setInt(1, kb);
+                    ps.setObject(2, new PGvector(perturb(centers[kb], random, 0.8f)));
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+        }
+        conn.commit();
+        conn.setAutoCommit(true);
+        int rows = centers.length * segmentsPerKb;
+        try (Statement st = conn.createStatement()) {
+            st.execute("CREATE INDEX ON " + TABLE + " (kb_info_id)");
+            if ("hnsw".equals(index)) {
+                st.execute("CREATE INDEX ON " + TABLE + " USING hnsw (embedding vector_cosine_ops)");
+            } else {
+                int lists = Math.max(10, (int) Math.sqrt(rows));
+                st.execute("CREATE INDEX ON " + TABLE + " USING ivfflat (embedding vector_cosine_ops) WITH (lists = " + lists + ")");
+            }
+            st.execute("ANALYZE " + TABLE);
+        }
+    }
+
+    private static boolean supportsIterativeScan(Connection conn) throws SQLException {
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT extversion FROM pg_extension WHERE extname = 'vector'")) {
+            if (!rs.next()) return false;
+            String[] parts = rs.getString(1).split("\\.");
+            int major = Integer.parseInt(parts[0]);
+            int minor = parts.length > 1 ? Integer.parseInt(parts[1].replaceAll("\\D.*", "")) : 0;
+            return major > 0 || minor >= 8;
+        }
+    }
+
+    private static void report(Connection conn, String strategy, int attached, List<Integer> kbSet,
+                               List<float[]> qs, List<Set<Integer>> truth, int k) throws SQLException {
+        double recallSum = 0;
+        long[] latencies = new long[qs.size()];
+        for (int i = 0; i < qs.size(); i++) {
+            long start = System.nanoTime();
+            List<Integer> ids = switch (strategy) {
+                case "exact" -> exact(conn, kbSet, qs.get(i), k);
+                case "postfilter" -> postfilter(conn, kbSet, qs.get(i), k);
+                default -> iterative(conn, kbSet, qs.get(i), k);
+            };
+            latencies[i] = System.nanoTime() - start;
+            int hit = 0;
+            for (Integer id : ids) if (truth.get(i).contains(id)) hit++;
+            recallSum += (double) hit / k;
+        }
+        Arrays.sort(latencies);
+        System.out.printf("%-6d %-10s %8.3f %10.2f %10.2f%n", attached, strategy, recallSum / qs.size(),
+                latencies[latencies.length / 2] / 1e6, latencies[(int) (latencies.length * 0.95)] / 1e6);
+    }
+
+    private static String inList(List<Integer> kbSet) {
+        StringBuilder sb = new StringBuilder("(");
+        for (int i = 0; i < kbSet.size(); i++) {
+            if (i > 0) sb.append(',');
+            sb.append(kbSet.get(i));
+        }
+        return sb.append(')').toString();
+    }
+
+    private static List<Integer> exact(Connection conn, List<Integer> kbSet, float[] q, int k) throws SQLException {
+        return query(conn, "WITH c AS MATERIALIZED (SELECT id, embedding FROM " + TABLE + " WHERE kb_info_id IN " + inList(kbSet) + ") " +
+                "SELECT id FROM c ORDER BY embedding <=> ? LIMIT " + k, q);
+    }
+
+    private static List<Integer> postfilter(Connection conn, List<Integer> kbSet, float[] q, int k) throws SQLException {
+        return query(conn, "SELECT id FROM " + TABLE + " WHERE kb_info_id IN " + inList(kbSet) + " ORDER BY embedding <=> ? LIMIT " + k, q);
+    }
+
+    private static List<Integer> iterative(Connection conn, List<Integer> kbSet, float[] q, int k) throws SQLException {
+        conn.setAutoCommit(false);
+        try (Statement st = conn.createStatement()) {
+            st.execute("SELECT set_config('ivfflat.iterative_scan', 'relaxed_order', true), set_config('hnsw.iterative_scan', 'relaxed_order', true)");
+            List<Integer> ids = query(conn, "WITH r AS MATERIALIZED (SELECT id, embedding <=> ? AS distance FROM " + TABLE +
+                    " WHERE kb_info_id IN " + inList(kbSet) + " ORDER BY distance LIMIT " + k + ") SELECT id FROM r ORDER BY distance", q);
+            conn.commit();
+            return ids;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    private static List<Integer> query(Connection conn, String sql, float[] q) throws SQLException {
+        List<Integer> ids = new ArrayList<>();
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setObject(1, new PGvector(q));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) ids.add(rs.getInt(1));
+            }
+        }
+        return ids;
+    }
+
+    private static float[] randomUnit(Random random, int dim) {
+        float[] v = new float[dim];
+        for (int i = 0; i < dim; i++) v[i] = (float) random.nextGaussian();
+        return normalize(v);
+    }
+
+    private static float[] perturb(float[] center, Random random, float noise) {
+        float[] v = new float[center.length];
+        float scale = noise / (float) Math.sqrt(center.length);
+        for (int i = 0; i < v.length; i++) v[i] = center[i] + (float) random.nextGaussian() * scale;
+        return normalize(v);
+    }
+
+    private static float[] normalize(float[] v) {
+        double norm = 0;
+        for (float x : v) norm += x * x;
+        norm = Math.sqrt(norm);
+        for (int i = 0; i < v.length; i++) v[i] /= norm;
+        return v;
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.douyinlive.benchmark;
+
+import com.example.douyinlive.typehandler.PGvectorTypeHandler;
+import com.pgvector.PGvector;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PGvectorTypeHandler 编解码基准：原来的文本路径 vs 二进制路径，1024 维
+ * 运行：mvn test-compile exec:java -Dexec.mainClass=com.example.douyinlive.benchmark.PGvectorCodecBenchmark -Dexec.classpathScope=test
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PGvectorCodecBenchmark {
+
+    @Param({"1024"})
+    private int dimension;
+
+    private PGvector vector;
+    private String text;
+    private byte[] binary;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        float[] values = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            values[i] = random.nextFloat() * 2 - 1;
+        }
+        vector = new PGvector(values);
+        text = vector.getValue();
+        binary = PGvectorTypeHandler.encodeBinary(vector);
+    }
+
+    /**
+     * 原来的写入路径：toString 成文本
+     */
+    @Benchmark
+    public String encodeText() {
+        return vector.toString();
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        return PGvectorTypeHandler.encodeBinary(vector);
+    }
+
+    /**
+     * 原来的读取路径：replace 去括号、split、逐个 parseFloat
+     */
+    @Benchmark
+    public PGvector decodeTextLegacy() {
+        String cleaned = text.replace("[", "").replace("]", "").replace("{", "").replace("}", "");
+        String[] parts = cleaned.split(",");
+        float[] values = new float[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Float.parseFloat(parts[i].trim());
+        }
+        return new PGvector(values);
+    }
+
+    /**
+     * 现在的文本回退路径：按下标扫描
+     */
+    @Benchmark
+    public PGvector decodeText() throws SQLException {
+        return PGvectorTypeHandler.parseText(text);
+    }
+
+    @Benchmark
+    public PGvector decodeBinary() throws SQLException {
+        return PGvectorTypeHandler.decodeBinary(binary);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(PGvectorCodecBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,235 @@
+package com.example.douyinlive.config;
+
+import jakarta.websocket.RemoteEndpoint;
+import jakarta.websocket.SendHandler;
+import jakarta.websocket.SendResult;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.withSettings;
+import static org.mockito.Mockito.when;
+
+/**
+ * 会话发送队列的三种溢出策略：drop-oldest、coalesce、disconnect，以及异步发送不占发送线程
+ * 发送线程池换成手动执行的列表，队列里的消息只有调用 runSender() 才会发出去
+ */
+class SessionOutboxTest {
+
+    private final WebSocketSession session = mock(WebSocketSession.class);
+    private final List<Runnable> senderTasks = new ArrayList<>();
+    // 发出去的消息内容，按顺序
+    private final List<String> sent = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        when(session.getId()).thenReturn("s1");
+        when(session.isOpen()).thenReturn(true);
+        doAnswer(invocation -> {
+            sent.add(((TextMessage) invocation.getArgument(0)).getPayload());
+            return null;
+        }).when(session).sendMessage(any());
+    }
+
+    private SessionOutbox outbox(int maxMessages, int maxBytes, SessionOutbox.OverflowPolicy policy) {
+        return new SessionOutbox(session, senderTasks::add, maxMessages, maxBytes, 10_000, policy);
+    }
+
+    private void runSender() {
+        while (!senderTasks.isEmpty()) {
+            senderTasks.remove(0).run();
+        }
+    }
+
+    @Test
+    void policyParsesConfigValues() {
+        assertEquals(SessionOutbox.OverflowPolicy.DROP_OLDEST, SessionOutbox.OverflowPolicy.of("drop-oldest"));
+        assertEquals(SessionOutbox.OverflowPolicy.COALESCE, SessionOutbox.OverflowPolicy.of(" Coalesce "));
+        assertEquals(SessionOutbox.OverflowPolicy.DISCONNECT, SessionOutbox.OverflowPolicy.of("disconnect"));
+        assertEquals(SessionOutbox.OverflowPolicy.DROP_OLDEST, SessionOutbox.OverflowPolicy.of("unknown"));
+    }
+
+    @Test
+    void dropOldestKeepsNewestMessages() {
+        SessionOutbox outbox = outbox(2, 1 << 20, SessionOutbox.OverflowPolicy.DROP_OLDEST);
+
+        assertEquals(SessionOutbox.Result.QUEUED, outbox.offer(new TextMessage("1"), null));
+        assertEquals(SessionOutbox.Result.QUEUED, outbox.offer(new TextMessage("2"), null));
+        assertEquals(SessionOutbox.Result.DROPPED_OLDEST, outbox.offer(new TextMessage("3"), null));
+        assertEquals(2, outbox.size());
+        assertEquals(1, outbox.getDropped());
+        // 只起了一个发送任务
+        assertEquals(1, senderTasks.size());
+
+        runSender();
+        assertEquals(List.of("2", "3"), sent);
+        assertEquals(2, outbox.getSent());
+        assertEquals(0, outbox.size());
+    }
+
+    @Test
+    void byteLimitAlsoDropsOldest() {
+        // 每条按 UTF-16 长度 * 2 估算，"aaaa" 占 8 字节
+        SessionOutbox outbox = outbox(100, 16, SessionOutbox.OverflowPolicy.DROP_OLDEST);
+
+        outbox.offer(new TextMessage("aaaa"), null);
+        outbox.offer(new TextMessage("bbbb"), null);
+        assertEquals(SessionOutbox.Result.DROPPED_OLDEST, outbox.offer(new TextMessage("cccc"), null));
+
+        runSender();
+        assertEquals(List.of("bbbb", "cccc"), sent);
+    }
+
+    @Test
+    void coalesceReplacesQueuedMessageInPlace() {
+        SessionOutbox outbox = outbox(10, 1 << 20, SessionOutbox.OverflowPolicy.COALESCE);
+
+        outbox.offer(new TextMessage("enter-1"), "enter_room");
+        outbox.offer(new TextMessage("chat"), null);
+        assertEquals(SessionOutbox.Result.COALESCED, outbox.offer(new TextMessage("enter-2"), "enter_room"));
+        assertEquals(2, outbox.size());
+        assertEquals(1, outbox.getCoalesced());
+
+        runSender();
+        assertEquals(List.of("enter-2", "chat"), sent);
+    }
+
+    @Test
+    void coalesceWithoutMatchFallsBackToDropOldest() {
+        SessionOutbox outbox = outbox(2, 1 << 20, SessionOutbox.OverflowPolicy.COALESCE);
+
+        outbox.offer(new TextMessage("1"), null);
+        outbox.offer(new TextMessage("2"), null);
+        assertEquals(SessionOutbox.Result.DROPPED_OLDEST, outbox.offer(new TextMessage("enter"), "enter_room"));
+
+        runSender();
+        assertEquals(List.of("2", "enter"), sent);
+    }
+
+    @Test
+    void coalesceKeyIgnoredUnderOtherPolicies() {
+        SessionOutbox outbox = outbox(10, 1 << 20, SessionOutbox.OverflowPolicy.DROP_OLDEST);
+
+        outbox.offer(new TextMessage("enter-1"), "enter_room");
+        assertEquals(SessionOutbox.Result.QUEUED, outbox.offer(new TextMessage("enter-2"), "enter_room"));
+        assertEquals(2, outbox.size());
+    }
+
+    @Test
+    void disconnectClosesSessionWhenFull() throws IOException {
+        SessionOutbox outbox = outbox(1, 1 << 20, SessionOutbox.OverflowPolicy.DISCONNECT);
+
+        assertEquals(SessionOutbox.Result.QUEUED, outbox.offer(new TextMessage("1"), null));
+        assertEquals(SessionOutbox.Result.DISCONNECTED, outbox.offer(new TextMessage("2"), null));
+        verify(session).close(SessionOutbox.OVERFLOW);
+        assertEquals(0, outbox.size());
+        assertEquals(SessionOutbox.Result.CLOSED, outbox.offer(new TextMessage("3"), null));
+
+        runSender();
+        assertEquals(List.of(), sent);
+    }
+
+    @Test
+    void sendFailureDisconnects() throws IOException {
+        doThrow(new IOException("broken pipe")).when(session).sendMessage(any());
+        SessionOutbox outbox = outbox(10, 1 << 20, SessionOutbox.OverflowPolicy.DROP_OLDEST);
+
+        outbox.offer(new TextMessage("1"), null);
+        outbox.offer(new TextMessage("2"), null);
+        runSender();
+
+        verify(session).close(SessionOutbox.OVERFLOW);
+        assertEquals(0, outbox.size());
+        assertEquals(SessionOutbox.Result.CLOSED, outbox.offer(new TextMessage("3"), null));
+    }
+
+    @Test
+    void closedSessionStopsDraining() throws IOException {
+        SessionOutbox outbox = outbox(10, 1 << 20, SessionOutbox.OverflowPolicy.DROP_OLDEST);
+        outbox.offer(new TextMessage("1"), null);
+        when(session.isOpen()).thenReturn(false);
+
+        runSender();
+
+        verify(session, never()).sendMessage(any());
+        assertEquals(SessionOutbox.Result.CLOSED, outbox.offer(new TextMessage("2"), null));
+    }
+
+    /**
+     * 带容器原生会话的 mock，异步发送的回调由测试手动触发
+     */
+    private WebSocketSession nativeSession(RemoteEndpoint.Async async) {
+        WebSocketSession standard = mock(WebSocketSession.class, withSettings().extraInterfaces(NativeWebSocketSession.class));
+        jakarta.websocket.Session container = mock(jakarta.websocket.Session.class);
+        when(standard.getId()).thenReturn("s2");
+        when(standard.isOpen()).thenReturn(true);
+        when(((NativeWebSocketSession) standard).getNativeSession(jakarta.websocket.Session.class)).thenReturn(container);
+        when(container.getAsyncRemote()).thenReturn(async);
+        return standard;
+    }
+
+    @Test
+    void asyncSendFreesSenderThreadUntilCompletion() throws IOException {
+        RemoteEndpoint.Async async = mock(RemoteEndpoint.Async.class);
+        WebSocketSession standard = nativeSession(async);
+        SessionOutbox outbox = new SessionOutbox(standard, senderTasks::add, 10, 1 << 20, 10_000, SessionOutbox.OverflowPolicy.DROP_OLDEST);
+        verify(async).setSendTimeout(10_000);
+
+        outbox.offer(new TextMessage("1"), null);
+        outbox.offer(new TextMessage("2"), null);
+        runSender();
+
+        // 发送线程只交出第一条就返回，第二条等回调
+        ArgumentCaptor<SendHandler> handler = ArgumentCaptor.forClass(SendHandler.class);
+        verify(async).sendText(eq("1"), handler.capture());
+        verify(async, never()).sendText(eq("2"), any(SendHandler.class));
+        verify(standard, never()).sendMessage(any());
+        assertEquals(1, outbox.size());
+
+        handler.getValue().onResult(new SendResult());
+        runSender();
+        verify(async).sendText(eq("2"), handler.capture());
+        handler.getValue().onResult(new SendResult());
+        runSender();
+
+        assertEquals(2, outbox.getSent());
+        verify(async, times(2)).sendText(anyString(), any(SendHandler.class));
+    }
+
+    @Test
+    void asyncSendFailureDisconnects() throws IOException {
+        RemoteEndpoint.Async async = mock(RemoteEndpoint.Async.class);
+        WebSocketSession standard = nativeSession(async);
+        SessionOutbox outbox = new SessionOutbox(standard, senderTasks::add, 10, 1 << 20, 10_000, SessionOutbox.OverflowPolicy.DROP_OLDEST);
+
+        outbox.offer(new TextMessage("1"), null);
+        outbox.offer(new TextMessage("2"), null);
+        runSender();
+        ArgumentCaptor<SendHandler> handler = ArgumentCaptor.forClass(SendHandler.class);
+        verify(async).sendText(eq("1"), handler.capture());
+
+        // 容器发送超时
+        handler.getValue().onResult(new SendResult(new IOException("send timeout")));
+
+        verify(standard).close(SessionOutbox.OVERFLOW);
+        assertEquals(0, outbox.size());
+        assertEquals(SessionOutbox.Result.CLOSED, outbox.offer(new TextMessage("3"), null));
+    }
+}
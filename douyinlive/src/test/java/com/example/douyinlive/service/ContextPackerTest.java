@@ -0,0 +1,87 @@
+package com.example.douyinlive.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 知识库内容装箱：去重、剪掉首尾重叠、按 Token 预算截断（没配词表，按估算数 Token）
+ */
+class ContextPackerTest {
+
+    private final QwenTokenizer tokenizer = new QwenTokenizer();
+    private ContextPacker packer;
+
+    @BeforeEach
+    void setUp() {
+        packer = new ContextPacker();
+        ReflectionTestUtils.setField(packer, "tokenizer", tokenizer);
+        ReflectionTestUtils.setField(packer, "maxTokens", 1500);
+        ReflectionTestUtils.setField(packer, "minSegmentTokens", 4);
+        ReflectionTestUtils.setField(packer, "dedupSimilarity", 0.85);
+        ReflectionTestUtils.setField(packer, "minOverlapChars", 16);
+    }
+
+    @Test
+    void nearDuplicatesAndContainedSegmentsAreSkipped() {
+        List<String> packed = packer.pack(List.of(
+                "今天所有商品都包邮，下单就送小样。",
+                "今天所有商品都包邮，下单就送小样！",
+                "所有商品都包邮",
+                "退货需要在七天之内联系客服。"));
+
+        assertEquals(List.of("今天所有商品都包邮，下单就送小样。", "退货需要在七天之内联系客服。"), packed);
+    }
+
+    @Test
+    void overlapWithSelectedSegmentIsTrimmed() {
+        String overlap = "重叠部分一二三四五六七八九十甲乙丙丁戊己";
+        List<String> packed = packer.pack(List.of("前面的内容。" + overlap, overlap + "后面的内容。"));
+
+        assertEquals(List.of("前面的内容。" + overlap, "后面的内容。"), packed);
+    }
+
+    @Test
+    void shortOverlapIsKept() {
+        List<String> packed = packer.pack(List.of("发货时间是四十八小时", "四十八小时内没发货可以退款"));
+
+        assertEquals(List.of("发货时间是四十八小时", "四十八小时内没发货可以退款"), packed);
+    }
+
+    @Test
+    void lastSegmentIsTruncatedAtSentenceEnd() {
+        String text = "第一句话讲的是发货时间。第二句话讲的是退换货政策。第三句话讲的是优惠券怎么领取。";
+
+        List<String> packed = packer.pack(List.of(text), 20);
+
+        assertEquals(List.of("第一句话讲的是发货时间。第二句话讲的是退换货政策。"), packed);
+        assertTrue(tokenizer.count(packed.get(0)) <= 20);
+    }
+
+    @Test
+    void tinyRemainingBudgetIsLeftEmpty() {
+        String first = "第一句话讲的是发货时间。第二句话讲的是退换货政策。";
+        int budget = tokenizer.count(first) + 3;
+
+        List<String> packed = packer.pack(List.of(first, "第三句话讲的是优惠券怎么领取。"), budget);
+
+        assertEquals(List.of(first), packed);
+    }
+
+    @Test
+    void blankCandidatesAreIgnored() {
+        assertEquals(List.of("有内容"), packer.pack(List.of("  ", "有内容", "")));
+    }
+
+    @Test
+    void overlapCountsLongestSuffixPrefixMatch() {
+        assertEquals(3, ContextPacker.overlap("abcdef", "defgh"));
+        assertEquals(0, ContextPacker.overlap("abc", "xyz"));
+        assertEquals(3, ContextPacker.overlap("abc", "abc"));
+    }
+}
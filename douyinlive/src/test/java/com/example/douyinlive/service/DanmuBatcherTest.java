@@ -0,0 +1,73 @@
+package com.example.douyinlive.service;
+
+import com.example.douyinlive.entity.Agent;
+import com.example.douyinlive.mapper.AgentMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 弹幕攒批只在高峰期收问题，平时弹幕照旧由前端一条条回复
+ * 攒批窗口设得很长，测试里不会真的去调大模型
+ */
+class DanmuBatcherTest {
+
+    private final AgentMapper agentMapper = mock(AgentMapper.class);
+    private DanmuBatcher batcher;
+
+    @BeforeEach
+    void setUp() {
+        batcher = new DanmuBatcher(1);
+        ReflectionTestUtils.setField(batcher, "agentMapper", agentMapper);
+        ReflectionTestUtils.setField(batcher, "enabled", true);
+        ReflectionTestUtils.setField(batcher, "windowMs", 60_000L);
+        ReflectionTestUtils.setField(batcher, "maxQuestions", 100);
+        ReflectionTestUtils.setField(batcher, "similarity", 0.6);
+        ReflectionTestUtils.setField(batcher, "peakRate", 1.0);
+        ReflectionTestUtils.setField(batcher, "rateWindowMs", 3000L);
+
+        Agent agent = new Agent();
+        agent.setId(5);
+        agent.setUserId(3);
+        when(agentMapper.selectAgentById(5)).thenReturn(agent);
+    }
+
+    @AfterEach
+    void tearDown() {
+        batcher.shutdown();
+    }
+
+    @Test
+    void roomNotEnabledIsNeverBatched() {
+        for (int i = 0; i < 5; i++) {
+            assertFalse(batcher.offer("主播", "观众", "第" + i + "个问题"));
+        }
+    }
+
+    @Test
+    void batchesOnlyOncePeakRateIsReached() {
+        assertTrue(batcher.enable("主播", 3, 5));
+
+        // 3 秒窗口、每秒 1 条：前两条弹幕不到高峰，留给前端回复
+        assertFalse(batcher.offer("主播", "甲", "主播好"));
+        assertFalse(batcher.offer("主播", "乙", "今天播多久"));
+        assertTrue(batcher.offer("主播", "丙", "这个多少钱"));
+        assertTrue(batcher.offer("主播", "丁", "有优惠吗"));
+    }
+
+    @Test
+    void disableDropsRoom() {
+        assertTrue(batcher.enable("主播", 3, 5));
+        batcher.disable("主播");
+
+        for (int i = 0; i < 5; i++) {
+            assertFalse(batcher.offer("主播", "观众", "第" + i + "个问题"));
+        }
+    }
+}
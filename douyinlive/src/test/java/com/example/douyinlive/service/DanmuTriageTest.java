@@ -0,0 +1,228 @@
+package com.example.douyinlive.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * 弹幕分诊：分类、积压时丢低价值类别、满了淘汰优先级最低的、出队按优先级
+ * 放行线程池换成 mock，队列里的消息只有手动跑放行任务才会出来
+ */
+class DanmuTriageTest {
+
+    private DanmuTriage triage;
+    private ScheduledExecutorService drainExecutor;
+    // 放行出来的消息内容，按顺序
+    private final List<String> delivered = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        triage = create(100, "", 0.5, "");
+    }
+
+    private DanmuTriage create(int capacity, String shedClasses, double shedThreshold, String classRates) {
+        DanmuTriage triage = new DanmuTriage();
+        ReflectionTestUtils.setField(triage, "enabled", true);
+        ReflectionTestUtils.setField(triage, "capacity", capacity);
+        ReflectionTestUtils.setField(triage, "maxPerSecond", 0.0);
+        ReflectionTestUtils.setField(triage, "maxAgeMs", 60_000L);
+        ReflectionTestUtils.setField(triage, "priorities", "purchase,question,first-time,chat,enter");
+        ReflectionTestUtils.setField(triage, "purchaseKeywords", "多少钱,链接");
+        ReflectionTestUtils.setField(triage, "classRates", classRates);
+        ReflectionTestUtils.setField(triage, "shedClasses", shedClasses);
+        ReflectionTestUtils.setField(triage, "shedThreshold", shedThreshold);
+        ReflectionTestUtils.setField(triage, "dedupWindowMs", 10_000L);
+        ReflectionTestUtils.setField(triage, "viewerLimit", 3);
+        ReflectionTestUtils.setField(triage, "viewerWindowMs", 10_000L);
+        ReflectionTestUtils.setField(triage, "workers", 1);
+        triage.init();
+        triage.shutdown();
+        drainExecutor = mock(ScheduledExecutorService.class);
+        ReflectionTestUtils.setField(triage, "drainExecutor", drainExecutor);
+        triage.setDelivery((username, message) -> delivered.add(content(message)));
+        return triage;
+    }
+
+    private static Map<String, Object> chat(String viewerId, String content) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("user_id", viewerId);
+        data.put("user_name", "观众" + viewerId);
+        data.put("content", content);
+        Map<String, Object> message = new HashMap<>();
+        message.put("type", "chat");
+        message.put("data", data);
+        return message;
+    }
+
+    private static Map<String, Object> enter(String viewerId) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("viewer_id", viewerId);
+        data.put("viewer_name", "观众" + viewerId);
+        Map<String, Object> message = new HashMap<>();
+        message.put("type", "enter_room");
+        message.put("data", data);
+        return message;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String content(Map<String, Object> message) {
+        Map<String, Object> data = (Map<String, Object>) message.get("data");
+        return "enter_room".equals(message.get("type")) ? "进场" + data.get("viewer_id") : (String) data.get("content");
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> category(String key) {
+        Map<String, Object> categories = (Map<String, Object>) triage.snapshot("主播").get("categories");
+        return (Map<String, Object>) categories.get(key);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Long> dropped(String key) {
+        return (Map<String, Long>) category(key).get("dropped");
+    }
+
+    private void runDrain() {
+        ArgumentCaptor<Runnable> drain = ArgumentCaptor.forClass(Runnable.class);
+        verify(drainExecutor, times(1)).execute(drain.capture());
+        drain.getValue().run();
+    }
+
+    @Test
+    void classifiesByKeywordQuestionAndFirstMessage() {
+        Map<String, Object> purchase = chat("1", "这个多少钱");
+        Map<String, Object> question = chat("2", "能发顺丰吗");
+        Map<String, Object> first = chat("3", "主播好漂亮");
+        Map<String, Object> second = chat("3", "今天好热");
+        Map<String, Object> entering = enter("4");
+
+        for (Map<String, Object> message : List.of(purchase, question, first, second, entering)) {
+            assertTrue(triage.offer("主播", message));
+        }
+
+        assertEquals("purchase", purchase.get("category"));
+        assertEquals("question", question.get("category"));
+        assertEquals("first-time", first.get("category"));
+        assertEquals("chat", second.get("category"));
+        assertEquals("enter", entering.get("category"));
+        assertEquals(5, triage.snapshot("主播").get("depth"));
+    }
+
+    @Test
+    void duplicateTextWithinWindowIsDropped() {
+        assertTrue(triage.offer("主播", chat("1", "主播好漂亮")));
+        // 只差标点和大小写也算同一句
+        assertFalse(triage.offer("主播", chat("2", "主播好漂亮！！")));
+
+        assertEquals(Map.of("duplicate", 1L), dropped("spam"));
+        assertEquals(1, triage.snapshot("主播").get("depth"));
+    }
+
+    @Test
+    void viewerOverLimitIsSpam() {
+        for (int i = 0; i < 3; i++) {
+            assertTrue(triage.offer("主播", chat("1", "第" + i + "句")));
+        }
+        assertFalse(triage.offer("主播", chat("1", "第3句")));
+        // 别的观众不受影响
+        assertTrue(triage.offer("主播", chat("2", "第4句")));
+
+        assertEquals(Map.of("spam", 1L), dropped("spam"));
+    }
+
+    @Test
+    void classRateLimitsEnterMessages() {
+        triage = create(100, "", 0.5, "enter:1");
+
+        assertTrue(triage.offer("主播", enter("1")));
+        assertFalse(triage.offer("主播", enter("2")));
+        assertTrue(triage.offer("主播", chat("3", "这个多少钱")));
+
+        assertEquals(Map.of("rate_limited", 1L), dropped("enter"));
+    }
+
+    @Test
+    void shedsLowValueClassesWhenBacklogged() {
+        triage = create(4, "enter", 0.5, "");
+
+        assertTrue(triage.offer("主播", enter("1")));
+        assertTrue(triage.offer("主播", chat("2", "这个多少钱")));
+        // 积压到一半，进场直接丢，问价格照收
+        assertFalse(triage.offer("主播", enter("3")));
+        assertTrue(triage.offer("主播", chat("4", "链接在哪")));
+
+        assertEquals(Map.of("shed", 1L), dropped("enter"));
+        assertEquals(3, triage.snapshot("主播").get("depth"));
+    }
+
+    @Test
+    void fullQueueEvictsOldestOfLowestPriority() {
+        triage = create(2, "", 0.5, "");
+
+        assertTrue(triage.offer("主播", enter("1")));
+        assertTrue(triage.offer("主播", enter("2")));
+        // 问价格挤掉最早的进场
+        assertTrue(triage.offer("主播", chat("3", "这个多少钱")));
+        assertTrue(triage.offer("主播", chat("4", "链接在哪")));
+        // 队列里全是问价格，新来的进场比它们都低，直接丢
+        assertFalse(triage.offer("主播", enter("5")));
+
+        assertEquals(Map.of("overflow", 3L), dropped("enter"));
+        assertEquals(2, category("purchase").get("depth"));
+
+        runDrain();
+        assertEquals(List.of("这个多少钱", "链接在哪"), delivered);
+    }
+
+    @Test
+    void fullQueueEvictsOldestOfSameClass() {
+        triage = create(2, "", 0.5, "");
+
+        assertTrue(triage.offer("主播", chat("1", "这个多少钱")));
+        assertTrue(triage.offer("主播", chat("2", "链接在哪")));
+        assertTrue(triage.offer("主播", chat("3", "多少钱包邮")));
+
+        assertEquals(Map.of("overflow", 1L), dropped("purchase"));
+        runDrain();
+        assertEquals(List.of("链接在哪", "多少钱包邮"), delivered);
+    }
+
+    @Test
+    void drainsByPriorityThenArrival() {
+        triage.offer("主播", enter("1"));
+        triage.offer("主播", chat("2", "主播好漂亮"));
+        triage.offer("主播", chat("2", "今天好热"));
+        triage.offer("主播", chat("3", "能发顺丰吗"));
+        triage.offer("主播", chat("4", "这个多少钱"));
+
+        runDrain();
+
+        assertEquals(List.of("这个多少钱", "能发顺丰吗", "主播好漂亮", "今天好热", "进场1"), delivered);
+        assertEquals(0, triage.snapshot("主播").get("depth"));
+        assertEquals(1L, category("purchase").get("delivered"));
+    }
+
+    @Test
+    void staleMessagesAreDroppedOnDrain() {
+        ReflectionTestUtils.setField(triage, "maxAgeMs", -1L);
+        triage.offer("主播", chat("1", "主播好漂亮"));
+
+        runDrain();
+
+        assertEquals(List.of(), delivered);
+        assertEquals(Map.of("stale", 1L), dropped("first-time"));
+    }
+}
@@ -0,0 +1,323 @@
+package com.example.douyinlive.service;
+
+import com.example.douyinlive.entity.KnowledgeBase;
+import com.example.douyinlive.entity.KnowledgeBaseInfo;
+import com.example.douyinlive.mapper.KnowledgeBaseInfoMapper;
+import com.example.douyinlive.mapper.KnowledgeBaseMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 增量更新的比对逻辑：没变的段落不重新向量化，序号始终等于段落在新文件里的位置
+ * mapper 是 mock，但按表上的两个唯一约束（kb_id、(kb_info_id, ordinal)）检查每条语句，撞了就抛异常
+ */
+class KnowledgeBaseIngestionPipelineTest {
+
+    private final KnowledgeBaseMapper knowledgeBaseMapper = mock(KnowledgeBaseMapper.class);
+    private final KnowledgeBaseInfoMapper knowledgeBaseInfoMapper = mock(KnowledgeBaseInfoMapper.class);
+    private final EmbeddingClient embeddingClient = mock(EmbeddingClient.class);
+    private final SemanticAnswerCache semanticAnswerCache = mock(SemanticAnswerCache.class);
+    private final PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+
+    private KnowledgeBaseIngestionPipeline pipeline;
+    private KnowledgeBaseInfo info;
+
+    // 每次 batchRenumberSegments 调用里的 "id:序号:kb_id"
+    private final List<List<String>> renumbered = new ArrayList<>();
+    // 每次 updateKnowledgeBase 调用时的 "id:序号:kb_id:内容"
+    private final List<String> updated = new ArrayList<>();
+    // 向量化过的段落
+    private final List<String> embedded = new ArrayList<>();
+
+    // 模拟的表：行 ID -> kb_id、行 ID -> 序号
+    private final Map<Integer, String> liveKbIds = new HashMap<>();
+    private final Map<Integer, Integer> liveOrdinals = new HashMap<>();
+    private int nextId = 1000;
+
+    @BeforeEach
+    void setUp() {
+        pipeline = new KnowledgeBaseIngestionPipeline(1, transactionManager);
+        ReflectionTestUtils.setField(pipeline, "knowledgeBaseMapper", knowledgeBaseMapper);
+        ReflectionTestUtils.setField(pipeline, "knowledgeBaseInfoMapper", knowledgeBaseInfoMapper);
+        ReflectionTestUtils.setField(pipeline, "embeddingClient", embeddingClient);
+        ReflectionTestUtils.setField(pipeline, "semanticAnswerCache", semanticAnswerCache);
+        ReflectionTestUtils.setField(pipeline, "batchSize", 40);
+        ReflectionTestUtils.setField(pipeline, "maxLines", 10);
+
+        info = new KnowledgeBaseInfo();
+        info.setId(7);
+        info.setUserId(3);
+        info.setKbId("kb");
+
+        when(embeddingClient.embedAll(anyList())).thenAnswer(invocation -> {
+            List<String> segments = invocation.getArgument(0);
+            embedded.addAll(segments);
+            List<float[]> vectors = new ArrayList<>();
+            for (int i = 0; i < segments.size(); i++) {
+                vectors.add(new float[]{1, 0});
+            }
+            return vectors;
+        });
+        when(knowledgeBaseInfoMapper.touchKnowledgeBaseInfo(eq(7), any())).thenReturn(1);
+        when(knowledgeBaseMapper.batchRenumberSegments(anyList())).thenAnswer(invocation -> {
+            List<KnowledgeBase> batch = invocation.getArgument(0);
+            List<String> rows = new ArrayList<>();
+            for (KnowledgeBase kb : batch) {
+                rows.add(kb.getId() + ":" + kb.getOrdinal() + ":" + kb.getKbId());
+            }
+            renumbered.add(rows);
+            write(batch);
+            return batch.size();
+        });
+        when(knowledgeBaseMapper.updateKnowledgeBase(any())).thenAnswer(invocation -> {
+            KnowledgeBase kb = invocation.getArgument(0);
+            updated.add(kb.getId() + ":" + kb.getOrdinal() + ":" + kb.getKbId() + ":" + kb.getContent());
+            write(List.of(kb));
+            return 1;
+        });
+        when(knowledgeBaseMapper.batchInsertKnowledgeBase(anyList())).thenAnswer(invocation -> {
+            List<KnowledgeBase> batch = invocation.getArgument(0);
+            List<KnowledgeBase> rows = new ArrayList<>();
+            for (KnowledgeBase kb : batch) {
+                KnowledgeBase row = new KnowledgeBase();
+                row.setId(nextId++);
+                row.setOrdinal(kb.getOrdinal());
+                row.setKbId(kb.getKbId());
+                rows.add(row);
+            }
+            write(rows);
+            return batch.size();
+        });
+        when(knowledgeBaseMapper.deleteKnowledgeBasesByUserIdAndKbIds(anyInt(), anyList())).thenAnswer(invocation -> {
+            List<String> kbIds = invocation.getArgument(1);
+            List<Integer> ids = new ArrayList<>();
+            liveKbIds.forEach((id, kbId) -> {
+                if (kbIds.contains(kbId)) {
+                    ids.add(id);
+                }
+            });
+            ids.forEach(id -> {
+                liveKbIds.remove(id);
+                liveOrdinals.remove(id);
+            });
+            return ids.size();
+        });
+    }
+
+    /**
+     * 一条语句写这些行：Postgres 逐行检查唯一约束、行的顺序不定，所以新值不能被语句开始时的其他行占着，语句内也不能重复
+     */
+    private void write(List<KnowledgeBase> rows) {
+        Set<String> kbIds = new HashSet<>();
+        Set<Integer> ordinals = new HashSet<>();
+        for (KnowledgeBase kb : rows) {
+            liveKbIds.forEach((id, kbId) -> {
+                if (!id.equals(kb.getId()) && kbId.equals(kb.getKbId())) {
+                    throw new IllegalStateException("kb_id 撞了唯一约束：" + kbId);
+                }
+            });
+            liveOrdinals.forEach((id, ordinal) -> {
+                if (!id.equals(kb.getId()) && ordinal.equals(kb.getOrdinal())) {
+                    throw new IllegalStateException("序号撞了唯一索引：" + ordinal);
+                }
+            });
+            if (!kbIds.add(kb.getKbId()) || !ordinals.add(kb.getOrdinal())) {
+                throw new IllegalStateException("同一条语句里 kb_id 或序号重复：" + kb.getKbId());
+            }
+        }
+        for (KnowledgeBase kb : rows) {
+            liveKbIds.put(kb.getId(), kb.getKbId());
+            liveOrdinals.put(kb.getId(), kb.getOrdinal());
+        }
+    }
+
+    /**
+     * 更新完表里每个位置上的 kb_id
+     */
+    private List<String> table() {
+        List<Integer> ids = new ArrayList<>(liveOrdinals.keySet());
+        ids.sort(Comparator.comparing(liveOrdinals::get));
+        List<String> kbIds = new ArrayList<>();
+        for (Integer id : ids) {
+            kbIds.add(liveOrdinals.get(id) + ":" + liveKbIds.get(id));
+        }
+        return kbIds;
+    }
+
+    @AfterEach
+    void tearDown() {
+        pipeline.shutdown();
+    }
+
+    private void existing(String... contents) {
+        List<KnowledgeBase> rows = new ArrayList<>();
+        for (int i = 0; i < contents.length; i++) {
+            KnowledgeBase kb = new KnowledgeBase();
+            kb.setId(100 + i);
+            kb.setUserId(3);
+            kb.setKbInfoId(7);
+            kb.setOrdinal(i);
+            kb.setKbId("kb_" + i);
+            kb.setContent(contents[i]);
+            rows.add(kb);
+            liveKbIds.put(kb.getId(), kb.getKbId());
+            liveOrdinals.put(kb.getId(), kb.getOrdinal());
+        }
+        when(knowledgeBaseMapper.selectSegmentsByKbInfoId(7)).thenReturn(rows);
+    }
+
+    @Test
+    void unchangedFileTouchesNothing() {
+        existing("甲", "乙", "丙");
+
+        Map<String, Integer> stats = pipeline.applyIncrementalUpdate(info, List.of("甲", "乙", "丙"));
+
+        assertEquals(Map.of("unchanged", 3, "updated", 0, "inserted", 0, "deleted", 0), stats);
+        assertEquals(List.of(), embedded);
+        assertEquals(List.of(), renumbered);
+        verify(knowledgeBaseMapper, never()).updateKnowledgeBase(any());
+        verify(knowledgeBaseMapper, never()).deleteKnowledgeBasesByUserIdAndKbIds(anyInt(), anyList());
+        verify(semanticAnswerCache).invalidateUser(3);
+    }
+
+    @Test
+    void reorderedAndChangedSegmentsFollowNewPositions() {
+        existing("甲", "乙", "丙");
+
+        // 乙挪到最前，丙改成丁，甲挪到最后
+        Map<String, Integer> stats = pipeline.applyIncrementalUpdate(info, List.of("乙", "丁", "甲"));
+
+        assertEquals(Map.of("unchanged", 2, "updated", 1, "inserted", 0, "deleted", 0), stats);
+        assertEquals(List.of("丁"), embedded);
+        // 先挪到负数序号和临时 kb_id，再改成最终的，两个唯一约束都不会撞
+        assertEquals(List.of(
+                List.of("101:-1:kb#101", "102:-2:kb#102", "100:-3:kb#100"),
+                List.of("101:0:kb_0", "102:1:kb_1", "100:2:kb_2")), renumbered);
+        // 丙那一行原地改成丁，位置是 1
+        assertEquals(List.of("102:1:kb_1:丁"), updated);
+        assertEquals(List.of("0:kb_0", "1:kb_1", "2:kb_2"), table());
+    }
+
+    @Test
+    void insertAtTopShiftsEveryRow() {
+        existing("甲", "乙", "丙");
+
+        Map<String, Integer> stats = pipeline.applyIncrementalUpdate(info, List.of("零", "甲", "乙", "丙"));
+
+        assertEquals(Map.of("unchanged", 3, "updated", 0, "inserted", 1, "deleted", 0), stats);
+        assertEquals(List.of("零"), embedded);
+        assertEquals(List.of("0:kb_0", "1:kb_1", "2:kb_2", "3:kb_3"), table());
+    }
+
+    @Test
+    void appendedSegmentsAreInsertedAtTheirPositions() {
+        existing("甲", "乙");
+
+        Map<String, Integer> stats = pipeline.applyIncrementalUpdate(info, List.of("甲", "乙", "丙", "丁"));
+
+        assertEquals(Map.of("unchanged", 2, "updated", 0, "inserted", 2, "deleted", 0), stats);
+        assertEquals(List.of("丙", "丁"), embedded);
+        verify(knowledgeBaseMapper).batchInsertKnowledgeBase(argThat(batch ->
+                batch.size() == 2
+                        && batch.get(0).getOrdinal() == 2 && "kb_2".equals(batch.get(0).getKbId())
+                        && batch.get(1).getOrdinal() == 3 && "kb_3".equals(batch.get(1).getKbId())));
+    }
+
+    @Test
+    void removedSegmentsAreDeletedAndTheRestCloseTheGap() {
+        existing("甲", "乙", "丙");
+
+        Map<String, Integer> stats = pipeline.applyIncrementalUpdate(info, List.of("丙"));
+
+        assertEquals(Map.of("unchanged", 1, "updated", 0, "inserted", 0, "deleted", 2), stats);
+        verify(knowledgeBaseMapper).deleteKnowledgeBasesByUserIdAndKbIds(eq(3), eq(List.of("kb_0", "kb_1")));
+        assertEquals(List.of(List.of("102:-1:kb#102"), List.of("102:0:kb_0")), renumbered);
+        assertEquals(List.of("0:kb_0"), table());
+    }
+
+    @Test
+    void duplicateContentMatchesRowsInOrder() {
+        existing("甲", "甲", "乙");
+
+        Map<String, Integer> stats = pipeline.applyIncrementalUpdate(info, List.of("甲", "乙", "甲"));
+
+        assertEquals(Map.of("unchanged", 3, "updated", 0, "inserted", 0, "deleted", 0), stats);
+        assertEquals(List.of(), embedded);
+        // 第一个甲不动，乙和第二个甲互换位置
+        assertEquals(List.of(
+                List.of("102:-2:kb#102", "101:-3:kb#101"),
+                List.of("102:1:kb_1", "101:2:kb_2")), renumbered);
+        assertEquals(List.of("0:kb_0", "1:kb_1", "2:kb_2"), table());
+    }
+
+    @Test
+    void embedsBeforeOpeningTheTransaction() {
+        existing("甲", "乙");
+
+        pipeline.applyIncrementalUpdate(info, List.of("甲", "丙"));
+
+        // 远程向量化不占数据库连接：先向量化，再开事务写库，提交后才作废缓存
+        InOrder order = inOrder(embeddingClient, transactionManager, knowledgeBaseMapper, semanticAnswerCache);
+        order.verify(embeddingClient).embedAll(List.of("丙"));
+        order.verify(transactionManager).getTransaction(any());
+        order.verify(knowledgeBaseMapper).updateKnowledgeBase(any());
+        order.verify(transactionManager).commit(any());
+        order.verify(semanticAnswerCache).invalidateUser(3);
+    }
+
+    @Test
+    void tooManySegmentsAreRejectedLikeCreate() {
+        existing("甲");
+
+        List<String> segments = new ArrayList<>();
+        for (int i = 0; i < 11; i++) {
+            segments.add("段落" + i);
+        }
+        assertThrows(IllegalArgumentException.class, () -> pipeline.applyIncrementalUpdate(info, segments));
+        assertEquals(List.of(), embedded);
+        verify(transactionManager, never()).getTransaction(any());
+    }
+
+    @Test
+    void concurrentChangeDuringEmbeddingRollsBack() {
+        // 向量化期间别的请求把甲改成了丁，事务里重新比对时甲没有向量
+        when(knowledgeBaseMapper.selectSegmentsByKbInfoId(7)).thenAnswer(invocation -> {
+            KnowledgeBase row = new KnowledgeBase();
+            row.setId(100);
+            row.setOrdinal(0);
+            row.setKbId("kb_0");
+            row.setContent(embedded.isEmpty() ? "甲" : "丁");
+            return List.of(row);
+        });
+
+        assertThrows(IllegalStateException.class, () -> pipeline.applyIncrementalUpdate(info, List.of("甲", "乙")));
+        verify(transactionManager).rollback(any());
+        verify(knowledgeBaseMapper, never()).updateKnowledgeBase(any());
+        verify(semanticAnswerCache, never()).invalidateUser(anyInt());
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.douyinlive.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Qwen Token 计数：字节级 BPE 的合并顺序、词表加载和没有词表时的估算
+ */
+class QwenTokenizerTest {
+
+    // 词表里的键是字节串按 ISO-8859-1 存成的字符串
+    private static String bytes(String text) {
+        return new String(text.getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1);
+    }
+
+    @Test
+    void wholePieceInVocabIsOneToken() {
+        assertEquals(1, QwenTokenizer.bpeCount("abcd", Map.of("abcd", 9)));
+    }
+
+    @Test
+    void lowestRankIsMergedFirst() {
+        // 先合 bc（排名 0）再合 bcd，得到 a + bcd；要是先合 ab 就只能剩 ab + c + d
+        Map<String, Integer> vocab = Map.of("ab", 1, "bc", 0, "bcd", 2);
+
+        assertEquals(2, QwenTokenizer.bpeCount("abcd", vocab));
+    }
+
+    @Test
+    void unmergeablePieceCountsEveryByte() {
+        assertEquals(3, QwenTokenizer.bpeCount("中", Map.of()));
+        assertEquals(1, QwenTokenizer.bpeCount("中", Map.of(bytes("中"), 5)));
+        // 中 的三个字节按 前两字节、整字 的顺序合并，文 没有词条还是三个字节
+        assertEquals(4, QwenTokenizer.bpeCount("中文", Map.of(bytes("中").substring(0, 2), 3, bytes("中"), 5)));
+    }
+
+    @Test
+    void countUsesLoadedVocab(@TempDir Path dir) throws Exception {
+        Path vocab = dir.resolve("qwen.tiktoken");
+        Base64.Encoder encoder = Base64.getEncoder();
+        Files.write(vocab, List.of(
+                encoder.encodeToString("a".getBytes(StandardCharsets.UTF_8)) + " 0",
+                encoder.encodeToString("b".getBytes(StandardCharsets.UTF_8)) + " 1",
+                encoder.encodeToString("ab".getBytes(StandardCharsets.UTF_8)) + " 2"));
+        QwenTokenizer tokenizer = new QwenTokenizer();
+        ReflectionTestUtils.setField(tokenizer, "vocabPath", vocab.toString());
+        tokenizer.init();
+
+        assertTrue(tokenizer.isExact());
+        // 预切分成 "ab" 和 " ab"：前者整段命中，后者合成 " " + "ab"
+        assertEquals(3, tokenizer.count("ab ab"));
+    }
+
+    @Test
+    void countEstimatesWithoutVocab() {
+        QwenTokenizer tokenizer = new QwenTokenizer();
+        ReflectionTestUtils.setField(tokenizer, "vocabPath", "");
+        tokenizer.init();
+
+        assertFalse(tokenizer.isExact());
+        assertEquals(0, tokenizer.count(""));
+        assertEquals(3, QwenTokenizer.estimate("你好世界"));
+        assertEquals(2, QwenTokenizer.estimate("hello"));
+        // 数字一位一段，每段一个
+        assertEquals(3, tokenizer.count("123"));
+    }
+}
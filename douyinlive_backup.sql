@@ -46,6 +46,22 @@ $$;
 
 ALTER FUNCTION public.update_timestamp() OWNER TO postgres;
 
+--
+-- Name: notify_model_config_changed(); Type: FUNCTION; Schema: public; Owner: postgres
+--
+
+CREATE FUNCTION public.notify_model_config_changed() RETURNS trigger
+    LANGUAGE plpgsql
+    AS $$
+BEGIN
+    PERFORM pg_notify('model_config_changed', COALESCE(NEW.id, OLD.id)::text);
+    RETURN NULL;
+END;
+$$;
+
+
+ALTER FUNCTION public.notify_model_config_changed() OWNER TO postgres;
+
 SET default_tablespace = '';
 
 SET default_table_access_method = heap;
@@ -75,7 +91,9 @@ CREATE TABLE public.agents (
     created_at timestamp without time zone NOT NULL,
     updated_at timestamp without time zone NOT NULL,
     kb_ids text,
-    voice character varying(100)
+    voice character varying(100),
+    vector_ef_search integer,
+    vector_probes integer
 );
 
 
@@ -103,6 +121,21 @@ ALTER SEQUENCE public.agents_id_seq OWNER TO postgres;
 ALTER SEQUENCE public.agents_id_seq OWNED BY public.agents.id;
 
 
+--
+-- Name: embedding_cache; Type: TABLE; Schema: public; Owner: postgres
+--
+
+CREATE TABLE public.embedding_cache (
+    content_hash character(64) NOT NULL,
+    model character varying(255) NOT NULL,
+    dimension integer NOT NULL,
+    embedding public.vector NOT NULL,
+    created_at timestamp without time zone NOT NULL
+);
+
+
+ALTER TABLE public.embedding_cache OWNER TO postgres;
+
 --
 -- Name: knowledge_base; Type: TABLE; Schema: public; Owner: postgres
 --
@@ -115,7 +148,9 @@ CREATE TABLE public.knowledge_base (
     embedding public.vector(1024),
     created_at timestamp without time zone NOT NULL,
     updated_at timestamp without time zone NOT NULL,
-    field_type text
+    field_type text,
+    kb_info_id integer,
+    ordinal integer
 );
 
 
@@ -143,6 +178,88 @@ ALTER SEQUENCE public.knowledge_base_id_seq OWNER TO postgres;
 ALTER SEQUENCE public.knowledge_base_id_seq OWNED BY public.knowledge_base.id;
 
 
+--
+-- Name: knowledge_base_info; Type: TABLE; Schema: public; Owner: postgres
+--
+
+CREATE TABLE public.knowledge_base_info (
+    id integer NOT NULL,
+    user_id integer NOT NULL,
+    kb_id character varying(255) NOT NULL,
+    created_at timestamp without time zone NOT NULL,
+    updated_at timestamp without time zone NOT NULL
+);
+
+
+ALTER TABLE public.knowledge_base_info OWNER TO postgres;
+
+--
+-- Name: knowledge_base_info_id_seq; Type: SEQUENCE; Schema: public; Owner: postgres
+--
+
+CREATE SEQUENCE public.knowledge_base_info_id_seq
+    AS integer
+    START WITH 1
+    INCREMENT BY 1
+    NO MINVALUE
+    NO MAXVALUE
+    CACHE 1;
+
+
+ALTER SEQUENCE public.knowledge_base_info_id_seq OWNER TO postgres;
+
+--
+-- Name: knowledge_base_info_id_seq; Type: SEQUENCE OWNED BY; Schema: public; Owner: postgres
+--
+
+ALTER SEQUENCE public.knowledge_base_info_id_seq OWNED BY public.knowledge_base_info.id;
+
+
+--
+-- Name: knowledge_base_job; Type: TABLE; Schema: public; Owner: postgres
+--
+
+CREATE TABLE public.knowledge_base_job (
+    id character varying(36) NOT NULL,
+    user_id integer NOT NULL,
+    kb_id character varying(255) NOT NULL,
+    file_name character varying(255) NOT NULL,
+    file_path text NOT NULL,
+    status character varying(20) DEFAULT 'PENDING'::character varying NOT NULL,
+    segments_parsed integer DEFAULT 0 NOT NULL,
+    segments_embedded integer DEFAULT 0 NOT NULL,
+    segments_stored integer DEFAULT 0 NOT NULL,
+    message text,
+    created_at timestamp without time zone NOT NULL,
+    updated_at timestamp without time zone NOT NULL
+);
+
+
+ALTER TABLE public.knowledge_base_job OWNER TO postgres;
+
+--
+-- Name: live_room_binding; Type: TABLE; Schema: public; Owner: postgres
+--
+
+CREATE TABLE public.live_room_binding (
+    user_id integer NOT NULL,
+    agent_id integer NOT NULL,
+    voice_config_id character varying(50),
+    tts_enabled boolean DEFAULT true NOT NULL,
+    enabled boolean DEFAULT false NOT NULL,
+    created_at timestamp without time zone NOT NULL,
+    updated_at timestamp without time zone NOT NULL
+);
+
+
+ALTER TABLE public.live_room_binding OWNER TO postgres;
+
+--
+-- Name: TABLE live_room_binding; Type: COMMENT; Schema: public; Owner: postgres
+--
+
+COMMENT ON TABLE public.live_room_binding IS '直播间绑定表，服务端自动回复用的智能体和语音配置，每个用户一行';
+
 --
 -- Name: model_config; Type: TABLE; Schema: public; Owner: postgres
 --
@@ -190,6 +307,55 @@ ALTER SEQUENCE public.model_config_id_seq OWNER TO postgres;
 ALTER SEQUENCE public.model_config_id_seq OWNED BY public.model_config.id;
 
 
+--
+-- Name: model_endpoint; Type: TABLE; Schema: public; Owner: postgres
+--
+
+CREATE TABLE public.model_endpoint (
+    id integer NOT NULL,
+    role character varying(20) NOT NULL,
+    url character varying(255) NOT NULL,
+    model character varying(100) NOT NULL,
+    api_key character varying(100),
+    priority integer DEFAULT 0 NOT NULL,
+    backup boolean DEFAULT false NOT NULL,
+    enabled boolean DEFAULT true NOT NULL,
+    created_at timestamp without time zone DEFAULT CURRENT_TIMESTAMP,
+    updated_at timestamp without time zone DEFAULT CURRENT_TIMESTAMP,
+    CONSTRAINT model_endpoint_role_check CHECK (((role)::text = ANY ((ARRAY['chat'::character varying, 'embedding'::character varying, 'live'::character varying, 'normalize'::character varying])::text[])))
+);
+
+
+ALTER TABLE public.model_endpoint OWNER TO postgres;
+
+--
+-- Name: TABLE model_endpoint; Type: COMMENT; Schema: public; Owner: postgres
+--
+
+COMMENT ON TABLE public.model_endpoint IS '模型的额外接入点，和 model_config 里的主接入点一起按延迟路由、对冲请求、熔断切换';
+
+--
+-- Name: model_endpoint_id_seq; Type: SEQUENCE; Schema: public; Owner: postgres
+--
+
+CREATE SEQUENCE public.model_endpoint_id_seq
+    AS integer
+    START WITH 1
+    INCREMENT BY 1
+    NO MINVALUE
+    NO MAXVALUE
+    CACHE 1;
+
+
+ALTER SEQUENCE public.model_endpoint_id_seq OWNER TO postgres;
+
+--
+-- Name: model_endpoint_id_seq; Type: SEQUENCE OWNED BY; Schema: public; Owner: postgres
+--
+
+ALTER SEQUENCE public.model_endpoint_id_seq OWNED BY public.model_endpoint.id;
+
+
 --
 -- Name: questions_id_seq; Type: SEQUENCE; Schema: public; Owner: postgres
 --
@@ -443,6 +609,13 @@ ALTER TABLE ONLY public.agents ALTER COLUMN id SET DEFAULT nextval('public.agent
 ALTER TABLE ONLY public.knowledge_base ALTER COLUMN id SET DEFAULT nextval('public.knowledge_base_id_seq'::regclass);
 
 
+--
+-- Name: knowledge_base_info id; Type: DEFAULT; Schema: public; Owner: postgres
+--
+
+ALTER TABLE ONLY public.knowledge_base_info ALTER COLUMN id SET DEFAULT nextval('public.knowledge_base_info_id_seq'::regclass);
+
+
 --
 -- Name: model_config id; Type: DEFAULT; Schema: public; Owner: postgres
 --
@@ -450,6 +623,13 @@ ALTER TABLE ONLY public.knowledge_base ALTER COLUMN id SET DEFAULT nextval('publ
 ALTER TABLE ONLY public.model_config ALTER COLUMN id SET DEFAULT nextval('public.model_config_id_seq'::regclass);
 
 
+--
+-- Name: model_endpoint id; Type: DEFAULT; Schema: public; Owner: postgres
+--
+
+ALTER TABLE ONLY public.model_endpoint ALTER COLUMN id SET DEFAULT nextval('public.model_endpoint_id_seq'::regclass);
+
+
 --
 -- Name: user id; Type: DEFAULT; Schema: public; Owner: postgres
 --
@@ -587,6 +767,13 @@ SELECT pg_catalog.setval('public.knowledge_base_id_seq', 704, true);
 SELECT pg_catalog.setval('public.model_config_id_seq', 1, true);
 
 
+--
+-- Name: model_endpoint_id_seq; Type: SEQUENCE SET; Schema: public; Owner: postgres
+--
+
+SELECT pg_catalog.setval('public.model_endpoint_id_seq', 1, false);
+
+
 --
 -- Name: questions_id_seq; Type: SEQUENCE SET; Schema: public; Owner: postgres
 --
@@ -609,6 +796,14 @@ ALTER TABLE ONLY public.agents
     ADD CONSTRAINT agents_pkey PRIMARY KEY (id);
 
 
+--
+-- Name: embedding_cache embedding_cache_pkey; Type: CONSTRAINT; Schema: public; Owner: postgres
+--
+
+ALTER TABLE ONLY public.embedding_cache
+    ADD CONSTRAINT embedding_cache_pkey PRIMARY KEY (content_hash, model, dimension);
+
+
 --
 -- Name: knowledge_base knowledge_base_kb_id_key; Type: CONSTRAINT; Schema: public; Owner: postgres
 --
@@ -625,6 +820,38 @@ ALTER TABLE ONLY public.knowledge_base
     ADD CONSTRAINT knowledge_base_pkey PRIMARY KEY (id);
 
 
+--
+-- Name: knowledge_base_info knowledge_base_info_pkey; Type: CONSTRAINT; Schema: public; Owner: postgres
+--
+
+ALTER TABLE ONLY public.knowledge_base_info
+    ADD CONSTRAINT knowledge_base_info_pkey PRIMARY KEY (id);
+
+
+--
+-- Name: knowledge_base_info knowledge_base_info_user_id_kb_id_key; Type: CONSTRAINT; Schema: public; Owner: postgres
+--
+
+ALTER TABLE ONLY public.knowledge_base_info
+    ADD CONSTRAINT knowledge_base_info_user_id_kb_id_key UNIQUE (user_id, kb_id);
+
+
+--
+-- Name: knowledge_base_job knowledge_base_job_pkey; Type: CONSTRAINT; Schema: public; Owner: postgres
+--
+
+ALTER TABLE ONLY public.knowledge_base_job
+    ADD CONSTRAINT knowledge_base_job_pkey PRIMARY KEY (id);
+
+
+--
+-- Name: live_room_binding live_room_binding_pkey; Type: CONSTRAINT; Schema: public; Owner: postgres
+--
+
+ALTER TABLE ONLY public.live_room_binding
+    ADD CONSTRAINT live_room_binding_pkey PRIMARY KEY (user_id);
+
+
 --
 -- Name: model_config model_config_pkey; Type: CONSTRAINT; Schema: public; Owner: postgres
 --
@@ -633,6 +860,14 @@ ALTER TABLE ONLY public.model_config
     ADD CONSTRAINT model_config_pkey PRIMARY KEY (id);
 
 
+--
+-- Name: model_endpoint model_endpoint_pkey; Type: CONSTRAINT; Schema: public; Owner: postgres
+--
+
+ALTER TABLE ONLY public.model_endpoint
+    ADD CONSTRAINT model_endpoint_pkey PRIMARY KEY (id);
+
+
 --
 -- Name: agents unique_user_agent_name; Type: CONSTRAINT; Schema: public; Owner: postgres
 --
@@ -692,7 +927,35 @@ CREATE INDEX idx_knowledge_base_embedding ON public.knowledge_base USING ivfflat
 -- Name: idx_knowledge_base_user_kb; Type: INDEX; Schema: public; Owner: postgres
 --
 
-CREATE INDEX idx_knowledge_base_user_kb ON public.knowledge_base USING btree (user_id, kb_id);
+CREATE INDEX idx_knowledge_base_user_kb ON public.knowledge_base USING btree (user_id, kb_id) INCLUDE (created_at, updated_at);
+
+
+--
+-- Name: idx_knowledge_base_info_ordinal; Type: INDEX; Schema: public; Owner: postgres
+--
+
+CREATE UNIQUE INDEX idx_knowledge_base_info_ordinal ON public.knowledge_base USING btree (kb_info_id, ordinal);
+
+
+--
+-- Name: idx_knowledge_base_unlinked; Type: INDEX; Schema: public; Owner: postgres
+--
+
+CREATE INDEX idx_knowledge_base_unlinked ON public.knowledge_base USING btree (id) WHERE (kb_info_id IS NULL);
+
+
+--
+-- Name: idx_knowledge_base_job_status; Type: INDEX; Schema: public; Owner: postgres
+--
+
+CREATE INDEX idx_knowledge_base_job_status ON public.knowledge_base_job USING btree (status, created_at);
+
+
+--
+-- Name: idx_knowledge_base_job_user_kb; Type: INDEX; Schema: public; Owner: postgres
+--
+
+CREATE INDEX idx_knowledge_base_job_user_kb ON public.knowledge_base_job USING btree (user_id, kb_id);
 
 
 --
@@ -702,6 +965,20 @@ CREATE INDEX idx_knowledge_base_user_kb ON public.knowledge_base USING btree (us
 CREATE TRIGGER update_users_timestamp BEFORE UPDATE ON public."user" FOR EACH ROW EXECUTE FUNCTION public.update_timestamp();
 
 
+--
+-- Name: model_config model_config_changed; Type: TRIGGER; Schema: public; Owner: postgres
+--
+
+CREATE TRIGGER model_config_changed AFTER INSERT OR DELETE OR UPDATE ON public.model_config FOR EACH ROW EXECUTE FUNCTION public.notify_model_config_changed();
+
+
+--
+-- Name: model_endpoint model_endpoint_changed; Type: TRIGGER; Schema: public; Owner: postgres
+--
+
+CREATE TRIGGER model_endpoint_changed AFTER INSERT OR DELETE OR UPDATE ON public.model_endpoint FOR EACH ROW EXECUTE FUNCTION public.notify_model_config_changed();
+
+
 --
 -- Name: agents agents_user_id_fkey; Type: FK CONSTRAINT; Schema: public; Owner: postgres
 --
@@ -726,6 +1003,46 @@ ALTER TABLE ONLY public.knowledge_base
     ADD CONSTRAINT knowledge_base_user_id_fkey FOREIGN KEY (user_id) REFERENCES public."user"(id) ON DELETE CASCADE;
 
 
+--
+-- Name: knowledge_base knowledge_base_kb_info_id_fkey; Type: FK CONSTRAINT; Schema: public; Owner: postgres
+--
+
+ALTER TABLE ONLY public.knowledge_base
+    ADD CONSTRAINT knowledge_base_kb_info_id_fkey FOREIGN KEY (kb_info_id) REFERENCES public.knowledge_base_info(id) ON DELETE CASCADE;
+
+
+--
+-- Name: knowledge_base_info knowledge_base_info_user_id_fkey; Type: FK CONSTRAINT; Schema: public; Owner: postgres
+--
+
+ALTER TABLE ONLY public.knowledge_base_info
+    ADD CONSTRAINT knowledge_base_info_user_id_fkey FOREIGN KEY (user_id) REFERENCES public."user"(id) ON DELETE CASCADE;
+
+
+--
+-- Name: knowledge_base_job knowledge_base_job_user_id_fkey; Type: FK CONSTRAINT; Schema: public; Owner: postgres
+--
+
+ALTER TABLE ONLY public.knowledge_base_job
+    ADD CONSTRAINT knowledge_base_job_user_id_fkey FOREIGN KEY (user_id) REFERENCES public."user"(id) ON DELETE CASCADE;
+
+
+--
+-- Name: live_room_binding live_room_binding_user_id_fkey; Type: FK CONSTRAINT; Schema: public; Owner: postgres
+--
+
+ALTER TABLE ONLY public.live_room_binding
+    ADD CONSTRAINT live_room_binding_user_id_fkey FOREIGN KEY (user_id) REFERENCES public."user"(id) ON DELETE CASCADE;
+
+
+--
+-- Name: live_room_binding live_room_binding_agent_id_fkey; Type: FK CONSTRAINT; Schema: public; Owner: postgres
+--
+
+ALTER TABLE ONLY public.live_room_binding
+    ADD CONSTRAINT live_room_binding_agent_id_fkey FOREIGN KEY (agent_id) REFERENCES public.agents(id) ON DELETE CASCADE;
+
+
 --
 -- PostgreSQL database dump complete
 --